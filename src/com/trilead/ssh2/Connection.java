@@ -16,6 +16,7 @@ import com.trilead.ssh2.crypto.CryptoWishList;
 import com.trilead.ssh2.crypto.cipher.BlockCipherFactory;
 import com.trilead.ssh2.crypto.digest.MAC;
 import com.trilead.ssh2.log.Logger;
+import com.trilead.ssh2.metrics.ConnectionMetrics;
 import com.trilead.ssh2.packets.PacketIgnore;
 import com.trilead.ssh2.transport.KexManager;
 import com.trilead.ssh2.transport.TransportManager;
@@ -104,6 +105,8 @@ public class Connection
 
 	private boolean tcpNoDelay = false;
 
+	private KeepAlive keepAlive = null;
+
 	private ProxyData proxyData = null;
 
 	private Vector<ConnectionMonitor> connectionMonitors = new Vector<ConnectionMonitor>();
@@ -575,6 +578,22 @@ public class Connection
 			tm.setConnectionMonitors(connectionMonitors);
 	}
 
+	/**
+	 * Remove a {@link ConnectionMonitor} that was added with
+	 * {@link #addConnectionMonitor(ConnectionMonitor)}, e.g. when one of
+	 * several users of a connection is done with it.
+	 * 
+	 * @param cmon
+	 *            the monitor to remove.
+	 */
+	public synchronized void removeConnectionMonitor(ConnectionMonitor cmon)
+	{
+		connectionMonitors.removeElement(cmon);
+
+		if (tm != null)
+			tm.setConnectionMonitors(connectionMonitors);
+	}
+
 	/**
 	 * Controls whether compression is used on the link or not.
 	 * <p>
@@ -603,6 +622,12 @@ public class Connection
 
 	private void close(Throwable t, boolean hard)
 	{
+		if (keepAlive != null)
+		{
+			keepAlive.stop();
+			keepAlive = null;
+		}
+
 		if (cm != null)
 			cm.closeAllChannels();
 
@@ -1086,6 +1111,22 @@ public class Connection
 		return tm.getConnectionInfo(1);
 	}
 
+	/**
+	 * Returns the live counters and histograms of this connection (bytes,
+	 * packets, crypto timing, key exchange duration, ping round trip times and
+	 * window stalls). Can be called as soon as the connection has been
+	 * established, and remains valid after it has been closed.
+	 * 
+	 * @return A {@link ConnectionMetrics} object.
+	 */
+	public synchronized ConnectionMetrics getMetrics()
+	{
+		if (tm == null)
+			throw new IllegalStateException(
+					"Cannot get metrics of connection, you need to establish a connection first.");
+		return tm.getMetrics();
+	}
+
 	/**
 	 * After a successful connect, one has to authenticate oneself. This method
 	 * can be used to tell which authentication methods are supported by the
@@ -1426,6 +1467,49 @@ public class Connection
 			tm.setTcpNoDelay(enable);
 	}
 
+	/**
+	 * Check that the server is alive while the connection is idle, so that a
+	 * connection that silently died (e.g., when a NAT router forgot about it)
+	 * is noticed without sending data.
+	 * <p>
+	 * After no packet arrived for the given interval, 'keepalive@openssh.com'
+	 * global requests are sent. If the server does not answer a few of them,
+	 * the connection is closed and the connection monitors are told why. This
+	 * happens at most four intervals after the last packet from the server.
+	 * The round trip times of the keepalives are recorded in the
+	 * {@link #getMetrics() metrics} of the connection.
+	 * <p>
+	 * Note: Works only after one has passed successfully the authentication
+	 * step.
+	 * 
+	 * @param interval
+	 *            idle time in milliseconds before checking the server, or 0
+	 *            to stop checking.
+	 */
+	public synchronized void setKeepAliveInterval(long interval)
+	{
+		if (tm == null)
+			throw new IllegalStateException("You need to establish a connection first.");
+
+		if (!authenticated)
+			throw new IllegalStateException("The connection is not authenticated.");
+
+		if (interval < 0)
+			throw new IllegalArgumentException("The interval must not be negative.");
+
+		if (keepAlive != null)
+		{
+			keepAlive.stop();
+			keepAlive = null;
+		}
+
+		if (interval > 0)
+		{
+			keepAlive = new KeepAlive(tm, cm, interval);
+			keepAlive.start();
+		}
+	}
+
 	/**
 	 * Used to tell the library that the connection shall be established through
 	 * a proxy server. It only makes sense to call this method before calling
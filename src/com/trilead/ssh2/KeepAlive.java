@@ -0,0 +1,139 @@
+
+package com.trilead.ssh2;
+
+import java.io.IOException;
+
+import com.trilead.ssh2.channel.ChannelManager;
+import com.trilead.ssh2.transport.TransportManager;
+import com.trilead.ssh2.util.TimeoutService;
+import com.trilead.ssh2.util.TimeoutService.TimeoutToken;
+
+/**
+ * KeepAlive. Checks that the server of a connection is alive, see
+ * {@link Connection#setKeepAliveInterval(long)}.
+ * <p>
+ * Any packet from the server counts as a sign of life, so keepalives are
+ * only sent after the connection was idle for the interval. An unanswered
+ * keepalive is repeated after a few round trip times, and after
+ * {@link #MAX_MISSED} of them the connection is closed. The monitors of the
+ * connection are then told the reason. Hence a dead server is noticed at
+ * most <code>(MAX_MISSED + 1) * interval</code> after its last packet.
+ *
+ * @version $Id$
+ */
+class KeepAlive implements Runnable
+{
+	/** Unanswered keepalives after which the server is considered dead. */
+	static final int MAX_MISSED = 3;
+
+	/** Shortest time to wait for the answer to a keepalive. */
+	static final long MIN_REPLY_TIMEOUT = 2000;
+
+	private final TransportManager tm;
+	private final ChannelManager cm;
+	private final long interval;
+
+	private TimeoutToken token;
+	private boolean stopped = false;
+
+	private long packetsReceived;
+	private long lastActivity;
+	private int missed = 0;
+
+	KeepAlive(TransportManager tm, ChannelManager cm, long interval)
+	{
+		this.tm = tm;
+		this.cm = cm;
+		this.interval = interval;
+	}
+
+	synchronized void start()
+	{
+		packetsReceived = tm.getMetrics().packetsReceived.get();
+		lastActivity = System.currentTimeMillis();
+		token = TimeoutService.addTimeoutHandler(lastActivity + interval, this);
+	}
+
+	synchronized void stop()
+	{
+		stopped = true;
+
+		if (token != null)
+		{
+			TimeoutService.cancelTimeoutHandler(token);
+			token = null;
+		}
+	}
+
+	/**
+	 * @return time to wait for the answer to a keepalive, a few round trips
+	 *         but no longer than the interval
+	 */
+	synchronized long getReplyTimeout()
+	{
+		long rtt = cm.getKeepaliveRoundTripTime() / 1000000;
+		return Math.min(interval, Math.max(MIN_REPLY_TIMEOUT, 4 * rtt));
+	}
+
+	public void run()
+	{
+		final Throwable reason;
+
+		synchronized (this)
+		{
+			token = null;
+
+			if (stopped)
+				return;
+
+			long now = System.currentTimeMillis();
+			long packets = tm.getMetrics().packetsReceived.get();
+
+			if (packets != packetsReceived)
+			{
+				packetsReceived = packets;
+				lastActivity = now;
+				missed = 0;
+			}
+
+			if (missed == 0 && now - lastActivity < interval)
+			{
+				token = TimeoutService.addTimeoutHandler(lastActivity + interval, this);
+				return;
+			}
+
+			if (missed < MAX_MISSED)
+			{
+				try
+				{
+					/* An unanswered global request of someone else is as good */
+					cm.requestKeepalive();
+				}
+				catch (IOException e)
+				{
+					/* The connection is closed already */
+					stopped = true;
+					return;
+				}
+
+				missed++;
+				token = TimeoutService.addTimeoutHandler(now + getReplyTimeout(), this);
+				return;
+			}
+
+			stopped = true;
+			reason = new IOException("The server did not respond for " + (now - lastActivity) / 1000 + " seconds");
+		}
+
+		/* Closing informs the monitors, which must not hold up other timeouts */
+		Thread closer = new Thread()
+		{
+			public void run()
+			{
+				tm.close(reason, false);
+			}
+		};
+		closer.setDaemon(true);
+		closer.start();
+	}
+}
@@ -12,15 +12,14 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.SecureRandom;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Vector;
 
 import com.trilead.ssh2.crypto.Base64;
 import com.trilead.ssh2.crypto.digest.Digest;
-import com.trilead.ssh2.crypto.digest.HMAC;
-import com.trilead.ssh2.crypto.digest.MD5;
-import com.trilead.ssh2.crypto.digest.SHA1;
+import com.trilead.ssh2.crypto.digest.DigestFactory;
 import com.trilead.ssh2.signature.DSAPublicKey;
 import com.trilead.ssh2.signature.DSASHA1Verify;
 import com.trilead.ssh2.signature.RSAPublicKey;
@@ -61,8 +60,25 @@ public class KnownHosts
 		}
 	}
 
+	/* All entries, in the order they were added. Also the lock for the indexes below. */
 	private LinkedList publicKeys = new LinkedList();
 
+	/* Lower case plain hostname pattern -> LinkedList of entries */
+	private HashMap exactIndex = new HashMap();
+
+	/* Entries which also have to be checked by pattern matching */
+	private LinkedList wildcardEntries = new LinkedList();
+	private LinkedList hashedEntries = new LinkedList();
+	private LinkedList negatedEntries = new LinkedList();
+
+	/* Lower case hostname -> Vector of the hashed entries that match it */
+	private HashMap hashedCache = new HashMap();
+
+	private static final int HASHED_CACHE_SIZE = 256;
+
+	/* Hashed hostnames use HMAC-SHA1, keyed with a salt as long as its output */
+	private static final int SHA1_LENGTH = DigestFactory.createDigest("SHA1").getDigestLength();
+
 	public KnownHosts()
 	{
 	}
@@ -97,24 +113,54 @@ public class KnownHosts
 		{
 			RSAPublicKey rpk = RSASHA1Verify.decodeSSHRSAPublicKey(serverHostKey);
 
-			synchronized (publicKeys)
-			{
-				publicKeys.add(new KnownHostsEntry(hostnames, rpk));
-			}
+			addEntry(new KnownHostsEntry(hostnames, rpk));
 		}
 		else if ("ssh-dss".equals(serverHostKeyAlgorithm))
 		{
 			DSAPublicKey dpk = DSASHA1Verify.decodeSSHDSAPublicKey(serverHostKey);
 
-			synchronized (publicKeys)
-			{
-				publicKeys.add(new KnownHostsEntry(hostnames, dpk));
-			}
+			addEntry(new KnownHostsEntry(hostnames, dpk));
 		}
 		else
 			throw new IOException("Unknwon host key type (" + serverHostKeyAlgorithm + ")");
 	}
 
+	/**
+	 * Removes all entries which consist of exactly the given (plain) hostname,
+	 * e.g., before adding the new key of a host with {@link #addHostkey}.
+	 * Entries with further patterns are left alone.
+	 * 
+	 * @param hostname
+	 */
+	public void removeHostkeys(String hostname)
+	{
+		String lower = hostname.toLowerCase();
+
+		synchronized (publicKeys)
+		{
+			LinkedList entries = (LinkedList) exactIndex.get(lower);
+
+			if (entries == null)
+				return;
+
+			Iterator i = entries.iterator();
+
+			while (i.hasNext())
+			{
+				KnownHostsEntry ke = (KnownHostsEntry) i.next();
+
+				if (ke.patterns.length != 1)
+					continue;
+
+				i.remove();
+				publicKeys.remove(ke);
+			}
+
+			if (entries.size() == 0)
+				exactIndex.remove(lower);
+		}
+	}
+
 	/**
 	 * Parses the given known_hosts data and adds entries to the database.
 	 * 
@@ -146,9 +192,7 @@ public class KnownHosts
 	 */
 	public static final String createHashedHostname(String hostname)
 	{
-		SHA1 sha1 = new SHA1();
-
-		byte[] salt = new byte[sha1.getDigestLength()];
+		byte[] salt = new byte[SHA1_LENGTH];
 
 		new SecureRandom().nextBytes(salt);
 
@@ -162,12 +206,10 @@ public class KnownHosts
 
 	private static final byte[] hmacSha1Hash(byte[] salt, String hostname)
 	{
-		SHA1 sha1 = new SHA1();
-
-		if (salt.length != sha1.getDigestLength())
+		if (salt.length != SHA1_LENGTH)
 			throw new IllegalArgumentException("Salt has wrong length (" + salt.length + ")");
 
-		HMAC hmac = new HMAC(sha1, salt, salt.length);
+		Digest hmac = DigestFactory.createHMAC("SHA1", salt, SHA1_LENGTH);
 
 		try
 		{
@@ -212,9 +254,7 @@ public class KnownHosts
 			return false;
 		}
 
-		SHA1 sha1 = new SHA1();
-
-		if (salt.length != sha1.getDigestLength())
+		if ((salt.length != SHA1_LENGTH) || (hash.length != SHA1_LENGTH))
 			return false;
 
 		byte[] dig = hmacSha1Hash(salt, hostname);
@@ -226,20 +266,157 @@ public class KnownHosts
 		return true;
 	}
 
-	private int checkKey(String remoteHostname, Object remoteKey)
+	private void addEntry(KnownHostsEntry ke)
 	{
-		int result = HOSTKEY_IS_NEW;
+		boolean negated = false;
+		boolean wildcard = false;
+		boolean hashed = false;
+
+		for (int k = 0; k < ke.patterns.length; k++)
+		{
+			String pattern = ke.patterns[k];
+
+			if ((pattern == null) || (pattern.length() == 0))
+				continue;
+
+			if (pattern.charAt(0) == '!')
+				negated = true;
+			else if (pattern.charAt(0) == '|')
+				hashed = true;
+			else if ((pattern.indexOf('?') != -1) || (pattern.indexOf('*') != -1))
+				wildcard = true;
+		}
 
 		synchronized (publicKeys)
 		{
-			Iterator i = publicKeys.iterator();
-			
+			publicKeys.add(ke);
+
+			/* A negation can veto any other pattern, so such entries are always checked in full */
+
+			if (negated)
+			{
+				negatedEntries.add(ke);
+				return;
+			}
+
+			for (int k = 0; k < ke.patterns.length; k++)
+			{
+				String pattern = ke.patterns[k];
+
+				if ((pattern == null) || (pattern.length() == 0) || (pattern.charAt(0) == '|'))
+					continue;
+
+				if ((pattern.indexOf('?') != -1) || (pattern.indexOf('*') != -1))
+					continue;
+
+				String lower = pattern.toLowerCase();
+				LinkedList entries = (LinkedList) exactIndex.get(lower);
+
+				if (entries == null)
+				{
+					entries = new LinkedList();
+					exactIndex.put(lower, entries);
+				}
+
+				entries.add(ke);
+			}
+
+			if (wildcard)
+				wildcardEntries.add(ke);
+
+			if (hashed)
+			{
+				hashedEntries.add(ke);
+				hashedCache.clear();
+			}
+		}
+	}
+
+	private static void addUnique(Vector v, Object o)
+	{
+		if (v.contains(o) == false)
+			v.addElement(o);
+	}
+
+	/**
+	 * Finds all entries matching the given hostname. Plain hostnames are looked
+	 * up in the index, the (salted) hashes are only computed once per hostname.
+	 * The caller must hold the lock on <code>publicKeys</code>.
+	 */
+	private Vector findEntries(String hostname)
+	{
+		String lower = hostname.toLowerCase();
+		Vector result = new Vector();
+
+		LinkedList exact = (LinkedList) exactIndex.get(lower);
+
+		if (exact != null)
+		{
+			Iterator i = exact.iterator();
+
+			while (i.hasNext())
+				addUnique(result, i.next());
+		}
+
+		Iterator i = wildcardEntries.iterator();
+
+		while (i.hasNext())
+		{
+			KnownHostsEntry ke = (KnownHostsEntry) i.next();
+
+			if (hostnameMatches(ke.patterns, hostname))
+				addUnique(result, ke);
+		}
+
+		Vector hashed = (Vector) hashedCache.get(lower);
+
+		if (hashed == null)
+		{
+			hashed = new Vector();
+
+			i = hashedEntries.iterator();
+
 			while (i.hasNext())
 			{
 				KnownHostsEntry ke = (KnownHostsEntry) i.next();
 
-				if (hostnameMatches(ke.patterns, remoteHostname) == false)
-					continue;
+				if (hostnameMatches(ke.patterns, hostname))
+					hashed.addElement(ke);
+			}
+
+			if (hashedCache.size() >= HASHED_CACHE_SIZE)
+				hashedCache.clear();
+
+			hashedCache.put(lower, hashed);
+		}
+
+		for (int k = 0; k < hashed.size(); k++)
+			addUnique(result, hashed.elementAt(k));
+
+		i = negatedEntries.iterator();
+
+		while (i.hasNext())
+		{
+			KnownHostsEntry ke = (KnownHostsEntry) i.next();
+
+			if (hostnameMatches(ke.patterns, hostname))
+				addUnique(result, ke);
+		}
+
+		return result;
+	}
+
+	private int checkKey(String remoteHostname, Object remoteKey)
+	{
+		int result = HOSTKEY_IS_NEW;
+
+		synchronized (publicKeys)
+		{
+			Vector entries = findEntries(remoteHostname);
+
+			for (int i = 0; i < entries.size(); i++)
+			{
+				KnownHostsEntry ke = (KnownHostsEntry) entries.elementAt(i);
 
 				boolean res = matchKeys(ke.key, remoteKey);
 
@@ -258,17 +435,10 @@ public class KnownHosts
 
 		synchronized (publicKeys)
 		{
-			Iterator i = publicKeys.iterator();
+			Vector entries = findEntries(hostname);
 
-			while (i.hasNext())
-			{
-				KnownHostsEntry ke = (KnownHostsEntry) i.next();
-
-				if (hostnameMatches(ke.patterns, hostname) == false)
-					continue;
-
-				keys.addElement(ke.key);
-			}
+			for (int i = 0; i < entries.size(); i++)
+				keys.addElement(((KnownHostsEntry) entries.elementAt(i)).key);
 		}
 
 		return keys;
@@ -711,11 +881,11 @@ public class KnownHosts
 
 		if ("md5".equals(type))
 		{
-			dig = new MD5();
+			dig = DigestFactory.createDigest("MD5");
 		}
 		else if ("sha1".equals(type))
 		{
-			dig = new SHA1();
+			dig = DigestFactory.createDigest("SHA1");
 		}
 		else
 			throw new IllegalArgumentException("Unknown hash type " + type);
@@ -7,7 +7,6 @@ import java.io.OutputStream;
 
 import com.trilead.ssh2.channel.Channel;
 import com.trilead.ssh2.channel.ChannelManager;
-import com.trilead.ssh2.channel.LocalAcceptThread;
 
 
 /**
@@ -24,7 +23,6 @@ public class LocalStreamForwarder
 
 	String host_to_connect;
 	int port_to_connect;
-	LocalAcceptThread lat;
 
 	Channel cn;
 
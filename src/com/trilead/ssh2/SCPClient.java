@@ -7,8 +7,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.Vector;
 
 /**
  * A very basic <code>SCPClient</code> that can be used to copy files from/to
@@ -17,6 +20,12 @@ import java.io.OutputStream;
  * This scp client is thread safe - you can download (and upload) different sets
  * of files concurrently without any troubles. The <code>SCPClient</code> is
  * actually mapping every request to a distinct {@link Session}.
+ * <p>
+ * Directory trees can be copied either over a single session (using the
+ * <code>-r</code> mode of the remote scp) or fanned out over several
+ * concurrent sessions on the same {@link Connection}, see
+ * {@link #putDirectory(String, String, String, int, TransferStatistics)} and
+ * {@link #getDirectory(String, String, int, TransferStatistics)}.
  * 
  * @author Christian Plattner, plattner@trilead.com
  * @version $Id: SCPClient.java,v 1.2 2008/04/01 12:38:09 cplattne Exp $
@@ -26,12 +35,88 @@ public class SCPClient
 {
 	Connection conn;
 
+	/**
+	 * Upper bound for the number of files handed to a single scp invocation
+	 * during a parallel directory transfer.
+	 */
+	private static final int MAX_BATCH_FILES = 64;
+
 	class LenNamePair
 	{
 		long length;
 		String filename;
 	}
 
+	/**
+	 * A set of files sharing the same source and target directory, which is
+	 * transferred by one scp invocation.
+	 */
+	class TransferBatch
+	{
+		String directory;
+		File localDirectory;
+		String[] files;
+	}
+
+	/**
+	 * Drains the shared batch queue of a parallel transfer, using its own
+	 * {@link Session} for every batch.
+	 */
+	class TransferWorker extends Thread
+	{
+		final LinkedList queue;
+		final boolean upload;
+		final String mode;
+		final TransferStatistics stats;
+
+		IOException failure;
+
+		TransferWorker(LinkedList queue, boolean upload, String mode, TransferStatistics stats)
+		{
+			this.queue = queue;
+			this.upload = upload;
+			this.mode = mode;
+			this.stats = stats;
+			setName("SCPTransferWorker");
+			setDaemon(true);
+		}
+
+		public void run()
+		{
+			while (true)
+			{
+				TransferBatch batch;
+
+				synchronized (queue)
+				{
+					if (queue.size() == 0)
+						return;
+					batch = (TransferBatch) queue.removeFirst();
+				}
+
+				try
+				{
+					if (upload)
+						putBatch(batch, mode, stats);
+					else
+						getBatch(batch, stats);
+				}
+				catch (IOException e)
+				{
+					failure = e;
+
+					/* Let the other workers stop early, too */
+
+					synchronized (queue)
+					{
+						queue.clear();
+					}
+					return;
+				}
+			}
+		}
+	}
+
 	public SCPClient(Connection conn)
 	{
 		if (conn == null)
@@ -156,7 +241,60 @@ public class SCPClient
 		os.flush();
 	}
 
-	private void sendFiles(Session sess, String[] files, String[] remoteFiles, String mode) throws IOException
+	private void sendFile(OutputStream os, InputStream is, File f, String remoteName, String mode, byte[] buffer,
+			TransferStatistics stats) throws IOException
+	{
+		long remain = f.length();
+
+		String cline = "C" + mode + " " + remain + " " + remoteName + "\n";
+
+		os.write(cline.getBytes("ISO-8859-1"));
+		os.flush();
+
+		readResponse(is);
+
+		FileInputStream fis = null;
+
+		try
+		{
+			fis = new FileInputStream(f);
+
+			while (remain > 0)
+			{
+				int trans;
+				if (remain > buffer.length)
+					trans = buffer.length;
+				else
+					trans = (int) remain;
+
+				if (fis.read(buffer, 0, trans) != trans)
+					throw new IOException("Cannot read enough from local file " + f.getPath());
+
+				os.write(buffer, 0, trans);
+
+				if (stats != null)
+					stats.addBytes(trans);
+
+				remain -= trans;
+			}
+		}
+		finally
+		{
+			if (fis != null)
+				fis.close();
+		}
+
+		os.write(0);
+		os.flush();
+
+		readResponse(is);
+
+		if (stats != null)
+			stats.fileCompleted();
+	}
+
+	private void sendFiles(Session sess, String[] files, String[] remoteFiles, String mode, TransferStatistics stats)
+			throws IOException
 	{
 		byte[] buffer = new byte[8192];
 
@@ -168,7 +306,6 @@ public class SCPClient
 		for (int i = 0; i < files.length; i++)
 		{
 			File f = new File(files[i]);
-			long remain = f.length();
 
 			String remoteName;
 
@@ -177,49 +314,98 @@ public class SCPClient
 			else
 				remoteName = f.getName();
 
-			String cline = "C" + mode + " " + remain + " " + remoteName + "\n";
+			sendFile(os, is, f, remoteName, mode, buffer, stats);
+		}
 
-			os.write(cline.getBytes("ISO-8859-1"));
-			os.flush();
+		os.write("E\n".getBytes("ISO-8859-1"));
+		os.flush();
+	}
 
-			readResponse(is);
+	private void sendDirectory(OutputStream os, InputStream is, File dir, String mode, String dirMode, byte[] buffer,
+			TransferStatistics stats) throws IOException
+	{
+		File[] entries = dir.listFiles();
 
-			FileInputStream fis = null;
+		if (entries == null)
+			throw new IOException("Cannot list local directory " + dir.getPath());
 
-			try
-			{
-				fis = new FileInputStream(f);
+		String dline = "D" + dirMode + " 0 " + dir.getName() + "\n";
 
-				while (remain > 0)
-				{
-					int trans;
-					if (remain > buffer.length)
-						trans = buffer.length;
-					else
-						trans = (int) remain;
+		os.write(dline.getBytes("ISO-8859-1"));
+		os.flush();
 
-					if (fis.read(buffer, 0, trans) != trans)
-						throw new IOException("Cannot read enough from local file " + files[i]);
+		readResponse(is);
 
-					os.write(buffer, 0, trans);
+		for (int i = 0; i < entries.length; i++)
+		{
+			if (entries[i].isDirectory())
+				sendDirectory(os, is, entries[i], mode, dirMode, buffer, stats);
+			else if (entries[i].isFile())
+				sendFile(os, is, entries[i], entries[i].getName(), mode, buffer, stats);
+		}
 
-					remain -= trans;
-				}
-			}
-			finally
+		os.write("E\n".getBytes("ISO-8859-1"));
+		os.flush();
+
+		readResponse(is);
+	}
+
+	private void sendDirectory(Session sess, File dir, String mode, TransferStatistics stats) throws IOException
+	{
+		byte[] buffer = new byte[8192];
+
+		OutputStream os = new BufferedOutputStream(sess.getStdin(), 40000);
+		InputStream is = new BufferedInputStream(sess.getStdout(), 512);
+
+		readResponse(is);
+
+		sendDirectory(os, is, dir, mode, directoryMode(mode), buffer, stats);
+	}
+
+	private void receiveFile(InputStream is, OutputStream target, long length, byte[] buffer,
+			TransferStatistics stats) throws IOException
+	{
+		long remain = length;
+
+		while (remain > 0)
+		{
+			int trans;
+			if (remain > buffer.length)
+				trans = buffer.length;
+			else
+				trans = (int) remain;
+
+			int this_time_received = is.read(buffer, 0, trans);
+
+			if (this_time_received < 0)
 			{
-				if (fis != null)
-					fis.close();
+				throw new IOException("Remote scp terminated connection unexpectedly");
 			}
 
-			os.write(0);
-			os.flush();
+			target.write(buffer, 0, this_time_received);
 
-			readResponse(is);
+			if (stats != null)
+				stats.addBytes(this_time_received);
+
+			remain -= this_time_received;
 		}
+	}
 
-		os.write("E\n".getBytes("ISO-8859-1"));
-		os.flush();
+	private void receiveFile(InputStream is, File f, long length, byte[] buffer, TransferStatistics stats)
+			throws IOException
+	{
+		FileOutputStream fop = null;
+
+		try
+		{
+			fop = new FileOutputStream(f);
+			receiveFile(is, fop, length, buffer, stats);
+		}
+		finally
+		{
+			if (fop != null)
+				fop.close();
+		}
 	}
 
 	private void receiveFiles(Session sess, OutputStream[] targets) throws IOException
@@ -266,27 +452,7 @@ public class SCPClient
 			os.write(0x0);
 			os.flush();
 
-			long remain = lnp.length;
-
-			while (remain > 0)
-			{
-				int trans;
-				if (remain > buffer.length)
-					trans = buffer.length;
-				else
-					trans = (int) remain;
-
-				int this_time_received = is.read(buffer, 0, trans);
-
-				if (this_time_received < 0)
-				{
-					throw new IOException("Remote scp terminated connection unexpectedly");
-				}
-
-				targets[i].write(buffer, 0, this_time_received);
-
-				remain -= this_time_received;
-			}
+			receiveFile(is, targets[i], lnp.length, buffer, null);
 
 			readResponse(is);
 
@@ -295,7 +461,8 @@ public class SCPClient
 		}
 	}
 
-	private void receiveFiles(Session sess, String[] files, String target) throws IOException
+	private void receiveFiles(Session sess, String[] files, String target, TransferStatistics stats)
+			throws IOException
 	{
 		byte[] buffer = new byte[8192];
 
@@ -339,48 +506,165 @@ public class SCPClient
 			os.write(0x0);
 			os.flush();
 
-			File f = new File(target + File.separatorChar + lnp.filename);
-			FileOutputStream fop = null;
+			receiveFile(is, new File(target + File.separatorChar + lnp.filename), lnp.length, buffer, stats);
 
-			try
-			{
-				fop = new FileOutputStream(f);
+			readResponse(is);
 
-				long remain = lnp.length;
+			os.write(0x0);
+			os.flush();
 
-				while (remain > 0)
-				{
-					int trans;
-					if (remain > buffer.length)
-						trans = buffer.length;
-					else
-						trans = (int) remain;
+			if (stats != null)
+				stats.fileCompleted();
+		}
+	}
 
-					int this_time_received = is.read(buffer, 0, trans);
+	private void receiveDirectory(Session sess, File target, TransferStatistics stats) throws IOException
+	{
+		byte[] buffer = new byte[8192];
 
-					if (this_time_received < 0)
-					{
-						throw new IOException("Remote scp terminated connection unexpectedly");
-					}
+		OutputStream os = new BufferedOutputStream(sess.getStdin(), 512);
+		InputStream is = new BufferedInputStream(sess.getStdout(), 40000);
 
-					fop.write(buffer, 0, this_time_received);
+		if (!target.isDirectory() && !target.mkdirs())
+			throw new IOException("Cannot create local directory " + target.getPath());
 
-					remain -= this_time_received;
-				}
+		os.write(0x0);
+		os.flush();
+
+		File current = target;
+		int depth = 0;
+
+		while (true)
+		{
+			int c = is.read();
+
+			if (c < 0)
+			{
+				if (depth == 0)
+					break;
+				throw new IOException("Remote scp terminated unexpectedly.");
 			}
-			finally
+
+			String line = receiveLine(is);
+
+			if ((c == 1) || (c == 2))
+				throw new IOException("Remote SCP error: " + line);
+
+			if (c == 'T')
 			{
-				if (fop != null)
-					fop.close();
+				/* Ignore modification times, but acknowledge them */
 			}
+			else if (c == 'E')
+			{
+				if (depth == 0)
+					throw new IOException("Remote SCP sent an unbalanced E line.");
 
-			readResponse(is);
+				current = current.getParentFile();
+				depth--;
+			}
+			else if (c == 'D')
+			{
+				LenNamePair lnp = parseCLine(line);
+				checkRemoteName(lnp.filename);
+
+				File dir = new File(current, lnp.filename);
+
+				if (!dir.isDirectory() && !dir.mkdir())
+					throw new IOException("Cannot create local directory " + dir.getPath());
+
+				current = dir;
+				depth++;
+			}
+			else if (c == 'C')
+			{
+				LenNamePair lnp = parseCLine(line);
+				checkRemoteName(lnp.filename);
+
+				os.write(0x0);
+				os.flush();
+
+				receiveFile(is, new File(current, lnp.filename), lnp.length, buffer, stats);
+
+				readResponse(is);
+
+				if (stats != null)
+					stats.fileCompleted();
+			}
+			else
+				throw new IOException("Remote SCP error: " + ((char) c) + line);
 
 			os.write(0x0);
 			os.flush();
 		}
 	}
 
+	/**
+	 * Quote a path for the remote shell, so that the names found while
+	 * walking a tree are used literally, like SFTP used them, whatever
+	 * characters they contain.
+	 */
+	private String quote(String path)
+	{
+		return "'" + path.replace("'", "'\\''") + "'";
+	}
+
+	/**
+	 * Names sent by the remote scp during a recursive download must not
+	 * escape the current target directory.
+	 */
+	private void checkRemoteName(String name) throws IOException
+	{
+		if ((name.indexOf('/') != -1) || name.equals(".") || name.equals(".."))
+			throw new IOException("Remote SCP sent an illegal file name (" + name + ").");
+	}
+
+	/**
+	 * Derive the mode for directories created on the remote side from the file
+	 * mode: every class that may read the files may also search the directory
+	 * (e.g., 0644 becomes 0755).
+	 */
+	private String directoryMode(String mode)
+	{
+		char[] digits = mode.toCharArray();
+
+		for (int i = 1; i < digits.length; i++)
+		{
+			int d = digits[i] - '0';
+
+			if ((d & 4) != 0)
+				d |= 1;
+
+			digits[i] = (char) ('0' + d);
+		}
+
+		return new String(digits);
+	}
+
+	private void checkMode(String mode)
+	{
+		if (mode.length() != 4)
+			throw new IllegalArgumentException("Invalid mode.");
+
+		for (int i = 0; i < mode.length(); i++)
+			if (Character.isDigit(mode.charAt(i)) == false)
+				throw new IllegalArgumentException("Invalid mode.");
+	}
+
+	private static boolean isDirectory(SFTPv3FileAttributes attr)
+	{
+		return (attr.permissions != null) && ((attr.permissions.intValue() & 0170000) == 0040000);
+	}
+
+	private static boolean isRegularFile(SFTPv3FileAttributes attr)
+	{
+		return (attr.permissions != null) && ((attr.permissions.intValue() & 0170000) == 0100000);
+	}
+
+	private static boolean isSymlink(SFTPv3FileAttributes attr)
+	{
+		return (attr.permissions != null) && ((attr.permissions.intValue() & 0170000) == 0120000);
+	}
+
 	/**
 	 * Copy a local file to a remote directory, uses mode 0600 when creating the
 	 * file on the remote side.
@@ -585,7 +869,7 @@ public class SCPClient
 		{
 			sess = conn.openSession();
 			sess.execCommand(cmd);
-			sendFiles(sess, localFiles, remoteFiles, mode);
+			sendFiles(sess, localFiles, remoteFiles, mode, null);
 		}
 		catch (IOException e)
 		{
@@ -714,13 +998,427 @@ public class SCPClient
 		{
 			sess = conn.openSession();
 			sess.execCommand(cmd);
-			receiveFiles(sess, remoteFiles, localTargetDirectory);
+			receiveFiles(sess, remoteFiles, localTargetDirectory, null);
+		}
+		catch (IOException e)
+		{
+			throw (IOException) new IOException("Error during SCP transfer.").initCause(e);
+		}
+		finally
+		{
+			if (sess != null)
+				sess.close();
+		}
+	}
+
+	/**
+	 * Copy a local directory tree to a remote directory over a single session,
+	 * uses mode 0600 when creating files on the remote side.
+	 * 
+	 * @param localDirectory
+	 *            Path of the local directory. The directory itself is created
+	 *            inside the remote target directory.
+	 * @param remoteTargetDirectory
+	 *            Remote target directory. Use an empty string to specify the
+	 *            default directory.
+	 * 
+	 * @throws IOException
+	 */
+	public void putDirectory(String localDirectory, String remoteTargetDirectory) throws IOException
+	{
+		putDirectory(localDirectory, remoteTargetDirectory, "0600", 1, null);
+	}
+
+	/**
+	 * Copy a local directory tree to a remote directory, uses the specified
+	 * mode when creating files on the remote side. Directories are created
+	 * with the search bit set for every class that may read the files.
+	 * <p>
+	 * With a single channel the tree is sent over one session in the
+	 * recursive (<code>-r</code>) mode of the remote scp. With more channels,
+	 * the remote directory structure is first created with SFTP and the files
+	 * are then distributed over up to <code>channels</code> concurrent
+	 * sessions on the same connection.
+	 * 
+	 * @param localDirectory
+	 *            Path of the local directory. The directory itself is created
+	 *            inside the remote target directory.
+	 * @param remoteTargetDirectory
+	 *            Remote target directory. Use an empty string to specify the
+	 *            default directory.
+	 * @param mode
+	 *            a four digit string (e.g., 0644, see "man chmod", "man open")
+	 * @param channels
+	 *            maximum number of concurrent sessions to use.
+	 * @param stats
+	 *            receives the aggregate byte and file counts, may be
+	 *            <code>null</code>.
+	 * @throws IOException
+	 */
+	public void putDirectory(String localDirectory, String remoteTargetDirectory, String mode, int channels,
+			TransferStatistics stats) throws IOException
+	{
+		if ((localDirectory == null) || (remoteTargetDirectory == null) || (mode == null))
+			throw new IllegalArgumentException("Null argument.");
+
+		checkMode(mode);
+
+		File dir = new File(localDirectory);
+
+		if (!dir.isDirectory())
+			throw new IllegalArgumentException("Not a local directory: " + localDirectory);
+
+		remoteTargetDirectory = remoteTargetDirectory.trim();
+		remoteTargetDirectory = (remoteTargetDirectory.length() > 0) ? remoteTargetDirectory : ".";
+
+		if (stats != null)
+			stats.start(0);
+
+		try
+		{
+			if (channels <= 1)
+			{
+				Session sess = null;
+
+				try
+				{
+					sess = conn.openSession();
+					sess.execCommand("scp -r -t -d " + remoteTargetDirectory);
+					sendDirectory(sess, dir, mode, stats);
+				}
+				finally
+				{
+					if (sess != null)
+						sess.close();
+				}
+			}
+			else
+			{
+				LinkedList batches = new LinkedList();
+				SFTPv3Client sftp = new SFTPv3Client(conn);
+
+				try
+				{
+					collectLocal(sftp, dir, stripSlash(remoteTargetDirectory),
+							Integer.parseInt(directoryMode(mode), 8), batches, channels);
+				}
+				finally
+				{
+					sftp.close();
+				}
+
+				runBatches(batches, true, mode, channels, stats);
+			}
 		}
 		catch (IOException e)
 		{
 			throw (IOException) new IOException("Error during SCP transfer.").initCause(e);
 		}
 		finally
+		{
+			if (stats != null)
+				stats.finish();
+		}
+	}
+
+	/**
+	 * Download a remote directory tree to a local directory over a single
+	 * session.
+	 * 
+	 * @param remoteDirectory
+	 *            Path of the remote directory. The directory itself is created
+	 *            inside the local target directory.
+	 * @param localTargetDirectory
+	 *            Local directory to put the downloaded tree.
+	 * 
+	 * @throws IOException
+	 */
+	public void getDirectory(String remoteDirectory, String localTargetDirectory) throws IOException
+	{
+		getDirectory(remoteDirectory, localTargetDirectory, 1, null);
+	}
+
+	/**
+	 * Download a remote directory tree to a local directory.
+	 * <p>
+	 * With a single channel the tree is received over one session in the
+	 * recursive (<code>-r</code>) mode of the remote scp. With more channels,
+	 * the remote tree is walked with SFTP and the files are then fetched over
+	 * up to <code>channels</code> concurrent sessions on the same connection.
+	 * Symbolic links to directories are not followed in that case.
+	 * 
+	 * @param remoteDirectory
+	 *            Path of the remote directory. The directory itself is created
+	 *            inside the local target directory.
+	 * @param localTargetDirectory
+	 *            Local directory to put the downloaded tree.
+	 * @param channels
+	 *            maximum number of concurrent sessions to use.
+	 * @param stats
+	 *            receives the aggregate byte and file counts, may be
+	 *            <code>null</code>.
+	 * @throws IOException
+	 */
+	public void getDirectory(String remoteDirectory, String localTargetDirectory, int channels,
+			TransferStatistics stats) throws IOException
+	{
+		if ((remoteDirectory == null) || (localTargetDirectory == null))
+			throw new IllegalArgumentException("Null argument.");
+
+		remoteDirectory = remoteDirectory.trim();
+
+		if (remoteDirectory.length() == 0)
+			throw new IllegalArgumentException("Cannot accept empty directory name.");
+
+		File target = new File(localTargetDirectory);
+
+		if (stats != null)
+			stats.start(0);
+
+		try
+		{
+			if (channels <= 1)
+			{
+				Session sess = null;
+
+				try
+				{
+					sess = conn.openSession();
+					sess.execCommand("scp -r -f " + remoteDirectory);
+					receiveDirectory(sess, target, stats);
+				}
+				finally
+				{
+					if (sess != null)
+						sess.close();
+				}
+			}
+			else
+			{
+				LinkedList batches = new LinkedList();
+				SFTPv3Client sftp = new SFTPv3Client(conn);
+
+				try
+				{
+					collectRemote(sftp, stripSlash(remoteDirectory), target, batches, channels);
+				}
+				finally
+				{
+					sftp.close();
+				}
+
+				runBatches(batches, false, null, channels, stats);
+			}
+		}
+		catch (IOException e)
+		{
+			throw (IOException) new IOException("Error during SCP transfer.").initCause(e);
+		}
+		finally
+		{
+			if (stats != null)
+				stats.finish();
+		}
+	}
+
+	private String stripSlash(String path)
+	{
+		while ((path.length() > 1) && path.endsWith("/"))
+			path = path.substring(0, path.length() - 1);
+
+		return path;
+	}
+
+	private void collectLocal(SFTPv3Client sftp, File dir, String remoteParent, int dirPermissions,
+			LinkedList batches, int channels) throws IOException
+	{
+		File[] entries = dir.listFiles();
+
+		if (entries == null)
+			throw new IOException("Cannot list local directory " + dir.getPath());
+
+		String remoteDir = (remoteParent.endsWith("/") ? remoteParent : remoteParent + "/") + dir.getName();
+
+		try
+		{
+			sftp.mkdir(remoteDir, dirPermissions);
+		}
+		catch (SFTPException e)
+		{
+			/* Fine if it is already there */
+
+			if (!isDirectory(sftp.stat(remoteDir)))
+				throw e;
+		}
+
+		Vector files = new Vector();
+
+		for (int i = 0; i < entries.length; i++)
+		{
+			if (entries[i].isFile())
+				files.addElement(entries[i].getPath());
+		}
+
+		addBatches(batches, remoteDir, null, files, channels);
+
+		for (int i = 0; i < entries.length; i++)
+		{
+			if (entries[i].isDirectory())
+				collectLocal(sftp, entries[i], remoteDir, dirPermissions, batches, channels);
+		}
+	}
+
+	private void collectRemote(SFTPv3Client sftp, String remoteDir, File localParent, LinkedList batches,
+			int channels) throws IOException
+	{
+		String name = remoteDir.substring(remoteDir.lastIndexOf('/') + 1);
+
+		File localDir = localParent;
+
+		if ((name.length() > 0) && !name.equals(".") && !name.equals(".."))
+			localDir = new File(localParent, name);
+
+		if (!localDir.isDirectory() && !localDir.mkdirs())
+			throw new IOException("Cannot create local directory " + localDir.getPath());
+
+		String prefix = remoteDir.endsWith("/") ? remoteDir : remoteDir + "/";
+
+		Vector entries = sftp.ls(remoteDir);
+		Vector files = new Vector();
+		Vector dirs = new Vector();
+
+		for (int i = 0; i < entries.size(); i++)
+		{
+			SFTPv3DirectoryEntry entry = (SFTPv3DirectoryEntry) entries.elementAt(i);
+
+			if (entry.filename.equals(".") || entry.filename.equals("..") || (entry.filename.indexOf('/') != -1))
+				continue;
+
+			String path = prefix + entry.filename;
+
+			if (isDirectory(entry.attributes))
+				dirs.addElement(path);
+			else if (isRegularFile(entry.attributes))
+				files.addElement(path);
+			else if (isSymlink(entry.attributes) && isRegularFile(sftp.stat(path)))
+				files.addElement(path);
+		}
+
+		addBatches(batches, null, localDir, files, channels);
+
+		for (int i = 0; i < dirs.size(); i++)
+			collectRemote(sftp, (String) dirs.elementAt(i), localDir, batches, channels);
+	}
+
+	/**
+	 * Split the files of one directory into batches, so that even a single
+	 * large directory keeps all channels busy.
+	 */
+	private void addBatches(LinkedList batches, String directory, File localDirectory, Vector files, int channels)
+	{
+		int count = files.size();
+
+		if (count == 0)
+			return;
+
+		int perBatch = (count + channels - 1) / channels;
+
+		if (perBatch > MAX_BATCH_FILES)
+			perBatch = MAX_BATCH_FILES;
+
+		for (int off = 0; off < count; off += perBatch)
+		{
+			int len = Math.min(perBatch, count - off);
+
+			TransferBatch batch = new TransferBatch();
+			batch.directory = directory;
+			batch.localDirectory = localDirectory;
+			batch.files = new String[len];
+
+			for (int i = 0; i < len; i++)
+				batch.files[i] = (String) files.elementAt(off + i);
+
+			batches.addLast(batch);
+		}
+	}
+
+	private void runBatches(LinkedList batches, boolean upload, String mode, int channels, TransferStatistics stats)
+			throws IOException
+	{
+		if (stats != null)
+		{
+			int total = 0;
+
+			for (int i = 0; i < batches.size(); i++)
+				total += ((TransferBatch) batches.get(i)).files.length;
+
+			stats.start(total);
+		}
+
+		int count = Math.min(channels, batches.size());
+
+		TransferWorker[] workers = new TransferWorker[count];
+
+		for (int i = 0; i < count; i++)
+		{
+			workers[i] = new TransferWorker(batches, upload, mode, stats);
+			workers[i].start();
+		}
+
+		try
+		{
+			for (int i = 0; i < count; i++)
+				workers[i].join();
+		}
+		catch (InterruptedException e)
+		{
+			synchronized (batches)
+			{
+				batches.clear();
+			}
+			throw new InterruptedIOException("Interrupted while waiting for SCP transfers.");
+		}
+
+		for (int i = 0; i < count; i++)
+		{
+			if (workers[i].failure != null)
+				throw workers[i].failure;
+		}
+	}
+
+	private void putBatch(TransferBatch batch, String mode, TransferStatistics stats) throws IOException
+	{
+		Session sess = null;
+
+		try
+		{
+			sess = conn.openSession();
+			sess.execCommand("scp -t -d " + quote(batch.directory));
+			sendFiles(sess, batch.files, null, mode, stats);
+		}
+		finally
+		{
+			if (sess != null)
+				sess.close();
+		}
+	}
+
+	private void getBatch(TransferBatch batch, TransferStatistics stats) throws IOException
+	{
+		Session sess = null;
+
+		String cmd = "scp -f";
+
+		for (int i = 0; i < batch.files.length; i++)
+			cmd += (" " + quote(batch.files[i]));
+
+		try
+		{
+			sess = conn.openSession();
+			sess.execCommand(cmd);
+			receiveFiles(sess, batch.files, batch.localDirectory.getPath(), stats);
+		}
+		finally
 		{
 			if (sess != null)
 				sess.close();
@@ -9,6 +9,7 @@ import java.security.SecureRandom;
 import com.trilead.ssh2.channel.Channel;
 import com.trilead.ssh2.channel.ChannelManager;
 import com.trilead.ssh2.channel.X11ServerData;
+import com.trilead.ssh2.metrics.ChannelMetrics;
 
 
 /**
@@ -468,6 +469,17 @@ public class Session
 		return cm.waitForCondition(cn, timeout, condition_set);
 	}
 
+	/**
+	 * Get the live counters and histograms of this session's channel (bytes,
+	 * window stalls and ping round trip times).
+	 * 
+	 * @return A {@link ChannelMetrics} object.
+	 */
+	public ChannelMetrics getMetrics()
+	{
+		return cn.getMetrics();
+	}
+
 	/**
 	 * Get the exit code/status from the remote command - if available. Be
 	 * careful - not all server implementations return this value. It is
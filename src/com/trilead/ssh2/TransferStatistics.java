@@ -0,0 +1,97 @@
+package com.trilead.ssh2;
+
+/**
+ * A <code>TransferStatistics</code> object accumulates the number of files
+ * and bytes moved by one or more concurrent {@link SCPClient} transfers. All
+ * methods are thread safe, so a single instance can be shared between the
+ * channels of a parallel transfer and polled from another thread (e.g., to
+ * update a progress display).
+ *
+ * @version $Id$
+ */
+public class TransferStatistics
+{
+	private long bytes = 0;
+	private int files = 0;
+	private int filesTotal = 0;
+
+	private long startTime = 0;
+	private long endTime = 0;
+
+	synchronized void start(int filesTotal)
+	{
+		this.filesTotal += filesTotal;
+
+		if (startTime == 0)
+			startTime = System.currentTimeMillis();
+	}
+
+	synchronized void finish()
+	{
+		endTime = System.currentTimeMillis();
+	}
+
+	synchronized void addBytes(long count)
+	{
+		bytes += count;
+	}
+
+	synchronized void fileCompleted()
+	{
+		files++;
+	}
+
+	/**
+	 * @return the number of payload bytes transferred so far.
+	 */
+	public synchronized long getBytesTransferred()
+	{
+		return bytes;
+	}
+
+	/**
+	 * @return the number of files that have been completely transferred.
+	 */
+	public synchronized int getFilesTransferred()
+	{
+		return files;
+	}
+
+	/**
+	 * @return the number of files that are known to be part of the transfer.
+	 *         For recursive transfers this value grows while the directory
+	 *         tree is being walked.
+	 */
+	public synchronized int getFilesTotal()
+	{
+		return filesTotal;
+	}
+
+	/**
+	 * @return the wall clock time in milliseconds since the transfer started,
+	 *         or the total duration once it has finished.
+	 */
+	public synchronized long getElapsedTime()
+	{
+		if (startTime == 0)
+			return 0;
+
+		if (endTime != 0)
+			return endTime - startTime;
+
+		return System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * @return the aggregate throughput of all channels in bytes per second.
+	 */
+	public synchronized long getBytesPerSecond()
+	{
+		long elapsed = getElapsedTime();
+
+		if (elapsed <= 0)
+			return 0;
+
+		return (bytes * 1000) / elapsed;
+	}
+}
@@ -73,7 +73,7 @@ public class AuthAgentForwardThread extends Thread implements IChannelWorkerThre
 	// Flags for signature requests
 //	private static final int SSH_AGENT_OLD_SIGNATURE = 1;
 
-	private static final Logger log = Logger.getLogger(RemoteAcceptThread.class);
+	private static final Logger log = Logger.getLogger(AuthAgentForwardThread.class);
 
 	AuthAgentCallback authAgent;
 	OutputStream os;
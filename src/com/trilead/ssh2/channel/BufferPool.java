@@ -0,0 +1,105 @@
+package com.trilead.ssh2.channel;
+
+/**
+ * BufferPool. A process wide pool of byte arrays, used for the receive buffers
+ * of channels and the copy buffers of forwarded connections. Short-lived
+ * channels (e.g., forwarded HTTP connections) would otherwise leave two or
+ * three 30 KB arrays of garbage each.
+ * <p>
+ * Buffers are handed out in power-of-two size classes, so a buffer may be
+ * larger than requested. Each class only keeps a bounded number of free
+ * buffers, anything beyond that is left to the garbage collector. Requests
+ * above the largest class are not pooled at all.
+ * <p>
+ * A buffer must not be used any more after it has been released, and must
+ * not be released twice.
+ *
+ * @version $Id$
+ */
+public class BufferPool
+{
+	private static final int MIN_CLASS_SHIFT = 10; /* 1 KB */
+	private static final int MAX_CLASS_SHIFT = 16; /* 64 KB */
+
+	/* Upper bound for the memory kept idle by one size class */
+	private static final int MAX_POOLED_BYTES_PER_CLASS = 1024 * 1024;
+
+	private static final byte[][][] free = new byte[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1][][];
+	private static final int[] freeCount = new int[free.length];
+
+	static
+	{
+		for (int i = 0; i < free.length; i++)
+			free[i] = new byte[MAX_POOLED_BYTES_PER_CLASS >> (MIN_CLASS_SHIFT + i)][];
+	}
+
+	private BufferPool()
+	{
+	}
+
+	private static int sizeClass(int size)
+	{
+		int shift = MIN_CLASS_SHIFT;
+
+		while ((1 << shift) < size)
+			shift++;
+
+		return shift - MIN_CLASS_SHIFT;
+	}
+
+	/**
+	 * Borrow a buffer.
+	 *
+	 * @param size
+	 *            the minimum length of the buffer.
+	 * @return a buffer with at least <code>size</code> bytes. Its content is
+	 *         undefined.
+	 */
+	public static byte[] acquire(int size)
+	{
+		if (size > (1 << MAX_CLASS_SHIFT))
+			return new byte[size];
+
+		int cls = sizeClass(size);
+
+		synchronized (free[cls])
+		{
+			if (freeCount[cls] > 0)
+			{
+				byte[] buffer = free[cls][--freeCount[cls]];
+				free[cls][freeCount[cls]] = null;
+				return buffer;
+			}
+		}
+
+		return new byte[1 << (cls + MIN_CLASS_SHIFT)];
+	}
+
+	/**
+	 * Return a buffer that was obtained with {@link #acquire(int)}. Buffers of
+	 * other origin are silently dropped.
+	 *
+	 * @param buffer
+	 *            the buffer, may be <code>null</code>.
+	 */
+	public static void release(byte[] buffer)
+	{
+		if (buffer == null)
+			return;
+
+		int len = buffer.length;
+
+		/* Only exact power-of-two sizes within the class range come from us */
+
+		if ((len < (1 << MIN_CLASS_SHIFT)) || (len > (1 << MAX_CLASS_SHIFT)) || ((len & (len - 1)) != 0))
+			return;
+
+		int cls = sizeClass(len);
+
+		synchronized (free[cls])
+		{
+			if (freeCount[cls] < free[cls].length)
+				free[cls][freeCount[cls]++] = buffer;
+		}
+	}
+}
@@ -1,6 +1,8 @@
 
 package com.trilead.ssh2.channel;
 
+import com.trilead.ssh2.metrics.ChannelMetrics;
+
 /**
  * Channel.
  * 
@@ -117,8 +119,13 @@ public class Channel
 	int localMaxPacketSize = -1;
 	int remoteMaxPacketSize = -1;
 
-	final byte[] stdoutBuffer = new byte[CHANNEL_BUFFER_SIZE];
-	final byte[] stderrBuffer = new byte[CHANNEL_BUFFER_SIZE];
+	/*
+	 * Both buffers are borrowed from the BufferPool. The stderr buffer is only
+	 * allocated once extended data arrives, and both are given back once the
+	 * channel is closed and drained.
+	 */
+	byte[] stdoutBuffer = BufferPool.acquire(CHANNEL_BUFFER_SIZE);
+	byte[] stderrBuffer = null;
 
 	int stdoutReadpos = 0;
 	int stdoutWritepos = 0;
@@ -127,6 +134,12 @@ public class Channel
 
 	boolean EOF = false;
 
+	/* Notified (without holding the lock) whenever the state, data or window changes */
+
+	IChannelListener listener;
+
+	final ChannelMetrics metrics = new ChannelMetrics();
+
 	Integer exit_status;
 
 	String exit_signal;
@@ -180,6 +193,11 @@ public class Channel
 		}
 	}
 
+	public ChannelMetrics getMetrics()
+	{
+		return metrics;
+	}
+
 	public Integer getExitStatus()
 	{
 		synchronized (this)
@@ -188,6 +206,29 @@ public class Channel
 		}
 	}
 
+	/**
+	 * Give the receive buffers back to the pool once no more data can arrive
+	 * and everything has been read. The caller must hold the lock on this
+	 * channel.
+	 */
+	void releaseBuffersIfDrained()
+	{
+		if (state != STATE_CLOSED)
+			return;
+
+		if ((stdoutBuffer != null) && (stdoutReadpos == stdoutWritepos))
+		{
+			BufferPool.release(stdoutBuffer);
+			stdoutBuffer = null;
+		}
+
+		if ((stderrBuffer != null) && (stderrReadpos == stderrWritepos))
+		{
+			BufferPool.release(stderrBuffer);
+			stderrBuffer = null;
+		}
+	}
+
 	public String getReasonClosed()
 	{
 		synchronized (reasonClosedLock)
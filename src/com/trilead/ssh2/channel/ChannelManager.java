@@ -3,6 +3,7 @@ package com.trilead.ssh2.channel;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Vector;
 
 import com.trilead.ssh2.AuthAgentCallback;
@@ -14,6 +15,7 @@ import com.trilead.ssh2.packets.PacketChannelOpenFailure;
 import com.trilead.ssh2.packets.PacketChannelTrileadPing;
 import com.trilead.ssh2.packets.PacketGlobalCancelForwardRequest;
 import com.trilead.ssh2.packets.PacketGlobalForwardRequest;
+import com.trilead.ssh2.packets.PacketGlobalKeepalive;
 import com.trilead.ssh2.packets.PacketGlobalTrileadPing;
 import com.trilead.ssh2.packets.PacketOpenDirectTCPIPChannel;
 import com.trilead.ssh2.packets.PacketOpenSessionChannel;
@@ -50,6 +52,14 @@ public class ChannelManager implements MessageHandler
 	private int globalSuccessCounter = 0;
 	private int globalFailedCounter = 0;
 
+	/* Replies to global requests arrive in order. While keepalives are
+	 * unanswered, the next replies are theirs, so other global requests wait
+	 * until they are answered, and no keepalives are sent while another
+	 * request is unanswered. All guarded by "channels". */
+	private boolean globalRequestPending = false;
+	private LinkedList keepaliveSendTimes = new LinkedList();
+	private long keepaliveRoundTripTime = -1;
+
 	private HashMap remoteForwardings = new HashMap();
 
 	private AuthAgentCallback authAgent;
@@ -58,6 +68,8 @@ public class ChannelManager implements MessageHandler
 
 	private boolean listenerThreadsAllowed = true;
 
+	private ForwardingEngine forwardingEngine;
+
 	public ChannelManager(TransportManager tm)
 	{
 		this.tm = tm;
@@ -132,6 +144,44 @@ public class ChannelManager implements MessageHandler
 		}
 	}
 
+	private void notifyListener(Channel c)
+	{
+		IChannelListener l;
+
+		synchronized (c)
+		{
+			l = c.listener;
+		}
+
+		if (l != null)
+			l.channelChanged(c);
+	}
+
+	private final void beginGlobalRequest() throws IOException
+	{
+		synchronized (channels)
+		{
+			while (keepaliveSendTimes.size() > 0)
+			{
+				if (shutdown)
+				{
+					throw new IOException("The connection is being shutdown");
+				}
+
+				try
+				{
+					channels.wait();
+				}
+				catch (InterruptedException ignore)
+				{
+				}
+			}
+
+			globalRequestPending = true;
+			globalSuccessCounter = globalFailedCounter = 0;
+		}
+	}
+
 	private final boolean waitForGlobalRequestResult() throws IOException
 	{
 		synchronized (channels)
@@ -140,6 +190,7 @@ public class ChannelManager implements MessageHandler
 			{
 				if (shutdown)
 				{
+					globalRequestPending = false;
 					throw new IOException("The connection is being shutdown");
 				}
 
@@ -152,6 +203,8 @@ public class ChannelManager implements MessageHandler
 				}
 			}
 
+			globalRequestPending = false;
+
 			if ((globalFailedCounter == 0) && (globalSuccessCounter == 1))
 				return true;
 
@@ -308,6 +361,8 @@ public class ChannelManager implements MessageHandler
 			c.notifyAll();
 		}
 
+		notifyListener(c);
+
 		synchronized (c.channelSendLock)
 		{
 			if (c.closeMessageSent == true)
@@ -369,6 +424,125 @@ public class ChannelManager implements MessageHandler
 		}
 	}
 
+	/**
+	 * Refuse a channel that was opened by the server, e.g., because the local
+	 * target of a remote port forwarding cannot be reached.
+	 */
+	public void sendOpenFailure(Channel c, int reasonCode, String description)
+	{
+		int remoteID;
+
+		synchronized (c)
+		{
+			if (c.state != Channel.STATE_OPENING)
+				return;
+
+			c.state = Channel.STATE_CLOSED;
+			c.EOF = true;
+			c.setReasonClosed(description);
+
+			remoteID = c.remoteID;
+
+			removeChannel(c.localID);
+
+			c.notifyAll();
+		}
+
+		PacketChannelOpenFailure pcof = new PacketChannelOpenFailure(remoteID, reasonCode, description, "");
+
+		synchronized (c.channelSendLock)
+		{
+			if (c.closeMessageSent == true)
+				return;
+			c.closeMessageSent = true;
+
+			try
+			{
+				tm.sendMessage(pcof.getPayload());
+			}
+			catch (IOException ignore)
+			{
+			}
+		}
+
+		if (log.isEnabled())
+			log.log(50, "Sent SSH_MSG_CHANNEL_OPEN_FAILURE (channel " + c.localID + ", " + description + ")");
+	}
+
+	/**
+	 * Like {@link #sendData(Channel, byte[], int, int)}, but never waits for the
+	 * remote window to open.
+	 *
+	 * @return the number of bytes that were sent, may be less than
+	 *         <code>len</code> (even zero) if the remote window is exhausted.
+	 */
+	public int sendDataNonBlocking(Channel c, byte[] buffer, int pos, int len) throws IOException
+	{
+		int sent = 0;
+
+		while (len > 0)
+		{
+			int thislen = 0;
+			byte[] msg;
+
+			synchronized (c)
+			{
+				if (c.state == Channel.STATE_CLOSED)
+					throw new IOException("SSH channel is closed. (" + c.getReasonClosed() + ")");
+
+				if (c.state != Channel.STATE_OPEN)
+					throw new IOException("SSH channel in strange state. (" + c.state + ")");
+
+				if (c.remoteWindow == 0)
+					break;
+
+				thislen = (c.remoteWindow >= len) ? len : (int) c.remoteWindow;
+
+				int estimatedMaxDataLen = c.remoteMaxPacketSize - (tm.getPacketOverheadEstimate() + 9);
+
+				if (estimatedMaxDataLen <= 0)
+				{
+					estimatedMaxDataLen = 1;
+				}
+
+				if (thislen > estimatedMaxDataLen)
+					thislen = estimatedMaxDataLen;
+
+				c.remoteWindow -= thislen;
+
+				msg = new byte[1 + 8 + thislen];
+
+				msg[0] = Packets.SSH_MSG_CHANNEL_DATA;
+				msg[1] = (byte) (c.remoteID >> 24);
+				msg[2] = (byte) (c.remoteID >> 16);
+				msg[3] = (byte) (c.remoteID >> 8);
+				msg[4] = (byte) (c.remoteID);
+				msg[5] = (byte) (thislen >> 24);
+				msg[6] = (byte) (thislen >> 16);
+				msg[7] = (byte) (thislen >> 8);
+				msg[8] = (byte) (thislen);
+
+				System.arraycopy(buffer, pos, msg, 9, thislen);
+			}
+
+			synchronized (c.channelSendLock)
+			{
+				if (c.closeMessageSent == true)
+					throw new IOException("SSH channel is closed. (" + c.getReasonClosed() + ")");
+
+				tm.sendMessage(msg);
+			}
+
+			c.metrics.bytesSent.addAndGet(thislen);
+
+			pos += thislen;
+			len -= thislen;
+			sent += thislen;
+		}
+
+		return sent;
+	}
+
 	public void sendData(Channel c, byte[] buffer, int pos, int len) throws IOException
 	{
 		while (len > 0)
@@ -378,6 +552,8 @@ public class ChannelManager implements MessageHandler
 
 			synchronized (c)
 			{
+				long stallStart = 0;
+
 				while (true)
 				{
 					if (c.state == Channel.STATE_CLOSED)
@@ -389,6 +565,9 @@ public class ChannelManager implements MessageHandler
 					if (c.remoteWindow != 0)
 						break;
 
+					if (stallStart == 0)
+						stallStart = System.nanoTime();
+
 					try
 					{
 						c.wait();
@@ -398,6 +577,14 @@ public class ChannelManager implements MessageHandler
 					}
 				}
 
+				if (stallStart != 0)
+				{
+					long stall = System.nanoTime() - stallStart;
+
+					c.metrics.windowStallTime.record(stall);
+					tm.getMetrics().windowStallTime.record(stall);
+				}
+
 				/* len > 0, no sign extension can happen when comparing */
 
 				thislen = (c.remoteWindow >= len) ? len : (int) c.remoteWindow;
@@ -439,6 +626,8 @@ public class ChannelManager implements MessageHandler
 				tm.sendMessage(msg);
 			}
 
+			c.metrics.bytesSent.addAndGet(thislen);
+
 			pos += thislen;
 			len -= thislen;
 		}
@@ -466,10 +655,7 @@ public class ChannelManager implements MessageHandler
 			remoteForwardings.put(key, rfd);
 		}
 
-		synchronized (channels)
-		{
-			globalSuccessCounter = globalFailedCounter = 0;
-		}
+		beginGlobalRequest();
 
 		PacketGlobalForwardRequest pgf = new PacketGlobalForwardRequest(true, bindAddress, bindPort);
 		tm.sendMessage(pgf.getPayload());
@@ -506,10 +692,7 @@ public class ChannelManager implements MessageHandler
 				throw new IOException("Sorry, there is no known remote forwarding for remote port " + bindPort);
 		}
 
-		synchronized (channels)
-		{
-			globalSuccessCounter = globalFailedCounter = 0;
-		}
+		beginGlobalRequest();
 
 		PacketGlobalCancelForwardRequest pgcf = new PacketGlobalCancelForwardRequest(true, rfd.bindAddress,
 				rfd.bindPort);
@@ -597,6 +780,48 @@ public class ChannelManager implements MessageHandler
 		return c;
 	}
 
+	/**
+	 * Open a direct-tcpip channel without waiting for the server's answer. The
+	 * listener is notified once the channel has been opened or refused.
+	 */
+	public Channel openDirectTCPIPChannelAsync(String host_to_connect, int port_to_connect,
+			String originator_IP_address, int originator_port, IChannelListener listener) throws IOException
+	{
+		Channel c = new Channel(this);
+
+		synchronized (c)
+		{
+			c.listener = listener;
+			c.localID = addChannel(c);
+		}
+
+		PacketOpenDirectTCPIPChannel dtc = new PacketOpenDirectTCPIPChannel(c.localID, c.localWindow,
+				c.localMaxPacketSize, host_to_connect, port_to_connect, originator_IP_address, originator_port);
+
+		tm.sendMessage(dtc.getPayload());
+
+		return c;
+	}
+
+	/**
+	 * @return the engine that handles the forwarded TCP connections of this
+	 *         connection, started on first use.
+	 */
+	public ForwardingEngine getForwardingEngine() throws IOException
+	{
+		synchronized (listenerThreads)
+		{
+			if (forwardingEngine == null)
+			{
+				ForwardingEngine fe = new ForwardingEngine(this);
+				registerThread(fe);
+				fe.start();
+				forwardingEngine = fe;
+			}
+			return forwardingEngine;
+		}
+	}
+
 	public Channel openSessionChannel() throws IOException
 	{
 		Channel c = new Channel(this);
@@ -620,13 +845,12 @@ public class ChannelManager implements MessageHandler
 
 	public void requestGlobalTrileadPing() throws IOException
 	{
-		synchronized (channels)
-		{
-			globalSuccessCounter = globalFailedCounter = 0;
-		}
+		beginGlobalRequest();
 
 		PacketGlobalTrileadPing pgtp = new PacketGlobalTrileadPing();
 
+		long start = System.nanoTime();
+
 		tm.sendMessage(pgtp.getPayload());
 
 		if (log.isEnabled())
@@ -643,6 +867,68 @@ public class ChannelManager implements MessageHandler
 		{
 			throw (IOException) new IOException("The ping request failed.").initCause(e);
 		}
+
+		tm.getMetrics().roundTripTime.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Sends a 'keepalive@openssh.com' global request without waiting for the
+	 * reply. The round trip time of the reply is recorded in the metrics of
+	 * the connection.
+	 *
+	 * @return false if nothing was sent, since another global request is
+	 *         unanswered
+	 */
+	public boolean requestKeepalive() throws IOException
+	{
+		synchronized (channels)
+		{
+			if (shutdown)
+				throw new IOException("The connection is being shutdown");
+
+			if (globalRequestPending)
+				return false;
+
+			keepaliveSendTimes.addLast(Long.valueOf(System.nanoTime()));
+		}
+
+		/* Never blocks, even if the peer stopped reading */
+		tm.sendAsynchronousMessage(new PacketGlobalKeepalive().getPayload());
+
+		if (log.isEnabled())
+			log.log(50, "Sending SSH_MSG_GLOBAL_REQUEST 'keepalive@openssh.com'.");
+
+		return true;
+	}
+
+	/**
+	 * @return smoothed round trip time of keepalives in nanoseconds, or -1
+	 *         if none was answered yet
+	 */
+	public long getKeepaliveRoundTripTime()
+	{
+		synchronized (channels)
+		{
+			return keepaliveRoundTripTime;
+		}
+	}
+
+	/* Called with the lock of "channels" held */
+	private boolean keepaliveAnswered()
+	{
+		if (keepaliveSendTimes.size() == 0)
+			return false;
+
+		long rtt = System.nanoTime() - ((Long) keepaliveSendTimes.removeFirst()).longValue();
+
+		if (keepaliveRoundTripTime < 0)
+			keepaliveRoundTripTime = rtt;
+		else
+			keepaliveRoundTripTime = (7 * keepaliveRoundTripTime + rtt) / 8;
+
+		tm.getMetrics().roundTripTime.record(rtt);
+
+		return true;
 	}
 
 	public void requestChannelTrileadPing(Channel c) throws IOException
@@ -659,6 +945,8 @@ public class ChannelManager implements MessageHandler
 			c.successCounter = c.failedCounter = 0;
 		}
 
+		long start = System.nanoTime();
+
 		synchronized (c.channelSendLock)
 		{
 			if (c.closeMessageSent)
@@ -677,6 +965,11 @@ public class ChannelManager implements MessageHandler
 		{
 			throw (IOException) new IOException("The ping request failed.").initCause(e);
 		}
+
+		long rtt = System.nanoTime() - start;
+
+		c.metrics.roundTripTime.record(rtt);
+		tm.getMetrics().roundTripTime.record(rtt);
 	}
 
 	public void requestPTY(Channel c, String term, int term_width_characters, int term_height_characters,
@@ -911,11 +1204,18 @@ public class ChannelManager implements MessageHandler
 
 			c.localWindow -= len;
 
+			if (c.stderrBuffer == null)
+				c.stderrBuffer = BufferPool.acquire(Channel.CHANNEL_BUFFER_SIZE);
+
 			System.arraycopy(msg, 13, c.stderrBuffer, c.stderrWritepos, len);
 			c.stderrWritepos += len;
 
+			c.metrics.bytesReceived.addAndGet(len);
+
 			c.notifyAll();
 		}
+
+		notifyListener(c);
 	}
 
 	/**
@@ -1006,7 +1306,15 @@ public class ChannelManager implements MessageHandler
 			else
 				avail = c.stdoutWritepos - c.stdoutReadpos;
 
-			return ((avail > 0) ? avail : (c.EOF ? -1 : 0));
+			if (avail > 0)
+				return avail;
+
+			if (!c.EOF)
+				return 0;
+
+			c.releaseBuffersIfDrained();
+
+			return -1;
 		}
 	}
 
@@ -1041,7 +1349,10 @@ public class ChannelManager implements MessageHandler
 				/* Do not wait if more data will never arrive (EOF or CLOSED) */
 
 				if ((c.EOF) || (c.state != Channel.STATE_OPEN))
+				{
+					c.releaseBuffersIfDrained();
 					return -1;
+				}
 
 				try
 				{
@@ -1168,8 +1479,12 @@ public class ChannelManager implements MessageHandler
 			System.arraycopy(msg, 9, c.stdoutBuffer, c.stdoutWritepos, len);
 			c.stdoutWritepos += len;
 
+			c.metrics.bytesReceived.addAndGet(len);
+
 			c.notifyAll();
 		}
+
+		notifyListener(c);
 	}
 
 	public void msgChannelWindowAdjust(byte[] msg, int msglen) throws IOException
@@ -1199,6 +1514,8 @@ public class ChannelManager implements MessageHandler
 			c.notifyAll();
 		}
 
+		notifyListener(c);
+
 		if (log.isEnabled())
 			log.log(80, "Got SSH_MSG_CHANNEL_WINDOW_ADJUST (channel " + id + ", " + windowChange + ")");
 	}
@@ -1298,14 +1615,11 @@ public class ChannelManager implements MessageHandler
 			}
 
 			/*
-			 * The open confirmation message will be sent from another thread.
+			 * The open confirmation message will be sent by the forwarding
+			 * engine once the local target has been connected.
 			 */
 
-			RemoteAcceptThread rat = new RemoteAcceptThread(c, remoteConnectedAddress, remoteConnectedPort,
-					remoteOriginatorAddress, remoteOriginatorPort, rfd.targetAddress, rfd.targetPort);
-
-			rat.setDaemon(true);
-			rat.start();
+			getForwardingEngine().connectRemote(c, rfd.targetAddress, rfd.targetPort);
 
 			return;
 		}
@@ -1444,6 +1758,8 @@ public class ChannelManager implements MessageHandler
 			c.notifyAll();
 		}
 
+		notifyListener(c);
+
 		if (log.isEnabled())
 			log.log(50, "Got SSH_MSG_CHANNEL_EOF (channel " + id + ")");
 	}
@@ -1472,6 +1788,8 @@ public class ChannelManager implements MessageHandler
 			c.notifyAll();
 		}
 
+		notifyListener(c);
+
 		if (log.isEnabled())
 			log.log(50, "Got SSH_MSG_CHANNEL_CLOSE (channel " + id + ")");
 	}
@@ -1543,6 +1861,8 @@ public class ChannelManager implements MessageHandler
 			c.notifyAll();
 		}
 
+		notifyListener(c);
+
 		if (log.isEnabled())
 			log.log(50, "Got SSH_MSG_CHANNEL_OPEN_CONFIRMATION (channel " + sm.recipientChannelID + " / remote: "
 					+ sm.senderChannelID + ")");
@@ -1607,6 +1927,8 @@ public class ChannelManager implements MessageHandler
 			c.notifyAll();
 		}
 
+		notifyListener(c);
+
 		if (log.isEnabled())
 			log.log(50, "Got SSH_MSG_CHANNEL_OPEN_FAILURE (channel " + id + ")");
 	}
@@ -1639,7 +1961,8 @@ public class ChannelManager implements MessageHandler
 	{
 		synchronized (channels)
 		{
-			globalSuccessCounter++;
+			if (keepaliveAnswered() == false)
+				globalSuccessCounter++;
 			channels.notifyAll();
 		}
 
@@ -1651,7 +1974,8 @@ public class ChannelManager implements MessageHandler
 	{
 		synchronized (channels)
 		{
-			globalFailedCounter++;
+			if (keepaliveAnswered() == false)
+				globalFailedCounter++;
 			channels.notifyAll();
 		}
 
@@ -0,0 +1,735 @@
+package com.trilead.ssh2.channel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import net.sourceforge.jsocks.Proxy;
+
+import com.trilead.ssh2.log.Logger;
+import com.trilead.ssh2.packets.Packets;
+
+/**
+ * ForwardingEngine. Multiplexes all forwarded TCP connections (local, dynamic
+ * and remote port forwardings) of one {@link ChannelManager} over a single
+ * selector thread, instead of using an accept thread per forwarding and two
+ * {@link StreamForwarder} threads per forwarded connection.
+ * <p>
+ * Nothing in here ever blocks on a channel: data from a local socket is only
+ * sent as far as the remote window allows, otherwise the socket is not read
+ * any further until the {@link ChannelManager} reports a window adjust.
+ * Likewise, channel data is only consumed (and the local window re-opened) as
+ * fast as the local socket accepts it, so a slow local peer slows down the
+ * SSH peer and not the other forwarded connections.
+ * <p>
+ * All selector operations happen on the engine thread, other threads hand
+ * over work with {@link #runOnEngine(Runnable)}.
+ *
+ * @version $Id$
+ */
+public class ForwardingEngine extends Thread implements IChannelWorkerThread
+{
+	private static final Logger log = Logger.getLogger(ForwardingEngine.class);
+
+	static final int STATE_SOCKS = 1;
+	static final int STATE_CONNECTING = 2;
+	static final int STATE_OPENING = 3;
+	static final int STATE_OPEN = 4;
+	static final int STATE_CLOSED = 5;
+
+	/**
+	 * A listening socket of a local or dynamic port forwarding.
+	 */
+	class Listener
+	{
+		final ServerSocketChannel ssc;
+		final String host_to_connect;
+		final int port_to_connect;
+		final boolean dynamic;
+
+		Listener(ServerSocketChannel ssc, String host_to_connect, int port_to_connect, boolean dynamic)
+		{
+			this.ssc = ssc;
+			this.host_to_connect = host_to_connect;
+			this.port_to_connect = port_to_connect;
+			this.dynamic = dynamic;
+		}
+	}
+
+	/**
+	 * One forwarded connection: a local socket tied to an SSH channel.
+	 */
+	class Forward implements IChannelListener
+	{
+		final SocketChannel sc;
+		SelectionKey key;
+		Channel c;
+
+		int state;
+
+		/* Local socket -> channel, holds data the remote window did not take yet */
+		final ByteBuffer up;
+
+		/* Channel -> local socket, holds data the socket did not take yet */
+		final ByteBuffer down;
+
+		boolean localEOF = false;
+		boolean eofSent = false;
+		boolean remoteEOF = false;
+
+		SocksHandshake socks;
+
+		/* Guarded by the dirty list */
+		boolean dirty = false;
+
+		Forward(SocketChannel sc, int state)
+		{
+			this.sc = sc;
+			this.state = state;
+
+			up = ByteBuffer.wrap(BufferPool.acquire(Channel.CHANNEL_BUFFER_SIZE));
+			up.limit(0);
+			down = ByteBuffer.wrap(BufferPool.acquire(Channel.CHANNEL_BUFFER_SIZE));
+			down.limit(0);
+		}
+
+		public void channelChanged(Channel c)
+		{
+			markDirty(this);
+		}
+	}
+
+	private final ChannelManager cm;
+	private final Selector selector;
+
+	private final LinkedList tasks = new LinkedList();
+	private final LinkedList dirty = new LinkedList();
+
+	private volatile boolean stopped = false;
+
+	ForwardingEngine(ChannelManager cm) throws IOException
+	{
+		this.cm = cm;
+		this.selector = Selector.open();
+
+		setName("ForwardingEngine");
+		setDaemon(true);
+	}
+
+	/**
+	 * Start listening for local connections which are forwarded to a fixed
+	 * destination.
+	 *
+	 * @return a handle for {@link #closeListener(Object)}.
+	 */
+	public Object addLocalListener(InetSocketAddress localAddress, String host_to_connect, int port_to_connect)
+			throws IOException
+	{
+		return addListener(localAddress, host_to_connect, port_to_connect, false);
+	}
+
+	/**
+	 * Start listening for local SOCKS4/5 clients, the destination is taken from
+	 * the SOCKS request.
+	 *
+	 * @return a handle for {@link #closeListener(Object)}.
+	 */
+	public Object addDynamicListener(InetSocketAddress localAddress) throws IOException
+	{
+		return addListener(localAddress, null, 0, true);
+	}
+
+	private Object addListener(InetSocketAddress localAddress, String host_to_connect, int port_to_connect,
+			boolean dynamic) throws IOException
+	{
+		/* Bind in the calling thread, so that errors are reported to the caller */
+
+		final ServerSocketChannel ssc = ServerSocketChannel.open();
+
+		try
+		{
+			ssc.socket().bind(localAddress);
+			ssc.configureBlocking(false);
+		}
+		catch (IOException e)
+		{
+			ssc.close();
+			throw e;
+		}
+
+		final Listener l = new Listener(ssc, host_to_connect, port_to_connect, dynamic);
+
+		runOnEngine(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					ssc.register(selector, SelectionKey.OP_ACCEPT, l);
+				}
+				catch (IOException e)
+				{
+					closeQuietly(ssc);
+				}
+			}
+		});
+
+		return l;
+	}
+
+	/**
+	 * Stop accepting connections for a forwarding. Connections that have
+	 * already been established are not affected.
+	 */
+	public void closeListener(Object handle)
+	{
+		final Listener l = (Listener) handle;
+
+		runOnEngine(new Runnable()
+		{
+			public void run()
+			{
+				closeQuietly(l.ssc);
+			}
+		});
+	}
+
+	/**
+	 * Connect a channel opened by the server (forwarded-tcpip) to a local
+	 * target. The open confirmation (or failure) is sent once the TCP
+	 * connection has been established (or has failed).
+	 */
+	void connectRemote(final Channel c, final String targetAddress, final int targetPort)
+	{
+		runOnEngine(new Runnable()
+		{
+			public void run()
+			{
+				SocketChannel sc = null;
+
+				try
+				{
+					sc = SocketChannel.open();
+					sc.configureBlocking(false);
+
+					Forward f = new Forward(sc, STATE_CONNECTING);
+					f.c = c;
+
+					synchronized (c)
+					{
+						c.listener = f;
+					}
+
+					f.key = sc.register(selector, 0, f);
+
+					if (sc.connect(new InetSocketAddress(targetAddress, targetPort)))
+						connected(f);
+					else
+						f.key.interestOps(SelectionKey.OP_CONNECT);
+				}
+				catch (IOException e)
+				{
+					closeQuietly(sc);
+					cm.sendOpenFailure(c, Packets.SSH_OPEN_CONNECT_FAILED, "Cannot connect to " + targetAddress
+							+ ":" + targetPort + " (" + e.getMessage() + ")");
+				}
+			}
+		});
+	}
+
+	void runOnEngine(Runnable task)
+	{
+		synchronized (tasks)
+		{
+			tasks.addLast(task);
+		}
+		selector.wakeup();
+	}
+
+	void markDirty(Forward f)
+	{
+		synchronized (dirty)
+		{
+			if (f.dirty)
+				return;
+			f.dirty = true;
+			dirty.addLast(f);
+		}
+		selector.wakeup();
+	}
+
+	public void stopWorking()
+	{
+		stopped = true;
+		selector.wakeup();
+	}
+
+	public void run()
+	{
+		try
+		{
+			while (!stopped)
+			{
+				selector.select();
+
+				runTasks();
+
+				Iterator it = selector.selectedKeys().iterator();
+
+				while (it.hasNext())
+				{
+					SelectionKey key = (SelectionKey) it.next();
+					it.remove();
+
+					if (!key.isValid())
+						continue;
+
+					Object attachment = key.attachment();
+
+					if (attachment instanceof Listener)
+						accept((Listener) attachment);
+					else
+						handleReady((Forward) attachment, key);
+				}
+
+				processDirty();
+			}
+		}
+		catch (IOException e)
+		{
+			if (log.isEnabled())
+				log.log(20, "ForwardingEngine: selector failed: " + e.getMessage());
+		}
+		finally
+		{
+			shutdown();
+		}
+	}
+
+	private void runTasks()
+	{
+		while (true)
+		{
+			Runnable task;
+
+			synchronized (tasks)
+			{
+				if (tasks.size() == 0)
+					return;
+				task = (Runnable) tasks.removeFirst();
+			}
+
+			task.run();
+		}
+	}
+
+	private void processDirty()
+	{
+		while (true)
+		{
+			Forward f;
+
+			synchronized (dirty)
+			{
+				if (dirty.size() == 0)
+					return;
+				f = (Forward) dirty.removeFirst();
+				f.dirty = false;
+			}
+
+			pump(f);
+		}
+	}
+
+	private void shutdown()
+	{
+		Iterator it = selector.keys().iterator();
+
+		while (it.hasNext())
+		{
+			SelectionKey key = (SelectionKey) it.next();
+			Object attachment = key.attachment();
+
+			if (attachment instanceof Listener)
+				closeQuietly(((Listener) attachment).ssc);
+			else
+				close((Forward) attachment, "The connection is being shutdown");
+		}
+
+		try
+		{
+			selector.close();
+		}
+		catch (IOException ignore)
+		{
+		}
+	}
+
+	private void accept(Listener l)
+	{
+		while (true)
+		{
+			SocketChannel sc = null;
+
+			try
+			{
+				sc = l.ssc.accept();
+
+				if (sc == null)
+					return;
+
+				sc.configureBlocking(false);
+
+				if (l.dynamic)
+				{
+					Forward f = new Forward(sc, STATE_SOCKS);
+					f.socks = new SocksHandshake();
+					f.key = sc.register(selector, SelectionKey.OP_READ, f);
+				}
+				else
+				{
+					Forward f = new Forward(sc, STATE_OPENING);
+					f.key = sc.register(selector, 0, f);
+					open(f, l.host_to_connect, l.port_to_connect);
+				}
+			}
+			catch (IOException e)
+			{
+				closeQuietly(sc);
+
+				if (!l.ssc.isOpen())
+					return;
+			}
+		}
+	}
+
+	private void open(Forward f, String host_to_connect, int port_to_connect)
+	{
+		Socket s = f.sc.socket();
+
+		f.state = STATE_OPENING;
+
+		try
+		{
+			/* This may fail, e.g., if the remote port is closed (in optimistic terms: not open yet) */
+
+			f.c = cm.openDirectTCPIPChannelAsync(host_to_connect, port_to_connect, s.getInetAddress()
+					.getHostAddress(), s.getPort(), f);
+		}
+		catch (IOException e)
+		{
+			close(f, null);
+		}
+	}
+
+	private void connected(Forward f) throws IOException
+	{
+		f.state = STATE_OPEN;
+		cm.sendOpenConfirmation(f.c);
+		pump(f);
+	}
+
+	private void handleReady(Forward f, SelectionKey key)
+	{
+		try
+		{
+			if (key.isConnectable())
+			{
+				f.sc.finishConnect();
+				connected(f);
+				return;
+			}
+
+			if (key.isReadable())
+			{
+				if (f.state == STATE_SOCKS)
+					readSocks(f);
+				else
+					readLocal(f);
+			}
+		}
+		catch (IOException e)
+		{
+			if (f.state == STATE_CONNECTING)
+			{
+				cm.sendOpenFailure(f.c, Packets.SSH_OPEN_CONNECT_FAILED, "Cannot connect to local target ("
+						+ e.getMessage() + ")");
+				close(f, null);
+			}
+			else
+				close(f, "Closed due to exception in ForwardingEngine: " + e.getMessage());
+			return;
+		}
+
+		pump(f);
+	}
+
+	private void readSocks(Forward f) throws IOException
+	{
+		SocksHandshake hs = f.socks;
+
+		int len = f.sc.read(ByteBuffer.wrap(hs.buffer, hs.length, hs.buffer.length - hs.length));
+
+		if (len < 0)
+		{
+			close(f, null);
+			return;
+		}
+
+		hs.length += len;
+
+		while (true)
+		{
+			switch (hs.process())
+			{
+			case SocksHandshake.NEED_MORE:
+				return;
+
+			case SocksHandshake.REPLY:
+				queueDown(f, hs.reply);
+				break;
+
+			case SocksHandshake.FAILED:
+				if (hs.reply != null)
+					f.sc.write(ByteBuffer.wrap(hs.reply));
+				close(f, null);
+				return;
+
+			case SocksHandshake.CONNECT:
+				/* Anything the client sent after the request goes to the channel once it is open */
+
+				f.up.clear();
+				f.up.put(hs.buffer, 0, hs.length);
+				f.up.flip();
+
+				open(f, hs.host, hs.port);
+				return;
+			}
+		}
+	}
+
+	private void readLocal(Forward f) throws IOException
+	{
+		if (f.up.hasRemaining() || f.localEOF)
+			return;
+
+		f.up.clear();
+		int len = f.sc.read(f.up);
+		f.up.flip();
+
+		if (len < 0)
+			f.localEOF = true;
+	}
+
+	private void queueDown(Forward f, byte[] data)
+	{
+		f.down.compact();
+		f.down.put(data);
+		f.down.flip();
+	}
+
+	/**
+	 * Move as much data as possible in both directions without blocking, then
+	 * update the interest set of the socket.
+	 */
+	private void pump(Forward f)
+	{
+		if (f.state == STATE_CLOSED)
+			return;
+
+		try
+		{
+			if (f.state == STATE_OPENING)
+			{
+				int channelState;
+
+				synchronized (f.c)
+				{
+					channelState = f.c.state;
+				}
+
+				if (channelState == Channel.STATE_OPENING)
+				{
+					/* Nothing to do until the channel is confirmed or refused, which marks us dirty */
+
+					if (f.down.hasRemaining())
+						f.sc.write(f.down);
+
+					updateInterest(f);
+					return;
+				}
+
+				if (channelState != Channel.STATE_OPEN)
+				{
+					if (f.socks != null)
+						f.sc.write(ByteBuffer.wrap(f.socks.failureReply(Proxy.SOCKS_CONNECTION_REFUSED)));
+					close(f, null);
+					return;
+				}
+
+				f.state = STATE_OPEN;
+
+				if (f.socks != null)
+				{
+					queueDown(f, f.socks.successReply());
+					f.socks = null;
+				}
+			}
+
+			if (f.state != STATE_OPEN)
+			{
+				/* SOCKS replies are sent before the channel exists */
+
+				if (f.down.hasRemaining())
+					f.sc.write(f.down);
+
+				updateInterest(f);
+				return;
+			}
+
+			/* Local socket -> channel, limited by the remote window */
+
+			if (f.up.hasRemaining())
+			{
+				int sent = cm.sendDataNonBlocking(f.c, f.up.array(), f.up.position(), f.up.remaining());
+				f.up.position(f.up.position() + sent);
+			}
+
+			if (f.localEOF && !f.eofSent && !f.up.hasRemaining())
+			{
+				cm.sendEOF(f.c);
+				f.eofSent = true;
+			}
+
+			/* Channel -> local socket, limited by what the socket accepts */
+
+			while (true)
+			{
+				if (f.down.hasRemaining())
+				{
+					f.sc.write(f.down);
+
+					if (f.down.hasRemaining())
+						break;
+				}
+
+				if (f.remoteEOF)
+					break;
+
+				int avail = cm.getAvailable(f.c, false);
+
+				if (avail == 0)
+					break;
+
+				if (avail < 0)
+				{
+					f.remoteEOF = true;
+					f.sc.socket().shutdownOutput();
+					break;
+				}
+
+				int len = cm.getChannelData(f.c, false, f.down.array(), 0, f.down.capacity());
+
+				f.down.clear();
+				f.down.limit((len > 0) ? len : 0);
+			}
+
+			if (f.remoteEOF && !f.down.hasRemaining())
+			{
+				boolean channelClosed;
+
+				synchronized (f.c)
+				{
+					channelClosed = (f.c.state == Channel.STATE_CLOSED);
+				}
+
+				if (f.eofSent || channelClosed)
+				{
+					close(f, "EOF on both streams reached.");
+					return;
+				}
+			}
+
+			updateInterest(f);
+		}
+		catch (IOException e)
+		{
+			close(f, "Closed due to exception in ForwardingEngine: " + e.getMessage());
+		}
+	}
+
+	private void updateInterest(Forward f)
+	{
+		int ops = 0;
+
+		if (f.state == STATE_SOCKS)
+			ops = f.down.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+		else if (f.state == STATE_CONNECTING)
+			ops = SelectionKey.OP_CONNECT;
+		else if (f.state == STATE_OPENING)
+			ops = f.down.hasRemaining() ? SelectionKey.OP_WRITE : 0;
+		else if (f.state == STATE_OPEN)
+		{
+			/* Backpressure: do not read more than the remote window took */
+
+			if (!f.localEOF && !f.up.hasRemaining())
+				ops |= SelectionKey.OP_READ;
+
+			if (f.down.hasRemaining())
+				ops |= SelectionKey.OP_WRITE;
+		}
+
+		if (f.key.isValid())
+			f.key.interestOps(ops);
+	}
+
+	private void close(Forward f, String reason)
+	{
+		if (f.state == STATE_CLOSED)
+			return;
+
+		f.state = STATE_CLOSED;
+
+		if ((f.c != null) && (reason != null))
+		{
+			try
+			{
+				/* If the channel is already closed, then this is a no-op */
+
+				cm.closeChannel(f.c, reason, true);
+			}
+			catch (IOException ignore)
+			{
+			}
+		}
+
+		if (f.key != null)
+			f.key.cancel();
+
+		closeQuietly(f.sc);
+
+		BufferPool.release(f.up.array());
+		BufferPool.release(f.down.array());
+	}
+
+	private static void closeQuietly(java.nio.channels.Channel ch)
+	{
+		if (ch == null)
+			return;
+
+		try
+		{
+			ch.close();
+		}
+		catch (IOException ignore)
+		{
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package com.trilead.ssh2.channel;
+
+/**
+ * IChannelListener. Gets notified by the {@link ChannelManager} whenever the
+ * state of a channel changes (data or EOF arrived, the remote window was
+ * adjusted, the channel was opened or closed).
+ * <p>
+ * The notification is delivered from the receive thread (or from the thread
+ * closing the channel), so implementations must neither block nor send
+ * messages - they should merely schedule the real work on another thread.
+ * 
+ * @version $Id$
+ */
+interface IChannelListener
+{
+	public void channelChanged(Channel c);
+}
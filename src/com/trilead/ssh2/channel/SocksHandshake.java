@@ -0,0 +1,249 @@
+package com.trilead.ssh2.channel;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import net.sourceforge.jsocks.Proxy;
+import net.sourceforge.jsocks.Socks5Message;
+
+/**
+ * SocksHandshake. A non-blocking parser for the server side of the SOCKS4,
+ * SOCKS4a and SOCKS5 handshakes, as needed for dynamic port forwarding. Only
+ * the CONNECT command and the "no authentication" method are supported.
+ * <p>
+ * The caller appends received bytes to {@link #buffer} and then invokes
+ * {@link #process()} until it asks for more input.
+ * 
+ * @version $Id$
+ */
+class SocksHandshake
+{
+	static final int NEED_MORE = 0;
+	static final int REPLY = 1;
+	static final int CONNECT = 2;
+	static final int FAILED = 3;
+
+	/* Enough for the largest SOCKS5 request (255 byte host name) */
+
+	final byte[] buffer = new byte[600];
+	int length = 0;
+
+	/* Set by process() */
+
+	byte[] reply;
+	String host;
+	int port;
+
+	private int version = 0;
+	private boolean greeted = false;
+
+	/**
+	 * @return one of the constants above. For REPLY and FAILED,
+	 *         {@link #reply} holds the bytes to send to the client (it may be
+	 *         <code>null</code> for FAILED). For CONNECT, {@link #host} and
+	 *         {@link #port} hold the requested destination.
+	 */
+	int process()
+	{
+		reply = null;
+
+		if (length == 0)
+			return NEED_MORE;
+
+		version = buffer[0];
+
+		if (version == 4)
+			return processSocks4();
+
+		if (version == 5)
+			return greeted ? processSocks5Request() : processSocks5Greeting();
+
+		return FAILED;
+	}
+
+	/**
+	 * @return the reply that tells the client that the connection has been
+	 *         established.
+	 */
+	byte[] successReply()
+	{
+		if (version == 4)
+			return new byte[] { 0, 90, 0, 0, 0, 0, 0, 0 };
+
+		return new byte[] { 5, Proxy.SOCKS_SUCCESS, 0, 1, 0, 0, 0, 0, 0, 0 };
+	}
+
+	/**
+	 * @return the reply that tells the client that the connection could not
+	 *         be established.
+	 */
+	byte[] failureReply(int socks5Error)
+	{
+		if (version == 4)
+			return new byte[] { 0, 91, 0, 0, 0, 0, 0, 0 };
+
+		return new byte[] { 5, (byte) socks5Error, 0, 1, 0, 0, 0, 0, 0, 0 };
+	}
+
+	private void consume(int count)
+	{
+		System.arraycopy(buffer, count, buffer, 0, length - count);
+		length -= count;
+	}
+
+	private int indexOfZero(int from)
+	{
+		for (int i = from; i < length; i++)
+		{
+			if (buffer[i] == 0)
+				return i;
+		}
+		return -1;
+	}
+
+	private int processSocks4()
+	{
+		/* VN CD DSTPORT(2) DSTIP(4) USERID NULL [HOSTNAME NULL] */
+
+		if (length < 9)
+			return NEED_MORE;
+
+		int userEnd = indexOfZero(8);
+
+		if (userEnd == -1)
+			return (length == buffer.length) ? FAILED : NEED_MORE;
+
+		int end = userEnd + 1;
+
+		port = ((buffer[2] & 0xff) << 8) | (buffer[3] & 0xff);
+
+		boolean socks4a = (buffer[4] == 0) && (buffer[5] == 0) && (buffer[6] == 0) && (buffer[7] != 0);
+
+		if (socks4a)
+		{
+			int hostEnd = indexOfZero(end);
+
+			if (hostEnd == -1)
+				return (length == buffer.length) ? FAILED : NEED_MORE;
+
+			host = new String(buffer, end, hostEnd - end);
+			end = hostEnd + 1;
+		}
+		else
+		{
+			host = (buffer[4] & 0xff) + "." + (buffer[5] & 0xff) + "." + (buffer[6] & 0xff) + "."
+					+ (buffer[7] & 0xff);
+		}
+
+		int command = buffer[1];
+
+		consume(end);
+
+		if (command != Proxy.SOCKS_CMD_CONNECT)
+		{
+			reply = failureReply(Proxy.SOCKS_CMD_NOT_SUPPORTED);
+			return FAILED;
+		}
+
+		return CONNECT;
+	}
+
+	private int processSocks5Greeting()
+	{
+		/* VER NMETHODS METHODS */
+
+		if (length < 2)
+			return NEED_MORE;
+
+		int methods = buffer[1] & 0xff;
+
+		if (length < 2 + methods)
+			return NEED_MORE;
+
+		boolean noAuth = false;
+
+		for (int i = 0; i < methods; i++)
+		{
+			if (buffer[2 + i] == 0)
+				noAuth = true;
+		}
+
+		consume(2 + methods);
+
+		if (!noAuth)
+		{
+			reply = new byte[] { 5, (byte) 0xff };
+			return FAILED;
+		}
+
+		greeted = true;
+		reply = new byte[] { 5, 0 };
+		return REPLY;
+	}
+
+	private int processSocks5Request()
+	{
+		/* VER CMD RSV ATYP DST.ADDR DST.PORT(2) */
+
+		if (length < 5)
+			return NEED_MORE;
+
+		int addrType = buffer[3];
+		int addrStart = 4;
+		int addrLen;
+
+		if (addrType == Socks5Message.SOCKS_ATYP_IPV4)
+			addrLen = 4;
+		else if (addrType == Socks5Message.SOCKS_ATYP_IPV6)
+			addrLen = 16;
+		else if (addrType == Socks5Message.SOCKS_ATYP_DOMAINNAME)
+		{
+			addrStart = 5;
+			addrLen = buffer[4] & 0xff;
+		}
+		else
+		{
+			reply = failureReply(Proxy.SOCKS_ADDR_NOT_SUPPORTED);
+			return FAILED;
+		}
+
+		int end = addrStart + addrLen + 2;
+
+		if (length < end)
+			return NEED_MORE;
+
+		if (addrType == Socks5Message.SOCKS_ATYP_DOMAINNAME)
+		{
+			host = new String(buffer, addrStart, addrLen);
+		}
+		else
+		{
+			byte[] addr = new byte[addrLen];
+			System.arraycopy(buffer, addrStart, addr, 0, addrLen);
+
+			try
+			{
+				host = InetAddress.getByAddress(addr).getHostAddress();
+			}
+			catch (UnknownHostException e)
+			{
+				reply = failureReply(Proxy.SOCKS_ADDR_NOT_SUPPORTED);
+				return FAILED;
+			}
+		}
+
+		port = ((buffer[end - 2] & 0xff) << 8) | (buffer[end - 1] & 0xff);
+
+		int command = buffer[1];
+
+		consume(end);
+
+		if (command != Proxy.SOCKS_CMD_CONNECT)
+		{
+			reply = failureReply(Proxy.SOCKS_CMD_NOT_SUPPORTED);
+			return FAILED;
+		}
+
+		return CONNECT;
+	}
+}
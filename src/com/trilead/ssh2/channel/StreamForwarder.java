@@ -19,7 +19,6 @@ public class StreamForwarder extends Thread
 {
 	final OutputStream os;
 	final InputStream is;
-	final byte[] buffer = new byte[Channel.CHANNEL_BUFFER_SIZE];
 	final Channel c;
 	final StreamForwarder sibling;
 	final Socket s;
@@ -38,11 +37,13 @@ public class StreamForwarder extends Thread
 
 	public void run()
 	{
+		byte[] buffer = BufferPool.acquire(Channel.CHANNEL_BUFFER_SIZE);
+
 		try
 		{
 			while (true)
 			{
-				int len = is.read(buffer);
+				int len = is.read(buffer, 0, Channel.CHANNEL_BUFFER_SIZE);
 				if (len <= 0)
 					break;
 				os.write(buffer, 0, len);
@@ -62,6 +63,8 @@ public class StreamForwarder extends Thread
 		}
 		finally
 		{
+			BufferPool.release(buffer);
+
 			try
 			{
 				os.close();
@@ -11,7 +11,8 @@ import com.trilead.ssh2.crypto.cipher.BlockCipher;
 import com.trilead.ssh2.crypto.cipher.CBCMode;
 import com.trilead.ssh2.crypto.cipher.DES;
 import com.trilead.ssh2.crypto.cipher.DESede;
-import com.trilead.ssh2.crypto.digest.MD5;
+import com.trilead.ssh2.crypto.digest.Digest;
+import com.trilead.ssh2.crypto.digest.DigestFactory;
 import com.trilead.ssh2.signature.DSAPrivateKey;
 import com.trilead.ssh2.signature.RSAPrivateKey;
 
@@ -73,7 +74,7 @@ public class PEMDecoder
 		if (salt.length < 8)
 			throw new IllegalArgumentException("Salt needs to be at least 8 bytes for key generation.");
 
-		MD5 md5 = new MD5();
+		Digest md5 = DigestFactory.createDigest("MD5");
 
 		byte[] key = new byte[keyLen];
 		byte[] tmp = new byte[md5.getDigestLength()];
@@ -0,0 +1,115 @@
+package com.trilead.ssh2.crypto.digest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * DigestFactory. Creates {@link Digest} instances for a given algorithm. If
+ * the platform has a <code>java.security.MessageDigest</code> (or, for HMACs,
+ * a <code>javax.crypto.Mac</code>) for the algorithm, then that one is used -
+ * on most platforms these are native code and considerably faster. Otherwise
+ * the bundled {@link SHA1} and {@link MD5} implementations are used.
+ * 
+ * @version $Id$
+ */
+public class DigestFactory
+{
+	private static volatile boolean providerEnabled = true;
+
+	/**
+	 * Enable or disable the use of the platform's security providers. When
+	 * disabled, only the bundled implementations are used (and SHA-2 is not
+	 * available). Mainly useful for comparing the implementations.
+	 * 
+	 * @param enabled
+	 */
+	public static void setProviderEnabled(boolean enabled)
+	{
+		providerEnabled = enabled;
+	}
+
+	public static boolean isProviderEnabled()
+	{
+		return providerEnabled;
+	}
+
+	private static String getProviderName(String type)
+	{
+		if (type.equals("SHA1"))
+			return "SHA-1";
+		if (type.equals("MD5"))
+			return "MD5";
+		if (type.equals("SHA256"))
+			return "SHA-256";
+		if (type.equals("SHA512"))
+			return "SHA-512";
+		throw new IllegalArgumentException("Unknown algorithm " + type);
+	}
+
+	private static Digest createBundledDigest(String type)
+	{
+		if (type.equals("SHA1"))
+			return new SHA1();
+		if (type.equals("MD5"))
+			return new MD5();
+		throw new IllegalArgumentException("No implementation available for " + type);
+	}
+
+	/**
+	 * @param type
+	 *            "SHA1", "MD5", "SHA256" or "SHA512".
+	 * @return a new digest instance.
+	 */
+	public static Digest createDigest(String type)
+	{
+		String name = getProviderName(type);
+
+		if (providerEnabled)
+		{
+			try
+			{
+				return new JCEDigest(MessageDigest.getInstance(name));
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+			}
+		}
+
+		return createBundledDigest(type);
+	}
+
+	/**
+	 * @param type
+	 *            "SHA1", "MD5", "SHA256" or "SHA512".
+	 * @param key
+	 *            the HMAC key.
+	 * @param size
+	 *            the length of the (possibly truncated) HMAC output.
+	 * @return a new HMAC instance, ready for use.
+	 */
+	public static Digest createHMAC(String type, byte[] key, int size)
+	{
+		if (providerEnabled && (key.length > 0))
+		{
+			String name = "Hmac" + getProviderName(type).replace("-", "");
+
+			try
+			{
+				Mac mac = Mac.getInstance(name);
+				mac.init(new SecretKeySpec(key, name));
+
+				if (size <= mac.getMacLength())
+					return new JCEMac(mac, size);
+			}
+			catch (Exception e)
+			{
+				/* No such algorithm or unusable key, use the bundled code */
+			}
+		}
+
+		return new HMAC(createDigest(type), key, size);
+	}
+}
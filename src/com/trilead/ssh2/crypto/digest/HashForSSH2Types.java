@@ -20,16 +20,7 @@ public class HashForSSH2Types
 
 	public HashForSSH2Types(String type)
 	{
-		if (type.equals("SHA1"))
-		{
-			md = new SHA1();
-		}
-		else if (type.equals("MD5"))
-		{
-			md = new MD5();
-		}
-		else
-			throw new IllegalArgumentException("Unknown algorithm " + type);
+		md = DigestFactory.createDigest(type);
 	}
 
 	public void updateByte(byte b)
@@ -0,0 +1,62 @@
+package com.trilead.ssh2.crypto.digest;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * JCEDigest. Adapts a <code>java.security.MessageDigest</code> to the
+ * {@link Digest} interface.
+ * 
+ * @version $Id$
+ */
+public final class JCEDigest implements Digest
+{
+	private final MessageDigest md;
+
+	public JCEDigest(MessageDigest md)
+	{
+		this.md = md;
+	}
+
+	public final int getDigestLength()
+	{
+		return md.getDigestLength();
+	}
+
+	public final void update(byte b)
+	{
+		md.update(b);
+	}
+
+	public final void update(byte[] b)
+	{
+		md.update(b);
+	}
+
+	public final void update(byte[] b, int off, int len)
+	{
+		md.update(b, off, len);
+	}
+
+	public final void reset()
+	{
+		md.reset();
+	}
+
+	public final void digest(byte[] out)
+	{
+		digest(out, 0);
+	}
+
+	public final void digest(byte[] out, int off)
+	{
+		try
+		{
+			md.digest(out, off, md.getDigestLength());
+		}
+		catch (DigestException e)
+		{
+			throw new IllegalArgumentException("Output buffer too small: " + e.getMessage());
+		}
+	}
+}
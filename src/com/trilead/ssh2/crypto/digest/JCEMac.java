@@ -0,0 +1,76 @@
+package com.trilead.ssh2.crypto.digest;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+/**
+ * JCEMac. Adapts an initialized <code>javax.crypto.Mac</code> to the
+ * {@link Digest} interface, with the same semantics as {@link HMAC}: the
+ * output may be truncated, and the instance is ready for the next message
+ * after {@link #digest(byte[], int)}.
+ * 
+ * @version $Id$
+ */
+public final class JCEMac implements Digest
+{
+	private final Mac mac;
+	private final int size;
+	private final byte[] tmp;
+
+	public JCEMac(Mac mac, int size)
+	{
+		this.mac = mac;
+		this.size = size;
+		this.tmp = new byte[mac.getMacLength()];
+	}
+
+	public final int getDigestLength()
+	{
+		return size;
+	}
+
+	public final void update(byte b)
+	{
+		mac.update(b);
+	}
+
+	public final void update(byte[] b)
+	{
+		mac.update(b);
+	}
+
+	public final void update(byte[] b, int off, int len)
+	{
+		mac.update(b, off, len);
+	}
+
+	public final void reset()
+	{
+		mac.reset();
+	}
+
+	public final void digest(byte[] out)
+	{
+		digest(out, 0);
+	}
+
+	public final void digest(byte[] out, int off)
+	{
+		try
+		{
+			if (size == tmp.length)
+			{
+				mac.doFinal(out, off);
+				return;
+			}
+
+			mac.doFinal(tmp, 0);
+		}
+		catch (ShortBufferException e)
+		{
+			throw new IllegalArgumentException("Output buffer too small: " + e.getMessage());
+		}
+
+		System.arraycopy(tmp, 0, out, off, size);
+	}
+}
@@ -42,19 +42,19 @@ public final class MAC
 	{
 		if (type.equals("hmac-sha1"))
 		{
-			mac = new HMAC(new SHA1(), key, 20);
+			mac = DigestFactory.createHMAC("SHA1", key, 20);
 		}
 		else if (type.equals("hmac-sha1-96"))
 		{
-			mac = new HMAC(new SHA1(), key, 12);
+			mac = DigestFactory.createHMAC("SHA1", key, 12);
 		}
 		else if (type.equals("hmac-md5"))
 		{
-			mac = new HMAC(new MD5(), key, 16);
+			mac = DigestFactory.createHMAC("MD5", key, 16);
 		}
 		else if (type.equals("hmac-md5-96"))
 		{
-			mac = new HMAC(new MD5(), key, 12);
+			mac = DigestFactory.createHMAC("MD5", key, 12);
 		}
 		else
 			throw new IllegalArgumentException("Unkown algorithm " + type);
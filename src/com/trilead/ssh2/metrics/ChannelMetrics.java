@@ -0,0 +1,31 @@
+package com.trilead.ssh2.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChannelMetrics. Counters and histograms for one channel. All durations are
+ * in nanoseconds. Use {@link com.trilead.ssh2.Session#getMetrics()} to obtain
+ * the instance of a session.
+ *
+ * @version $Id$
+ */
+public class ChannelMetrics
+{
+	/** Payload bytes sent (stdin). */
+	public final AtomicLong bytesSent = new AtomicLong();
+
+	/** Payload bytes received (stdout and stderr). */
+	public final AtomicLong bytesReceived = new AtomicLong();
+
+	/** Time spent waiting for the remote window to open. */
+	public final Histogram windowStallTime = new Histogram();
+
+	/** Round trip times of channel pings. */
+	public final Histogram roundTripTime = new Histogram();
+
+	public String toString()
+	{
+		return "sent=" + bytesSent.get() + "B received=" + bytesReceived.get() + "B stall[" + windowStallTime
+				+ "] rtt[" + roundTripTime + "]";
+	}
+}
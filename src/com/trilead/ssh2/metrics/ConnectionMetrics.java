@@ -0,0 +1,53 @@
+package com.trilead.ssh2.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConnectionMetrics. Counters and histograms for one SSH connection, updated
+ * by the transport and channel layers without taking locks. All durations
+ * are in nanoseconds. Use
+ * {@link com.trilead.ssh2.Connection#getMetrics()} to obtain the instance of
+ * a connection.
+ *
+ * @version $Id$
+ */
+public class ConnectionMetrics
+{
+	/** Bytes written to the socket, including packet framing and MACs. */
+	public final AtomicLong bytesSent = new AtomicLong();
+
+	/** Bytes read from the socket, including packet framing and MACs. */
+	public final AtomicLong bytesReceived = new AtomicLong();
+
+	public final AtomicLong packetsSent = new AtomicLong();
+
+	public final AtomicLong packetsReceived = new AtomicLong();
+
+	/**
+	 * Time to read and decrypt the remainder of a packet after its first
+	 * block. For large packets this includes waiting for the network.
+	 */
+	public final Histogram decryptTime = new Histogram();
+
+	/** Time to compute (and, for received packets, verify) a packet MAC. */
+	public final Histogram macTime = new Histogram();
+
+	/** Duration of key exchanges, from KEXINIT to NEWKEYS. */
+	public final Histogram rekeyTime = new Histogram();
+
+	/** Round trip times of global and channel pings. */
+	public final Histogram roundTripTime = new Histogram();
+
+	/**
+	 * Time senders spent waiting for the remote window to open, summed up
+	 * over all channels of this connection.
+	 */
+	public final Histogram windowStallTime = new Histogram();
+
+	public String toString()
+	{
+		return "sent=" + bytesSent.get() + "B/" + packetsSent.get() + "p received=" + bytesReceived.get() + "B/"
+				+ packetsReceived.get() + "p decrypt[" + decryptTime + "] mac[" + macTime + "] rekey[" + rekeyTime
+				+ "] rtt[" + roundTripTime + "] stall[" + windowStallTime + "]";
+	}
+}
@@ -0,0 +1,98 @@
+package com.trilead.ssh2.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram. A lock-free histogram of non-negative values (usually durations
+ * in nanoseconds) with power-of-two buckets. Recording a value costs a few
+ * atomic increments and never allocates, so it can be used on the packet
+ * path. Percentiles are therefore only accurate to a factor of two.
+ *
+ * @version $Id$
+ */
+public class Histogram
+{
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Add a value. Negative values are counted as zero.
+	 */
+	public void record(long value)
+	{
+		if (value < 0)
+			value = 0;
+
+		/* Bucket i holds the values below 2^i that do not fit into bucket i - 1 */
+
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		while (true)
+		{
+			long m = max.get();
+
+			if ((value <= m) || max.compareAndSet(m, value))
+				break;
+		}
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public long getSum()
+	{
+		return sum.get();
+	}
+
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	public long getMean()
+	{
+		long n = count.get();
+
+		return (n == 0) ? 0 : (sum.get() / n);
+	}
+
+	/**
+	 * @param fraction
+	 *            e.g., 0.99 for the 99th percentile.
+	 * @return an upper bound for the requested percentile, or 0 if nothing has
+	 *         been recorded yet.
+	 */
+	public long getPercentile(double fraction)
+	{
+		long n = count.get();
+
+		if (n == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(fraction * n);
+		long seen = 0;
+
+		for (int i = 0; i < 64; i++)
+		{
+			seen += buckets.get(i);
+
+			if (seen >= rank)
+				return Math.min((1L << i) - 1, max.get());
+		}
+
+		return max.get();
+	}
+
+	public String toString()
+	{
+		return "n=" + getCount() + " mean=" + getMean() + " p50=" + getPercentile(0.5) + " p99="
+				+ getPercentile(0.99) + " max=" + getMax();
+	}
+}
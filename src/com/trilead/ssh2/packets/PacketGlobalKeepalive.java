@@ -0,0 +1,33 @@
+
+package com.trilead.ssh2.packets;
+
+/**
+ * PacketGlobalKeepalive. A global request that servers do not know and
+ * answer with SSH_MSG_REQUEST_FAILURE, as sent by OpenSSH clients to check
+ * that the server is alive.
+ *
+ * @version $Id$
+ */
+public class PacketGlobalKeepalive
+{
+	byte[] payload;
+
+	public PacketGlobalKeepalive()
+	{
+	}
+
+	public byte[] getPayload()
+	{
+		if (payload == null)
+		{
+			TypesWriter tw = new TypesWriter();
+			tw.writeByte(Packets.SSH_MSG_GLOBAL_REQUEST);
+
+			tw.writeString("keepalive@openssh.com");
+			tw.writeBoolean(true);
+
+			payload = tw.getBytes();
+		}
+		return payload;
+	}
+}
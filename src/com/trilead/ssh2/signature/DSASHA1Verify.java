@@ -5,7 +5,8 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 
-import com.trilead.ssh2.crypto.digest.SHA1;
+import com.trilead.ssh2.crypto.digest.Digest;
+import com.trilead.ssh2.crypto.digest.DigestFactory;
 import com.trilead.ssh2.log.Logger;
 import com.trilead.ssh2.packets.TypesReader;
 import com.trilead.ssh2.packets.TypesWriter;
@@ -129,7 +130,7 @@ public class DSASHA1Verify
 	{
 		/* Inspired by Bouncycastle's DSASigner class */
 
-		SHA1 md = new SHA1();
+		Digest md = DigestFactory.createDigest("SHA1");
 		md.update(message);
 		byte[] sha_message = new byte[md.getDigestLength()];
 		md.digest(sha_message);
@@ -184,7 +185,7 @@ public class DSASHA1Verify
 
 	public static DSASignature generateSignature(byte[] message, DSAPrivateKey pk, SecureRandom rnd)
 	{
-		SHA1 md = new SHA1();
+		Digest md = DigestFactory.createDigest("SHA1");
 		md.update(message);
 		byte[] sha_message = new byte[md.getDigestLength()];
 		md.digest(sha_message);
@@ -5,7 +5,8 @@ import java.io.IOException;
 import java.math.BigInteger;
 
 import com.trilead.ssh2.crypto.SimpleDERReader;
-import com.trilead.ssh2.crypto.digest.SHA1;
+import com.trilead.ssh2.crypto.digest.Digest;
+import com.trilead.ssh2.crypto.digest.DigestFactory;
 import com.trilead.ssh2.log.Logger;
 import com.trilead.ssh2.packets.TypesReader;
 import com.trilead.ssh2.packets.TypesWriter;
@@ -105,7 +106,7 @@ public class RSASHA1Verify
 
 	public static RSASignature generateSignature(byte[] message, RSAPrivateKey pk) throws IOException
 	{
-		SHA1 md = new SHA1();
+		Digest md = DigestFactory.createDigest("SHA1");
 		md.update(message);
 		byte[] sha_message = new byte[md.getDigestLength()];
 		md.digest(sha_message);
@@ -143,7 +144,7 @@ public class RSASHA1Verify
 
 	public static boolean verifySignature(byte[] message, RSASignature ds, RSAPublicKey dpk) throws IOException
 	{
-		SHA1 md = new SHA1();
+		Digest md = DigestFactory.createDigest("SHA1");
 		md.update(message);
 		byte[] sha_message = new byte[md.getDigestLength()];
 		md.digest(sha_message);
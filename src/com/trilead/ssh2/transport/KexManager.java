@@ -489,6 +489,8 @@ public class KexManager
 			tm.changeRecvCipher(cbc, mac);
 			tm.changeRecvCompression(comp);
 
+			tm.getMetrics().rekeyTime.record(System.nanoTime() - kxs.startTime);
+
 			ConnectionInfo sci = new ConnectionInfo();
 
 			kexCount++;
@@ -29,4 +29,7 @@ public class KexState
 	public DhExchange dhx;
 	public DhGroupExchange dhgx;
 	public DHGexParameters dhgexParameters;
+
+	/* System.nanoTime() when this key exchange started */
+	public final long startTime = System.nanoTime();
 }
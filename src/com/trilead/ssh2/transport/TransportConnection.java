@@ -13,6 +13,7 @@ import com.trilead.ssh2.crypto.cipher.CipherOutputStream;
 import com.trilead.ssh2.crypto.cipher.NullCipher;
 import com.trilead.ssh2.crypto.digest.MAC;
 import com.trilead.ssh2.log.Logger;
+import com.trilead.ssh2.metrics.ConnectionMetrics;
 import com.trilead.ssh2.packets.Packets;
 
 
@@ -80,11 +81,14 @@ public class TransportConnection
 
 	final SecureRandom rnd;
 
-	public TransportConnection(InputStream is, OutputStream os, SecureRandom rnd)
+	final ConnectionMetrics metrics;
+
+	public TransportConnection(InputStream is, OutputStream os, SecureRandom rnd, ConnectionMetrics metrics)
 	{
 		this.cis = new CipherInputStream(new NullCipher(), is);
 		this.cos = new CipherOutputStream(new NullCipher(), os);
 		this.rnd = rnd;
+		this.metrics = metrics;
 	}
 
 	public void changeRecvCipher(BlockCipher bc, MAC mac)
@@ -219,19 +223,30 @@ public class TransportConnection
 		cos.write(message, off, len);
 		cos.write(send_padding_buffer, 0, padd_len);
 
+		int mac_len = 0;
+
 		if (send_mac != null)
 		{
+			long macStart = System.nanoTime();
+
 			send_mac.initMac(send_seq_number);
 			send_mac.update(send_packet_header_buffer, 0, 5);
 			send_mac.update(message, off, len);
 			send_mac.update(send_padding_buffer, 0, padd_len);
 
 			send_mac.getMac(send_mac_buffer, 0);
+
+			metrics.macTime.record(System.nanoTime() - macStart);
+
 			cos.writePlain(send_mac_buffer, 0, send_mac_buffer.length);
+			mac_len = send_mac_buffer.length;
 		}
 
 		cos.flush();
 
+		metrics.packetsSent.incrementAndGet();
+		metrics.bytesSent.addAndGet(packet_len + mac_len);
+
 		if (log.isEnabled())
 		{
 			log.log(90, "Sent " + Packets.getMessageName(message[off] & 0xff) + " " + len + " bytes payload");
@@ -291,13 +306,21 @@ public class TransportConnection
 		if (payload_length >= len)
 			throw new IOException("Receive buffer too small (" + len + ", need " + payload_length + ")");
 
+		long decryptStart = System.nanoTime();
+
 		cis.read(buffer, off, payload_length);
 		cis.read(recv_padding_buffer, 0, padding_length);
 
+		metrics.decryptTime.record(System.nanoTime() - decryptStart);
+
+		int mac_len = 0;
+
 		if (recv_mac != null)
 		{
 			cis.readPlain(recv_mac_buffer, 0, recv_mac_buffer.length);
 
+			long macStart = System.nanoTime();
+
 			recv_mac.initMac(recv_seq_number);
 			recv_mac.update(recv_packet_header_buffer, 0, 5);
 			recv_mac.update(buffer, off, payload_length);
@@ -309,8 +332,15 @@ public class TransportConnection
 				if (recv_mac_buffer[i] != recv_mac_buffer_cmp[i])
 					throw new IOException("Remote sent corrupt MAC.");
 			}
+
+			metrics.macTime.record(System.nanoTime() - macStart);
+
+			mac_len = recv_mac_buffer.length;
 		}
 
+		metrics.packetsReceived.incrementAndGet();
+		metrics.bytesReceived.addAndGet(4 + packet_length + mac_len);
+
 		recv_seq_number++;
 
 		if (log.isEnabled())
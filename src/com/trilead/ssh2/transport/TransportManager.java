@@ -24,6 +24,7 @@ import com.trilead.ssh2.crypto.CryptoWishList;
 import com.trilead.ssh2.crypto.cipher.BlockCipher;
 import com.trilead.ssh2.crypto.digest.MAC;
 import com.trilead.ssh2.log.Logger;
+import com.trilead.ssh2.metrics.ConnectionMetrics;
 import com.trilead.ssh2.packets.PacketDisconnect;
 import com.trilead.ssh2.packets.Packets;
 import com.trilead.ssh2.packets.TypesReader;
@@ -66,6 +67,8 @@ public class TransportManager
 	private final Vector<byte[]> asynchronousQueue = new Vector<byte[]>();
 	private Thread asynchronousThread = null;
 
+	private final ConnectionMetrics metrics = new ConnectionMetrics();
+
 	class AsynchronousWorker extends Thread
 	{
 		public void run()
@@ -211,6 +214,11 @@ public class TransportManager
 		this.port = port;
 	}
 
+	public ConnectionMetrics getMetrics()
+	{
+		return metrics;
+	}
+
 	public int getPacketOverheadEstimate()
 	{
 		return tc.getPacketOverheadEstimate();
@@ -456,7 +464,7 @@ public class TransportManager
 
 		ClientServerHello csh = new ClientServerHello(sock.getInputStream(), sock.getOutputStream());
 
-		tc = new TransportConnection(sock.getInputStream(), sock.getOutputStream(), rnd);
+		tc = new TransportConnection(sock.getInputStream(), sock.getOutputStream(), rnd, metrics);
 
 		km = new KexManager(this, csh, cwl, hostname, port, verifier, rnd);
 		km.initiateKEX(cwl, dhgex);
@@ -3,8 +3,7 @@ package com.trilead.ssh2.util;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.PriorityQueue;
 
 import com.trilead.ssh2.log.Logger;
 
@@ -16,7 +15,11 @@ import com.trilead.ssh2.log.Logger;
  * that rely on timeouts, then there will be only one timeout thread. Once all timeouts
  * have expired/are cancelled, the thread will (sooner or later) exit.
  * Only after new timeouts arrive a new thread (singleton) will be instantiated.
- * 
+ * <p>
+ * Timeouts are kept in a priority queue, so adding one takes logarithmic time.
+ * Handlers run without holding the lock of the queue, so they may add or cancel
+ * timeouts themselves, e.g. to reschedule periodic work.
+ *
  * @author Christian Plattner, plattner@trilead.com
  * @version $Id: TimeoutService.java,v 1.1 2007/10/15 12:49:57 cplattne Exp $
  */
@@ -27,11 +30,13 @@ public class TimeoutService
 	public static class TimeoutToken implements Comparable
 	{
 		private long runTime;
+		private long sequence;
 		private Runnable handler;
 
-		private TimeoutToken(long runTime, Runnable handler)
+		private TimeoutToken(long runTime, long sequence, Runnable handler)
 		{
 			this.runTime = runTime;
+			this.sequence = sequence;
 			this.handler = handler;
 		}
 
@@ -40,7 +45,14 @@ public class TimeoutService
 			TimeoutToken t = (TimeoutToken) o;
 			if (runTime > t.runTime)
 				return 1;
-			if (runTime == t.runTime)
+			if (runTime < t.runTime)
+				return -1;
+
+			/* Timeouts for the same time run in the order they were added */
+
+			if (sequence > t.sequence)
+				return 1;
+			if (sequence == t.sequence)
 				return 0;
 			return -1;
 		}
@@ -50,11 +62,15 @@ public class TimeoutService
 	{
 		public void run()
 		{
-			synchronized (todolist)
+			while (true)
 			{
-				while (true)
+				TimeoutToken tt;
+
+				synchronized (todolist)
 				{
-					if (todolist.size() == 0)
+					tt = (TimeoutToken) todolist.peek();
+
+					if (tt == null)
 					{
 						timeoutThread = null;
 						return;
@@ -62,8 +78,6 @@ public class TimeoutService
 
 					long now = System.currentTimeMillis();
 
-					TimeoutToken tt = (TimeoutToken) todolist.getFirst();
-
 					if (tt.runTime > now)
 					{
 						/* Not ready yet, sleep a little bit */
@@ -84,65 +98,67 @@ public class TimeoutService
 						continue;
 					}
 
-					todolist.removeFirst();
+					todolist.poll();
+				}
 
-					try
-					{
-						tt.handler.run();
-					}
-					catch (Exception e)
-					{
-						StringWriter sw = new StringWriter();
-						e.printStackTrace(new PrintWriter(sw));
-						log.log(20, "Exeception in Timeout handler:" + e.getMessage() + "(" + sw.toString() + ")");
-					}
+				try
+				{
+					tt.handler.run();
+				}
+				catch (Exception e)
+				{
+					StringWriter sw = new StringWriter();
+					e.printStackTrace(new PrintWriter(sw));
+					log.log(20, "Exeception in Timeout handler:" + e.getMessage() + "(" + sw.toString() + ")");
 				}
 			}
 		}
 	}
 
-	/* The list object is also used for locking purposes */
-	private static final LinkedList todolist = new LinkedList();
+	/* The queue object is also used for locking purposes */
+	private static final PriorityQueue todolist = new PriorityQueue();
+
+	private static long nextSequence = 0;
 
 	private static Thread timeoutThread = null;
 
 	/**
 	 * It is assumed that the passed handler will not execute for a long time.
-	 * 
+	 *
 	 * @param runTime
 	 * @param handler
 	 * @return a TimeoutToken that can be used to cancel the timeout.
 	 */
 	public static final TimeoutToken addTimeoutHandler(long runTime, Runnable handler)
 	{
-		TimeoutToken token = new TimeoutToken(runTime, handler);
-
 		synchronized (todolist)
 		{
+			TimeoutToken token = new TimeoutToken(runTime, nextSequence++, handler);
+
 			todolist.add(token);
-			Collections.sort(todolist);
 
-			if (timeoutThread != null)
-				timeoutThread.interrupt();
-			else
+			if (timeoutThread == null)
 			{
 				timeoutThread = new TimeoutThread();
 				timeoutThread.setDaemon(true);
 				timeoutThread.start();
 			}
-		}
+			else if (todolist.peek() == token)
+			{
+				/* The thread may be waiting for a later timeout */
+				todolist.notify();
+			}
 
-		return token;
+			return token;
+		}
 	}
 
 	public static final void cancelTimeoutHandler(TimeoutToken token)
 	{
 		synchronized (todolist)
 		{
+			/* A cancelled head leaves the thread waiting too long, which is harmless */
 			todolist.remove(token);
-
-			if (timeoutThread != null)
-				timeoutThread.interrupt();
 		}
 	}
 
@@ -43,8 +43,18 @@ public abstract class TelnetProtocolHandler {
   /** debug level */
   private final static int debug = 0;
 
-  /** temporary buffer for data-telnetstuff-data transformation */
-  private byte[] tempbuf = new byte[0];
+  /** initial size of the ring buffer for input not processed yet */
+  private final static int RING_SIZE = 4096;
+
+  /** ring buffer for input that was fed or left over, not processed yet */
+  private byte[] ring = new byte[RING_SIZE];
+  /** position of the first unprocessed byte in the ring */
+  private int ringStart = 0;
+  /** number of unprocessed bytes in the ring */
+  private int ringCount = 0;
+
+  /** number of input bytes used by the last call to process() */
+  private int processed;
 
   /** the data sent on pressing <RETURN>  \n */
   private byte[] crlf = new byte[2];
@@ -113,6 +123,9 @@ public abstract class TelnetProtocolHandler {
    */
   public void reset() {
     neg_state = 0;
+    ringStart = 0;
+    ringCount = 0;
+    sblen = 0;
     receivedDX = new byte[256];
     sentDX = new byte[256];
     receivedWX = new byte[256];
@@ -142,7 +155,12 @@ public abstract class TelnetProtocolHandler {
   private byte current_sb;
 
   /** current SB negotiation buffer */
-  private byte[] sbbuf;
+  private byte[] sbbuf = new byte[64];
+  /** number of bytes in the SB negotiation buffer */
+  private int sblen;
+
+  /** buffer for three byte replies */
+  private byte[] sendbuf = new byte[3];
 
   /** IAC - init sequence for telnet negotiation. */
   private final static byte IAC  = (byte)255;
@@ -234,15 +252,16 @@ public abstract class TelnetProtocolHandler {
   /**
    * Handle an incoming IAC SB &lt;type&gt; &lt;bytes&gt; IAC SE
    * @param type type of SB
-   * @param sbata byte array as &lt;bytes&gt;
+   * @param sbdata byte array as &lt;bytes&gt;
+   * @param sblength number of bytes used in sbdata
    */
-  private void handle_sb(byte type, byte[] sbdata)
+  private void handle_sb(byte type, byte[] sbdata, int sblength)
     throws IOException {
     if(debug > 1)
       System.err.println("TelnetIO.handle_sb("+type+")");
     switch (type) {
     case TELOPT_TTYPE:
-      if (sbdata.length>0 && sbdata[0]==TELQUAL_SEND) {
+      if (sblength>0 && sbdata[0]==TELQUAL_SEND) {
         write(IACSB);write(TELOPT_TTYPE);write(TELQUAL_IS);
         /* FIXME: need more logic here if we use
          * more than one terminal type
@@ -256,7 +275,7 @@ public abstract class TelnetProtocolHandler {
     case TELOPT_CHARSET:
         System.out.println("Got SB CHARSET");
 
-      String charsetStr = new String(sbdata, "US-ASCII");
+      String charsetStr = new String(sbdata, 0, sblength, "US-ASCII");
       if (charsetStr.startsWith("TTABLE ")) {
         charsetStr = charsetStr.substring(7);
       }
@@ -355,7 +374,9 @@ public abstract class TelnetProtocolHandler {
   public void setCR(String xcr) { cr = xcr.getBytes(); }
 
   /**
-   * Handle telnet protocol negotiation. The buffer will be parsed
+   * Handle telnet protocol negotiation for input fed with
+   * {@link #inputfeed(byte[], int, int)} or left over from
+   * {@link #negotiateInPlace(byte[], int, int)}. The buffer will be parsed
    * and necessary actions are taken according to the telnet protocol.
    * See <A HREF="RFC-Telnet-URL">RFC-Telnet</A>
    * @param nbuf the byte buffer put out after negotiation
@@ -364,23 +385,79 @@ public abstract class TelnetProtocolHandler {
   public int negotiate(byte nbuf[], int offset)
   throws IOException
   {
-    int count = tempbuf.length;
-    byte[] buf = tempbuf;
-    byte sendbuf[] = new byte[3];
+    return negotiate(nbuf, offset, nbuf.length - offset);
+  }
+
+  /**
+   * Like {@link #negotiate(byte[], int)}, putting out at most len bytes.
+   */
+  public int negotiate(byte nbuf[], int offset, int len)
+  throws IOException
+  {
+    if (ringCount == 0) 	// buffer is empty.
+      return -1;
+
+    int n = 0;
+    while (ringCount > 0 && n < len) {
+      int chunk = Math.min(ringCount, ring.length - ringStart);
+      n += process(ring, ringStart, chunk, nbuf, offset + n, len - n);
+
+      ringStart = (ringStart + processed) % ring.length;
+      ringCount -= processed;
+      if (processed < chunk)
+        break;
+    }
+    return n;
+  }
+
+  /**
+   * Handle telnet protocol negotiation for input just read into buf. The
+   * data is left at the start of the same range with the telnet commands
+   * taken out, so no copy is made. Input after a point where the data has
+   * to be handed out first is kept for {@link #negotiate(byte[], int)}.
+   * @param buf the input, and the data after negotiation
+   * @return number of data bytes at offset, 0 for none
+   */
+  public int negotiateInPlace(byte buf[], int offset, int len)
+  throws IOException
+  {
+    int n = process(buf, offset, len, buf, offset, len);
+    if (processed < len)
+      inputfeed(buf, offset + processed, len - processed);
+    return n;
+  }
+
+  /**
+   * Run the negotiation state machine over input, putting out the plain
+   * data. Stops early when data has to be handed out before a telnet
+   * command is acted upon. The output may be the same range as the input,
+   * as it never gets ahead of it.
+   * @return number of bytes put out; the input used is left in processed
+   */
+  private int process(byte[] buf, int boffset, int count, byte[] nbuf, int noffset, int nlen)
+  throws IOException
+  {
     byte b,reply;
-    int boffset = 0, noffset = offset;
+    int bstart = boffset, nstart = noffset;
+    int bend = boffset + count, nend = noffset + nlen;
     boolean dobreak = false;
 
-    if (count == 0) 	// buffer is empty.
-      return -1;
+    while(!dobreak && (boffset < bend) && (noffset < nend)) {
+      if (neg_state == STATE_DATA) {
+        // pass on plain data up to the next command in one go
+        int run = boffset, limit = Math.min(bend, boffset + nend - noffset);
+        while (run < limit && buf[run] != IAC)
+          run++;
+        if (run > boffset) {
+          if (buf != nbuf || boffset != noffset)
+            System.arraycopy(buf, boffset, nbuf, noffset, run - boffset);
+          noffset += run - boffset;
+          boffset = run;
+          continue;
+        }
+      }
 
-    while(!dobreak && (boffset < count) && (noffset < nbuf.length)) {
       b=buf[boffset++];
-      // of course, byte is a signed entity (-128 -> 127)
-      // but apparently the SGI Netscape 3.0 doesn't seem
-      // to care and provides happily values up to 255
-      if (b>=128)
-        b=(byte)(b-256);
       if(debug > 2) {
         Byte B = new Byte(b);
         System.err.print("byte: " + B.intValue()+ " ");
@@ -389,7 +466,7 @@ public abstract class TelnetProtocolHandler {
       case STATE_DATA:
         if (b==IAC) {
           neg_state = STATE_IAC;
-	  dobreak = true; // leave the loop so we can sync.
+	  dobreak = noffset > nstart; // leave the loop so we can sync.
         } else
           nbuf[noffset++]=b;
         break;
@@ -419,7 +496,7 @@ public abstract class TelnetProtocolHandler {
         case EOR:
           if(debug > 1) System.err.print("EOR ");
   	  notifyEndOfRecord();
-	  dobreak = true; // leave the loop so we can sync.
+	  dobreak = noffset > nstart; // leave the loop so we can sync.
           neg_state = STATE_DATA;
           break;
         case SB:
@@ -595,7 +672,7 @@ public abstract class TelnetProtocolHandler {
       case STATE_IACSBIAC:
         if(debug > 2) System.err.println(""+b+" ");
         if (b == IAC) {
-	  sbbuf = new byte[0];
+	  sblen = 0;
           current_sb = b;
           neg_state = STATE_IACSBDATA;
         } else {
@@ -611,7 +688,7 @@ public abstract class TelnetProtocolHandler {
           break;
         default:
           current_sb = b;
-	  sbbuf = new byte[0];
+	  sblen = 0;
           neg_state = STATE_IACSBDATA;
           break;
         }
@@ -623,10 +700,7 @@ public abstract class TelnetProtocolHandler {
           neg_state = STATE_IACSBDATAIAC;
           break;
         default:
-	  byte[] xsb = new byte[sbbuf.length+1];
-          System.arraycopy(sbbuf,0,xsb,0,sbbuf.length);
-	  sbbuf = xsb;
-          sbbuf[sbbuf.length-1] = b;
+          appendSB(b);
           break;
         }
         break;
@@ -635,18 +709,15 @@ public abstract class TelnetProtocolHandler {
         switch (b) {
         case IAC:
           neg_state = STATE_IACSBDATA;
-	  byte[] xsb = new byte[sbbuf.length+1];
-          System.arraycopy(sbbuf,0,xsb,0,sbbuf.length);
-	  sbbuf = xsb;
-          sbbuf[sbbuf.length-1] = IAC;
+          appendSB(IAC);
           break;
         case SE:
-          handle_sb(current_sb,sbbuf);
+          handle_sb(current_sb,sbbuf,sblen);
           current_sb = 0;
           neg_state = STATE_DATA;
           break;
         case SB:
-          handle_sb(current_sb,sbbuf);
+          handle_sb(current_sb,sbbuf,sblen);
           neg_state = STATE_IACSB;
           break;
         default:
@@ -661,18 +732,41 @@ public abstract class TelnetProtocolHandler {
         break;
       }
     }
-    // shrink tempbuf to new processed size.
-    byte[] xb = new byte[count-boffset];
-    System.arraycopy(tempbuf,boffset,xb,0,count-boffset);
-    tempbuf = xb;
-    return noffset - offset;
+    processed = boffset - bstart;
+    return noffset - nstart;
+  }
+
+  private void appendSB(byte b) {
+    if (sblen == sbbuf.length) {
+      byte[] xsb = new byte[sbbuf.length * 2];
+      System.arraycopy(sbbuf,0,xsb,0,sblen);
+      sbbuf = xsb;
+    }
+    sbbuf[sblen++] = b;
   }
 
+  /**
+   * Queue input for {@link #negotiate(byte[], int)}. The ring buffer only
+   * grows if more is queued than it ever held before.
+   */
   public void inputfeed(byte[] b, int offset, int len) {
-    byte[] xb = new byte[tempbuf.length+len];
+    if (ringCount + len > ring.length) {
+      int size = ring.length;
+      while (size < ringCount + len)
+        size *= 2;
+
+      byte[] xb = new byte[size];
+      int first = Math.min(ringCount, ring.length - ringStart);
+      System.arraycopy(ring,ringStart,xb,0,first);
+      System.arraycopy(ring,0,xb,first,ringCount - first);
+      ring = xb;
+      ringStart = 0;
+    }
 
-    System.arraycopy(tempbuf,0,xb,0,tempbuf.length);
-    System.arraycopy(b,offset,xb,tempbuf.length,len);
-    tempbuf = xb;
+    int end = (ringStart + ringCount) % ring.length;
+    int first = Math.min(len, ring.length - end);
+    System.arraycopy(b,offset,ring,end,first);
+    System.arraycopy(b,offset + first,ring,0,len - first);
+    ringCount += len;
   }
 }
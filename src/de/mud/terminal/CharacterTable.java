@@ -0,0 +1,71 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import android.text.AndroidCharacter;
+
+/**
+ * What the terminal needs to know about the characters of the Basic
+ * Multilingual Plane, looked up for all of them once instead of for every
+ * character put on the screen.
+ */
+public class CharacterTable {
+	/** Takes two columns */
+	public final static byte WIDE = 0x01;
+	/** Combines with the character before it */
+	public final static byte COMBINING = 0x02;
+	/** Half of a surrogate pair */
+	public final static byte SURROGATE = 0x04;
+
+	private static class Holder {
+		static final byte[] TABLE = build();
+	}
+
+	/**
+	 * @return the kinds of all chars, indexed by char; built on first use
+	 */
+	public static byte[] get() {
+		return Holder.TABLE;
+	}
+
+	private static byte[] build() {
+		char[] chars = new char[0x10000];
+		for (int c = 0; c < chars.length; c++)
+			chars[c] = (char) c;
+
+		byte[] widths = new byte[chars.length];
+		AndroidCharacter.getEastAsianWidths(chars, 0, chars.length, widths);
+
+		byte[] table = new byte[chars.length];
+		for (int c = 0x80; c < chars.length; c++) {
+			byte kind = 0;
+
+			if (widths[c] == AndroidCharacter.EAST_ASIAN_WIDTH_WIDE
+					|| widths[c] == AndroidCharacter.EAST_ASIAN_WIDTH_FULL_WIDTH)
+				kind |= WIDE;
+			if (Character.getType(c) == Character.NON_SPACING_MARK)
+				kind |= COMBINING;
+			if (Character.isHighSurrogate(chars[c]) || Character.isLowSurrogate(chars[c]))
+				kind |= SURROGATE;
+
+			table[c] = kind;
+		}
+
+		return table;
+	}
+}
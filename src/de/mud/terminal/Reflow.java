@@ -0,0 +1,176 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.util.Arrays;
+
+/**
+ * Rewraps rows of a {@link VDUBuffer} to another width. Rows joined by an
+ * automatic wrap (see {@link VDUBuffer#WRAPPED}) make up one logical line,
+ * which is split anew at the new width instead of being cut off. Lines
+ * whose rows have the new width already are taken over as they are.
+ */
+class Reflow {
+	private final int width;
+
+	/** rewrapped rows, oldest first */
+	char[][] chars;
+	int[][] attributes;
+	int rows;
+
+	/** where the cursor went, or -1 if it wasn't in the rows added */
+	int cursorRow = -1;
+	int cursorColumn = -1;
+
+	private char[] row;
+	private int[] attrs;
+	private int column;
+
+	Reflow(int width, int capacity) {
+		this.width = width;
+		chars = new char[Math.max(capacity, 1)][];
+		attributes = new int[chars.length][];
+	}
+
+	static boolean isWrapped(int[] attributes) {
+		return attributes.length > 0
+				&& (attributes[attributes.length - 1] & VDUBuffer.WRAPPED) != 0;
+	}
+
+	/**
+	 * @return the row the line containing a row starts in, but not before first
+	 */
+	static int lineStart(int[][] attributes, int first, int row) {
+		while (row > first && isWrapped(attributes[row - 1]))
+			row--;
+		return row;
+	}
+
+	/**
+	 * Rewrap the lines made of some rows, the first of which starts a line.
+	 * @param cursor row of the cursor, or -1 if not among them
+	 * @param cursorX column of the cursor
+	 */
+	void add(char[][] c, int[][] a, int from, int to, int cursor, int cursorX) {
+		while (from < to) {
+			int end = from + 1;
+			while (end < to && isWrapped(a[end - 1]))
+				end++;
+
+			addLine(c, a, from, end, cursor, cursorX);
+			from = end;
+		}
+	}
+
+	private void addLine(char[][] c, int[][] a, int from, int to, int cursor, int cursorX) {
+		boolean fits = true;
+		for (int r = from; r < to && fits; r++)
+			fits = c[r].length == width;
+
+		if (fits) {
+			for (int r = from; r < to; r++) {
+				if (r == cursor) {
+					cursorRow = rows;
+					cursorColumn = cursorX;
+				}
+				append(c[r], a[r]);
+			}
+			return;
+		}
+
+		int cells = 0;
+		int cursorOffset = -1;
+		for (int r = from; r < to; r++) {
+			if (r == cursor)
+				cursorOffset = cells + Math.min(cursorX, c[r].length);
+			cells += c[r].length;
+		}
+
+		// blanks at the end of the line are padding, unless the cursor is past them
+		char[] lastChars = c[to - 1];
+		int[] lastAttrs = a[to - 1];
+		int keep = lastChars.length;
+		while (keep > 0 && lastChars[keep - 1] == ' '
+				&& (lastAttrs[keep - 1] & ~VDUBuffer.WRAPPED) == 0)
+			keep--;
+		int length = Math.max(cells - lastChars.length + keep, cursorOffset);
+
+		newRow();
+
+		int offset = 0;
+		boolean secondHalf = false;
+		for (int r = from; r < to && offset < length; r++) {
+			for (int i = 0; i < c[r].length && offset < length; i++, offset++) {
+				int attr = a[r][i] & ~VDUBuffer.WRAPPED;
+
+				if (secondHalf) {
+					secondHalf = false;
+				} else if ((attr & VDUBuffer.FULLWIDTH) != 0) {
+					// both halves of a wide character go in the same row
+					secondHalf = true;
+					if (column > 0 && column == width - 1)
+						column++;
+				}
+
+				if (column >= width)
+					wrap();
+
+				if (offset == cursorOffset) {
+					cursorRow = rows - 1;
+					cursorColumn = column;
+				}
+
+				row[column] = c[r][i];
+				attrs[column] = attr;
+				column++;
+			}
+		}
+
+		if (offset == cursorOffset) {
+			cursorRow = rows - 1;
+			cursorColumn = column;
+		}
+	}
+
+	private void wrap() {
+		attrs[width - 1] |= VDUBuffer.WRAPPED;
+		newRow();
+	}
+
+	private void newRow() {
+		row = new char[width];
+		Arrays.fill(row, ' ');
+		attrs = new int[width];
+		column = 0;
+		append(row, attrs);
+	}
+
+	private void append(char[] c, int[] a) {
+		if (rows == chars.length) {
+			char[][] c2 = new char[rows * 2][];
+			int[][] a2 = new int[rows * 2][];
+			System.arraycopy(chars, 0, c2, 0, rows);
+			System.arraycopy(attributes, 0, a2, 0, rows);
+			chars = c2;
+			attributes = a2;
+		}
+		chars[rows] = c;
+		attributes[rows] = a;
+		rows++;
+	}
+}
@@ -56,6 +56,17 @@ public class VDUBuffer {
   private int topMargin;                               /* top scroll margin */
   private int bottomMargin;                         /* bottom scroll margin */
 
+  /* scrollback rows a resize left at their old width, oldest first */
+  private char[][] pendingChars;
+  private int[][] pendingAttributes;
+  private int pendingStart, pendingEnd;
+
+  /* how many times rows were replaced other than by scrolling */
+  private int reflows;
+
+  /** amount of scrollback rows to rewrap at a time when scrolled to */
+  private final static int REFLOW_ROWS = 1000;
+
   // cursor variables
   protected boolean showcursor = true;
   protected int cursorX, cursorY;
@@ -93,6 +104,8 @@ public class VDUBuffer {
   public final static int INVISIBLE = 0x10;
   /** Unicode full-width character (CJK, et al.) */
   public final static int FULLWIDTH = 0x8000000;
+  /** Set on the last column of a line that was continued by autowrap. */
+  public final static int WRAPPED = 0x10000000;
 
   /** how much to left shift the foreground color */
   public final static int COLOR_FG_SHIFT = 5;
@@ -473,6 +486,7 @@ public class VDUBuffer {
     screenBase = newScreenBase;
     windowBase = newWindowBase;
     bufSize = newBufSize;
+    trimPending();
 
     if (scrollDown)
       markLine(l, bottom - l + 1);
@@ -597,7 +611,11 @@ public class VDUBuffer {
    * @see #setBufferSize
    * @see #getBufferSize
    */
-  public void setWindowBase(int line) {
+  public synchronized void setWindowBase(int line) {
+    // rewrap the scrollback as far as it is scrolled to
+    if (line < windowBase && line < height && pendingStart < pendingEnd)
+      line += reflowScrollback(Math.max(height - line, REFLOW_ROWS));
+
     if (line > screenBase)
       line = screenBase;
     else if (line < 0) line = 0;
@@ -700,6 +718,7 @@ public class VDUBuffer {
       windowBase = screenBase;
     }
     maxBufSize = amount;
+    trimPending();
 
     update[0] = true;
     redraw();
@@ -724,14 +743,17 @@ public class VDUBuffer {
   /**
    * Change the size of the screen. This will include adjustment of the
    * scrollback buffer.
+   * <p>
+   * Rows keep their storage if the width stays the same. Otherwise the
+   * lines are rewrapped to the new width, starting with those on the
+   * screen; the rest of the scrollback is rewrapped once scrolled to, see
+   * {@link #reflowScrollback(int)}. The line of the cursor stays on the
+   * screen, and lines move into the scrollback only if the screen gets
+   * too short for them.
    * @param w of the screen
    * @param h of the screen
    */
-  public void setScreenSize(int w, int h, boolean broadcast) {
-    char cbuf[][];
-    int abuf[][];
-    int maxSize = bufSize;
-
+  public synchronized void setScreenSize(int w, int h, boolean broadcast) {
     if (w < 1 || h < 1) return;
 
     if (debug > 0)
@@ -740,57 +762,48 @@ public class VDUBuffer {
     if (h > maxBufSize)
       maxBufSize = h;
 
-    if (h > bufSize) {
-      bufSize = h;
-      screenBase = 0;
-      windowBase = 0;
-    }
-
-    if (windowBase + h >= bufSize)
-      windowBase = bufSize - h;
-
-    if (screenBase + h >= bufSize)
-      screenBase = bufSize - h;
-
-
-    cbuf = new char[bufSize][w];
-    abuf = new int[bufSize][w];
-
+    if (charArray == null || charAttributes == null) {
+      fit(new char[0][], new int[0][], 0, 0, 0, -1, w, h);
+    } else {
+      int end = Math.min(screenBase + height, bufSize);
+
+      int R = getCursorRow();
+      if (R < 0)
+        R = 0;
+      else if (R >= height)
+        R = height - 1;
+      int cursor = Math.min(screenBase + R, end - 1);
+
+      int C = getCursorColumn();
+      if (C < 0)
+        C = 0;
+      else if (C > width)
+        C = width;
+
+      if (w == width) {
+        fit(charArray, charAttributes, end, cursor, C,
+            windowBase < screenBase ? windowBase : -1, w, h);
+      } else {
+        // the lines on the screen and scrolled to now, the rest later
+        int start = Reflow.lineStart(charAttributes, 0, Math.min(windowBase, screenBase));
+        Reflow reflow = new Reflow(w, end - start + h);
+        reflow.add(charArray, charAttributes, start, end, cursor, C);
+
+        // fill the screen from the scrollback if there are fewer rows now
+        while (reflow.rows < h && start > 0) {
+          start = Reflow.lineStart(charAttributes, 0, Math.max(0, start - (h - reflow.rows)));
+          reflow = new Reflow(w, end - start + h);
+          reflow.add(charArray, charAttributes, start, end, cursor, C);
+        }
 
-    for (int i = 0; i < bufSize; i++) {
-      Arrays.fill(cbuf[i], ' ');
-    }
+        addPending(start);
+        reflows++;
 
-    if (bufSize < maxSize)
-      maxSize = bufSize;
-
-    int rowLength;
-    if (charArray != null && charAttributes != null) {
-      for (int i = 0; i < maxSize && charArray[i] != null; i++) {
-        rowLength = charArray[i].length;
-        System.arraycopy(charArray[i], 0, cbuf[i], 0,
-                         w < rowLength ? w : rowLength);
-        System.arraycopy(charAttributes[i], 0, abuf[i], 0,
-                         w < rowLength ? w : rowLength);
+        fit(reflow.chars, reflow.attributes, reflow.rows, reflow.cursorRow,
+            reflow.cursorColumn, windowBase < screenBase ? 0 : -1, w, h);
       }
     }
 
-    int C = getCursorColumn();
-    if (C < 0)
-      C = 0;
-    else if (C >= width)
-      C = width - 1;
-
-    int R = getCursorRow();
-    if (R < 0)
-      R = 0;
-    else if (R >= height)
-      R = height - 1;
-
-    setCursorPosition(C, R);
-
-    charArray = cbuf;
-    charAttributes = abuf;
     width = w;
     height = h;
     topMargin = 0;
@@ -803,6 +816,167 @@ public class VDUBuffer {
     */
   }
 
+  /**
+   * Make the buffer of the first n of some rows, with the screen h rows
+   * high at the bottom of it.
+   * @param cursor row of the cursor, which stays on the screen
+   * @param window row to show, or -1 to show the screen
+   */
+  private void fit(char[][] cbuf, int[][] abuf, int n, int cursor, int column,
+                   int window, int w, int h) {
+    // drop blank rows below the cursor before pushing lines into the scrollback
+    while (n > h && n - 1 > cursor && isBlank(cbuf[n - 1], abuf[n - 1]))
+      n--;
+
+    int base = Math.max(0, n - h);
+    if (cursor < base) {
+      base = Math.max(0, cursor - h + 1);
+      n = base + h;
+    }
+
+    int size = Math.max(n, base + h);
+    int lost = Math.max(0, size - maxBufSize);
+    size -= lost;
+
+    if (cbuf != charArray || size != cbuf.length || lost > 0) {
+      char[][] chars = new char[size][];
+      int[][] attributes = new int[size][];
+      System.arraycopy(cbuf, lost, chars, 0, n - lost);
+      System.arraycopy(abuf, lost, attributes, 0, n - lost);
+      cbuf = chars;
+      abuf = attributes;
+    }
+
+    for (int i = n - lost; i < size; i++) {
+      cbuf[i] = new char[w];
+      Arrays.fill(cbuf[i], ' ');
+      abuf[i] = new int[w];
+    }
+
+    if (lost > 0)
+      pendingStart = pendingEnd;
+
+    charArray = cbuf;
+    charAttributes = abuf;
+    bufSize = size;
+    screenBase = base - lost;
+    windowBase = window < 0 ? screenBase : Math.max(0, Math.min(window - lost, screenBase));
+    setCursorPosition(column, cursor - base);
+    trimPending();
+  }
+
+  private static boolean isBlank(char[] chars, int[] attributes) {
+    for (int i = 0; i < chars.length; i++)
+      if (chars[i] != ' ' || attributes[i] != 0)
+        return false;
+    return true;
+  }
+
+  /**
+   * Keep the first rows of the buffer for rewrapping later.
+   */
+  private void addPending(int count) {
+    if (count == 0)
+      return;
+
+    int pending = pendingEnd - pendingStart;
+    char[][] chars = new char[pending + count][];
+    int[][] attributes = new int[pending + count][];
+    if (pending > 0) {
+      System.arraycopy(pendingChars, pendingStart, chars, 0, pending);
+      System.arraycopy(pendingAttributes, pendingStart, attributes, 0, pending);
+    }
+    System.arraycopy(charArray, 0, chars, pending, count);
+    System.arraycopy(charAttributes, 0, attributes, pending, count);
+
+    pendingChars = chars;
+    pendingAttributes = attributes;
+    pendingStart = 0;
+    pendingEnd = pending + count;
+  }
+
+  /**
+   * Forget the oldest rows left to rewrap that no longer fit the buffer.
+   */
+  private void trimPending() {
+    int excess = pendingEnd - pendingStart + bufSize - maxBufSize;
+    if (excess > 0)
+      pendingStart = Math.min(pendingStart + excess, pendingEnd);
+
+    if (pendingStart == pendingEnd) {
+      pendingChars = null;
+      pendingAttributes = null;
+      pendingStart = pendingEnd = 0;
+    }
+  }
+
+  /**
+   * Rewrap scrollback rows left at an old width by a resize, the most
+   * recent first, and put them at the top of the buffer.
+   * @param rows amount of rows to add at least, if there are as many
+   * @return amount of rows added, by which all rows moved down
+   * @see #setScreenSize
+   */
+  public synchronized int reflowScrollback(int rows) {
+    int added = 0;
+
+    while (added < rows && pendingStart < pendingEnd) {
+      int from = pendingEnd;
+      while (from > pendingStart && pendingEnd - from < rows - added)
+        from = Reflow.lineStart(pendingAttributes, pendingStart, from - 1);
+
+      Reflow reflow = new Reflow(width, pendingEnd - from);
+      reflow.add(pendingChars, pendingAttributes, from, pendingEnd, -1, 0);
+      pendingEnd = from;
+
+      int n = Math.min(reflow.rows, maxBufSize - bufSize);
+      char[][] chars = new char[bufSize + n][];
+      int[][] attributes = new int[bufSize + n][];
+      System.arraycopy(reflow.chars, reflow.rows - n, chars, 0, n);
+      System.arraycopy(reflow.attributes, reflow.rows - n, attributes, 0, n);
+      System.arraycopy(charArray, 0, chars, n, bufSize);
+      System.arraycopy(charAttributes, 0, attributes, n, bufSize);
+
+      charArray = chars;
+      charAttributes = attributes;
+      bufSize += n;
+      screenBase += n;
+      windowBase += n;
+      added += n;
+      trimPending();
+
+      if (n == 0)
+        break;
+    }
+
+    if (added > 0) {
+      reflows++;
+      update[0] = true;
+      if (display != null)
+        display.updateScrollBar();
+    }
+
+    return added;
+  }
+
+  /**
+   * Rewrap all of the scrollback left at an old width by a resize, e.g.
+   * before searching it.
+   * @return amount of rows added, by which all rows moved down
+   */
+  public int reflowScrollback() {
+    return reflowScrollback(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Get how many times the rows of the buffer were replaced other than by
+   * scrolling, e.g. by rewrapping them to a new width. Rows that scrolled
+   * into the scrollback are never changed otherwise.
+   */
+  public synchronized int getReflowCount() {
+    return reflows;
+  }
+
   /**
    * Get amount of rows on the screen.
    */
@@ -85,6 +85,8 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
    * Put string at current cursor position. Moves cursor
    * according to the String. Does NOT wrap.
    * @param s character array
+   * @param fullwidths East Asian widths of the characters, or null to look
+   *        them up in the {@link CharacterTable}
    * @param start place to start in array
    * @param len number of characters to process
    */
@@ -94,6 +96,7 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
       int lastChar = -1;
       char c;
       boolean isWide = false;
+      byte[] kinds = null;
 
       for (int i = 0; i < len; i++) {
         c = s[start + i];
@@ -103,22 +106,32 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
             putChar((char) lastChar, isWide, false);
           lastChar = c;
           isWide = false;
-        } else if (!Character.isLowSurrogate(c) && !Character.isHighSurrogate(c)) {
-          if (Character.getType(c) == Character.NON_SPACING_MARK) {
-            if (lastChar != -1) {
-              char nc = Precomposer.precompose((char) lastChar, c);
-              putChar(nc, isWide, false);
-              lastChar = -1;
-            }
+          continue;
+        }
+
+        if (kinds == null)
+          kinds = CharacterTable.get();
+        final byte kind = kinds[c];
+
+        if ((kind & CharacterTable.SURROGATE) != 0)
+          continue;
+
+        if ((kind & CharacterTable.COMBINING) != 0) {
+          if (lastChar != -1) {
+            char nc = Precomposer.precompose((char) lastChar, c);
+            putChar(nc, isWide, false);
+            lastChar = -1;
+          }
+        } else {
+          if (lastChar != -1)
+            putChar((char) lastChar, isWide, false);
+          lastChar = c;
+          if (fullwidths != null) {
+              final byte width = fullwidths[i];
+              isWide = (width == AndroidCharacter.EAST_ASIAN_WIDTH_WIDE)
+                  || (width == AndroidCharacter.EAST_ASIAN_WIDTH_FULL_WIDTH);
           } else {
-            if (lastChar != -1)
-              putChar((char) lastChar, isWide, false);
-            lastChar = c;
-            if (fullwidths != null) {
-                final byte width = fullwidths[i];
-                isWide = (width == AndroidCharacter.EAST_ASIAN_WIDTH_WIDE)
-                    || (width == AndroidCharacter.EAST_ASIAN_WIDTH_FULL_WIDTH);
-            }
+            isWide = (kind & CharacterTable.WIDE) != 0;
           }
         }
       }
@@ -163,6 +176,10 @@ public void setScreenSize(int c, int r, boolean broadcast) {
 
     super.setScreenSize(c,r,false);
 
+    // the cursor moves along with its line
+    C = getCursorColumn();
+    R = getCursorRow();
+
     boolean cursorChanged = false;
 
     // Don't let the cursor go off the screen.
@@ -454,6 +471,15 @@ public void setScreenSize(int c, int r, boolean broadcast) {
     localecho = echo;
   }
 
+  /**
+   * Check whether cursor keys or the keypad are in application mode, as
+   * set by full screen applications.
+   * @return true if either is in application mode
+   */
+  public boolean isApplicationMode() {
+    return cursormode == 1 || keypadmode;
+  }
+
   /**
    * Enable the VMS mode of the terminal to handle some things differently
    * for VMS hosts.
@@ -1689,6 +1715,8 @@ public void setScreenSize(int c, int r, boolean broadcast) {
                 if (wraparound) {
                   int bot = rows;
 
+                  charAttributes[screenBase + R][columns - 1] |= WRAPPED;
+
                   // If we're in the scroll region, check against the bottom margin
                   if (R <= getBottomMargin() && R >= getTopMargin())
                     bot = getBottomMargin() + 1;
@@ -1769,6 +1797,8 @@ public void setScreenSize(int c, int r, boolean broadcast) {
                   if (wraparound) {
                     int bot = rows;
 
+                    charAttributes[screenBase + R][columns - 1] |= WRAPPED;
+
                     // If we're in the scroll region, check against the bottom margin
                     if (R <= getBottomMargin() && R >= getTopMargin())
                       bot = getBottomMargin() + 1;
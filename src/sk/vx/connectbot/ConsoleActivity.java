@@ -21,6 +21,7 @@ import java.io.File;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.PatternSyntaxException;
 
 import sk.vx.connectbot.bean.SelectionArea;
 import sk.vx.connectbot.service.PromptHelper;
@@ -132,7 +133,7 @@ public class ConsoleActivity extends Activity implements FileChooserCallback {
 
 	private InputMethodManager inputManager;
 
-	private MenuItem disconnect, copy, paste, portForward, resize, urlscan, screenCapture, download, upload;
+	private MenuItem disconnect, copy, paste, portForward, resize, urlscan, find, screenCapture, download, upload;
 
 	protected TerminalBridge copySource = null;
 	private int lastTouchRow, lastTouchCol;
@@ -1074,6 +1075,44 @@ public class ConsoleActivity extends Activity implements FileChooserCallback {
 			}
 		});
 
+		find = menu.add(R.string.console_menu_find);
+		if (hardKeyboard)
+			find.setAlphabeticShortcut('f');
+		find.setIcon(android.R.drawable.ic_menu_search);
+		find.setEnabled(activeTerminal);
+		find.setOnMenuItemClickListener(new OnMenuItemClickListener() {
+			public boolean onMenuItemClick(MenuItem item) {
+				View flip = findCurrentView(R.id.console_flip);
+				if (flip == null) return true;
+
+				final TerminalBridge bridge = ((TerminalView) flip).bridge;
+
+				final EditText text = new EditText(ConsoleActivity.this);
+				text.setSingleLine();
+				text.setHint(R.string.console_find_hint);
+				if (bridge.getSearchText() != null)
+					text.setText(bridge.getSearchText());
+
+				new AlertDialog.Builder(ConsoleActivity.this)
+					.setView(text)
+					.setPositiveButton(R.string.console_find_older, new DialogInterface.OnClickListener() {
+						public void onClick(DialogInterface dialog, int which) {
+							find(bridge, text.getText().toString(), true);
+						}
+					}).setNeutralButton(R.string.console_find_newer, new DialogInterface.OnClickListener() {
+						public void onClick(DialogInterface dialog, int which) {
+							find(bridge, text.getText().toString(), false);
+						}
+					}).setNegativeButton(R.string.console_find_clear, new DialogInterface.OnClickListener() {
+						public void onClick(DialogInterface dialog, int which) {
+							bridge.clearSearch();
+						}
+					}).create().show();
+
+				return true;
+			}
+		});
+
 		download = menu.add(R.string.console_menu_download);
 		download.setAlphabeticShortcut('d');
 		download.setEnabled(sessionOpen && canTransferFiles);
@@ -1220,6 +1259,7 @@ public class ConsoleActivity extends Activity implements FileChooserCallback {
 		paste.setEnabled(clipboard.hasText() && sessionOpen);
 		portForward.setEnabled(sessionOpen && canForwardPorts);
 		urlscan.setEnabled(activeTerminal);
+		find.setEnabled(activeTerminal);
 		resize.setEnabled(sessionOpen);
 		download.setEnabled(sessionOpen && canTransferFiles);
 		upload.setEnabled(sessionOpen && canTransferFiles);
@@ -1227,6 +1267,18 @@ public class ConsoleActivity extends Activity implements FileChooserCallback {
 		return true;
 	}
 
+	private void find(TerminalBridge bridge, String text, boolean backward) {
+		if (text.length() == 0)
+			return;
+
+		try {
+			if (!bridge.find(text, backward))
+				Toast.makeText(ConsoleActivity.this, getString(R.string.console_find_not_found, text), Toast.LENGTH_SHORT).show();
+		} catch (PatternSyntaxException e) {
+			Toast.makeText(ConsoleActivity.this, getString(R.string.console_find_bad_pattern, e.getDescription()), Toast.LENGTH_LONG).show();
+		}
+	}
+
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
 		switch (item.getItemId()) {
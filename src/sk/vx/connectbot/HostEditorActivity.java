@@ -67,6 +67,8 @@ public class HostEditorActivity extends PreferenceActivity implements OnSharedPr
 			// fill a cursor and cache the values locally
 			// this makes sure we dont have any floating cursor to dispose later
 
+			HostDatabase.flushWrites();
+
 			SQLiteDatabase db = hostdb.getReadableDatabase();
 			Cursor cursor = db.query(table, null, "_id = ?",
 					new String[] { String.valueOf(id) }, null, null, null);
@@ -115,10 +117,18 @@ public class HostEditorActivity extends PreferenceActivity implements OnSharedPr
 
 			public boolean commit() {
 				//Log.d(this.getClass().toString(), "commit() changes back to database");
+				HostDatabase.flushWrites();
+
 				SQLiteDatabase db = hostdb.getWritableDatabase();
 				db.update(table, update, "_id = ?", new String[] { String.valueOf(id) });
 				db.close();
 
+				hostdb.reloadHost(id);
+
+				if (update.containsKey(HostDatabase.FIELD_HOST_HOSTNAME)
+						|| update.containsKey(HostDatabase.FIELD_HOST_PORT))
+					HostDatabase.invalidateKnownHosts();
+
 				// make sure we refresh the parent cached values
 				cacheValues();
 
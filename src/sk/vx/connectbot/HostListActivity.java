@@ -24,6 +24,7 @@ import sk.vx.connectbot.service.TerminalBridge;
 import sk.vx.connectbot.service.TerminalManager;
 import sk.vx.connectbot.transport.TransportFactory;
 import sk.vx.connectbot.util.HostDatabase;
+import sk.vx.connectbot.util.OnHostsChangedListener;
 import sk.vx.connectbot.util.PreferenceConstants;
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -92,6 +93,17 @@ public class HostListActivity extends ListActivity {
 		}
 	};
 
+	private OnHostsChangedListener hostsChangedListener = new OnHostsChangedListener() {
+		public void onHostsChanged(final List<HostBean> added, final List<HostBean> changed,
+				final List<HostBean> removed) {
+			runOnUiThread(new Runnable() {
+				public void run() {
+					applyHostChanges(added, changed, removed);
+				}
+			});
+		}
+	};
+
 	private ServiceConnection connection = new ServiceConnection() {
 		public void onServiceConnected(ComponentName className, IBinder service) {
 			bound = ((TerminalManager.TerminalBinder) service).getService();
@@ -115,6 +127,8 @@ public class HostListActivity extends ListActivity {
 
 		if(this.hostdb == null)
 			this.hostdb = new HostDatabase(this);
+
+		HostDatabase.addOnHostsChangedListener(hostsChangedListener);
 	}
 
 	@Override
@@ -122,6 +136,8 @@ public class HostListActivity extends ListActivity {
 		super.onStop();
 		this.unbindService(connection);
 
+		HostDatabase.removeOnHostsChangedListener(hostsChangedListener);
+
 		if(this.hostdb != null) {
 			this.hostdb.close();
 			this.hostdb = null;
@@ -172,6 +188,7 @@ public class HostListActivity extends ListActivity {
 
 		// connect with hosts database and populate list
 		this.hostdb = new HostDatabase(this);
+		this.hostdb.preload();
 		ListView list = this.getListView();
 
 		this.sortedByColor = prefs.getBoolean(PreferenceConstants.SORT_BY_COLOR, false);
@@ -365,7 +382,6 @@ public class HostListActivity extends ListActivity {
 								bridge.dispatchDisconnect(true);
 
 							hostdb.deleteHost(host);
-							updateHandler.sendEmptyMessage(-1);
 						}
 						})
 					.setNegativeButton(R.string.delete_neg, null).create().show();
@@ -431,6 +447,38 @@ public class HostListActivity extends ListActivity {
 		this.setListAdapter(adapter);
 	}
 
+	/**
+	 * Patch the list in place when only the details of listed hosts changed
+	 * (e.g. their last connection time), otherwise rebuild it.
+	 */
+	protected void applyHostChanges(List<HostBean> added, List<HostBean> changed, List<HostBean> removed) {
+		HostAdapter adapter = (HostAdapter) getListAdapter();
+
+		if (hosts == null || adapter == null || !added.isEmpty() || !removed.isEmpty()) {
+			updateList();
+			return;
+		}
+
+		for (HostBean host : changed) {
+			int index = hosts.indexOf(host);
+			if (index < 0)
+				continue;
+
+			HostBean old = hosts.get(index);
+			String oldKey = sortedByColor ? old.getColor() : old.getNickname();
+			String newKey = sortedByColor ? host.getColor() : host.getNickname();
+
+			if (oldKey == null ? newKey != null : !oldKey.equals(newKey)) {
+				updateList();
+				return;
+			}
+
+			hosts.set(index, host);
+		}
+
+		adapter.notifyDataSetChanged();
+	}
+
 	class HostAdapter extends ArrayAdapter<HostBean> {
 		private List<HostBean> hosts;
 		private final TerminalManager manager;
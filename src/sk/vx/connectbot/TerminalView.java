@@ -166,6 +166,29 @@ public class TerminalView extends View implements FontSizeChangedListener {
 		scaleCursors();
 	}
 
+	@Override
+	protected void onVisibilityChanged(View changedView, int visibility) {
+		super.onVisibilityChanged(changedView, visibility);
+
+		updateVisibility();
+	}
+
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		super.onWindowVisibilityChanged(visibility);
+
+		updateVisibility();
+	}
+
+	/**
+	 * Only the session on screen needs a bitmap to draw into; the flipper
+	 * lays out every one of them, so a hidden view lets go of its bitmap.
+	 */
+	private void updateVisibility() {
+		if (bridge != null)
+			bridge.setVisible(getWindowVisibility() == VISIBLE && isShown());
+	}
+
 	public void onFontSizeChanged(float size) {
 		scaleCursors();
 	}
@@ -185,9 +208,12 @@ public class TerminalView extends View implements FontSizeChangedListener {
 			// draw the bridge bitmap if it exists
 			canvas.drawBitmap(bridge.bitmap, 0, 0, paint);
 
+			// draw what was typed but not echoed yet
+			bridge.drawPredictions(canvas);
+
 			// also draw cursor if visible
 			if (bridge.buffer.isCursorVisible()) {
-				int cursorColumn = bridge.buffer.getCursorColumn();
+				int cursorColumn = bridge.getCursorColumn();
 				final int cursorRow = bridge.buffer.getCursorRow();
 
 				final int columns = bridge.buffer.getColumns();
@@ -63,6 +63,36 @@ public class HostBean extends AbstractBean {
 		return BEAN_NAME;
 	}
 
+	/**
+	 * Create a copy of the given host, e.g. to hand out a cached host.
+	 */
+	public HostBean(HostBean host) {
+		this.id = host.id;
+		this.nickname = host.nickname;
+		this.username = host.username;
+		this.hostname = host.hostname;
+		this.port = host.port;
+		this.protocol = host.protocol;
+		this.hostKeyAlgo = host.hostKeyAlgo;
+		this.hostKey = host.hostKey;
+		this.lastConnect = host.lastConnect;
+		this.color = host.color;
+		this.useKeys = host.useKeys;
+		this.useAuthAgent = host.useAuthAgent;
+		this.postLogin = host.postLogin;
+		this.pubkeyId = host.pubkeyId;
+		this.wantSession = host.wantSession;
+		this.delKey = host.delKey;
+		this.fontSize = host.fontSize;
+		this.compression = host.compression;
+		this.httpproxy = host.httpproxy;
+		this.encoding = host.encoding;
+		this.stayConnected = host.stayConnected;
+		this.wantX11Forward = host.wantX11Forward;
+		this.x11Host = host.x11Host;
+		this.x11Port = host.x11Port;
+	}
+
 	public HostBean(String nickname, String protocol, String username, String hostname, int port) {
 		this.nickname = nickname;
 		this.protocol = protocol;
@@ -92,6 +92,13 @@ public class PortForwardBean extends AbstractBean {
 		return id;
 	}
 
+	/**
+	 * @return the id of the host this port forward belongs to
+	 */
+	public long getHostId() {
+		return hostId;
+	}
+
 	/**
 	 * @param nickname the nickname to set
 	 */
@@ -0,0 +1,80 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.util.Random;
+
+/**
+ * Delays between attempts to reconnect, doubling after each failed attempt
+ * up to a limit. The first attempt is made at once. Delays are shortened by
+ * up to a quarter at random, so that sessions which lost the network
+ * together don't all try again at the same moment.
+ */
+public class Backoff {
+	private final long initialDelay;
+	private final long maxDelay;
+	private final Random random;
+
+	private int attempts = 0;
+
+	/**
+	 * @param initialDelay milliseconds before the second attempt
+	 * @param maxDelay longest delay in milliseconds
+	 */
+	public Backoff(long initialDelay, long maxDelay) {
+		this(initialDelay, maxDelay, new Random());
+	}
+
+	Backoff(long initialDelay, long maxDelay, Random random) {
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.random = random;
+	}
+
+	/**
+	 * Count an attempt.
+	 *
+	 * @return milliseconds to wait before making it
+	 */
+	public synchronized long nextDelay() {
+		int previous = attempts++;
+		if (previous == 0)
+			return 0;
+
+		long delay = initialDelay << Math.min(previous - 1, 30);
+		if (delay <= 0 || delay > maxDelay)
+			delay = maxDelay;
+
+		return delay - (long) (random.nextDouble() * delay / 4);
+	}
+
+	/**
+	 * @return number of attempts since the last reset
+	 */
+	public synchronized int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Start over after a successful attempt, or when trying again is likely
+	 * to succeed, e.g. because the network came back.
+	 */
+	public synchronized void reset() {
+		attempts = 0;
+	}
+}
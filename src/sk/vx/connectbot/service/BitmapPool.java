@@ -0,0 +1,72 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * Screen bitmaps for the bridges that are shown. A bridge takes one when
+ * its view becomes visible and gives it back when it is hidden, so the
+ * memory used for bitmaps grows with the sessions on screen rather than
+ * with the open ones. A few bitmaps given back are kept for the next bridge
+ * of the same size, e.g. when switching between sessions.
+ */
+public class BitmapPool {
+	/* Bitmaps kept for reuse at most */
+	private static final int MAX_SPARE = 2;
+
+	private final LinkedList<Bitmap> spare = new LinkedList<Bitmap>();
+
+	/**
+	 * @return a bitmap of the given size with undefined contents
+	 */
+	public synchronized Bitmap acquire(int width, int height) {
+		for (Iterator<Bitmap> i = spare.iterator(); i.hasNext();) {
+			Bitmap bitmap = i.next();
+			if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+				i.remove();
+				return bitmap;
+			}
+		}
+
+		return Bitmap.createBitmap(width, height, Config.ARGB_8888);
+	}
+
+	/**
+	 * Give back a bitmap that is no longer drawn on or shown.
+	 */
+	public synchronized void release(Bitmap bitmap) {
+		spare.addFirst(bitmap);
+
+		while (spare.size() > MAX_SPARE)
+			spare.removeLast().recycle();
+	}
+
+	/**
+	 * Free the bitmaps kept for reuse, e.g. when memory runs low.
+	 */
+	public synchronized void trim() {
+		for (Bitmap bitmap : spare)
+			bitmap.recycle();
+		spare.clear();
+	}
+}
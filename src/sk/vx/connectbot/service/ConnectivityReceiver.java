@@ -23,6 +23,11 @@ public class ConnectivityReceiver extends BroadcastReceiver {
 
 	private boolean mIsConnected = false;
 
+	/* Type of the network in use, to notice a handover to another one */
+	private int mNetworkType = -1;
+
+	final private ConnectivityManager mConnectivityManager;
+
 	final private TerminalManager mTerminalManager;
 
 	final private WifiLock mWifiLock;
@@ -42,9 +47,12 @@ public class ConnectivityReceiver extends BroadcastReceiver {
 		final WifiManager wm = (WifiManager) manager.getSystemService(Context.WIFI_SERVICE);
 		mWifiLock = wm.createWifiLock(TAG);
 
+		mConnectivityManager = cm;
+
 		final NetworkInfo info = cm.getActiveNetworkInfo();
 		if (info != null) {
 			mIsConnected = (info.getState() == State.CONNECTED);
+			mNetworkType = info.getType();
 		}
 
 		mLockingWifi = lockingWifi;
@@ -79,8 +87,18 @@ public class ConnectivityReceiver extends BroadcastReceiver {
 					.get(ConnectivityManager.EXTRA_NETWORK_INFO);
 
 			if (mIsConnected = (info.getState() == State.CONNECTED)) {
+				mNetworkType = info.getType();
 				mTerminalManager.onConnectivityRestored();
 			}
+		} else {
+			NetworkInfo active = mConnectivityManager.getActiveNetworkInfo();
+
+			if (active != null && active.getState() == State.CONNECTED
+					&& active.getType() != mNetworkType) {
+				Log.d(TAG, "Network changed to " + active.getTypeName());
+				mNetworkType = active.getType();
+				mTerminalManager.onNetworkChanged();
+			}
 		}
 	}
 
@@ -0,0 +1,106 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes the output of the remote host for the {@link Relay}. Most output
+ * is ASCII, so with a charset that leaves bytes below 0x80 as they are,
+ * runs of such bytes are copied straight into the chars, and only the other
+ * bytes go through the {@link CharsetDecoder}.
+ */
+class OutputDecoder {
+	private final CharsetDecoder decoder;
+	private final boolean asciiCompatible;
+
+	OutputDecoder(Charset charset) {
+		decoder = charset.newDecoder();
+		decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		decoder.onMalformedInput(CodingErrorAction.REPLACE);
+
+		asciiCompatible = isAsciiCompatible(charset);
+	}
+
+	/**
+	 * @return whether every byte below 0x80 stands for the ASCII character,
+	 *         even after other bytes
+	 */
+	static boolean isAsciiCompatible(Charset charset) {
+		String name = charset.name();
+		return name.equals("UTF-8") || name.equals("US-ASCII") || name.equals("IBM437")
+				|| name.startsWith("ISO-8859-") || name.startsWith("windows-125")
+				|| name.startsWith("KOI8-") || name.startsWith("EUC-");
+	}
+
+	/**
+	 * Decode as much of the input as fits the output. What is left of the
+	 * input is the start of a character that continues in the bytes read
+	 * next.
+	 */
+	void decode(ByteBuffer in, CharBuffer out) {
+		if (!asciiCompatible) {
+			decoder.decode(in, out, false);
+			return;
+		}
+
+		byte[] bytes = in.array();
+		char[] chars = out.array();
+		int limit = in.limit();
+
+		while (in.hasRemaining() && out.hasRemaining()) {
+			int start = in.arrayOffset() + in.position();
+			int end = in.arrayOffset() + limit;
+			int to = out.arrayOffset() + out.position();
+
+			int n = Math.min(end - start, out.remaining());
+			int i = 0;
+			while (i < n && bytes[start + i] >= 0) {
+				chars[to + i] = (char) bytes[start + i];
+				i++;
+			}
+
+			if (i > 0) {
+				in.position(in.position() + i);
+				out.position(out.position() + i);
+				continue;
+			}
+
+			int run = start;
+			while (run < end && bytes[run] < 0)
+				run++;
+
+			int position = in.position();
+			in.limit(run - in.arrayOffset());
+			decoder.decode(in, out, false);
+			in.limit(limit);
+
+			if (in.position() == position) {
+				if (run == end || !out.hasRemaining())
+					break;
+
+				// a character cut short by ASCII, which the decoder replaces
+				decoder.decode(in, out, false);
+			}
+		}
+	}
+}
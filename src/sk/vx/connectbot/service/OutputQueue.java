@@ -0,0 +1,115 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+/**
+ * Chunks of output handed from the thread reading the transport to the
+ * thread parsing them into the buffer. There is a fixed number of chunks,
+ * which go back and forth between the two, so that reading waits once the
+ * parser is that far behind and nothing is allocated per read.
+ */
+class OutputQueue {
+	static class Chunk {
+		final byte[] data;
+		int length;
+
+		Chunk(int size) {
+			data = new byte[size];
+		}
+	}
+
+	private final LinkedList<Chunk> free = new LinkedList<Chunk>();
+	private final LinkedList<Chunk> filled = new LinkedList<Chunk>();
+
+	private IOException closed = null;
+
+	OutputQueue(int chunks, int chunkSize) {
+		for (int i = 0; i < chunks; i++)
+			free.add(new Chunk(chunkSize));
+	}
+
+	/**
+	 * Wait for a chunk to read into.
+	 *
+	 * @return the chunk, or null once the queue is closed
+	 */
+	synchronized Chunk obtain() throws InterruptedException {
+		while (free.isEmpty() && closed == null)
+			wait();
+
+		if (closed != null)
+			return null;
+
+		return free.removeFirst();
+	}
+
+	/**
+	 * Hand a chunk that was read into to the parser.
+	 */
+	synchronized void put(Chunk chunk) {
+		filled.addLast(chunk);
+		notifyAll();
+	}
+
+	/**
+	 * Wait for a chunk to parse.
+	 *
+	 * @throws IOException the reason the queue was closed, once the chunks
+	 *             put before are taken
+	 */
+	synchronized Chunk take() throws IOException, InterruptedException {
+		while (filled.isEmpty() && closed == null)
+			wait();
+
+		if (!filled.isEmpty())
+			return filled.removeFirst();
+
+		throw closed;
+	}
+
+	/**
+	 * @return a chunk to parse if there is one already, or null
+	 */
+	synchronized Chunk poll() {
+		if (filled.isEmpty())
+			return null;
+
+		return filled.removeFirst();
+	}
+
+	/**
+	 * Give back a chunk that was parsed, or not used after all.
+	 */
+	synchronized void recycle(Chunk chunk) {
+		free.addLast(chunk);
+		notifyAll();
+	}
+
+	/**
+	 * Stop handing out chunks to read into. The first reason given is the
+	 * one thrown to the parser.
+	 */
+	synchronized void close(IOException reason) {
+		if (closed == null)
+			closed = reason;
+		notifyAll();
+	}
+}
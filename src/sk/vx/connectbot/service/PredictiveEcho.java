@@ -0,0 +1,314 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+import de.mud.terminal.VDUBuffer;
+import de.mud.terminal.vt320;
+
+/**
+ * Guesses the echo of what is typed, so that typing over a slow connection
+ * shows up without waiting for the round trip, like mosh does.
+ * <p>
+ * Printable characters, backspace and moving the cursor left or right are
+ * remembered as predictions of what the server will show. They are drawn
+ * over the screen until the output of the server confirms them, and
+ * dropped as soon as it shows something else. Predictions are only shown
+ * once echoes were seen to take {@link #SHOW_DELAY} ms or more, and on a
+ * new line only after the server echoed one of them, so that a password
+ * typed at a prompt is not shown.
+ * <p>
+ * Nothing is predicted while the terminal looks like it runs a full screen
+ * application, i.e. with application cursor keys or keypad, a scrolling
+ * region or a hidden cursor, or on a line that asks for a password. When a
+ * typed character is not echoed at all, prediction stops until the next
+ * line.
+ * <p>
+ * Callers must hold the monitor of the buffer.
+ */
+public class PredictiveEcho {
+	/* Smoothed echo time from which predictions are shown */
+	public static final long SHOW_DELAY = 30;
+
+	/* Shortest time to wait for the echo of a prediction */
+	private static final long MIN_TIMEOUT = 1000;
+
+	private static final int MAX_PENDING = 256;
+
+	private static final String[] SECRET_PROMPTS = { "password", "passphrase", "passcode", "pin:" };
+
+	/**
+	 * What the screen should show after a key.
+	 */
+	public static class Prediction {
+		/** screen row of the cursor */
+		public final int row;
+		/** column of the predicted character, or -1 if only the cursor moves */
+		public final int column;
+		public final char character;
+		/** column of the cursor before the key */
+		final int startColumn;
+		/** column of the cursor after the key */
+		public final int cursorColumn;
+		final long time;
+
+		Prediction(int row, int column, char character, int startColumn, int cursorColumn, long time) {
+			this.row = row;
+			this.column = column;
+			this.character = character;
+			this.startColumn = startColumn;
+			this.cursorColumn = cursorColumn;
+			this.time = time;
+		}
+	}
+
+	private final LinkedList<Prediction> pending = new LinkedList<Prediction>();
+
+	/* Smoothed echo time, or -1 before the first echo */
+	private long echoTime = -1;
+
+	/* No new predictions until the server output catches up */
+	private boolean blocked = false;
+
+	/* No new predictions until the next line */
+	private boolean suspended = false;
+
+	/* Whether the server echoed a character since the last new line */
+	private boolean echoing = false;
+
+	/**
+	 * Predict the echo of a typed character. Other characters than printable
+	 * ones stop prediction until the output catches up.
+	 */
+	public void keyTyped(VDUBuffer buffer, int c, long now) {
+		if (c < 0x20 || c == 0x7f || c > 0xffff || !canPredict(buffer)) {
+			blocked = true;
+			return;
+		}
+
+		int row = getCursorRow(buffer);
+		int column = getCursorColumn(buffer);
+
+		// leave wrapping to the server
+		if (column >= buffer.getColumns() - 1) {
+			blocked = true;
+			return;
+		}
+
+		add(new Prediction(row, column, (char) c, column, column + 1, now));
+	}
+
+	/**
+	 * Predict the echo of a backspace, which blanks the character left of
+	 * the cursor.
+	 */
+	public void backspace(VDUBuffer buffer, long now) {
+		int column = getCursorColumn(buffer);
+
+		if (column == 0 || !canPredict(buffer)) {
+			blocked = true;
+			return;
+		}
+
+		add(new Prediction(getCursorRow(buffer), column - 1, ' ', column, column - 1, now));
+	}
+
+	/**
+	 * Add a prediction, turning earlier ones for the same cell into cursor
+	 * moves, as their character won't be seen.
+	 */
+	private void add(Prediction prediction) {
+		for (ListIterator<Prediction> i = pending.listIterator(); i.hasNext();) {
+			Prediction p = i.next();
+			if (p.column == prediction.column)
+				i.set(new Prediction(p.row, -1, (char) 0, p.startColumn, p.cursorColumn, p.time));
+		}
+
+		pending.add(prediction);
+	}
+
+	/**
+	 * Predict the cursor moving left or right by one column.
+	 */
+	public void cursorMoved(VDUBuffer buffer, int delta, long now) {
+		int row = getCursorRow(buffer);
+		int start = getCursorColumn(buffer);
+		int column = start + delta;
+
+		if (!canPredict(buffer) || column < 0 || column >= buffer.getColumns()
+				|| (delta > 0 && buffer.charArray[buffer.screenBase + row][column - 1] == ' ')) {
+			blocked = true;
+			return;
+		}
+
+		pending.add(new Prediction(row, -1, (char) 0, start, column, now));
+	}
+
+	/**
+	 * A new line was entered, or a key with an effect that can't be
+	 * predicted was pressed.
+	 *
+	 * @param newLine whether a new line starts, so that prediction can
+	 *            resume after a password prompt
+	 */
+	public void unpredictable(boolean newLine) {
+		blocked = true;
+		if (newLine) {
+			suspended = false;
+			echoing = false;
+		}
+	}
+
+	/**
+	 * Compare the predictions to the screen after output from the server.
+	 *
+	 * @return whether the predictions shown changed
+	 */
+	public boolean verify(VDUBuffer buffer, long now) {
+		boolean wasShowing = isShowing();
+		int size = pending.size();
+
+		// echoes come in order, so a confirmed prediction confirms all before
+		int confirmed = -1;
+		int index = 0;
+		for (Prediction p : pending) {
+			if (isConfirmed(buffer, p))
+				confirmed = index;
+			index++;
+		}
+
+		if (confirmed >= 0) {
+			long sample = now - pending.get(confirmed).time;
+			echoTime = echoTime < 0 ? sample : (7 * echoTime + sample) / 8;
+
+			for (int i = 0; i <= confirmed; i++)
+				if (pending.removeFirst().column >= 0)
+					echoing = true;
+		}
+
+		if (!pending.isEmpty()) {
+			Prediction p = pending.getFirst();
+
+			if (buffer.getCursorRow() != p.row
+					|| (p.column >= 0 && buffer.getCursorColumn() > p.startColumn)) {
+				// the server shows something else
+				pending.clear();
+				blocked = true;
+			} else if (now - p.time > getTimeout()) {
+				// not echoed at all; probably a password
+				pending.clear();
+				blocked = true;
+				suspended = true;
+			}
+		}
+
+		if (pending.isEmpty())
+			blocked = false;
+
+		return wasShowing != isShowing() || (isShowing() && size != pending.size());
+	}
+
+	/**
+	 * Forget all predictions, e.g. after the screen was resized.
+	 */
+	public void reset() {
+		pending.clear();
+		blocked = true;
+	}
+
+	/**
+	 * @return whether predictions should be drawn
+	 */
+	public boolean isShowing() {
+		return !pending.isEmpty() && echoing && echoTime >= SHOW_DELAY;
+	}
+
+	/**
+	 * @return predictions not yet confirmed, oldest first
+	 */
+	public List<Prediction> getPredictions() {
+		return pending;
+	}
+
+	/**
+	 * @return smoothed time until an echo arrived, or -1 if none did yet
+	 */
+	public long getEchoTime() {
+		return echoTime;
+	}
+
+	/**
+	 * @return column of the cursor including the predictions
+	 */
+	public int getCursorColumn(VDUBuffer buffer) {
+		if (pending.isEmpty())
+			return buffer.getCursorColumn();
+		return pending.getLast().cursorColumn;
+	}
+
+	private int getCursorRow(VDUBuffer buffer) {
+		if (pending.isEmpty())
+			return buffer.getCursorRow();
+		return pending.getLast().row;
+	}
+
+	/**
+	 * @return time after which a prediction without echo is given up
+	 */
+	public long getTimeout() {
+		return Math.max(MIN_TIMEOUT, 3 * echoTime);
+	}
+
+	private static boolean isConfirmed(VDUBuffer buffer, Prediction p) {
+		// the cursor must be where the prediction left it, or the character
+		// may be there by chance, e.g. from a redraw of the line
+		if (buffer.getCursorRow() != p.row || buffer.getCursorColumn() != p.cursorColumn)
+			return false;
+
+		if (p.column < 0)
+			return true;
+
+		return buffer.charArray[buffer.screenBase + p.row][p.column] == p.character;
+	}
+
+	private boolean canPredict(VDUBuffer buffer) {
+		if (suspended || blocked || pending.size() >= MAX_PENDING)
+			return false;
+
+		if (buffer.windowBase != buffer.screenBase || !buffer.isCursorVisible()
+				|| buffer.getTopMargin() != 0 || buffer.getBottomMargin() != buffer.getRows() - 1)
+			return false;
+
+		if (buffer instanceof vt320 && ((vt320) buffer).isApplicationMode())
+			return false;
+
+		int row = getCursorRow(buffer);
+		String line = new String(buffer.charArray[buffer.screenBase + row], 0,
+				Math.min(getCursorColumn(buffer), buffer.getColumns())).toLowerCase();
+		for (String prompt : SECRET_PROMPTS)
+			if (line.contains(prompt)) {
+				suspended = true;
+				return false;
+			}
+
+		return true;
+	}
+}
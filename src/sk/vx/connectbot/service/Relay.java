@@ -18,22 +18,24 @@
 package sk.vx.connectbot.service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CoderResult;
-import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.harmony.niochar.charset.additional.IBM437;
 
 import sk.vx.connectbot.transport.AbsTransport;
-import android.graphics.Paint;
-import android.text.AndroidCharacter;
 import android.util.Log;
 import de.mud.terminal.vt320;
 
 /**
+ * Parses the output of the transport into the buffer. The transport is read
+ * on a thread of its own, see {@link #getReader()}, so that reading goes on
+ * while the buffer is held for drawing and the remote side isn't stalled.
+ *
  * @author Kenny Root
  */
 public class Relay implements Runnable {
@@ -41,10 +43,13 @@ public class Relay implements Runnable {
 
 	private static final int BUFFER_SIZE = 4096;
 
+	/* Chunks read ahead of the parser at most */
+	private static final int CHUNKS = 4;
+
 	private TerminalBridge bridge;
 
 	private Charset currentCharset;
-	private CharsetDecoder decoder;
+	private OutputDecoder decoder;
 
 	private AbsTransport transport;
 
@@ -56,10 +61,28 @@ public class Relay implements Runnable {
 	private byte[] byteArray;
 	private char[] charArray;
 
-	private void eastAsianWidthMeasure(char[] charArray, int start, int end,
-			byte[] wideAttribute, Paint paint, int charWidth) {
-		AndroidCharacter.getEastAsianWidths(charArray, start, end - start, wideAttribute);
-	}
+	private final OutputQueue queue = new OutputQueue(CHUNKS, BUFFER_SIZE);
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	private final Runnable reader = new Runnable() {
+		public void run() {
+			try {
+				OutputQueue.Chunk chunk;
+				while ((chunk = queue.obtain()) != null) {
+					chunk.length = transport.read(chunk.data, 0, chunk.data.length);
+
+					if (chunk.length > 0)
+						queue.put(chunk);
+					else
+						queue.recycle(chunk);
+				}
+			} catch (IOException e) {
+				queue.close(e);
+			} catch (InterruptedException e) {
+				queue.close(new InterruptedIOException("Relay reader interrupted"));
+			}
+		}
+	};
 
 	public Relay(TerminalBridge bridge, AbsTransport transport, vt320 buffer, String encoding) {
 		setCharset(encoding);
@@ -80,9 +103,7 @@ public class Relay implements Runnable {
 		if (charset == currentCharset || charset == null)
 			return;
 
-		CharsetDecoder newCd = charset.newDecoder();
-		newCd.onUnmappableCharacter(CodingErrorAction.REPLACE);
-		newCd.onMalformedInput(CodingErrorAction.REPLACE);
+		OutputDecoder newCd = new OutputDecoder(charset);
 
 		currentCharset = charset;
 		synchronized (this) {
@@ -94,56 +115,81 @@ public class Relay implements Runnable {
 		return currentCharset;
 	}
 
-	public void run() {
-		byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-		charBuffer = CharBuffer.allocate(BUFFER_SIZE);
+	/**
+	 * @return the loop reading the transport, to be run on a thread of its
+	 *         own next to this one
+	 */
+	public Runnable getReader() {
+		return reader;
+	}
+
+	/**
+	 * Stop reading and parsing, e.g. when one of the threads couldn't be
+	 * started.
+	 */
+	public void stop() {
+		queue.close(new IOException("Relay stopped"));
+	}
+
+	/**
+	 * Wait for the output read so far to be parsed, after the transport was
+	 * closed or {@link #stop()} was called.
+	 *
+	 * @param timeout milliseconds to wait at most
+	 * @return whether parsing ended in time
+	 */
+	public boolean awaitStopped(long timeout) throws InterruptedException {
+		return stopped.await(timeout, TimeUnit.MILLISECONDS);
+	}
 
-		/* for East Asian character widths */
-		byte[] wideAttribute = new byte[BUFFER_SIZE];
+	public void run() {
+		// room for all chunks plus the start of a character cut off
+		byteBuffer = ByteBuffer.allocate((CHUNKS + 1) * BUFFER_SIZE);
+		charBuffer = CharBuffer.allocate(byteBuffer.capacity());
 
 		byteArray = byteBuffer.array();
 		charArray = charBuffer.array();
 
-		CoderResult result;
-
-		int bytesRead = 0;
 		byteBuffer.limit(0);
-		int bytesToRead;
-		int offset;
-		int charWidth;
 
 		try {
 			while (true) {
-				charWidth = bridge.charWidth;
-				bytesToRead = byteBuffer.capacity() - byteBuffer.limit();
-				offset = byteBuffer.arrayOffset() + byteBuffer.limit();
-				bytesRead = transport.read(byteArray, offset, bytesToRead);
-
-				if (bytesRead > 0) {
-					byteBuffer.limit(byteBuffer.limit() + bytesRead);
-
-					synchronized (this) {
-						result = decoder.decode(byteBuffer, charBuffer, false);
-					}
-
-					if (result.isUnderflow() &&
-							byteBuffer.limit() == byteBuffer.capacity()) {
-						byteBuffer.compact();
-						byteBuffer.limit(byteBuffer.position());
-						byteBuffer.position(0);
-					}
-
-					offset = charBuffer.position();
-
-					eastAsianWidthMeasure(charArray, 0, offset, wideAttribute, bridge.defaultPaint, charWidth);
-					buffer.putString(charArray, wideAttribute, 0, charBuffer.position());
-					bridge.propagateConsoleText(charArray, charBuffer.position());
-					charBuffer.clear();
-					bridge.redraw();
+				OutputQueue.Chunk chunk = queue.take();
+
+				// take in what else was read meanwhile, to parse and draw it at once
+				do {
+					int offset = byteBuffer.arrayOffset() + byteBuffer.limit();
+					System.arraycopy(chunk.data, 0, byteArray, offset, chunk.length);
+					byteBuffer.limit(byteBuffer.limit() + chunk.length);
+					queue.recycle(chunk);
+				} while (byteBuffer.capacity() - byteBuffer.limit() >= BUFFER_SIZE
+						&& (chunk = queue.poll()) != null);
+
+				synchronized (this) {
+					decoder.decode(byteBuffer, charBuffer);
 				}
+
+				byteBuffer.compact();
+				byteBuffer.limit(byteBuffer.position());
+				byteBuffer.position(0);
+
+				// widths are looked up by the buffer, for other than ASCII only
+				buffer.putString(charArray, null, 0, charBuffer.position());
+				bridge.propagateConsoleText(charArray, charBuffer.position());
+				bridge.indexScrollback();
+				bridge.verifyPredictions();
+				bridge.logOutput(charArray, charBuffer.position());
+				charBuffer.clear();
+				bridge.redraw();
 			}
 		} catch (IOException e) {
 			Log.e(TAG, "Problem while handling incoming data in relay thread", e);
+		} catch (InterruptedException e) {
+			Log.e(TAG, "Relay thread interrupted", e);
+		} finally {
+			// let the reader go if parsing ended first
+			stop();
+			stopped.countDown();
 		}
 	}
 }
@@ -0,0 +1,87 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.util.Arrays;
+
+/**
+ * What a transport learned while connecting a session that lets it connect
+ * again without asking the user: the host key that was verified and how
+ * authentication succeeded. Kept in memory by the {@link TerminalBridge} for
+ * as long as the session is open, so that reconnecting after the network
+ * was lost needs no prompts.
+ */
+public class ResumptionState {
+	private String hostKeyAlgorithm = null;
+	private byte[] hostKey = null;
+
+	private String authMethod = null;
+	private String pubkeyNickname = null;
+	private String password = null;
+
+	/**
+	 * @return whether this exact key was verified for the session before
+	 */
+	public synchronized boolean isVerifiedHostKey(String algorithm, byte[] key) {
+		return hostKey != null && hostKeyAlgorithm.equals(algorithm) && Arrays.equals(hostKey, key);
+	}
+
+	public synchronized void setVerifiedHostKey(String algorithm, byte[] key) {
+		hostKeyAlgorithm = algorithm;
+		hostKey = key.clone();
+	}
+
+	/**
+	 * Remember how authentication succeeded.
+	 *
+	 * @param method name of the SSH authentication method
+	 * @param pubkeyNickname key that was accepted, or null
+	 * @param password password that was accepted, or null
+	 */
+	public synchronized void setAuthentication(String method, String pubkeyNickname, String password) {
+		this.authMethod = method;
+		this.pubkeyNickname = pubkeyNickname;
+		this.password = password;
+	}
+
+	/**
+	 * @return name of the authentication method that succeeded last, or
+	 *         null if none did
+	 */
+	public synchronized String getAuthMethod() {
+		return authMethod;
+	}
+
+	public synchronized String getPubkeyNickname() {
+		return pubkeyNickname;
+	}
+
+	public synchronized String getPassword() {
+		return password;
+	}
+
+	/**
+	 * Forget how to authenticate, e.g. after it failed or when the session
+	 * is closed on purpose.
+	 */
+	public synchronized void forgetAuthentication() {
+		authMethod = null;
+		pubkeyNickname = null;
+		password = null;
+	}
+}
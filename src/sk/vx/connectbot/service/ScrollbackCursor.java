@@ -0,0 +1,89 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import de.mud.terminal.VDUBuffer;
+
+/**
+ * Tells which rows of a {@link VDUBuffer} entered the scrollback since the
+ * last call and gives every row a line number that stays the same while it
+ * scrolls, for indexes that look at each scrollback row only once.
+ * <p>
+ * Rows that scrolled off the screen never change again, and scrolling moves
+ * them around by reference, so the last row seen is found again by
+ * identity. When the rows are replaced otherwise, e.g. rewrapped on resize,
+ * all rows are new.
+ */
+class ScrollbackCursor {
+	/* Last scrollback row seen and its line number */
+	private char[] lastRow = null;
+	private long lastLine = -1;
+	private int lastReflow = -1;
+
+	private long firstLine = 0;
+
+	/**
+	 * Must be called while holding the monitor of the buffer.
+	 *
+	 * @return the first scrollback row not seen before, the number of
+	 *         scrollback rows if there is none, or -1 if all rows are new
+	 *         and what was known about the buffer must be forgotten
+	 */
+	int sync(VDUBuffer buffer) {
+		char[][] rows = buffer.charArray;
+		int base = Math.min(buffer.screenBase, rows.length);
+
+		int reflow = buffer.getReflowCount();
+		if (reflow != lastReflow) {
+			lastReflow = reflow;
+			lastRow = null;
+		}
+
+		int k = -1;
+		if (lastRow != null) {
+			for (int r = base - 1; r >= 0; r--) {
+				if (rows[r] == lastRow) {
+					k = r;
+					break;
+				}
+			}
+		}
+
+		if (k >= 0)
+			firstLine = lastLine - k;
+		else
+			firstLine = lastLine + 1;
+
+		if (base > 0) {
+			lastRow = rows[base - 1];
+			lastLine = firstLine + base - 1;
+		} else {
+			lastRow = null;
+		}
+
+		return k >= 0 ? k + 1 : -1;
+	}
+
+	/**
+	 * @return line number of the first row of the buffer as of the last
+	 *         {@link #sync(VDUBuffer)}; the rows after it are numbered on
+	 */
+	long getFirstLine() {
+		return firstLine;
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.nio.CharBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import de.mud.terminal.VDUBuffer;
+
+/**
+ * Searches the scrollback and screen of a {@link VDUBuffer}.
+ * <p>
+ * For every scrollback row a 64 bit mask of the pairs of adjacent characters
+ * in it is kept, and updated by {@link #update(VDUBuffer)} as rows scroll
+ * in. A literal query only looks at the rows whose mask contains all pairs of
+ * the query, which are few. Regular expressions are run on every row.
+ * <p>
+ * The search itself runs on a snapshot of the rows and does not hold the
+ * monitor of the buffer, so output keeps flowing in the meantime. Matches do
+ * not span rows, and are void once the rows are rewrapped on resize.
+ */
+public class ScrollbackSearch {
+	/**
+	 * A compiled search.
+	 */
+	public static class Query {
+		/* Lower case, for literal queries */
+		private final char[] literal;
+		private final long mask;
+		private final Pattern pattern;
+
+		private Query(char[] literal, Pattern pattern) {
+			this.literal = literal;
+			this.mask = literal != null ? mask(literal, 0, literal.length) : 0;
+			this.pattern = pattern;
+		}
+
+		/**
+		 * Text between slashes, like <code>/err(or)?/</code>, is a regular
+		 * expression. Anything else is matched literally, ignoring case.
+		 *
+		 * @throws PatternSyntaxException if the regular expression is invalid
+		 */
+		public static Query parse(String text) {
+			if (text.length() > 2 && text.startsWith("/") && text.endsWith("/"))
+				return new Query(null, Pattern.compile(text.substring(1, text.length() - 1)));
+
+			char[] literal = new char[text.length()];
+			for (int i = 0; i < literal.length; i++)
+				literal[i] = Character.toLowerCase(text.charAt(i));
+
+			return new Query(literal, null);
+		}
+
+		/**
+		 * Find the first match in a row at or after a column.
+		 *
+		 * @param matcher from {@link #matcher()}, reused between calls
+		 * @return the column of the match and its length in the upper 32
+		 *         bits, or -1
+		 */
+		long find(char[] row, int from, Matcher matcher) {
+			if (literal == null) {
+				matcher.reset(CharBuffer.wrap(row));
+
+				// empty matches cannot be shown, so look for the next one
+				for (int c = from; c <= row.length && matcher.find(c); c = matcher.start() + 1) {
+					if (matcher.end() > matcher.start())
+						return ((long) (matcher.end() - matcher.start()) << 32) | matcher.start();
+				}
+
+				return -1;
+			}
+
+			if (literal.length == 0)
+				return -1;
+
+			int last = row.length - literal.length;
+			outer:
+			for (int c = from; c <= last; c++) {
+				for (int i = 0; i < literal.length; i++) {
+					if (Character.toLowerCase(row[c + i]) != literal[i])
+						continue outer;
+				}
+
+				return ((long) literal.length << 32) | c;
+			}
+
+			return -1;
+		}
+
+		Matcher matcher() {
+			return pattern != null ? pattern.matcher("") : null;
+		}
+
+		boolean mayMatch(long rowMask) {
+			return (rowMask & mask) == mask;
+		}
+	}
+
+	/**
+	 * Position of a match.
+	 */
+	public static class Match {
+		/** Line number, see {@link ScrollbackSearch#getRow(VDUBuffer, Match)}. */
+		public final long line;
+		public final int column;
+		public final int length;
+		/* Reflow count of the buffer the line number is valid for */
+		final int reflow;
+
+		Match(long line, int column, int length, int reflow) {
+			this.line = line;
+			this.column = column;
+			this.length = length;
+			this.reflow = reflow;
+		}
+	}
+
+	private final ScrollbackCursor cursor = new ScrollbackCursor();
+
+	/* Pair masks of the scrollback rows, by line number modulo their length */
+	private long[] masks = new long[0];
+
+	private static long mask(char[] text, int start, int end) {
+		long mask = 0;
+
+		if (end - start < 2)
+			return 0;
+
+		char previous = Character.toLowerCase(text[start]);
+
+		for (int i = start + 1; i < end; i++) {
+			char c = Character.toLowerCase(text[i]);
+			mask |= 1L << ((previous * 31 + c) & 63);
+			previous = c;
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Index the rows that entered the scrollback since the last call. Must be
+	 * called while holding the monitor of the buffer.
+	 */
+	public void update(VDUBuffer buffer) {
+		char[][] rows = buffer.charArray;
+		int base = Math.min(buffer.screenBase, rows.length);
+		int start = cursor.sync(buffer);
+		long firstLine = cursor.getFirstLine();
+
+		if (start < 0 || masks.length < rows.length) {
+			masks = new long[rows.length];
+			start = 0;
+		}
+
+		for (int r = start; r < base; r++)
+			masks[(int) ((firstLine + r) % masks.length)] = mask(rows[r], 0, rows[r].length);
+	}
+
+	/**
+	 * Find the match next to another one.
+	 *
+	 * @param from the match to start at, or null to start at the bottom of
+	 *            the screen when searching backward and the top of the
+	 *            scrollback when searching forward; a match from before the
+	 *            rows were rewrapped counts as null
+	 * @param backward whether to search towards older output
+	 * @return the match found, or null
+	 */
+	public Match find(VDUBuffer buffer, Query query, Match from, boolean backward) {
+		char[][] rows;
+		long[] rowMasks;
+		int base;
+		long firstLine;
+		int reflow;
+
+		synchronized (buffer) {
+			// the scrollback a resize left to rewrap is searched as well
+			buffer.reflowScrollback();
+			update(buffer);
+			reflow = buffer.getReflowCount();
+
+			int end = Math.min(buffer.screenBase + buffer.height, buffer.charArray.length);
+			base = Math.min(buffer.screenBase, end);
+			firstLine = cursor.getFirstLine();
+
+			rows = new char[end][];
+			System.arraycopy(buffer.charArray, 0, rows, 0, end);
+
+			rowMasks = new long[base];
+			for (int r = 0; r < base; r++)
+				rowMasks[r] = masks[(int) ((firstLine + r) % masks.length)];
+
+			// the screen can still change, so search a copy of it
+			for (int r = base; r < end; r++)
+				rows[r] = rows[r].clone();
+		}
+
+		// its line is gone with the rows it was found in, so start over
+		if (from != null && from.reflow != reflow)
+			from = null;
+
+		Matcher matcher = query.matcher();
+		int step = backward ? -1 : 1;
+		int row;
+		int column;
+
+		if (from == null) {
+			row = backward ? rows.length - 1 : 0;
+			column = backward ? Integer.MAX_VALUE : 0;
+		} else {
+			row = (int) (from.line - firstLine);
+			column = backward ? from.column : from.column + 1;
+
+			if (row < 0) {
+				if (backward)
+					return null;
+
+				row = 0;
+				column = 0;
+			}
+		}
+
+		for (; row >= 0 && row < rows.length; row += step) {
+			if (row < base && !query.mayMatch(rowMasks[row])) {
+				column = backward ? Integer.MAX_VALUE : 0;
+				continue;
+			}
+
+			long found = -1;
+			if (backward) {
+				// last match that starts before column
+				for (long f = query.find(rows[row], 0, matcher);
+						f >= 0 && (int) f < column;
+						f = query.find(rows[row], (int) f + 1, matcher))
+					found = f;
+			} else {
+				found = query.find(rows[row], column, matcher);
+			}
+
+			if (found >= 0)
+				return new Match(firstLine + row, (int) found, (int) (found >>> 32), reflow);
+
+			column = backward ? Integer.MAX_VALUE : 0;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the row of the buffer a match is in, or -1 if it has scrolled
+	 *         out of the buffer or the rows were rewrapped since; must be
+	 *         called while holding the monitor of the buffer
+	 */
+	public int getRow(VDUBuffer buffer, Match match) {
+		update(buffer);
+
+		if (match.reflow != buffer.getReflowCount())
+			return -1;
+
+		long row = match.line - cursor.getFirstLine();
+		if (row < 0 || row >= buffer.charArray.length)
+			return -1;
+
+		return (int) row;
+	}
+}
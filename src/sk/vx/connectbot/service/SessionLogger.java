@@ -0,0 +1,332 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * Writes what a session printed to log files as UTF-8 text, optionally
+ * gzipped, starting a new file when one reaches a size limit.
+ * <p>
+ * {@link #log(char[], int)} only puts a copy of the text on a queue, so
+ * terminal output never waits for storage. The queue is drained by tasks on
+ * the {@link TaskScheduler}, one at a time. If the writer falls behind by
+ * more than {@link #MAX_QUEUED} characters, output is left out of the log
+ * and a note says how much.
+ */
+public class SessionLogger {
+	public final static String TAG = "ConnectBot.SessionLogger";
+
+	public static final int MAX_QUEUED = 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 32 * 1024;
+
+	private static final byte[] GZIP_HEADER = {
+		(byte) 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff
+	};
+
+	private final TaskScheduler scheduler;
+	private final File dir;
+	private final String prefix;
+	private final String extension;
+	private final boolean gzip;
+	private final long maxSize;
+
+	private final ConcurrentLinkedQueue<char[]> queue = new ConcurrentLinkedQueue<char[]>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger dropped = new AtomicInteger();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private volatile boolean closed = false;
+	private volatile boolean failed = false;
+
+	/* Used by the draining task only */
+	private final CharsetEncoder encoder;
+	private final ByteBuffer text = ByteBuffer.allocate(BUFFER_SIZE);
+	private final byte[] deflated = new byte[BUFFER_SIZE];
+	private final CRC32 crc = new CRC32();
+	private FileChannel channel = null;
+	private ZStream deflater = null;
+	private long fileSize, textSize;
+	private int fileNumber = 0;
+	private String date;
+	/* High surrogate that ended the last chunk, waiting for its low one, or 0 */
+	private char carried = 0;
+
+	/**
+	 * @param name used for the names of the files, e.g. the nickname of the
+	 *            host
+	 * @param maxSize size after which to start a new file, or 0 for no limit
+	 */
+	public SessionLogger(TaskScheduler scheduler, File dir, String name, boolean gzip, long maxSize) {
+		this(scheduler, dir, name, ".log", gzip, maxSize);
+	}
+
+	/**
+	 * @param extension for the names of the files, e.g. ".log"
+	 */
+	protected SessionLogger(TaskScheduler scheduler, File dir, String name, String extension,
+			boolean gzip, long maxSize) {
+		this.scheduler = scheduler;
+		this.dir = dir;
+		this.prefix = name.replaceAll("[^-._0-9A-Za-z]", "_");
+		this.extension = extension;
+		this.gzip = gzip;
+		this.maxSize = maxSize;
+
+		encoder = Charset.forName("UTF-8").newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Queue text for the log. Never blocks.
+	 */
+	public void log(char[] chars, int length) {
+		if (closed || failed || length <= 0)
+			return;
+
+		if (queued.get() + length > MAX_QUEUED) {
+			dropped.addAndGet(length);
+			return;
+		}
+
+		char[] chunk = new char[length];
+		System.arraycopy(chars, 0, chunk, 0, length);
+		queued.addAndGet(length);
+		queue.offer(chunk);
+
+		drainLater();
+	}
+
+	/**
+	 * Write what is queued and close the file. Text logged afterwards is
+	 * ignored.
+	 */
+	public void close() {
+		closed = true;
+		drainLater();
+	}
+
+	private void drainLater() {
+		if (draining.compareAndSet(false, true))
+			scheduler.execute("log " + prefix, TaskScheduler.PRIORITY_BACKGROUND, drain);
+	}
+
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			try {
+				if (!failed)
+					drain();
+			} catch (IOException e) {
+				Log.e(TAG, "Couldn't write session log, giving up", e);
+				failed = true;
+				queue.clear();
+
+				try {
+					if (channel != null)
+						channel.close();
+				} catch (IOException e1) {
+				}
+				channel = null;
+			} finally {
+				draining.set(false);
+
+				if (!failed && (!queue.isEmpty() || (closed && channel != null)))
+					drainLater();
+			}
+		}
+	};
+
+	private void drain() throws IOException {
+		// only text queued before close() was called is left to write then
+		boolean closing = closed;
+		char[] chunk;
+
+		while ((chunk = queue.poll()) != null) {
+			queued.addAndGet(-chunk.length);
+
+			int lost = dropped.getAndSet(0);
+			if (lost > 0)
+				encode(describeDropped(lost).toCharArray());
+
+			encode(chunk);
+		}
+
+		// a pair left incomplete at the end is written as a replacement
+		if (closing && carried != 0) {
+			CharBuffer in = CharBuffer.wrap(new char[] { carried });
+			carried = 0;
+
+			while (encoder.encode(in, text, true).isOverflow())
+				flushText(JZlib.Z_NO_FLUSH);
+			encoder.reset();
+		}
+
+		// keep what is on disk readable in case we never get to close it
+		flushText(JZlib.Z_SYNC_FLUSH);
+
+		if (closing)
+			closeFile();
+	}
+
+	/**
+	 * @return text to log in place of output that was left out
+	 */
+	protected String describeDropped(int length) {
+		return String.format("\r\n[%d characters not logged]\r\n", length);
+	}
+
+	private void encode(char[] chunk) throws IOException {
+		CharBuffer in;
+		if (carried != 0) {
+			char[] joined = new char[chunk.length + 1];
+			joined[0] = carried;
+			System.arraycopy(chunk, 0, joined, 1, chunk.length);
+			in = CharBuffer.wrap(joined);
+			carried = 0;
+		} else
+			in = CharBuffer.wrap(chunk);
+
+		while (encoder.encode(in, text, false).isOverflow())
+			flushText(JZlib.Z_NO_FLUSH);
+
+		// the encoder leaves a high surrogate at the end for the next chunk
+		if (in.hasRemaining())
+			carried = in.get();
+	}
+
+	private void flushText(int flush) throws IOException {
+		if (text.position() == 0 && (channel == null || !gzip))
+			return;
+
+		if (channel == null)
+			openFile();
+
+		if (gzip) {
+			crc.update(text.array(), 0, text.position());
+			deflate(text.array(), text.position(), flush);
+		} else {
+			write(text.array(), text.position());
+		}
+
+		textSize += text.position();
+		text.clear();
+
+		if (maxSize > 0 && fileSize >= maxSize)
+			closeFile();
+	}
+
+	private void deflate(byte[] input, int length, int flush) throws IOException {
+		deflater.next_in = input;
+		deflater.next_in_index = 0;
+		deflater.avail_in = length;
+
+		do {
+			deflater.next_out = deflated;
+			deflater.next_out_index = 0;
+			deflater.avail_out = deflated.length;
+
+			int result = deflater.deflate(flush);
+			if (result != JZlib.Z_OK && result != JZlib.Z_STREAM_END && result != JZlib.Z_BUF_ERROR)
+				throw new IOException("Compression failed: " + deflater.msg);
+
+			write(deflated, deflated.length - deflater.avail_out);
+		} while (deflater.avail_in > 0 || deflater.avail_out == 0);
+	}
+
+	private void write(byte[] bytes, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+
+		fileSize += length;
+	}
+
+	private void openFile() throws IOException {
+		if (fileNumber == 0)
+			date = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+
+		String name = prefix + "-" + date + (fileNumber > 0 ? "-" + fileNumber : "")
+				+ extension + (gzip ? ".gz" : "");
+		fileNumber++;
+
+		dir.mkdirs();
+		File file = new File(dir, name);
+		channel = new FileOutputStream(file).getChannel();
+		fileSize = 0;
+		textSize = 0;
+
+		if (gzip) {
+			write(GZIP_HEADER, GZIP_HEADER.length);
+
+			deflater = new ZStream();
+			deflater.deflateInit(JZlib.Z_DEFAULT_COMPRESSION, true);
+			crc.reset();
+		}
+
+		Log.d(TAG, "Logging session to " + file);
+	}
+
+	private void closeFile() throws IOException {
+		if (channel == null)
+			return;
+
+		try {
+			if (gzip) {
+				deflate(text.array(), 0, JZlib.Z_FINISH);
+				deflater.deflateEnd();
+
+				byte[] trailer = new byte[8];
+				putIntLE(trailer, 0, crc.getValue());
+				putIntLE(trailer, 4, textSize);
+				write(trailer, trailer.length);
+			}
+		} finally {
+			channel.close();
+			channel = null;
+			deflater = null;
+		}
+	}
+
+	private static void putIntLE(byte[] b, int off, long value) {
+		b[off] = (byte) value;
+		b[off + 1] = (byte) (value >> 8);
+		b[off + 2] = (byte) (value >> 16);
+		b[off + 3] = (byte) (value >> 24);
+	}
+}
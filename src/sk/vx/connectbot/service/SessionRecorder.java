@@ -0,0 +1,140 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.io.File;
+
+import android.os.SystemClock;
+
+/**
+ * Records the output of a session with its timing in the asciicast v2
+ * format, one JSON array per line: <code>[seconds, "o", "text"]</code> for
+ * output and <code>[seconds, "r", "80x24"]</code> for resizes, after a
+ * header object with the initial size. {@link SessionReplay} plays such
+ * recordings back.
+ * <p>
+ * Files are written in the background like those of {@link SessionLogger}.
+ * Events that have to be left out are replaced by a marker event.
+ */
+public class SessionRecorder extends SessionLogger {
+	public static final String EXTENSION = ".cast";
+
+	private final long start;
+
+	/* Guarded by this */
+	private final StringBuilder event = new StringBuilder();
+	private char[] chars = new char[256];
+
+	public SessionRecorder(TaskScheduler scheduler, File dir, String name, boolean gzip,
+			int columns, int rows) {
+		super(scheduler, dir, name, EXTENSION, gzip, 0);
+
+		start = SystemClock.elapsedRealtime();
+
+		synchronized (this) {
+			event.append("{\"version\": 2, \"width\": ").append(columns)
+					.append(", \"height\": ").append(rows)
+					.append(", \"timestamp\": ").append(System.currentTimeMillis() / 1000)
+					.append("}\n");
+			flushEvent();
+		}
+	}
+
+	/**
+	 * Record output. Never blocks on storage.
+	 */
+	public synchronized void record(char[] text, int length) {
+		appendTime();
+		event.append(", \"o\", \"");
+		for (int i = 0; i < length; i++)
+			appendEscaped(text[i]);
+		event.append("\"]\n");
+		flushEvent();
+	}
+
+	/**
+	 * Record a change of the terminal size.
+	 */
+	public synchronized void recordResize(int columns, int rows) {
+		appendTime();
+		event.append(", \"r\", \"").append(columns).append('x').append(rows).append("\"]\n");
+		flushEvent();
+	}
+
+	@Override
+	protected synchronized String describeDropped(int length) {
+		event.setLength(0);
+		appendTime();
+		event.append(", \"m\", \"").append(length).append(" characters not recorded\"]\n");
+
+		String marker = event.toString();
+		event.setLength(0);
+		return marker;
+	}
+
+	private void appendTime() {
+		long millis = SystemClock.elapsedRealtime() - start;
+
+		event.append('[').append(millis / 1000).append('.');
+		int fraction = (int) (millis % 1000);
+		if (fraction < 100)
+			event.append('0');
+		if (fraction < 10)
+			event.append('0');
+		event.append(fraction);
+	}
+
+	private void appendEscaped(char c) {
+		switch (c) {
+		case '"':
+			event.append("\\\"");
+			break;
+		case '\\':
+			event.append("\\\\");
+			break;
+		case '\n':
+			event.append("\\n");
+			break;
+		case '\r':
+			event.append("\\r");
+			break;
+		case '\t':
+			event.append("\\t");
+			break;
+		default:
+			if (c < 0x20 || c == 0x7f) {
+				event.append("\\u00");
+				event.append(Character.forDigit(c >> 4, 16));
+				event.append(Character.forDigit(c & 15, 16));
+			} else {
+				event.append(c);
+			}
+		}
+	}
+
+	private void flushEvent() {
+		int length = event.length();
+		if (chars.length < length)
+			chars = new char[Math.max(length, chars.length * 2)];
+
+		event.getChars(0, length, chars, 0);
+		event.setLength(0);
+
+		log(chars, length);
+	}
+}
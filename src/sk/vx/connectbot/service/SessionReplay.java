@@ -0,0 +1,272 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import de.mud.terminal.vt320;
+
+/**
+ * Plays back a recording in the asciicast v2 format, as written by
+ * {@link SessionRecorder}, into a terminal emulator without a connection.
+ * <p>
+ * The whole recording is parsed up front, so that replaying at full speed
+ * measures the emulator only. This makes it usable as a benchmark with
+ * traces of real sessions.
+ */
+public class SessionReplay {
+	private static class Event {
+		final long time;
+		final char[] output;
+		final int columns, rows;
+
+		Event(long time, char[] output, int columns, int rows) {
+			this.time = time;
+			this.output = output;
+			this.columns = columns;
+			this.rows = rows;
+		}
+	}
+
+	private final int columns, rows;
+	private final List<Event> events = new ArrayList<Event>();
+	private long outputLength = 0;
+
+	/**
+	 * Read a recording from a file, which may be gzipped.
+	 */
+	public static SessionReplay read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+
+		try {
+			if (file.getName().endsWith(".gz"))
+				in = new GZIPInputStream(in);
+
+			return new SessionReplay(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a recording from a stream, which is not closed.
+	 *
+	 * @throws IOException if the stream cannot be read or is no recording
+	 */
+	public SessionReplay(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+		String line = reader.readLine();
+		if (line == null)
+			throw new IOException("Empty recording");
+
+		if (headerValue(line, "version") != 2)
+			throw new IOException("Unsupported recording version");
+
+		columns = headerValue(line, "width");
+		rows = headerValue(line, "height");
+
+		while ((line = reader.readLine()) != null) {
+			if (line.trim().length() == 0)
+				continue;
+
+			parseEvent(line);
+		}
+	}
+
+	/**
+	 * Find the value of a number in the header object.
+	 */
+	private static int headerValue(String header, String name) throws IOException {
+		int i = header.indexOf("\"" + name + "\"");
+		if (i < 0)
+			throw new IOException("Recording has no " + name);
+
+		i = header.indexOf(':', i) + 1;
+		while (i < header.length() && header.charAt(i) == ' ')
+			i++;
+
+		int end = i;
+		while (end < header.length() && Character.isDigit(header.charAt(end)))
+			end++;
+
+		try {
+			return Integer.parseInt(header.substring(i, end));
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed " + name + " in recording");
+		}
+	}
+
+	/**
+	 * Parse an event of the form <code>[time, "type", "data"]</code>.
+	 */
+	private void parseEvent(String line) throws IOException {
+		int start = line.indexOf('[') + 1;
+		int comma = line.indexOf(',', start);
+		if (start == 0 || comma < 0)
+			throw new IOException("Malformed event: " + line);
+
+		long time;
+		try {
+			time = Math.round(Double.parseDouble(line.substring(start, comma).trim()) * 1000);
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed event time: " + line);
+		}
+
+		StringBuilder type = new StringBuilder();
+		int i = parseString(line, comma + 1, type);
+		StringBuilder data = new StringBuilder();
+		parseString(line, line.indexOf(',', i) + 1, data);
+
+		if (type.length() != 1)
+			return;
+
+		switch (type.charAt(0)) {
+		case 'o':
+			char[] output = new char[data.length()];
+			data.getChars(0, output.length, output, 0);
+			events.add(new Event(time, output, 0, 0));
+			outputLength += output.length;
+			break;
+		case 'r':
+			int x = data.indexOf("x");
+			try {
+				events.add(new Event(time, null, Integer.parseInt(data.substring(0, x)),
+						Integer.parseInt(data.substring(x + 1))));
+			} catch (RuntimeException e) {
+				throw new IOException("Malformed resize event: " + line);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Parse a JSON string starting at or after the given index.
+	 *
+	 * @return index after the closing quote
+	 */
+	private static int parseString(String line, int i, StringBuilder out) throws IOException {
+		i = line.indexOf('"', i);
+		if (i < 0)
+			throw new IOException("Malformed event: " + line);
+
+		for (i++; i < line.length(); i++) {
+			char c = line.charAt(i);
+
+			if (c == '"')
+				return i + 1;
+
+			if (c != '\\') {
+				out.append(c);
+				continue;
+			}
+
+			if (++i == line.length())
+				break;
+
+			c = line.charAt(i);
+			switch (c) {
+			case 'n':
+				out.append('\n');
+				break;
+			case 'r':
+				out.append('\r');
+				break;
+			case 't':
+				out.append('\t');
+				break;
+			case 'b':
+				out.append('\b');
+				break;
+			case 'f':
+				out.append('\f');
+				break;
+			case 'u':
+				if (i + 4 >= line.length())
+					throw new IOException("Malformed escape in event: " + line);
+				try {
+					out.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed escape in event: " + line);
+				}
+				i += 4;
+				break;
+			default:
+				out.append(c);
+			}
+		}
+
+		throw new IOException("Unterminated string in event: " + line);
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return number of characters of output in the recording
+	 */
+	public long getOutputLength() {
+		return outputLength;
+	}
+
+	/**
+	 * @return duration of the recording in milliseconds
+	 */
+	public long getDuration() {
+		return events.isEmpty() ? 0 : events.get(events.size() - 1).time;
+	}
+
+	/**
+	 * Feed the recording to a terminal, resizing it as recorded. The caller
+	 * sets the terminal to the initial size.
+	 *
+	 * @param realTime whether to keep the recorded timing, or else run as
+	 *            fast as possible
+	 */
+	public void replay(vt320 buffer, boolean realTime) throws InterruptedException {
+		long start = System.currentTimeMillis();
+
+		for (Event event : events) {
+			if (realTime) {
+				long wait = start + event.time - System.currentTimeMillis();
+				if (wait > 0)
+					Thread.sleep(wait);
+			}
+
+			synchronized (buffer) {
+				if (event.output != null)
+					buffer.putString(event.output, null, 0, event.output.length);
+				else
+					buffer.setScreenSize(event.columns, event.rows, false);
+			}
+		}
+	}
+}
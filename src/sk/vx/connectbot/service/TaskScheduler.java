@@ -0,0 +1,430 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Runs background work of {@link TerminalManager} and its bridges. Short
+ * tasks run on a bounded number of pooled threads, most urgent first.
+ * Threads are started as needed and go away after being idle for a while.
+ * Long-running work such as relays gets a dedicated thread, up to a limit.
+ * Delayed tasks share a single timer thread.
+ * <p>
+ * Every task belongs to a named stage, e.g. "connect myhost". The time each
+ * stage waited in the queue and ran is logged and kept for
+ * {@link #getStageTimes()}. {@link #getMetrics()} gives the current load.
+ */
+public class TaskScheduler {
+	public final static String TAG = "ConnectBot.TaskScheduler";
+
+	/** Work the user is waiting for, e.g. the connection just opened. */
+	public final static int PRIORITY_FOREGROUND = 0;
+
+	/** Loading keys that connections may need to authenticate. */
+	public final static int PRIORITY_KEYS = 1;
+
+	/** Work nobody is looking at, e.g. reconnecting sessions in the background. */
+	public final static int PRIORITY_BACKGROUND = 2;
+
+	private final static long IDLE_TIMEOUT = 30 * 1000;
+
+	private final String name;
+	private final int maxThreads;
+	private final int maxLongRunning;
+
+	private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<Task>();
+	private final AtomicLong sequence = new AtomicLong();
+
+	/* Guarded by this */
+	private int threads = 0, busy = 0, extra = 0, longRunning = 0, threadNumber = 0;
+	private int peakThreads = 0;
+	private long completed = 0;
+	/* Tasks queued or running on the pool or an extra thread */
+	private int unfinished = 0;
+	private boolean shutdown = false;
+	private Timer timer = null;
+
+	/* Guarded by itself */
+	private final Map<String, Long> stageTimes = new LinkedHashMap<String, Long>();
+
+	/**
+	 * @param name prefix for the names of the pooled threads
+	 * @param maxThreads upper bound for the number of pooled threads
+	 * @param maxLongRunning upper bound for the number of dedicated threads
+	 */
+	public TaskScheduler(String name, int maxThreads, int maxLongRunning) {
+		this.name = name;
+		this.maxThreads = maxThreads;
+		this.maxLongRunning = maxLongRunning;
+	}
+
+	/**
+	 * A snapshot of the load of a scheduler.
+	 */
+	public static class Metrics {
+		/** Pooled threads, idle or busy. */
+		public final int poolThreads;
+		public final int busyThreads;
+		/** Threads started for foreground tasks because the pool was busy. */
+		public final int extraThreads;
+		public final int longRunningThreads;
+		public final int peakThreads;
+		public final int queuedTasks;
+		public final long completedTasks;
+
+		Metrics(int poolThreads, int busyThreads, int extraThreads, int longRunningThreads,
+				int peakThreads, int queuedTasks, long completedTasks) {
+			this.poolThreads = poolThreads;
+			this.busyThreads = busyThreads;
+			this.extraThreads = extraThreads;
+			this.longRunningThreads = longRunningThreads;
+			this.peakThreads = peakThreads;
+			this.queuedTasks = queuedTasks;
+			this.completedTasks = completedTasks;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("pool=%d busy=%d extra=%d long=%d peak=%d queued=%d completed=%d",
+					poolThreads, busyThreads, extraThreads, longRunningThreads, peakThreads,
+					queuedTasks, completedTasks);
+		}
+	}
+
+	private class Task implements Runnable, Comparable<Task> {
+		final String stage;
+		final int priority;
+		final long order;
+		final long queuedAt;
+		final Runnable runnable;
+
+		Task(String stage, int priority, Runnable runnable) {
+			this.stage = stage;
+			this.priority = priority;
+			this.order = sequence.getAndIncrement();
+			this.queuedAt = SystemClock.elapsedRealtime();
+			this.runnable = runnable;
+		}
+
+		public int compareTo(Task other) {
+			if (priority != other.priority)
+				return priority < other.priority ? -1 : 1;
+
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+
+		public void run() {
+			long start = SystemClock.elapsedRealtime();
+
+			try {
+				runnable.run();
+			} catch (RuntimeException e) {
+				Log.e(TAG, String.format("Stage '%s' failed", stage), e);
+			} finally {
+				long end = SystemClock.elapsedRealtime();
+
+				Log.d(TAG, String.format("Stage '%s' waited %d ms, ran %d ms",
+						stage, start - queuedAt, end - start));
+				recordStage(stage, end - start);
+			}
+		}
+	}
+
+	private class Worker implements Runnable {
+		public void run() {
+			boolean idle = false;
+
+			try {
+				idle = work();
+			} finally {
+				// a task threw an Error, which ends this thread as well
+				if (!idle) {
+					synchronized (TaskScheduler.this) {
+						threads--;
+
+						if (!shutdown && !queue.isEmpty()) {
+							threads++;
+							startThread(name + "-" + (++threadNumber), new Worker());
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Run tasks until there are none for a while.
+		 *
+		 * @return true once the thread was given up as idle
+		 */
+		private boolean work() {
+			while (true) {
+				Task task;
+
+				try {
+					task = queue.poll(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					task = null;
+				}
+
+				synchronized (TaskScheduler.this) {
+					if (task == null) {
+						if (queue.isEmpty() || shutdown) {
+							threads--;
+							return true;
+						}
+
+						continue;
+					}
+
+					busy++;
+				}
+
+				try {
+					task.run();
+				} finally {
+					synchronized (TaskScheduler.this) {
+						busy--;
+						completed++;
+						unfinished--;
+						TaskScheduler.this.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run a task as soon as a thread is free and no more urgent task is
+	 * waiting. Foreground tasks get a thread of their own if all threads
+	 * are busy, so they don't wait behind slow background work, as long as
+	 * there are fewer such threads than pooled ones. Beyond that they are
+	 * queued ahead of the background tasks.
+	 *
+	 * @param stage name under which to record the timing of the task
+	 * @param priority one of the <code>PRIORITY_</code> constants
+	 * @param runnable the work
+	 */
+	public void execute(String stage, int priority, Runnable runnable) {
+		Task task = new Task(stage, priority, runnable);
+
+		synchronized (this) {
+			if (shutdown) {
+				Log.w(TAG, String.format("Dropping stage '%s' after shutdown", stage));
+				return;
+			}
+
+			unfinished++;
+
+			if (priority == PRIORITY_FOREGROUND && threads >= maxThreads && busy >= threads
+					&& extra < maxThreads) {
+				extra++;
+				startThread(name + "-" + (++threadNumber), new Counted(task, true));
+				return;
+			}
+
+			queue.offer(task);
+
+			if (threads < maxThreads && threads - busy < queue.size()) {
+				threads++;
+				startThread(name + "-" + (++threadNumber), new Worker());
+			}
+		}
+	}
+
+	/**
+	 * Run long-running work, e.g. a loop that lasts as long as a session, on
+	 * a thread of its own.
+	 *
+	 * @param threadName name of the thread
+	 * @param runnable the work
+	 * @throws RejectedExecutionException if the limit of dedicated threads
+	 *             has been reached or the scheduler is shut down
+	 */
+	public void startLongRunning(String threadName, Runnable runnable) {
+		synchronized (this) {
+			if (shutdown)
+				throw new RejectedExecutionException("Scheduler is shut down");
+
+			if (longRunning >= maxLongRunning)
+				throw new RejectedExecutionException(String.format(
+						"Too many long-running threads (%d)", longRunning));
+
+			longRunning++;
+			startThread(threadName, new Counted(runnable, false));
+		}
+	}
+
+	/**
+	 * Wraps work on a thread outside of the pool to keep the counts right.
+	 */
+	private class Counted implements Runnable {
+		private final Runnable runnable;
+		private final boolean isExtra;
+
+		Counted(Runnable runnable, boolean isExtra) {
+			this.runnable = runnable;
+			this.isExtra = isExtra;
+		}
+
+		public void run() {
+			try {
+				runnable.run();
+			} finally {
+				synchronized (TaskScheduler.this) {
+					if (isExtra) {
+						extra--;
+						completed++;
+						unfinished--;
+						TaskScheduler.this.notifyAll();
+					} else
+						longRunning--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Caller must hold the monitor of this.
+	 */
+	private void startThread(String threadName, Runnable runnable) {
+		Thread thread = new Thread(runnable, threadName);
+		thread.setDaemon(true);
+		thread.start();
+
+		peakThreads = Math.max(peakThreads, threads + extra + longRunning);
+	}
+
+	/**
+	 * Run a background task on the pool after a delay.
+	 *
+	 * @return handle to cancel the task before it is run
+	 */
+	public TimerTask schedule(String stage, long delay, Runnable runnable) {
+		return schedule(stage, PRIORITY_BACKGROUND, delay, runnable);
+	}
+
+	/**
+	 * Run a task on the pool after a delay.
+	 *
+	 * @param priority one of the <code>PRIORITY_</code> constants
+	 * @return handle to cancel the task before it is run
+	 */
+	public TimerTask schedule(final String stage, final int priority, long delay, final Runnable runnable) {
+		TimerTask timerTask = new TimerTask() {
+			@Override
+			public void run() {
+				execute(stage, priority, runnable);
+			}
+		};
+
+		synchronized (this) {
+			if (shutdown) {
+				Log.w(TAG, String.format("Not scheduling stage '%s' after shutdown", stage));
+				return timerTask;
+			}
+
+			if (timer == null)
+				timer = new Timer(name + "-timer", true);
+
+			timer.schedule(timerTask, delay);
+		}
+
+		return timerTask;
+	}
+
+	public synchronized Metrics getMetrics() {
+		return new Metrics(threads, busy, extra, longRunning, peakThreads, queue.size(), completed);
+	}
+
+	/**
+	 * Record the duration of a stage that is made up of several tasks.
+	 */
+	public void recordStage(String stage, long millis) {
+		synchronized (stageTimes) {
+			stageTimes.remove(stage);
+			stageTimes.put(stage, millis);
+		}
+	}
+
+	/**
+	 * @return stage names mapped to their last duration in milliseconds, in
+	 *         the order they finished
+	 */
+	public Map<String, Long> getStageTimes() {
+		synchronized (stageTimes) {
+			return new LinkedHashMap<String, Long>(stageTimes);
+		}
+	}
+
+	/**
+	 * Wait for the tasks run so far to finish, including the ones they run
+	 * in turn, e.g. to let disconnecting complete before shutting down.
+	 * Delayed tasks that are not due yet aren't waited for.
+	 *
+	 * @param timeout milliseconds to wait at most
+	 * @return whether all tasks finished in time
+	 */
+	public synchronized boolean awaitIdle(long timeout) {
+		long end = SystemClock.elapsedRealtime() + timeout;
+
+		while (unfinished > 0) {
+			long remaining = end - SystemClock.elapsedRealtime();
+			if (remaining <= 0)
+				return false;
+
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Drop all waiting and delayed tasks and refuse new ones. Running tasks
+	 * are left to finish.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			shutdown = true;
+			unfinished -= queue.drainTo(new ArrayList<Task>());
+
+			if (timer != null) {
+				timer.cancel();
+				timer = null;
+			}
+		}
+
+		Log.d(TAG, "Shut down, " + getMetrics());
+	}
+}
@@ -23,12 +23,12 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import sk.vx.connectbot.R;
 import sk.vx.connectbot.TerminalView;
@@ -49,6 +49,7 @@ import android.graphics.Paint;
 import android.graphics.Paint.FontMetrics;
 import android.graphics.Typeface;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.text.ClipboardManager;
 import android.text.Editable;
 import android.text.method.CharacterPickerDialog;
@@ -58,6 +59,10 @@ import android.view.KeyEvent;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.Button;
+
+import com.trilead.ssh2.metrics.ChannelMetrics;
+import com.trilead.ssh2.metrics.ConnectionMetrics;
+
 import de.mud.terminal.VDUBuffer;
 import de.mud.terminal.VDUDisplay;
 import de.mud.terminal.vt320;
@@ -99,13 +104,46 @@ public class TerminalBridge implements VDUDisplay {
 
 	public Bitmap bitmap = null;
 	public VDUBuffer buffer = null;
+	private final UrlIndex urlIndex = new UrlIndex();
+	private volatile SessionLogger sessionLogger = null;
+	private volatile SessionRecorder sessionRecorder = null;
+
+	private final ScrollbackSearch search = new ScrollbackSearch();
+	private String searchText = null;
+	private ScrollbackSearch.Query searchQuery = null;
+	private ScrollbackSearch.Match searchMatch = null;
+	private final Paint searchPaint = new Paint();
+	private static final int SEARCH_MATCH_COLOR = 0x60ffff00;
+	private static final int SEARCH_CURRENT_COLOR = 0xa0ff8c00;
+
+	private final PredictiveEcho echo = new PredictiveEcho();
+	private volatile boolean predictingEcho = false;
+	private TimerTask echoTimeout = null;
+	private final Paint predictionPaint = new Paint();
+	private final char[] predictionChar = new char[1];
 
 	private TerminalView parent = null;
 	private final Canvas canvas = new Canvas();
 
+	/* Only a visible bridge holds a bitmap; hidden ones just keep the buffer */
+	private boolean visible = true;
+
 	private boolean disconnected = false;
 	private boolean awaitingClose = false;
 
+	/* Reconnect the next time the connection is lost, as the network went */
+	private volatile boolean reconnecting = false;
+	private boolean connectedBefore = false;
+	final Backoff reconnectBackoff = new Backoff(RECONNECT_INITIAL_DELAY, RECONNECT_MAX_DELAY);
+	private final ResumptionState resumption = new ResumptionState();
+
+	private static final long RECONNECT_INITIAL_DELAY = 1000;
+	private static final long RECONNECT_MAX_DELAY = 60 * 1000;
+	/* How long a disconnect waits for output already read to be parsed */
+	private static final long RELAY_STOP_TIMEOUT = 2 * 1000;
+	/* Give up and ask, e.g. when authentication keeps failing */
+	private static final int RECONNECT_MAX_ATTEMPTS = 10;
+
 	private boolean forcedSize = false;
 	private int columns;
 	private int rows;
@@ -279,9 +317,15 @@ public class TerminalBridge implements VDUDisplay {
 	}
 
 	/**
-	 * Spawn thread to open connection and start login process.
+	 * Open connection and start login process on the manager's scheduler.
+	 * @param priority one of the {@link TaskScheduler} priorities
 	 */
-	protected void startConnection() {
+	protected void startConnection(int priority) {
+		// a failed attempt must be able to ask for another one
+		synchronized (this) {
+			disconnected = false;
+		}
+
 		transport = TransportFactory.getTransport(host.getProtocol());
 		transport.setBridge(this);
 		transport.setManager(manager);
@@ -300,14 +344,22 @@ public class TerminalBridge implements VDUDisplay {
 
 		outputLine(manager.res.getString(R.string.terminal_connecting, host.getHostname(), host.getPort(), host.getProtocol()));
 
-		Thread connectionThread = new Thread(new Runnable() {
+		final String stage = "connect " + host.getNickname();
+		Runnable connect = new Runnable() {
 			public void run() {
+				long start = SystemClock.elapsedRealtime();
 				transport.connect();
+				manager.scheduler.recordStage(stage, SystemClock.elapsedRealtime() - start);
 			}
-		});
-		connectionThread.setName("Connection");
-		connectionThread.setDaemon(true);
-		connectionThread.start();
+		};
+
+		// authentication may wait for the user at a prompt, so keep it off the pool
+		try {
+			manager.scheduler.startLongRunning("Connect " + host.getNickname(), connect);
+		} catch (RejectedExecutionException e) {
+			Log.w(TAG, "Connecting on the pool", e);
+			manager.scheduler.execute(stage, priority, connect);
+		}
 	}
 
 	/**
@@ -369,7 +421,7 @@ public class TerminalBridge implements VDUDisplay {
 		if (string == null || string.length() == 0)
 			return;
 
-		Thread injectStringThread = new Thread(new Runnable() {
+		manager.scheduler.execute("inject " + host.getNickname(), TaskScheduler.PRIORITY_FOREGROUND, new Runnable() {
 			public void run() {
 				try {
 					transport.write(string.getBytes(host.getEncoding()));
@@ -378,8 +430,6 @@ public class TerminalBridge implements VDUDisplay {
 				}
 			}
 		});
-		injectStringThread.setName("InjectString");
-		injectStringThread.start();
 	}
 
 	/**
@@ -388,6 +438,13 @@ public class TerminalBridge implements VDUDisplay {
 	 */
 	public void onConnected() {
 		disconnected = false;
+		reconnecting = false;
+		reconnectBackoff.reset();
+
+		// keep what the previous connection showed in the scrollback
+		if (connectedBefore)
+			scrollScreenAway();
+		connectedBefore = true;
 
 		((vt320) buffer).reset();
 
@@ -403,12 +460,23 @@ public class TerminalBridge implements VDUDisplay {
 		else
 			((vt320) buffer).setBackspace(vt320.DELETE_IS_DEL);
 
-		// create thread to relay incoming connection data to buffer
+		startSessionLog();
+
+		predictingEcho = transport.usesNetwork()
+				&& manager.prefs.getBoolean(PreferenceConstants.PREDICTIVE_ECHO, false);
+
+		// create threads to read incoming connection data and relay it to buffer
 		relay = new Relay(this, transport, (vt320) buffer, host.getEncoding());
-		Thread relayThread = new Thread(relay);
-		relayThread.setDaemon(true);
-		relayThread.setName("Relay");
-		relayThread.start();
+		try {
+			manager.scheduler.startLongRunning("Relay " + host.getNickname(), relay);
+			manager.scheduler.startLongRunning("Reader " + host.getNickname(), relay.getReader());
+		} catch (RejectedExecutionException e) {
+			Log.e(TAG, "Couldn't start relay", e);
+			relay.stop();
+			outputLine(e.getMessage());
+			dispatchDisconnect(false);
+			return;
+		}
 
 		// force font-size to make sure we resizePTY as needed
 		setFontSize(fontSize);
@@ -417,6 +485,58 @@ public class TerminalBridge implements VDUDisplay {
 		injectString(host.getPostLogin());
 	}
 
+	/**
+	 * Start logging and recording the output of this session if the user
+	 * asked for it.
+	 */
+	private void startSessionLog() {
+		boolean log = manager.prefs.getBoolean(PreferenceConstants.SESSION_LOG, false);
+		boolean record = manager.prefs.getBoolean(PreferenceConstants.SESSION_RECORD, false);
+		if (!log && !record)
+			return;
+
+		String folder = manager.prefs.getString(PreferenceConstants.SESSION_LOG_FOLDER, "");
+		File dir;
+		if (folder.equals(""))
+			dir = new File(Environment.getExternalStorageDirectory(), "vx-logs");
+		else
+			dir = new File(folder);
+
+		boolean gzip = manager.prefs.getBoolean(PreferenceConstants.SESSION_LOG_GZIP, false);
+
+		if (log) {
+			long maxSize;
+			try {
+				maxSize = Long.parseLong(manager.prefs.getString(PreferenceConstants.SESSION_LOG_MAX_SIZE, "10"))
+						* 1024 * 1024;
+			} catch (NumberFormatException e) {
+				maxSize = 0;
+			}
+
+			sessionLogger = new SessionLogger(manager.scheduler, dir, host.getNickname(), gzip, maxSize);
+		}
+
+		if (record) {
+			synchronized (buffer) {
+				sessionRecorder = new SessionRecorder(manager.scheduler, dir, host.getNickname(), gzip,
+						buffer.getColumns(), buffer.getRows());
+			}
+		}
+	}
+
+	/**
+	 * Called by the {@link Relay} with each chunk of output.
+	 */
+	void logOutput(char[] chars, int length) {
+		SessionLogger logger = sessionLogger;
+		if (logger != null)
+			logger.log(chars, length);
+
+		SessionRecorder recorder = sessionRecorder;
+		if (recorder != null)
+			recorder.record(chars, length);
+	}
+
 	/**
 	 * @return whether a session is open or not
 	 */
@@ -430,10 +550,40 @@ public class TerminalBridge implements VDUDisplay {
 		this.disconnectListener = disconnectListener;
 	}
 
+	/**
+	 * Push the lines of the screen up to the cursor into the scrollback, so
+	 * that resetting the terminal doesn't clear them.
+	 */
+	private void scrollScreenAway() {
+		synchronized (buffer) {
+			int lines = buffer.getCursorRow() + 1;
+			buffer.setTopMargin(0);
+			buffer.setBottomMargin(buffer.getRows() - 1);
+			buffer.insertLine(buffer.getRows() - 1, lines, VDUBuffer.SCROLL_UP);
+			buffer.setCursorPosition(0, 0);
+		}
+	}
+
+	/**
+	 * Disconnect because the network was lost or changed, and reconnect once
+	 * it is available, whether or not the host is to stay connected.
+	 */
+	void dispatchNetworkLost() {
+		reconnecting = true;
+		dispatchDisconnect(false);
+	}
+
+	/**
+	 * @return what the transport may reuse when connecting again
+	 */
+	public ResumptionState getResumptionState() {
+		return resumption;
+	}
+
 	/**
 	 * Force disconnection of this terminal bridge.
 	 */
-	public void dispatchDisconnect(boolean immediate) {
+	public void dispatchDisconnect(final boolean immediate) {
 		// We don't need to do this multiple times.
 		synchronized (this) {
 			if (disconnected && !immediate)
@@ -442,49 +592,84 @@ public class TerminalBridge implements VDUDisplay {
 			disconnected = true;
 		}
 
+		SessionLogger logger = sessionLogger;
+		sessionLogger = null;
+		if (logger != null)
+			logger.close();
+
+		SessionRecorder recorder = sessionRecorder;
+		sessionRecorder = null;
+		if (recorder != null)
+			recorder.close();
+
 		// Cancel any pending prompts.
 		promptHelper.cancelPrompt();
 
+		// a reconnect replaces the transport, so close the one we had before
+		final AbsTransport closing = transport;
+		final Relay stopping = relay;
+		final boolean reconnect = !immediate
+				&& (host.getStayConnected() || reconnecting)
+				&& reconnectBackoff.getAttempts() < RECONNECT_MAX_ATTEMPTS;
+
 		// disconnection request hangs if we havent really connected to a host yet
-		// temporary fix is to just spawn disconnection into a thread
-		Thread disconnectThread = new Thread(new Runnable() {
+		// temporary fix is to just spawn disconnection onto the scheduler
+		manager.scheduler.execute("disconnect " + host.getNickname(), TaskScheduler.PRIORITY_FOREGROUND, new Runnable() {
 			public void run() {
-				if (transport != null && transport.isConnected())
-					transport.close();
+				if (closing != null && closing.isConnected())
+					closing.close();
+
+				if (immediate)
+					return;
+
+				// the transport may be read on another thread still, so let what it
+				// read be parsed before saying so and before the next connection writes
+				if (stopping != null) {
+					stopping.stop();
+					try {
+						if (!stopping.awaitStopped(RELAY_STOP_TIMEOUT))
+							Log.w(TAG, "Relay didn't stop in time");
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				final String line = manager.res.getString(R.string.alert_disconnect_msg);
+				((vt320) buffer).putString("\r\n" + line + "\r\n");
+				redraw();
+
+				if (reconnect)
+					manager.requestReconnect(TerminalBridge.this);
 			}
 		});
-		disconnectThread.setName("Disconnect");
-		disconnectThread.start();
 
 		if (immediate) {
 			awaitingClose = true;
+			resumption.forgetAuthentication();
 			if (disconnectListener != null)
 				disconnectListener.onDisconnected(TerminalBridge.this);
-		} else {
-			{
-				final String line = manager.res.getString(R.string.alert_disconnect_msg);
-				((vt320) buffer).putString("\r\n" + line + "\r\n");
-			}
-			if (host.getStayConnected()) {
-				manager.requestReconnect(this);
-				return;
-			}
-			Thread disconnectPromptThread = new Thread(new Runnable() {
-				public void run() {
-					Boolean result = promptHelper.requestBooleanPrompt(null,
-							manager.res.getString(R.string.prompt_host_disconnected));
-					if (result == null || result.booleanValue()) {
-						awaitingClose = true;
-
-						// Tell the TerminalManager that we can be destroyed now.
-						if (disconnectListener != null)
-							disconnectListener.onDisconnected(TerminalBridge.this);
+		} else if (!reconnect) {
+			// the prompt may wait for the user indefinitely, so keep it off the pool
+			try {
+				manager.scheduler.startLongRunning("DisconnectPrompt " + host.getNickname(), new Runnable() {
+					public void run() {
+						Boolean result = promptHelper.requestBooleanPrompt(null,
+								manager.res.getString(R.string.prompt_host_disconnected));
+						if (result == null || result.booleanValue()) {
+							awaitingClose = true;
+
+							// Tell the TerminalManager that we can be destroyed now.
+							if (disconnectListener != null)
+								disconnectListener.onDisconnected(TerminalBridge.this);
+						}
 					}
-				}
-			});
-			disconnectPromptThread.setName("DisconnectPrompt");
-			disconnectPromptThread.setDaemon(true);
-			disconnectPromptThread.start();
+				});
+			} catch (RejectedExecutionException e) {
+				Log.w(TAG, "Closing without prompt", e);
+				awaitingClose = true;
+				if (disconnectListener != null)
+					disconnectListener.onDisconnected(TerminalBridge.this);
+			}
 		}
 	}
 
@@ -595,39 +780,25 @@ public class TerminalBridge implements VDUDisplay {
 		}
 
 		// reallocate new bitmap if needed
-		boolean newBitmap = (bitmap == null);
-		if(bitmap != null)
-			newBitmap = (bitmap.getWidth() != width || bitmap.getHeight() != height);
-
-		if (newBitmap) {
+		if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height))
 			discardBitmap();
-			bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
-			canvas.setBitmap(bitmap);
-		}
 
-		// clear out any old buffer information
-		defaultPaint.setColor(Color.BLACK);
-		canvas.drawPaint(defaultPaint);
-
-		// Stroke the border of the terminal if the size is being forced;
-		if (forcedSize) {
-			int borderX = (columns * charWidth) + 1;
-			int borderY = (rows * charHeight) + 1;
-
-			defaultPaint.setColor(Color.GRAY);
-			defaultPaint.setStrokeWidth(0.0f);
-			if (width >= borderX)
-				canvas.drawLine(borderX, 0, borderX, borderY + 1, defaultPaint);
-			if (height >= borderY)
-				canvas.drawLine(0, borderY, borderX + 1, borderY, defaultPaint);
-		}
+		if (bitmap == null && visible)
+			allocateBitmap(width, height);
+		else if (bitmap != null)
+			clearBitmap();
 
 		try {
 			// request a terminal pty resize
 			synchronized (buffer) {
 				buffer.setScreenSize(columns, rows, true);
+				echo.reset();
 			}
 
+			SessionRecorder recorder = sessionRecorder;
+			if (recorder != null)
+				recorder.recordResize(columns, rows);
+
 			if(transport != null)
 				transport.setDimensions(columns, rows, width, height);
 		} catch(Exception e) {
@@ -662,8 +833,65 @@ public class TerminalBridge implements VDUDisplay {
 		discardBitmap();
 	}
 
+	/**
+	 * Our parent {@link TerminalView} was shown or hidden. Only while it is
+	 * shown do we hold a bitmap to render into; the buffer goes on being
+	 * updated either way and is drawn in full once shown again.
+	 */
+	public synchronized void setVisible(boolean visible) {
+		if (this.visible == visible)
+			return;
+
+		this.visible = visible;
+
+		if (!visible) {
+			discardBitmap();
+		} else if (bitmap == null && parent != null
+				&& parent.getWidth() > 0 && parent.getHeight() > 0) {
+			allocateBitmap(parent.getWidth(), parent.getHeight());
+			fullRedraw = true;
+			redraw();
+		}
+	}
+
+	private void allocateBitmap(int width, int height) {
+		if (manager != null)
+			bitmap = manager.bitmapPool.acquire(width, height);
+		else
+			bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+
+		canvas.setBitmap(bitmap);
+		clearBitmap();
+	}
+
+	/**
+	 * Clear out any old buffer information from the bitmap.
+	 */
+	private void clearBitmap() {
+		defaultPaint.setColor(Color.BLACK);
+		canvas.drawPaint(defaultPaint);
+
+		// Stroke the border of the terminal if the size is being forced;
+		if (forcedSize) {
+			int borderX = (columns * charWidth) + 1;
+			int borderY = (rows * charHeight) + 1;
+
+			defaultPaint.setColor(Color.GRAY);
+			defaultPaint.setStrokeWidth(0.0f);
+			if (bitmap.getWidth() >= borderX)
+				canvas.drawLine(borderX, 0, borderX, borderY + 1, defaultPaint);
+			if (bitmap.getHeight() >= borderY)
+				canvas.drawLine(0, borderY, borderX + 1, borderY, defaultPaint);
+		}
+	}
+
 	private void discardBitmap() {
-		if (bitmap != null)
+		if (bitmap == null)
+			return;
+
+		if (manager != null)
+			manager.bitmapPool.release(bitmap);
+		else
 			bitmap.recycle();
 		bitmap = null;
 	}
@@ -683,11 +911,23 @@ public class TerminalBridge implements VDUDisplay {
 	}
 
 	public void onDraw() {
+		// hidden; everything is drawn once a bitmap is back
+		if (bitmap == null)
+			return;
+
 		int fg, bg;
 		synchronized (buffer) {
 			boolean entireDirty = buffer.update[0] || fullRedraw;
 			boolean isWideCharacter = false;
 
+			Matcher searchMatcher = null;
+			int searchRow = -1;
+			if (searchQuery != null) {
+				searchMatcher = searchQuery.matcher();
+				if (searchMatch != null)
+					searchRow = search.getRow(buffer, searchMatch);
+			}
+
 			// walk through all lines in the buffer
 			for(int l = 0; l < buffer.height; l++) {
 
@@ -777,6 +1017,9 @@ public class TerminalBridge implements VDUDisplay {
 					if (isWideCharacter)
 						c++;
 				}
+
+				if (searchQuery != null)
+					drawSearchMatches(l, searchRow, searchMatcher);
 			}
 
 			// reset entire-buffer flags
@@ -892,6 +1135,28 @@ public class TerminalBridge implements VDUDisplay {
 		return transport.getPortForwards();
 	}
 
+	/**
+	 * @return throughput and latency metrics of the connection, or null if the
+	 * transport does not provide them
+	 */
+	public ConnectionMetrics getConnectionMetrics() {
+		if (transport == null)
+			return null;
+
+		return transport.getConnectionMetrics();
+	}
+
+	/**
+	 * @return throughput and latency metrics of the terminal session, or null
+	 * if the transport does not provide them
+	 */
+	public ChannelMetrics getSessionMetrics() {
+		if (transport == null)
+			return null;
+
+		return transport.getSessionMetrics();
+	}
+
 	/**
 	 * Enables a port forward member. After calling this method, the port forward should
 	 * be operational.
@@ -978,55 +1243,247 @@ public class TerminalBridge implements VDUDisplay {
 		color = manager.hostdb.getColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME);
 	}
 
-	private static Pattern urlPattern = null;
-
 	/**
-	 * @return
+	 * @return URLs on the screen and in the scrollback, most recent first
 	 */
 	public List<String> scanForURLs() {
-		Set<String> urls = new LinkedHashSet<String>();
-
-		if (urlPattern == null) {
-			// based on http://www.ietf.org/rfc/rfc2396.txt
-			String scheme = "[A-Za-z][-+.0-9A-Za-z]*";
-			String unreserved = "[-._~0-9A-Za-z]";
-			String pctEncoded = "%[0-9A-Fa-f]{2}";
-			String subDelims = "[!$&'()*+,;:=]";
-			String userinfo = "(?:" + unreserved + "|" + pctEncoded + "|" + subDelims + "|:)*";
-			String h16 = "[0-9A-Fa-f]{1,4}";
-			String decOctet = "(?:[0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])";
-			String ipv4address = decOctet + "\\." + decOctet + "\\." + decOctet + "\\." + decOctet;
-			String ls32 = "(?:" + h16 + ":" + h16 + "|" + ipv4address + ")";
-			String ipv6address = "(?:(?:" + h16 + "){6}" + ls32 + ")";
-			String ipvfuture = "v[0-9A-Fa-f]+.(?:" + unreserved + "|" + subDelims + "|:)+";
-			String ipLiteral = "\\[(?:" + ipv6address + "|" + ipvfuture + ")\\]";
-			String regName = "(?:" + unreserved + "|" + pctEncoded + "|" + subDelims + ")*";
-			String host = "(?:" + ipLiteral + "|" + ipv4address + "|" + regName + ")";
-			String port = "[0-9]*";
-			String authority = "(?:" + userinfo + "@)?" + host + "(?::" + port + ")?";
-			String pchar = "(?:" + unreserved + "|" + pctEncoded + "|" + subDelims + "|@)";
-			String segment = pchar + "*";
-			String pathAbempty = "(?:/" + segment + ")*";
-			String segmentNz = pchar + "+";
-			String pathAbsolute = "/(?:" + segmentNz + "(?:/" + segment + ")*)?";
-			String pathRootless = segmentNz + "(?:/" + segment + ")*";
-			String hierPart = "(?://" + authority + pathAbempty + "|" + pathAbsolute + "|" + pathRootless + ")";
-			String query = "(?:" + pchar + "|/|\\?)*";
-			String fragment = "(?:" + pchar + "|/|\\?)*";
-			String uriRegex = scheme + ":" + hierPart + "(?:" + query + ")?(?:#" + fragment + ")?";
-			urlPattern = Pattern.compile(uriRegex);
+		synchronized (buffer) {
+			return urlIndex.getUrls(buffer);
+		}
+	}
+
+	/**
+	 * Index the lines that scrolled off the screen since the last call for
+	 * URL scanning and search. Called by the {@link Relay} after each chunk
+	 * of output.
+	 */
+	void indexScrollback() {
+		synchronized (buffer) {
+			urlIndex.update(buffer);
+			search.update(buffer);
+		}
+	}
+
+	/**
+	 * Called by the {@link TerminalKeyListener} before a character is sent,
+	 * to show its echo before the server does.
+	 */
+	void predictKey(int c) {
+		if (!predictingEcho)
+			return;
+
+		synchronized (buffer) {
+			echo.keyTyped(buffer, c, SystemClock.uptimeMillis());
+			predicted();
+		}
+	}
+
+	/**
+	 * Called by the {@link TerminalKeyListener} before a backspace is sent.
+	 */
+	void predictBackspace() {
+		if (!predictingEcho)
+			return;
+
+		synchronized (buffer) {
+			echo.backspace(buffer, SystemClock.uptimeMillis());
+			predicted();
+		}
+	}
+
+	/**
+	 * Called by the {@link TerminalKeyListener} before the cursor is moved
+	 * left or right.
+	 */
+	void predictCursorMove(int delta) {
+		if (!predictingEcho)
+			return;
+
+		synchronized (buffer) {
+			echo.cursorMoved(buffer, delta, SystemClock.uptimeMillis());
+			predicted();
+		}
+	}
+
+	/**
+	 * Called by the {@link TerminalKeyListener} before a key is sent which
+	 * has an effect that can't be predicted.
+	 *
+	 * @param newLine whether the key starts a new line
+	 */
+	void predictNothing(boolean newLine) {
+		if (!predictingEcho)
+			return;
+
+		synchronized (buffer) {
+			echo.unpredictable(newLine);
+		}
+	}
+
+	/**
+	 * Show new predictions, and make sure they are given up if the server
+	 * never echoes them. Caller must hold the monitor of the buffer.
+	 */
+	private void predicted() {
+		if (echo.isShowing())
+			redraw();
+
+		if (echoTimeout == null && !echo.getPredictions().isEmpty())
+			echoTimeout = manager.scheduler.schedule("echo timeout", TaskScheduler.PRIORITY_FOREGROUND,
+					echo.getTimeout(), new Runnable() {
+				public void run() {
+					synchronized (buffer) {
+						echoTimeout = null;
+						verifyPredictions();
+						predicted();
+					}
+				}
+			});
+	}
+
+	/**
+	 * Compare the predicted echoes with the screen. Called by the
+	 * {@link Relay} after each chunk of output.
+	 */
+	void verifyPredictions() {
+		if (!predictingEcho)
+			return;
+
+		synchronized (buffer) {
+			if (echo.verify(buffer, SystemClock.uptimeMillis()))
+				redraw();
+		}
+	}
+
+	/**
+	 * @return column to show the cursor in, including predicted echoes
+	 */
+	public int getCursorColumn() {
+		synchronized (buffer) {
+			if (predictingEcho && echo.isShowing())
+				return echo.getCursorColumn(buffer);
+			return buffer.getCursorColumn();
+		}
+	}
+
+	/**
+	 * Draw the predicted echoes that the server did not confirm yet,
+	 * underlined, over the screen.
+	 */
+	public void drawPredictions(Canvas canvas) {
+		if (!predictingEcho)
+			return;
+
+		synchronized (buffer) {
+			if (!echo.isShowing() || buffer.windowBase != buffer.screenBase)
+				return;
+
+			predictionPaint.set(defaultPaint);
+			predictionPaint.setUnderlineText(true);
+
+			for (PredictiveEcho.Prediction p : echo.getPredictions()) {
+				if (p.column < 0)
+					continue;
+
+				int x = p.column * charWidth;
+				int y = p.row * charHeight;
+
+				predictionPaint.setColor(color[defaultBg]);
+				canvas.drawRect(x, y, x + charWidth, y + charHeight, predictionPaint);
+				predictionPaint.setColor(color[defaultFg]);
+				predictionChar[0] = p.character;
+				canvas.drawText(predictionChar, 0, 1, x, y - charTop, predictionPaint);
+			}
+		}
+	}
+
+	/**
+	 * Find text in the scrollback and on the screen, and scroll to it. Text
+	 * between slashes is a regular expression, see
+	 * {@link ScrollbackSearch.Query#parse(String)}. Repeating the same text
+	 * continues from the last match.
+	 *
+	 * @param backward whether to search towards older output
+	 * @return whether a match was found
+	 * @throws PatternSyntaxException if the regular expression is invalid
+	 */
+	public boolean find(String text, boolean backward) {
+		ScrollbackSearch.Query query = searchQuery;
+		ScrollbackSearch.Match from = searchMatch;
+
+		if (!text.equals(searchText)) {
+			query = ScrollbackSearch.Query.parse(text);
+			from = null;
 		}
 
-		char[] visibleBuffer = new char[buffer.height * buffer.width];
-		for (int l = 0; l < buffer.height; l++)
-			System.arraycopy(buffer.charArray[buffer.windowBase + l], 0,
-					visibleBuffer, l * buffer.width, buffer.width);
+		ScrollbackSearch.Match match = search.find(buffer, query, from, backward);
 
-		Matcher urlMatcher = urlPattern.matcher(new String(visibleBuffer));
-		while (urlMatcher.find())
-			urls.add(urlMatcher.group());
+		if (!text.equals(searchText))
+			searchMatch = null;
 
-		return (new LinkedList<String>(urls));
+		searchText = text;
+		searchQuery = query;
+		if (match == null) {
+			fullRedraw = true;
+			redraw();
+			return false;
+		}
+
+		synchronized (buffer) {
+			searchMatch = match;
+
+			int row = search.getRow(buffer, match);
+			if (row >= 0 && (row < buffer.windowBase || row >= buffer.windowBase + buffer.height))
+				buffer.setWindowBase(row - buffer.height / 2);
+		}
+
+		fullRedraw = true;
+		redraw();
+		return true;
+	}
+
+	/**
+	 * @return text of the current search, or null
+	 */
+	public String getSearchText() {
+		return searchText;
+	}
+
+	/**
+	 * End the current search and remove its highlighting.
+	 */
+	public void clearSearch() {
+		synchronized (buffer) {
+			searchText = null;
+			searchQuery = null;
+			searchMatch = null;
+		}
+
+		fullRedraw = true;
+		redraw();
+	}
+
+	/**
+	 * Mark the matches of the current search in one line of the screen.
+	 * Caller must hold the monitor of the buffer.
+	 */
+	private void drawSearchMatches(int l, int currentRow, Matcher matcher) {
+		char[] row = buffer.charArray[buffer.windowBase + l];
+		boolean isCurrentRow = buffer.windowBase + l == currentRow;
+
+		for (long found = searchQuery.find(row, 0, matcher); found >= 0;
+				found = searchQuery.find(row, (int) found + 1, matcher)) {
+			int column = (int) found;
+			int length = (int) (found >>> 32);
+
+			if (isCurrentRow && column == searchMatch.column)
+				searchPaint.setColor(SEARCH_CURRENT_COLOR);
+			else
+				searchPaint.setColor(SEARCH_MATCH_COLOR);
+
+			canvas.drawRect(column * charWidth, l * charHeight,
+					(column + length) * charWidth, (l + 1) * charHeight, searchPaint);
+		}
 	}
 
 	/**
@@ -302,6 +302,8 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 						&& sendFunctionKey(keyCode))
 					return true;
 
+				bridge.predictKey(uchar);
+
 				if (uchar < 0x80)
 					bridge.transport.write(uchar);
 				else
@@ -469,9 +471,11 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 				return(handleShortcut(v, hwbuttonShortcut));
 			case KeyEvent.KEYCODE_DEL:
 				if ((metaState & META_ALT_MASK) != 0) {
+					bridge.predictNothing(false);
 					((vt320) buffer).keyPressed(vt320.KEY_INSERT, ' ',
 						getStateForBuffer());
 				} else {
+					bridge.predictBackspace();
 					((vt320) buffer).keyPressed(vt320.KEY_BACK_SPACE, ' ',
 						getStateForBuffer());
 				}
@@ -479,6 +483,7 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 					metaState &= ~META_TRANSIENT;
 				return true;
 			case KeyEvent.KEYCODE_ENTER:
+				bridge.predictNothing(true);
 				((vt320)buffer).keyTyped(vt320.KEY_ENTER, ' ', 0);
 				if (!fullKeyboard())
 					metaState &= ~META_TRANSIENT;
@@ -490,9 +495,11 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 					bridge.redraw();
 				} else {
 					if ((metaState & META_ALT_MASK) != 0) {
+						bridge.predictNothing(false);
 						((vt320) buffer).keyPressed(vt320.KEY_HOME, ' ',
 								getStateForBuffer());
 					} else {
+						bridge.predictCursorMove(-1);
 						((vt320) buffer).keyPressed(vt320.KEY_LEFT, ' ',
 								getStateForBuffer());
 					}
@@ -507,6 +514,7 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 					selectionArea.decrementRow();
 					bridge.redraw();
 				} else {
+					bridge.predictNothing(false);
 					if ((metaState & META_ALT_MASK) != 0) {
 						((vt320)buffer).keyPressed(vt320.KEY_PAGE_UP, ' ',
 								getStateForBuffer());
@@ -525,6 +533,7 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 					selectionArea.incrementRow();
 					bridge.redraw();
 				} else {
+					bridge.predictNothing(false);
 					if ((metaState & META_ALT_MASK) != 0) {
 						((vt320)buffer).keyPressed(vt320.KEY_PAGE_DOWN, ' ',
 								getStateForBuffer());
@@ -544,9 +553,11 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 					bridge.redraw();
 				} else {
 					if ((metaState & META_ALT_MASK) != 0) {
+						bridge.predictNothing(false);
 						((vt320) buffer).keyPressed(vt320.KEY_END, ' ',
 								getStateForBuffer());
 					} else {
+						bridge.predictCursorMove(1);
 						((vt320) buffer).keyPressed(vt320.KEY_RIGHT, ' ',
 								getStateForBuffer());
 					}
@@ -27,12 +27,16 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import sk.vx.connectbot.R;
 import sk.vx.connectbot.bean.HostBean;
 import sk.vx.connectbot.bean.PubkeyBean;
+import sk.vx.connectbot.transport.ConnectionPool;
 import sk.vx.connectbot.transport.TransportFactory;
 import sk.vx.connectbot.util.HostDatabase;
 import sk.vx.connectbot.util.PreferenceConstants;
@@ -54,6 +58,7 @@ import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.preference.PreferenceManager;
 import android.util.Log;
@@ -80,7 +85,15 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 	public Handler disconnectHandler = null;
 
-	public Map<String, KeyHolder> loadedKeypairs = new HashMap<String, KeyHolder>();
+	public Map<String, KeyHolder> loadedKeypairs = new ConcurrentHashMap<String, KeyHolder>();
+
+	/*
+	 * Keys that were unlocked recently but are not to be kept in memory. They
+	 * let a burst of connections with the same key, e.g. after a network
+	 * change, get by with a single password prompt and key derivation.
+	 */
+	private final Map<String, KeyHolder> recentlyUnlocked = new HashMap<String, KeyHolder>();
+	private static final long UNLOCK_CACHE_TIME = 60 * 1000;
 
 	public Resources res;
 
@@ -96,9 +109,8 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 	private MediaPlayer mediaPlayer;
 
-	private Timer pubkeyTimer;
-
-	private Timer idleTimer;
+	/* Guarded by this */
+	private TimerTask idleTask;
 	private final long IDLE_TIMEOUT = 300000; // 5 minutes
 
 	private Vibrator vibrator;
@@ -116,6 +128,27 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 	protected List<WeakReference<TerminalBridge>> mPendingReconnect
 			= new LinkedList<WeakReference<TerminalBridge>>();
 
+	/*
+	 * Loads keys, opens connections and runs the threads of the bridges
+	 * without holding up the main thread
+	 */
+	public final TaskScheduler scheduler = new TaskScheduler("Worker", 4, MAX_LONG_RUNNING);
+
+	/* SSH connections shared by sessions to the same host and user */
+	public final ConnectionPool connectionPool = new ConnectionPool();
+
+	/* Screen bitmaps of the bridges that are shown */
+	public final BitmapPool bitmapPool = new BitmapPool();
+
+	/* Connecting, relay readers and parsers and disconnect prompts, four per session at most */
+	private static final int MAX_LONG_RUNNING = 128;
+
+	private final CountDownLatch startupKeysLoaded = new CountDownLatch(1);
+	private static final long STARTUP_KEYS_TIMEOUT = 10 * 1000;
+
+	/* How long closing sessions may hold up shutting down the scheduler */
+	private static final long SHUTDOWN_TIMEOUT = 2 * 1000;
+
 	public boolean hardKeyboardHidden;
 
 	@Override
@@ -127,26 +160,13 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 		res = getResources();
 
-		pubkeyTimer = new Timer("pubkeyTimer", true);
-
 		hostdb = new HostDatabase(this);
+		hostdb.preload();
 		pubkeydb = new PubkeyDatabase(this);
 
 		// load all marked pubkeys into memory
 		updateSavingKeys();
-		List<PubkeyBean> pubkeys = pubkeydb.getAllStartPubkeys();
-
-		for (PubkeyBean pubkey : pubkeys) {
-			try {
-				PrivateKey privKey = PubkeyUtils.decodePrivate(pubkey.getPrivateKey(), pubkey.getType());
-				PublicKey pubKey = pubkey.getPublicKey();
-				Object trileadKey = PubkeyUtils.convertToTrilead(privKey, pubKey);
-
-				addKey(pubkey, trileadKey);
-			} catch (Exception e) {
-				Log.d(TAG, String.format("Problem adding key '%s' to in-memory cache", pubkey.getNickname()), e);
-			}
-		}
+		loadStartupKeys();
 
 		vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
 		wantKeyVibration = prefs.getBoolean(PreferenceConstants.BUMPY_ARROWS, true);
@@ -163,16 +183,97 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 	}
 
+	/**
+	 * Load the keys marked for loading on start in the background, decoding
+	 * them in parallel.
+	 */
+	private void loadStartupKeys() {
+		final long start = SystemClock.elapsedRealtime();
+
+		scheduler.execute("list startup keys", TaskScheduler.PRIORITY_KEYS, new Runnable() {
+			public void run() {
+				// whoever waits for the keys mustn't wait in vain if listing them fails
+				boolean loading = false;
+
+				try {
+					List<PubkeyBean> pubkeys = pubkeydb.getAllStartPubkeys();
+					final AtomicInteger remaining = new AtomicInteger(pubkeys.size());
+
+					for (final PubkeyBean pubkey : pubkeys) {
+						scheduler.execute("load key " + pubkey.getNickname(), TaskScheduler.PRIORITY_KEYS, new Runnable() {
+							public void run() {
+								try {
+									PrivateKey privKey = PubkeyUtils.decodePrivate(pubkey.getPrivateKey(), pubkey.getType());
+									PublicKey pubKey = pubkey.getPublicKey();
+									Object trileadKey = PubkeyUtils.convertToTrilead(privKey, pubKey);
+
+									addKey(pubkey, trileadKey);
+								} catch (Exception e) {
+									Log.d(TAG, String.format("Problem adding key '%s' to in-memory cache", pubkey.getNickname()), e);
+								} finally {
+									if (remaining.decrementAndGet() == 0) {
+										scheduler.recordStage("startup keys", SystemClock.elapsedRealtime() - start);
+										startupKeysLoaded.countDown();
+									}
+								}
+							}
+						});
+					}
+
+					loading = !pubkeys.isEmpty();
+				} finally {
+					if (!loading)
+						startupKeysLoaded.countDown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Block until the keys marked for loading on start are in memory, or a
+	 * while has passed. Call before relying on {@link #loadedKeypairs}.
+	 */
+	public void waitForStartupKeys() {
+		try {
+			if (!startupKeysLoaded.await(STARTUP_KEYS_TIMEOUT, TimeUnit.MILLISECONDS))
+				Log.w(TAG, "Startup keys are still loading, going on without them");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	private void updateSavingKeys() {
 		savingKeys = prefs.getBoolean(PreferenceConstants.MEMKEYS, true);
 	}
 
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+
+		bitmapPool.trim();
+	}
+
 	@Override
 	public void onDestroy() {
 		Log.i(TAG, "Destroying service");
 
 		disconnectAll(true);
 
+		// closing happens on the scheduler, so let it finish before dropping
+		// the rest, without holding up the main thread meanwhile
+		new Thread(new Runnable() {
+			public void run() {
+				if (!scheduler.awaitIdle(SHUTDOWN_TIMEOUT))
+					Log.w(TAG, "Shutting down before all sessions were closed");
+
+				scheduler.shutdown();
+			}
+		}, "TerminalManager shutdown").start();
+
+		// get queued bookkeeping onto disk before the process may go away
+		HostDatabase.flushWrites();
+		PubkeyDatabase.flushWrites();
+
 		if(hostdb != null) {
 			hostdb.close();
 			hostdb = null;
@@ -183,12 +284,7 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 			pubkeydb = null;
 		}
 
-		synchronized (this) {
-			if (idleTimer != null)
-				idleTimer.cancel();
-			if (pubkeyTimer != null)
-				pubkeyTimer.cancel();
-		}
+		stopIdleTimer();
 
 		connectivityManager.cleanup();
 
@@ -236,7 +332,7 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 		TerminalBridge bridge = new TerminalBridge(this, host);
 		bridge.setOnDisconnectedListener(this);
-		bridge.startConnection();
+		bridge.startConnection(TaskScheduler.PRIORITY_FOREGROUND);
 
 		synchronized (bridges) {
 			bridges.add(bridge);
@@ -276,6 +372,32 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		return scrollback;
 	}
 
+	/**
+	 * @return milliseconds to collect keystrokes for before sending them, 0
+	 *         to send each at once
+	 */
+	public long getInputDelay() {
+		long delay = 10;
+		try {
+			delay = Long.parseLong(prefs.getString(PreferenceConstants.INPUT_DELAY, "10"));
+		} catch(Exception e) {
+		}
+		return delay;
+	}
+
+	/**
+	 * @return seconds a connection may be idle before checking that the
+	 *         server is alive, 0 to never check
+	 */
+	public long getKeepAliveInterval() {
+		long interval = 60;
+		try {
+			interval = Long.parseLong(prefs.getString(PreferenceConstants.SSH_KEEPALIVE, "60"));
+		} catch(Exception e) {
+		}
+		return interval;
+	}
+
 	/**
 	 * Open a new connection by reading parameters from the given URI. Follows
 	 * format specified by an individual transport.
@@ -367,7 +489,24 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 	}
 
 	public boolean isKeyLoaded(String nickname) {
-		return loadedKeypairs.containsKey(nickname);
+		return loadedKeypairs.containsKey(nickname) || getRecentlyUnlocked(nickname) != null;
+	}
+
+	/**
+	 * @return the recently unlocked key, or null if there is none or it has
+	 *         expired
+	 */
+	private KeyHolder getRecentlyUnlocked(String nickname) {
+		synchronized (recentlyUnlocked) {
+			KeyHolder keyHolder = recentlyUnlocked.get(nickname);
+
+			if (keyHolder != null && keyHolder.expires <= SystemClock.elapsedRealtime()) {
+				recentlyUnlocked.remove(nickname);
+				keyHolder = null;
+			}
+
+			return keyHolder;
+		}
 	}
 
 	public void addKey(PubkeyBean pubkey, Object trileadKey) {
@@ -375,11 +514,6 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 	}
 
 	public void addKey(PubkeyBean pubkey, Object trileadKey, boolean force) {
-		if (!savingKeys && !force)
-			return;
-
-		removeKey(pubkey.getNickname());
-
 		byte[] sshPubKey = PubkeyUtils.extractOpenSSHPublic(trileadKey);
 
 		KeyHolder keyHolder = new KeyHolder();
@@ -387,17 +521,40 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		keyHolder.trileadKey = trileadKey;
 		keyHolder.openSSHPubkey = sshPubKey;
 
+		if (!savingKeys && !force) {
+			final String nickname = pubkey.getNickname();
+			final KeyHolder unlocked = keyHolder;
+			keyHolder.expires = SystemClock.elapsedRealtime() + UNLOCK_CACHE_TIME;
+
+			synchronized (recentlyUnlocked) {
+				recentlyUnlocked.put(nickname, keyHolder);
+			}
+
+			// don't keep the decrypted key around until someone asks for it again
+			scheduler.schedule("forget key " + nickname, UNLOCK_CACHE_TIME, new Runnable() {
+				public void run() {
+					synchronized (recentlyUnlocked) {
+						if (recentlyUnlocked.get(nickname) == unlocked)
+							recentlyUnlocked.remove(nickname);
+					}
+				}
+			});
+
+			return;
+		}
+
+		removeKey(pubkey.getNickname());
+
 		loadedKeypairs.put(pubkey.getNickname(), keyHolder);
 
 		if (pubkey.getLifetime() > 0) {
 			final String nickname = pubkey.getNickname();
-			pubkeyTimer.schedule(new TimerTask() {
-				@Override
+			scheduler.schedule("unload key " + nickname, pubkey.getLifetime() * 1000, new Runnable() {
 				public void run() {
 					Log.d(TAG, "Unloading from memory key: " + nickname);
 					removeKey(nickname);
 				}
-			}, pubkey.getLifetime() * 1000);
+			});
 		}
 
 		Log.d(TAG, String.format("Added key '%s' to in-memory cache", pubkey.getNickname()));
@@ -405,6 +562,11 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 	public boolean removeKey(String nickname) {
 		Log.d(TAG, String.format("Removed key '%s' to in-memory cache", nickname));
+
+		synchronized (recentlyUnlocked) {
+			recentlyUnlocked.remove(nickname);
+		}
+
 		return loadedKeypairs.remove(nickname) != null;
 	}
 
@@ -428,8 +590,10 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		if (loadedKeypairs.containsKey(nickname)) {
 			KeyHolder keyHolder = loadedKeypairs.get(nickname);
 			return keyHolder.trileadKey;
-		} else
-			return null;
+		}
+
+		KeyHolder keyHolder = getRecentlyUnlocked(nickname);
+		return keyHolder != null ? keyHolder.trileadKey : null;
 	}
 
 	public Object getKey(byte[] publicKey) {
@@ -454,10 +618,10 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 		if (loadedKeypairs.size() > 0) {
 			synchronized (this) {
-				if (idleTimer == null)
-					idleTimer = new Timer("idleTimer", true);
+				if (idleTask != null)
+					idleTask.cancel();
 
-				idleTimer.schedule(new IdleTask(), IDLE_TIMEOUT);
+				idleTask = scheduler.schedule("idle stop", IDLE_TIMEOUT, new IdleTask());
 			}
 		} else {
 			Log.d(TAG, "Stopping service immediately");
@@ -472,9 +636,9 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 	}
 
 	private synchronized void stopIdleTimer() {
-		if (idleTimer != null) {
-			idleTimer.cancel();
-			idleTimer = null;
+		if (idleTask != null) {
+			idleTask.cancel();
+			idleTask = null;
 		}
 	}
 
@@ -531,11 +695,10 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		return true;
 	}
 
-	private class IdleTask extends TimerTask {
+	private class IdleTask implements Runnable {
 		/* (non-Javadoc)
-		 * @see java.util.TimerTask#run()
+		 * @see java.lang.Runnable#run()
 		 */
-		@Override
 		public void run() {
 			Log.d(TAG, String.format("Stopping service after timeout of ~%d seconds", IDLE_TIMEOUT / 1000));
 			TerminalManager.this.stopNow();
@@ -665,68 +828,126 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		public PubkeyBean bean;
 		public Object trileadKey;
 		public byte[] openSSHPubkey;
+		/** For recently unlocked keys, elapsedRealtime() when they expire */
+		public long expires;
 	}
 
 	/**
 	 * Called when connectivity to the network is lost and it doesn't appear
-	 * we'll be getting a different connection any time soon.
+	 * we'll be getting a different connection any time soon. Remote sessions
+	 * are reconnected once it is restored.
 	 */
 	public void onConnectivityLost() {
-		final Thread t = new Thread() {
-			@Override
+		scheduler.execute("disconnect all", TaskScheduler.PRIORITY_FOREGROUND, new Runnable() {
 			public void run() {
-				disconnectAll(false, true);
+				disconnectNetworkBridges();
 			}
-		};
-		t.setName("Disconnector");
-		t.start();
+		});
 	}
 
 	/**
 	 * Called when connectivity to the network is restored.
 	 */
 	public void onConnectivityRestored() {
-		final Thread t = new Thread() {
-			@Override
+		scheduler.execute("reconnect pending", TaskScheduler.PRIORITY_BACKGROUND, new Runnable() {
 			public void run() {
 				reconnectPending();
 			}
-		};
-		t.setName("Reconnector");
-		t.start();
+		});
+	}
+
+	/**
+	 * Called when traffic moved to another network, e.g. from Wi-Fi to
+	 * mobile data. Connections made over the old one can't survive that, so
+	 * remote sessions are reconnected at once rather than after they time
+	 * out.
+	 */
+	public void onNetworkChanged() {
+		scheduler.execute("network changed", TaskScheduler.PRIORITY_FOREGROUND, new Runnable() {
+			public void run() {
+				disconnectNetworkBridges();
+			}
+		});
 	}
 
 	/**
-	 * Insert request into reconnect queue to be executed either immediately
-	 * or later when connectivity is restored depending on whether we're
-	 * currently connected.
+	 * Disconnect all bridges using the network, asking them to reconnect.
+	 */
+	private void disconnectNetworkBridges() {
+		TerminalBridge[] tmpBridges;
+
+		// reconnecting mustn't pick up a connection made over the old network
+		connectionPool.evictAll();
+
+		synchronized (bridges) {
+			tmpBridges = bridges.toArray(new TerminalBridge[bridges.size()]);
+		}
+
+		for (TerminalBridge bridge : tmpBridges) {
+			if (bridge.isUsingNetwork())
+				bridge.dispatchNetworkLost();
+		}
+	}
+
+	/**
+	 * Insert request into reconnect queue to be executed either after a
+	 * backoff delay or later when connectivity is restored depending on
+	 * whether we're currently connected.
 	 *
 	 * @param bridge the TerminalBridge to reconnect when possible
 	 */
 	public void requestReconnect(TerminalBridge bridge) {
 		synchronized (mPendingReconnect) {
-			mPendingReconnect.add(new WeakReference<TerminalBridge>(bridge));
-			if (!bridge.isUsingNetwork() ||
-					connectivityManager.isConnected()) {
-				reconnectPending();
+			if (bridge.isUsingNetwork() && !connectivityManager.isConnected()) {
+				mPendingReconnect.add(new WeakReference<TerminalBridge>(bridge));
+				return;
 			}
 		}
+
+		scheduleReconnect(bridge);
 	}
 
 	/**
 	 * Reconnect all bridges that were pending a reconnect when connectivity
-	 * was lost.
+	 * was lost, without waiting for their backoff.
 	 */
 	private void reconnectPending() {
+		List<TerminalBridge> pending = new LinkedList<TerminalBridge>();
+
 		synchronized (mPendingReconnect) {
 			for (WeakReference<TerminalBridge> ref : mPendingReconnect) {
 				TerminalBridge bridge = ref.get();
-				if (bridge == null) {
-					continue;
-				}
-				bridge.startConnection();
+				if (bridge != null)
+					pending.add(bridge);
 			}
 			mPendingReconnect.clear();
 		}
+
+		for (TerminalBridge bridge : pending) {
+			bridge.reconnectBackoff.reset();
+			scheduleReconnect(bridge);
+		}
+	}
+
+	/**
+	 * Connect the bridge again once its backoff delay has passed.
+	 */
+	private void scheduleReconnect(final TerminalBridge bridge) {
+		long delay = bridge.reconnectBackoff.nextDelay();
+
+		Runnable attempt = new Runnable() {
+			public void run() {
+				if (!bridge.isAwaitingClose())
+					bridge.startConnection(TaskScheduler.PRIORITY_BACKGROUND);
+			}
+		};
+
+		if (delay == 0) {
+			attempt.run();
+			return;
+		}
+
+		bridge.outputLine(res.getString(R.string.terminal_reconnecting, (delay + 999) / 1000));
+		scheduler.schedule("reconnect " + bridge.host.getNickname(), delay, attempt);
 	}
 }
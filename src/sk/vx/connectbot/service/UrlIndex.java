@@ -0,0 +1,286 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+
+import de.mud.terminal.VDUBuffer;
+
+/**
+ * Keeps the URLs found in the scrollback of a {@link VDUBuffer}, so that they
+ * can be listed without searching the whole buffer.
+ * <p>
+ * Lines that scrolled off the screen never change again, so each of them is
+ * scanned only once, by {@link #update(VDUBuffer)}. Rows joined by an
+ * automatic wrap (see {@link VDUBuffer#WRAPPED}) are scanned as one line, so
+ * URLs that were too long for the screen are found in one piece. When the
+ * buffer is replaced, e.g. on resize, the index is rebuilt.
+ * <p>
+ * All methods must be called while holding the monitor of the buffer.
+ */
+public class UrlIndex {
+	/* Longer wrapped lines are scanned in parts to bound the work per line */
+	private static final int MAX_WRAPPED_ROWS = 16;
+
+	private static class Link {
+		final long line;
+		final String url;
+
+		Link(long line, String url) {
+			this.line = line;
+			this.url = url;
+		}
+	}
+
+	/* Oldest first, by the line of the row they start in */
+	private final LinkedList<Link> links = new LinkedList<Link>();
+
+	private final ScrollbackCursor cursor = new ScrollbackCursor();
+
+	/* Scrollback rows at the end that belong to a line continuing below */
+	private int pending = 0;
+
+	private char[] line = new char[0];
+
+	private final List<String> found = new ArrayList<String>();
+	private int[] foundAt = new int[16];
+
+	/**
+	 * Scan the rows that entered the scrollback since the last call.
+	 */
+	public void update(VDUBuffer buffer) {
+		int base = Math.min(buffer.screenBase, buffer.charArray.length);
+		int start = cursor.sync(buffer);
+		long firstLine = cursor.getFirstLine();
+
+		if (start == base)
+			return;
+
+		if (start < 0) {
+			links.clear();
+			start = 0;
+		} else {
+			start = Math.max(0, start - pending);
+
+			while (!links.isEmpty() && links.getFirst().line < firstLine)
+				links.removeFirst();
+		}
+
+		pending = base - scanRows(buffer, start, base, firstLine, false, links);
+	}
+
+	/**
+	 * @return URLs in the scrollback and on the screen, most recent first and
+	 *         without duplicates
+	 */
+	public List<String> getUrls(VDUBuffer buffer) {
+		buffer.reflowScrollback();
+		update(buffer);
+
+		LinkedList<Link> visible = new LinkedList<Link>();
+		int base = Math.min(buffer.screenBase, buffer.charArray.length);
+		int end = Math.min(buffer.screenBase + buffer.height, buffer.charArray.length);
+		scanRows(buffer, Math.max(0, base - pending), end, 0, true, visible);
+
+		Set<String> urls = new LinkedHashSet<String>();
+		for (ListIterator<Link> i = visible.listIterator(visible.size()); i.hasPrevious(); )
+			urls.add(i.previous().url);
+		for (ListIterator<Link> i = links.listIterator(links.size()); i.hasPrevious(); )
+			urls.add(i.previous().url);
+
+		return new LinkedList<String>(urls);
+	}
+
+	/**
+	 * Scan the lines made of the rows from start up to end.
+	 *
+	 * @param finish whether to scan a line continuing past end as well
+	 * @return the row at which an unscanned line starts, or end
+	 */
+	private int scanRows(VDUBuffer buffer, int start, int end, long firstLine, boolean finish,
+			List<Link> out) {
+		char[][] rows = buffer.charArray;
+		int[][] attributes = buffer.charAttributes;
+		int lineStart = start;
+		int length = 0;
+
+		for (int r = start; r < end; r++) {
+			char[] row = rows[r];
+			int[] attrs = attributes[r];
+			boolean wrapped = row.length > 0
+					&& (attrs[row.length - 1] & VDUBuffer.WRAPPED) != 0;
+
+			if (line.length < length + row.length) {
+				char[] grown = new char[Math.max(line.length * 2, length + row.length)];
+				System.arraycopy(line, 0, grown, 0, length);
+				line = grown;
+			}
+			System.arraycopy(row, 0, line, length, row.length);
+			length += row.length;
+
+			if (!wrapped || (finish && r == end - 1) || r - lineStart + 1 >= MAX_WRAPPED_ROWS) {
+				foundAt = scan(line, 0, length, found, foundAt);
+				for (int i = 0; i < found.size(); i++)
+					out.add(new Link(firstLine + lineStart + foundAt[i] / row.length, found.get(i)));
+				found.clear();
+
+				lineStart = r + 1;
+				length = 0;
+			}
+		}
+
+		return lineStart;
+	}
+
+	private static boolean isSchemeChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '+' || c == '-' || c == '.';
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Characters allowed in a URI by RFC 3986, except for the delimiters of
+	 * the scheme.
+	 */
+	private static boolean isUriChar(char c) {
+		if (isLetter(c) || (c >= '0' && c <= '9'))
+			return true;
+
+		switch (c) {
+		case '-': case '.': case '_': case '~': case '%':
+		case '!': case '$': case '&': case '\'': case '(': case ')':
+		case '*': case '+': case ',': case ';': case '=': case ':':
+		case '@': case '/': case '?': case '#': case '[': case ']':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Find URLs of the form <code>scheme://...</code> and
+	 * <code>mailto:...</code> in a line of text. Punctuation at the end of a
+	 * URL is taken to belong to the surrounding text.
+	 *
+	 * @param text characters of the line
+	 * @param offset first character to scan
+	 * @param length number of characters to scan
+	 * @param urls receives the URLs in order of appearance
+	 */
+	public static void scanLine(char[] text, int offset, int length, List<String> urls) {
+		scan(text, offset, length, urls, null);
+	}
+
+	/**
+	 * @param starts receives the offset of each URL if not null
+	 * @return starts, grown as needed
+	 */
+	private static int[] scan(char[] text, int offset, int length, List<String> urls, int[] starts) {
+		int end = offset + length;
+		int i = offset;
+
+		while (i < end) {
+			if (text[i] != ':') {
+				i++;
+				continue;
+			}
+
+			int colon = i;
+			int start = colon;
+			while (start > offset && isSchemeChar(text[start - 1]))
+				start--;
+			while (start < colon && !isLetter(text[start]))
+				start++;
+
+			boolean hierarchical = colon + 2 < end && text[colon + 1] == '/' && text[colon + 2] == '/';
+			if (start == colon || !(hierarchical || isMailto(text, start, colon))) {
+				i++;
+				continue;
+			}
+
+			int stop = colon + 1;
+			while (stop < end && isUriChar(text[stop]))
+				stop++;
+
+			stop = trimTrailing(text, start, stop);
+
+			if (stop > colon + (hierarchical ? 3 : 1)) {
+				if (starts != null) {
+					if (urls.size() == starts.length) {
+						int[] grown = new int[starts.length * 2];
+						System.arraycopy(starts, 0, grown, 0, starts.length);
+						starts = grown;
+					}
+					starts[urls.size()] = start;
+				}
+				urls.add(new String(text, start, stop - start));
+			}
+
+			i = Math.max(stop, colon + 1);
+		}
+
+		return starts;
+	}
+
+	private static boolean isMailto(char[] text, int start, int colon) {
+		if (colon - start != 6)
+			return false;
+
+		return new String(text, start, 6).equalsIgnoreCase("mailto");
+	}
+
+	/**
+	 * @return end of the URL without trailing punctuation and unbalanced
+	 *         closing parentheses or brackets
+	 */
+	private static int trimTrailing(char[] text, int start, int stop) {
+		while (stop > start) {
+			char c = text[stop - 1];
+
+			if (c == '.' || c == ',' || c == ';' || c == ':' || c == '!' || c == '?' || c == '\'') {
+				stop--;
+			} else if (c == ')' || c == ']') {
+				char open = c == ')' ? '(' : '[';
+				int balance = 0;
+				for (int j = start; j < stop; j++) {
+					if (text[j] == open)
+						balance++;
+					else if (text[j] == c)
+						balance--;
+				}
+
+				if (balance >= 0)
+					break;
+
+				stop--;
+			} else {
+				break;
+			}
+		}
+
+		return stop;
+	}
+}
@@ -18,6 +18,7 @@
 package sk.vx.connectbot.transport;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +29,9 @@ import sk.vx.connectbot.service.TerminalManager;
 import android.content.Context;
 import android.net.Uri;
 
+import com.trilead.ssh2.metrics.ChannelMetrics;
+import com.trilead.ssh2.metrics.ConnectionMetrics;
+
 /**
  * @author Kenny Root
  *
@@ -98,6 +102,21 @@ public abstract class AbsTransport {
 	 */
 	public abstract void write(int c) throws IOException;
 
+	/**
+	 * @return milliseconds to collect keystrokes for before sending them, 0
+	 *         to send each at once
+	 */
+	protected long getInputDelay() {
+		return manager != null ? manager.getInputDelay() : 0;
+	}
+
+	/**
+	 * Batch the writes to a stream of the connection as the user chose.
+	 */
+	protected InputBatcher createInputBatcher(OutputStream out) {
+		return new InputBatcher(out, bridge, manager != null ? manager.scheduler : null, getInputDelay());
+	}
+
 	/**
 	 * Flushes the write commands to the transport.
 	 * @throws IOException when there is a problem writing after connection
@@ -222,8 +241,8 @@ public abstract class AbsTransport {
 	}
 
 	/**
-	 * Downloads the specified remote file to a local folder.
-	 * @param remoteFile The path to the remote file to be downloaded. Must be non-null.
+	 * Downloads the specified remote file or directory tree to a local folder.
+	 * @param remoteFile The path to the remote file or directory to be downloaded. Must be non-null.
 	 * @param localFolder The path to local folder. Null = default external storage folder.
 	 * @return true on success, false on failure
 	 */
@@ -232,8 +251,8 @@ public abstract class AbsTransport {
 	}
 
 	/**
-	 * Uploads the specified local file to the remote host.
-	 * @param localFile The path to the local file to be uploaded. Must be non-null.
+	 * Uploads the specified local file or directory tree to the remote host.
+	 * @param localFile The path to the local file or directory to be uploaded. Must be non-null.
 	 * @param remoteFolder The path to the remote directory. Null == default remote directory.
 	 * @return true on success, false on failure
 	 */
@@ -242,6 +261,22 @@ public abstract class AbsTransport {
 		return false;
 	}
 
+	/**
+	 * @return live counters and histograms of the underlying connection, or
+	 * null if this transport does not keep any (or is not connected yet)
+	 */
+	public ConnectionMetrics getConnectionMetrics() {
+		return null;
+	}
+
+	/**
+	 * @return live counters and histograms of the terminal session, or null
+	 * if this transport does not keep any (or no session is open)
+	 */
+	public ChannelMetrics getSessionMetrics() {
+		return null;
+	}
+
 	public abstract boolean isConnected();
 	public abstract boolean isSessionOpen();
 	public abstract boolean isAuthenticated();
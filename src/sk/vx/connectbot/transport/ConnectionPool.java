@@ -0,0 +1,159 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.transport;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import sk.vx.connectbot.bean.HostBean;
+import sk.vx.connectbot.util.HostDatabase;
+
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.ConnectionMonitor;
+
+/**
+ * Authenticated SSH connections that sessions to the same host and user
+ * share, so that opening another one only opens a channel instead of going
+ * through the TCP, key exchange and authentication handshakes again.
+ * <p>
+ * Connections are counted by their users. The last user to release a
+ * connection closes it, and a lost connection leaves the pool. When the
+ * network changes, all connections leave the pool, as they can't be relied
+ * on any more, but their users keep them until they release them.
+ */
+public class ConnectionPool {
+	private static class Entry {
+		final Connection connection;
+		int references = 1;
+
+		Entry(Connection connection) {
+			this.connection = connection;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/* Evicted, but not released by all their users yet */
+	private final List<Entry> evicted = new LinkedList<Entry>();
+
+	/**
+	 * @return the key under which connections for a host are shared, or
+	 *         null if they can't be, e.g. because the auth agent is forwarded,
+	 *         which works for one session per connection only
+	 */
+	public static String getKey(HostBean host) {
+		if (!HostDatabase.AUTHAGENT_NO.equals(host.getUseAuthAgent()))
+			return null;
+
+		return String.format("%s@%s:%d/%d/%b/%s", host.getUsername(), host.getHostname(),
+				host.getPort(), host.getPubkeyId(), host.getCompression(), host.getHttpproxy());
+	}
+
+	/**
+	 * Take a share of a pooled connection.
+	 *
+	 * @return the connection, or null if there is none for the key
+	 */
+	public synchronized Connection acquire(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+
+		entry.references++;
+		return entry.connection;
+	}
+
+	/**
+	 * Offer a newly authenticated connection for sharing, counting the
+	 * caller as its first user.
+	 *
+	 * @return whether the connection was pooled; if not, there is one
+	 *         already and the caller keeps its own
+	 */
+	public boolean add(final String key, final Connection connection) {
+		synchronized (this) {
+			if (entries.containsKey(key))
+				return false;
+
+			entries.put(key, new Entry(connection));
+		}
+
+		connection.addConnectionMonitor(new ConnectionMonitor() {
+			public void connectionLost(Throwable reason) {
+				remove(key, connection);
+			}
+		});
+
+		return true;
+	}
+
+	/**
+	 * Give up a share of a connection.
+	 *
+	 * @return whether the caller has to close the connection, as it was
+	 *         the last user or the connection wasn't pooled
+	 */
+	public synchronized boolean release(Connection connection) {
+		return release(entries.values().iterator(), connection)
+				&& release(evicted.iterator(), connection);
+	}
+
+	private static boolean release(Iterator<Entry> i, Connection connection) {
+		while (i.hasNext()) {
+			Entry entry = i.next();
+			if (entry.connection != connection)
+				continue;
+
+			if (--entry.references > 0)
+				return false;
+
+			i.remove();
+			return true;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Stop handing out the pooled connections, e.g. because the network
+	 * changed and they may be dead without knowing it yet. Their users keep
+	 * them, and the last one to release a connection closes it.
+	 */
+	public synchronized void evictAll() {
+		evicted.addAll(entries.values());
+		entries.clear();
+	}
+
+	/**
+	 * @return number of users of the pooled connection for the key, 0 if
+	 *         there is none
+	 */
+	public synchronized int getReferences(String key) {
+		Entry entry = entries.get(key);
+		return entry == null ? 0 : entry.references;
+	}
+
+	private synchronized void remove(String key, Connection connection) {
+		Entry entry = entries.get(key);
+		if (entry != null && entry.connection == connection)
+			entries.remove(key);
+	}
+}
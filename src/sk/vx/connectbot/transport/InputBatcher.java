@@ -0,0 +1,143 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.TimerTask;
+
+import sk.vx.connectbot.service.TaskScheduler;
+import sk.vx.connectbot.service.TerminalBridge;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Coalesces keystrokes into fewer writes, so that a transport sends one
+ * packet for a burst of input instead of one per byte.
+ * <p>
+ * Like Nagle's algorithm, input is sent at once if nothing was sent during
+ * the last <code>delay</code> milliseconds, so a single keystroke is never
+ * held back. Input that follows closer than that is collected and sent
+ * together when the delay is up. Pastes go out in one write.
+ */
+public class InputBatcher {
+	public final static String TAG = "ConnectBot.InputBatcher";
+
+	private static final int BUFFER_SIZE = 4096;
+
+	private final OutputStream out;
+	private final TerminalBridge bridge;
+	private final TaskScheduler scheduler;
+	private final long delay;
+
+	/* Guarded by this */
+	private final byte[] pending = new byte[BUFFER_SIZE];
+	private int length = 0;
+	private long lastSent = 0;
+	private TimerTask flushTask = null;
+
+	/**
+	 * @param delay milliseconds to collect input for, or 0 to write
+	 *            everything through at once
+	 */
+	public InputBatcher(OutputStream out, TaskScheduler scheduler, long delay) {
+		this(out, null, scheduler, delay);
+	}
+
+	/**
+	 * @param bridge disconnected when sending delayed input fails, as
+	 *            nobody else would notice
+	 * @param delay milliseconds to collect input for, or 0 to write
+	 *            everything through at once
+	 */
+	public InputBatcher(OutputStream out, TerminalBridge bridge, TaskScheduler scheduler, long delay) {
+		this.out = out;
+		this.bridge = bridge;
+		this.scheduler = scheduler;
+		this.delay = delay;
+	}
+
+	public synchronized void write(int b) throws IOException {
+		if (length == pending.length)
+			flush();
+
+		pending[length++] = (byte) b;
+		sendOrWait();
+	}
+
+	public synchronized void write(byte[] buffer, int offset, int count) throws IOException {
+		if (length + count > pending.length) {
+			flush();
+
+			if (count > pending.length) {
+				out.write(buffer, offset, count);
+				lastSent = SystemClock.uptimeMillis();
+				return;
+			}
+		}
+
+		System.arraycopy(buffer, offset, pending, length, count);
+		length += count;
+		sendOrWait();
+	}
+
+	/**
+	 * Send collected input now.
+	 */
+	public synchronized void flush() throws IOException {
+		if (flushTask != null) {
+			flushTask.cancel();
+			flushTask = null;
+		}
+
+		if (length == 0)
+			return;
+
+		try {
+			out.write(pending, 0, length);
+		} finally {
+			length = 0;
+			lastSent = SystemClock.uptimeMillis();
+		}
+	}
+
+	private void sendOrWait() throws IOException {
+		long wait = lastSent + delay - SystemClock.uptimeMillis();
+
+		if (delay <= 0 || wait <= 0)
+			flush();
+		else if (flushTask == null)
+			flushTask = scheduler.schedule("input flush", TaskScheduler.PRIORITY_FOREGROUND, wait, flusher);
+	}
+
+	private final Runnable flusher = new Runnable() {
+		public void run() {
+			try {
+				synchronized (InputBatcher.this) {
+					flushTask = null;
+					flush();
+				}
+			} catch (IOException e) {
+				Log.e(TAG, "Couldn't send input", e);
+
+				if (bridge != null)
+					bridge.dispatchDisconnect(false);
+			}
+		}
+	};
+}
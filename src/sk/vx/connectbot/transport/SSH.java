@@ -42,6 +42,7 @@ import sk.vx.connectbot.R;
 import sk.vx.connectbot.bean.HostBean;
 import sk.vx.connectbot.bean.PortForwardBean;
 import sk.vx.connectbot.bean.PubkeyBean;
+import sk.vx.connectbot.service.ResumptionState;
 import sk.vx.connectbot.service.TerminalBridge;
 import sk.vx.connectbot.service.TerminalManager;
 import sk.vx.connectbot.service.TerminalManager.KeyHolder;
@@ -63,11 +64,15 @@ import com.trilead.ssh2.InteractiveCallback;
 import com.trilead.ssh2.KnownHosts;
 import com.trilead.ssh2.LocalPortForwarder;
 import com.trilead.ssh2.SCPClient;
+import com.trilead.ssh2.SFTPv3Client;
 import com.trilead.ssh2.ServerHostKeyVerifier;
 import com.trilead.ssh2.Session;
+import com.trilead.ssh2.TransferStatistics;
 import com.trilead.ssh2.HTTPProxyData;
 import com.trilead.ssh2.HTTPProxyException;
 import com.trilead.ssh2.crypto.PEMDecoder;
+import com.trilead.ssh2.metrics.ChannelMetrics;
+import com.trilead.ssh2.metrics.ConnectionMetrics;
 import com.trilead.ssh2.signature.DSAPrivateKey;
 import com.trilead.ssh2.signature.DSAPublicKey;
 import com.trilead.ssh2.signature.DSASHA1Verify;
@@ -102,6 +107,11 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	private final static int AUTH_TRIES = 20;
 
+	/**
+	 * Number of concurrent channels used for directory transfers.
+	 */
+	private final static int TRANSFER_CHANNELS = 4;
+
 	static final Pattern hostmask;
 	static {
 		hostmask = Pattern.compile("^(.+)@([0-9a-z.-]+)(:(\\d+))?$", Pattern.CASE_INSENSITIVE);
@@ -115,12 +125,18 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	private boolean pubkeysExhausted = false;
 	private boolean interactiveCanContinue = true;
+	private boolean resumeTried = false;
 
 	private Connection connection;
 	private Session session;
+
+	/* Key under which the connection is shared, or null if it can't be */
+	private String poolKey;
+	private boolean pooled = false;
 	private ConnectionInfo connectionInfo;
 
 	private OutputStream stdin;
+	private InputBatcher input;
 	private InputStream stdout;
 	private InputStream stderr;
 
@@ -144,12 +160,6 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		public boolean verifyServerHostKey(String hostname, int port,
 				String serverHostKeyAlgorithm, byte[] serverHostKey) throws IOException {
 
-			// read in all known hosts from hostdb
-			KnownHosts hosts = manager.hostdb.getKnownHosts();
-			Boolean result;
-
-			String matchName = String.format("%s:%d", hostname, port);
-
 			String fingerprint = KnownHosts.createHexFingerprint(serverHostKeyAlgorithm, serverHostKey);
 
 			String algorithmName;
@@ -160,9 +170,23 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			else
 				algorithmName = serverHostKeyAlgorithm;
 
+			// reconnecting to the same server needs no database lookup
+			ResumptionState resumption = bridge.getResumptionState();
+			if (resumption.isVerifiedHostKey(serverHostKeyAlgorithm, serverHostKey)) {
+				bridge.outputLine(manager.res.getString(R.string.terminal_sucess, algorithmName, fingerprint));
+				return true;
+			}
+
+			// read in all known hosts from hostdb
+			KnownHosts hosts = manager.hostdb.getKnownHosts();
+			Boolean result;
+
+			String matchName = String.format("%s:%d", hostname, port);
+
 			switch(hosts.verifyHostkey(matchName, serverHostKeyAlgorithm, serverHostKey)) {
 			case KnownHosts.HOSTKEY_IS_OK:
 				bridge.outputLine(manager.res.getString(R.string.terminal_sucess, algorithmName, fingerprint));
+				resumption.setVerifiedHostKey(serverHostKeyAlgorithm, serverHostKey);
 				return true;
 
 			case KnownHosts.HOSTKEY_IS_NEW:
@@ -175,6 +199,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 				if(result.booleanValue()) {
 					// save this key in known database
 					manager.hostdb.saveKnownHost(hostname, port, serverHostKeyAlgorithm, serverHostKey);
+					resumption.setVerifiedHostKey(serverHostKeyAlgorithm, serverHostKey);
 				}
 				return result.booleanValue();
 
@@ -199,6 +224,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 				if(result.booleanValue()) {
 					// save this key in known database
 					manager.hostdb.saveKnownHost(hostname, port, serverHostKeyAlgorithm, serverHostKey);
+					resumption.setVerifiedHostKey(serverHostKeyAlgorithm, serverHostKey);
 				}
 				return result.booleanValue();
 
@@ -222,6 +248,14 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		bridge.outputLine(manager.res.getString(R.string.terminal_auth));
 
 		try {
+			if (!resumeTried) {
+				resumeTried = true;
+				if (resumeAuthentication()) {
+					finishConnection();
+					return;
+				}
+			}
+
 			long pubkeyId = host.getPubkeyId();
 
 			if (!pubkeysExhausted &&
@@ -235,6 +269,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 					// try each of the in-memory keys
 					bridge.outputLine(manager.res
 							.getString(R.string.terminal_auth_pubkey_any));
+					manager.waitForStartupKeys();
 					for (Entry<String, KeyHolder> entry : manager.loadedKeypairs.entrySet()) {
 						if (entry.getValue().bean.isConfirmUse()
 								&& !promptForPubkeyUse(entry.getKey()))
@@ -242,6 +277,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 						if (this.tryPublicKey(host.getUsername(), entry.getKey(),
 								entry.getValue().trileadKey)) {
+							bridge.getResumptionState().setAuthentication(AUTH_PUBLICKEY, entry.getKey(), null);
 							finishConnection();
 							break;
 						}
@@ -254,8 +290,10 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 					if (pubkey == null)
 						bridge.outputLine(manager.res.getString(R.string.terminal_auth_pubkey_invalid));
 					else
-						if (tryPublicKey(pubkey))
+						if (tryPublicKey(pubkey)) {
+							bridge.getResumptionState().setAuthentication(AUTH_PUBLICKEY, pubkey.getNickname(), null);
 							finishConnection();
+						}
 				}
 
 				pubkeysExhausted = true;
@@ -266,6 +304,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 				bridge.outputLine(manager.res.getString(R.string.terminal_auth_ki));
 				interactiveCanContinue = false;
 				if(connection.authenticateWithKeyboardInteractive(host.getUsername(), this)) {
+					// the answers may be one-time passwords, so they aren't kept
+					bridge.getResumptionState().forgetAuthentication();
 					finishConnection();
 				} else {
 					bridge.outputLine(manager.res.getString(R.string.terminal_auth_ki_fail));
@@ -276,6 +316,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 						manager.res.getString(R.string.prompt_password));
 				if (password != null
 						&& connection.authenticateWithPassword(host.getUsername(), password)) {
+					bridge.getResumptionState().setAuthentication(AUTH_PASSWORD, null, password);
 					finishConnection();
 				} else {
 					bridge.outputLine(manager.res.getString(R.string.terminal_auth_pass_fail));
@@ -291,6 +332,37 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		}
 	}
 
+	/**
+	 * Authenticate the way it worked the last time this session connected,
+	 * without asking the user.
+	 *
+	 * @return true for successful authentication
+	 */
+	private boolean resumeAuthentication() throws IOException {
+		ResumptionState resumption = bridge.getResumptionState();
+		String method = resumption.getAuthMethod();
+
+		if (AUTH_PUBLICKEY.equals(method)) {
+			// keys to confirm on each use go the usual way
+			KeyHolder holder = manager.loadedKeypairs.get(resumption.getPubkeyNickname());
+			if (holder == null || holder.bean.isConfirmUse())
+				return false;
+
+			bridge.outputLine(manager.res.getString(R.string.terminal_auth_pubkey_specific));
+			if (tryPublicKey(host.getUsername(), holder.bean.getNickname(), holder.trileadKey))
+				return true;
+		} else if (AUTH_PASSWORD.equals(method)) {
+			bridge.outputLine(manager.res.getString(R.string.terminal_auth_pass));
+			if (connection.authenticateWithPassword(host.getUsername(), resumption.getPassword()))
+				return true;
+		} else {
+			return false;
+		}
+
+		resumption.forgetAuthentication();
+		return false;
+	}
+
 	/**
 	 * Attempt connection with database row pointed to by cursor.
 	 * @param cursor
@@ -370,6 +442,16 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	private void finishConnection() {
 		authenticated = true;
 
+		if (!pooled) {
+			// notice connections that died silently, e.g. behind a NAT router
+			long keepAlive = manager.getKeepAliveInterval();
+			if (keepAlive > 0)
+				connection.setKeepAliveInterval(keepAlive * 1000);
+
+			if (poolKey != null)
+				pooled = manager.connectionPool.add(poolKey, connection);
+		}
+
 		for (PortForwardBean portForward : portForwards) {
 			try {
 				enablePortForward(portForward);
@@ -386,7 +468,9 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		}
 
 		try {
-			session = connection.openSession();
+			// a shared connection has opened the session already
+			if (session == null)
+				session = connection.openSession();
 
 			if (!useAuthAgent.equals(HostDatabase.AUTHAGENT_NO))
 				session.requestAuthAgentForwarding(this);
@@ -403,6 +487,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			session.startShell();
 
 			stdin = session.getStdin();
+			input = createInputBatcher(stdin);
 			stdout = session.getStdout();
 			stderr = session.getStderr();
 
@@ -415,11 +500,53 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	}
 
+	/**
+	 * Open the session on a connection that another session to the same
+	 * host and user authenticated already.
+	 *
+	 * @return false if no session could be opened on it
+	 */
+	private boolean connectShared(Connection shared) {
+		try {
+			session = shared.openSession();
+		} catch (IOException e) {
+			// e.g. the server limits the sessions per connection
+			Log.w(TAG, "Couldn't open session on shared connection", e);
+			if (manager.connectionPool.release(shared))
+				shared.close();
+			return false;
+		}
+
+		connection = shared;
+		pooled = true;
+		connected = true;
+		connection.addConnectionMonitor(this);
+
+		bridge.outputLine(manager.res.getString(R.string.terminal_sharing_connection));
+		finishConnection();
+		return true;
+	}
+
 	@Override
 	public void connect() {
+		poolKey = ConnectionPool.getKey(host);
+		if (poolKey != null) {
+			Connection shared = manager.connectionPool.acquire(poolKey);
+			if (shared != null && connectShared(shared))
+				return;
+		}
+
 		connection = new Connection(host.getHostname(), host.getPort());
 		connection.addConnectionMonitor(this);
 
+		try {
+			// keystrokes are batched here, so don't hold them back any longer
+			if (getInputDelay() > 0)
+				connection.setTCPNoDelay(true);
+		} catch (IOException e) {
+			Log.e(TAG, "Could not disable Nagle's algorithm", e);
+		}
+
 		try {
 			connection.setCompression(compression);
 		} catch (IOException e) {
@@ -527,7 +654,15 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		}
 
 		if (connection != null) {
-			connection.close();
+			if (!pooled || manager.connectionPool.release(connection)) {
+				connection.close();
+			} else {
+				// others still use the connection, so only take back what is ours
+				connection.removeConnectionMonitor(this);
+				for (PortForwardBean portForward : portForwards)
+					if (portForward.isEnabled())
+						disablePortForward(portForward);
+			}
 			connection = null;
 		}
 	}
@@ -540,6 +675,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	@Override
 	public void flush() throws IOException {
+		if (input != null)
+			input.flush();
 		if (stdin != null)
 			stdin.flush();
 	}
@@ -574,14 +711,14 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	@Override
 	public void write(byte[] buffer) throws IOException {
-		if (stdin != null)
-			stdin.write(buffer);
+		if (input != null)
+			input.write(buffer, 0, buffer.length);
 	}
 
 	@Override
 	public void write(int c) throws IOException {
-		if (stdin != null)
-			stdin.write(c);
+		if (input != null)
+			input.write(c);
 	}
 
 	@Override
@@ -622,7 +759,27 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		return authenticated;
 	}
 
+	@Override
+	public ConnectionMetrics getConnectionMetrics() {
+		if (!connected)
+			return null;
+
+		return connection.getMetrics();
+	}
+
+	@Override
+	public ChannelMetrics getSessionMetrics() {
+		if (!sessionOpen)
+			return null;
+
+		return session.getMetrics();
+	}
+
 	public void connectionLost(Throwable reason) {
+		// tell why unless we closed the connection ourselves
+		if (connected && reason != null && reason.getMessage() != null)
+			bridge.outputLine(reason.getMessage());
+
 		onDisconnect();
 	}
 
@@ -788,7 +945,12 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 				localFolder = Environment.getExternalStorageDirectory().getAbsolutePath();
 			File dir = new File(localFolder);
 			dir.mkdirs();
-			client.get(remoteFile, localFolder);
+			if (isRemoteDirectory(remoteFile)) {
+				TransferStatistics stats = new TransferStatistics();
+				client.getDirectory(remoteFile, localFolder, getTransferChannels(), stats);
+				logTransfer(remoteFile, stats);
+			} else
+				client.get(remoteFile, localFolder);
 			return true;
 		} catch (IOException e) {
 			Log.e(TAG, "Could not download remote file", e);
@@ -803,7 +965,11 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			SCPClient client = new SCPClient(connection);
 			if (remoteFolder == null)
 				remoteFolder = "";
-			if (remoteFile == null || remoteFile == "")
+			if (new File(localFile).isDirectory()) {
+				TransferStatistics stats = new TransferStatistics();
+				client.putDirectory(localFile, remoteFolder, mode, getTransferChannels(), stats);
+				logTransfer(localFile, stats);
+			} else if (remoteFile == null || remoteFile == "")
 				client.put(localFile, remoteFolder, mode);
 			else
 				client.put(localFile, remoteFile, remoteFolder, mode);
@@ -814,6 +980,54 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		}
 	}
 
+	/**
+	 * Asks the SFTP subsystem whether a remote path names a directory. Servers
+	 * without SFTP can still transfer directories when the path is given with
+	 * a trailing slash.
+	 */
+	private boolean isRemoteDirectory(String remoteFile) {
+		if (remoteFile.endsWith("/"))
+			return true;
+
+		SFTPv3Client sftp = null;
+		try {
+			sftp = new SFTPv3Client(connection);
+			return sftp.stat(remoteFile).isDirectory();
+		} catch (IOException e) {
+			Log.d(TAG, "Could not stat remote file, assuming a regular file", e);
+			return false;
+		} finally {
+			if (sftp != null)
+				sftp.close();
+		}
+	}
+
+	/**
+	 * @return number of sessions to transfer a directory over; more than
+	 *         one needs SFTP to walk the tree, so without it the remote scp
+	 *         does that over a single session
+	 */
+	private int getTransferChannels() {
+		SFTPv3Client sftp = null;
+		try {
+			sftp = new SFTPv3Client(connection);
+			return TRANSFER_CHANNELS;
+		} catch (IOException e) {
+			Log.d(TAG, "No SFTP, transferring the directory over one session", e);
+			return 1;
+		} finally {
+			if (sftp != null)
+				sftp.close();
+		}
+	}
+
+	private void logTransfer(String path, TransferStatistics stats) {
+		Log.d(TAG, String.format("Transferred %s: %d of %d files, %d bytes in %d ms (%d bytes/s)",
+				path, stats.getFilesTransferred(), stats.getFilesTotal(),
+				stats.getBytesTransferred(), stats.getElapsedTime(),
+				stats.getBytesPerSecond()));
+	}
+
 	@Override
 	public void setDimensions(int columns, int rows, int width, int height) {
 		this.columns = columns;
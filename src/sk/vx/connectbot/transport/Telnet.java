@@ -55,6 +55,7 @@ public class Telnet extends AbsTransport {
 	private Socket socket;
 
 	private InputStream is;
+	private InputBatcher input;
 	private OutputStream os;
 	private int width;
 	private int height;
@@ -127,10 +128,15 @@ public class Telnet extends AbsTransport {
 		try {
 			socket = new Socket(host.getHostname(), host.getPort());
 
+			// keystrokes are batched here, so don't hold them back any longer
+			if (getInputDelay() > 0)
+				socket.setTcpNoDelay(true);
+
 			connected = true;
 
 			is = socket.getInputStream();
 			os = socket.getOutputStream();
+			input = createInputBatcher(os);
 
 			bridge.onConnected();
 		} catch (UnknownHostException e) {
@@ -154,6 +160,8 @@ public class Telnet extends AbsTransport {
 
 	@Override
 	public void flush() throws IOException {
+		if (input != null)
+			input.flush();
 		os.flush();
 	}
 
@@ -179,38 +187,31 @@ public class Telnet extends AbsTransport {
 
 	@Override
 	public int read(byte[] buffer, int start, int len) throws IOException {
-		/* process all already read bytes */
-		int n = 0;
-
-		do {
-			n = handler.negotiate(buffer, start);
+		/* process bytes left over from an earlier read first */
+		int n;
+		while ((n = handler.negotiate(buffer, start, len)) >= 0)
 			if (n > 0)
 				return n;
-		} while (n == 0);
 
-		while (n <= 0) {
-			do {
-				n = handler.negotiate(buffer, start);
-				if (n > 0)
-					return n;
-			} while (n == 0);
+		/* then read straight into the caller's buffer and filter in place */
+		do {
 			n = is.read(buffer, start, len);
 			if (n < 0) {
 				bridge.dispatchDisconnect(false);
 				throw new IOException("Remote end closed connection.");
 			}
 
-			handler.inputfeed(buffer, start, n);
-			n = handler.negotiate(buffer, start);
-		}
+			n = handler.negotiateInPlace(buffer, start, n);
+		} while (n == 0);
+
 		return n;
 	}
 
 	@Override
 	public void write(byte[] buffer) throws IOException {
 		try {
-			if (os != null)
-				os.write(buffer);
+			if (input != null)
+				input.write(buffer, 0, buffer.length);
 		} catch (SocketException e) {
 			bridge.dispatchDisconnect(false);
 		}
@@ -219,8 +220,8 @@ public class Telnet extends AbsTransport {
 	@Override
 	public void write(int c) throws IOException {
 		try {
-			if (os != null)
-				os.write(c);
+			if (input != null)
+				input.write(c);
 		} catch (SocketException e) {
 			bridge.dispatchDisconnect(false);
 		}
@@ -26,7 +26,6 @@ package sk.vx.connectbot.util;
  * http://zs.freeshell.org/
  */
 
-import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
@@ -46,9 +45,6 @@ public final class Encryptor
 	/** random number generator algorithm */
 	private static final String RNG_ALGORITHM = "SHA1PRNG";
 
-	/** message digest algorithm (must be sufficiently long to provide the key and initialization vector) */
-	private static final String DIGEST_ALGORITHM = "SHA-256";
-
 	/** key algorithm (must be compatible with CIPHER_ALGORITHM) */
 	private static final String KEY_ALGORITHM = "AES";
 
@@ -96,42 +92,33 @@ public final class Encryptor
 		SecureRandom.getInstance(RNG_ALGORITHM).nextBytes(salt);
 
 		/* compute key and initialization vector */
-		final MessageDigest shaDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
-		byte[] pw = password.getBytes(CHARSET_NAME);
-
-		for (int i = 0; i < iterations; i++)
-		{
-			/* add salt */
-			final byte[] salted = new byte[pw.length + salt.length];
-			System.arraycopy(pw, 0, salted, 0, pw.length);
-			System.arraycopy(salt, 0, salted, pw.length, salt.length);
-			Arrays.fill(pw, (byte) 0x00);
-
-			/* compute SHA-256 digest */
-			shaDigest.reset();
-			pw = shaDigest.digest(salted);
-			Arrays.fill(salted, (byte) 0x00);
-		}
-
-		/* extract the 16-byte key and initialization vector from the SHA-256 digest */
-		final byte[] key = new byte[16];
-		final byte[] iv = new byte[16];
-		System.arraycopy(pw, 0, key, 0, 16);
-		System.arraycopy(pw, 16, iv, 0, 16);
+		final byte[] pw = password.getBytes(CHARSET_NAME);
+		final byte[] keyAndIv = KeyDerivation.iteratedSha256(pw, salt, iterations);
 		Arrays.fill(pw, (byte) 0x00);
 
-		/* perform AES-128 encryption */
-		final Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-
-		cipher.init(
-				Cipher.ENCRYPT_MODE,
-				new SecretKeySpec(key, KEY_ALGORITHM),
-				new IvParameterSpec(iv));
+		return encrypt(keyAndIv, cleartext);
+	}
 
-		Arrays.fill(key, (byte) 0x00);
-		Arrays.fill(iv, (byte) 0x00);
 
-		return cipher.doFinal(cleartext);
+	/**
+	* Encrypt the specified cleartext with AES-128 in CBC mode.
+	*
+	* @param keyAndIv
+	*	  16-byte secret key followed by the 16-byte initialization vector;
+	*	  cleared on return
+	* @param cleartext
+	*	  cleartext to be encrypted
+	* @return
+	*	  ciphertext
+	* @throws Exception
+	*	  on any error encountered in encryption
+	*/
+	public static byte[] encrypt(
+			final byte[] keyAndIv,
+			final byte[] cleartext)
+			throws Exception
+	{
+		return initCipher(Cipher.ENCRYPT_MODE, keyAndIv).doFinal(cleartext);
 	}
 
 
@@ -165,41 +152,58 @@ public final class Encryptor
 			throws Exception
 	{
 		/* compute key and initialization vector */
-		final MessageDigest shaDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
-		byte[] pw = password.getBytes(CHARSET_NAME);
-
-		for (int i = 0; i < iterations; i++)
-		{
-			/* add salt */
-			final byte[] salted = new byte[pw.length + salt.length];
-			System.arraycopy(pw, 0, salted, 0, pw.length);
-			System.arraycopy(salt, 0, salted, pw.length, salt.length);
-			Arrays.fill(pw, (byte) 0x00);
-
-			/* compute SHA-256 digest */
-			shaDigest.reset();
-			pw = shaDigest.digest(salted);
-			Arrays.fill(salted, (byte) 0x00);
-		}
-
-		/* extract the 16-byte key and initialization vector from the SHA-256 digest */
+		final byte[] pw = password.getBytes(CHARSET_NAME);
+		final byte[] keyAndIv = KeyDerivation.iteratedSha256(pw, salt, iterations);
+		Arrays.fill(pw, (byte) 0x00);
+
+		return decrypt(keyAndIv, ciphertext);
+	}
+
+
+	/**
+	* Decrypt the specified ciphertext with AES-128 in CBC mode.
+	*
+	* @param keyAndIv
+	*	  16-byte secret key followed by the 16-byte initialization vector;
+	*	  cleared on return
+	* @param ciphertext
+	*	  ciphertext to be decrypted
+	* @return
+	*	  cleartext
+	* @throws Exception
+	*	  on any error encountered in decryption
+	*/
+	public static byte[] decrypt(
+			final byte[] keyAndIv,
+			final byte[] ciphertext)
+			throws Exception
+	{
+		return initCipher(Cipher.DECRYPT_MODE, keyAndIv).doFinal(ciphertext);
+	}
+
+
+	private static Cipher initCipher(
+			final int mode,
+			final byte[] keyAndIv)
+			throws Exception
+	{
+		/* extract the 16-byte key and initialization vector */
 		final byte[] key = new byte[16];
 		final byte[] iv = new byte[16];
-		System.arraycopy(pw, 0, key, 0, 16);
-		System.arraycopy(pw, 16, iv, 0, 16);
-		Arrays.fill(pw, (byte) 0x00);
+		System.arraycopy(keyAndIv, 0, key, 0, 16);
+		System.arraycopy(keyAndIv, 16, iv, 0, 16);
+		Arrays.fill(keyAndIv, (byte) 0x00);
 
-		/* perform AES-128 decryption */
 		final Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
 
 		cipher.init(
-				Cipher.DECRYPT_MODE,
+				mode,
 				new SecretKeySpec(key, KEY_ALGORITHM),
 				new IvParameterSpec(iv));
 
 		Arrays.fill(key, (byte) 0x00);
 		Arrays.fill(iv, (byte) 0x00);
 
-		return cipher.doFinal(ciphertext);
+		return cipher;
 	}
 }
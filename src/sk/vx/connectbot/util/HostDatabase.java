@@ -18,11 +18,17 @@
 package sk.vx.connectbot.util;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import sk.vx.connectbot.bean.HostBean;
 import sk.vx.connectbot.bean.PortForwardBean;
@@ -145,12 +151,125 @@ public class HostDatabase extends RobustSQLiteOpenHelper {
 
 	public static final Object[] dbLock = new Object[0];
 
+	/*
+	 * Index of all saved host keys, shared by all instances and guarded by
+	 * dbLock. Built on first use and updated in place by saveKnownHost(); any
+	 * other change to hostnames or ports simply drops it.
+	 */
+	private static KnownHosts knownHosts = null;
+
+	/*
+	 * In-memory copy of the hosts table, shared by all instances and guarded
+	 * by dbLock. It is loaded in one query on first use; port forwards and
+	 * colors are cached per host and per scheme as they are asked for. Callers
+	 * only ever get copies, so they may modify what they get.
+	 */
+	private static Map<Long, HostBean> hostCache = null;
+	private static final Map<Long, List<PortForwardBean>> portForwardCache =
+		new HashMap<Long, List<PortForwardBean>>();
+	private static final Map<Integer, Integer[]> colorCache = new HashMap<Integer, Integer[]>();
+	private static final Map<Integer, int[]> defaultColorCache = new HashMap<Integer, int[]>();
+
+	private static final List<OnHostsChangedListener> hostsChangedListeners =
+		new CopyOnWriteArrayList<OnHostsChangedListener>();
+
+	/*
+	 * Updates whose result is already visible in the cache are written behind
+	 * in batches, through a connection that is never closed.
+	 */
+	private static HostDatabase writerDb = null;
+	private static WriteBehindQueue writes = null;
+
+	private final Context context;
+
 	public HostDatabase(Context context) {
 		super(context, DB_NAME, null, DB_VERSION);
 
+		this.context = context;
+
 		getWritableDatabase().close();
 	}
 
+	/**
+	 * Register a listener for changes to the hosts table.
+	 */
+	public static void addOnHostsChangedListener(OnHostsChangedListener listener) {
+		hostsChangedListeners.add(listener);
+	}
+
+	public static void removeOnHostsChangedListener(OnHostsChangedListener listener) {
+		hostsChangedListeners.remove(listener);
+	}
+
+	private static void notifyHostsChanged(List<HostBean> added, List<HostBean> changed,
+			List<HostBean> removed) {
+		for (OnHostsChangedListener listener : hostsChangedListeners)
+			listener.onHostsChanged(added, changed, removed);
+	}
+
+	private static void notifyHostChanged(HostBean host) {
+		List<HostBean> none = Collections.emptyList();
+		notifyHostsChanged(none, Collections.singletonList(host), none);
+	}
+
+	private HostDatabase getWriterDb() {
+		synchronized (dbLock) {
+			if (writerDb == null) {
+				Context appContext = context.getApplicationContext();
+				writerDb = new HostDatabase(appContext != null ? appContext : context);
+				writes = new WriteBehindQueue("HostDatabase writer", writerDb, dbLock);
+			}
+
+			return writerDb;
+		}
+	}
+
+	/**
+	 * Queue a database update. The caller has already applied its effect to
+	 * the cache.
+	 * @param key pending updates with an equal key are replaced, may be null
+	 */
+	private void postWrite(Object key, WriteBehindQueue.Update update) {
+		getWriterDb();
+
+		writes.post(key, update);
+	}
+
+	/**
+	 * Write all pending updates now. Called before the database is read
+	 * directly and when the service shuts down.
+	 */
+	public static void flushWrites() {
+		WriteBehindQueue queue;
+
+		synchronized (dbLock) {
+			queue = writes;
+		}
+
+		if (queue != null)
+			queue.flush();
+	}
+
+	/**
+	 * Load the hosts table into the cache in the background, so that the
+	 * first {@link #getHosts(boolean)} on the UI thread finds it there.
+	 */
+	public void preload() {
+		final HostDatabase db = getWriterDb();
+
+		new Thread(new Runnable() {
+			public void run() {
+				synchronized (dbLock) {
+					try {
+						db.getHostCache();
+					} catch (SQLiteException e) {
+						Log.e(TAG, "Could not load host database", e);
+					}
+				}
+			}
+		}, "HostDatabase preload").start();
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		super.onCreate(db);
@@ -283,20 +402,59 @@ public class HostDatabase extends RobustSQLiteOpenHelper {
 	}
 
 	/**
-	 * Touch a specific host to update its "last connected" field.
+	 * Load the hosts table into the cache if that has not happened yet.
+	 * Caller must hold dbLock.
+	 */
+	private Map<Long, HostBean> getHostCache() {
+		if (hostCache == null) {
+			flushWrites();
+
+			SQLiteDatabase db = this.getReadableDatabase();
+
+			Cursor c = db.query(TABLE_HOSTS, null, null, null, null, null, "_id ASC");
+
+			Map<Long, HostBean> hosts = new LinkedHashMap<Long, HostBean>();
+			for (HostBean host : createHostBeans(c))
+				hosts.put(host.getId(), host);
+
+			c.close();
+
+			hostCache = hosts;
+		}
+
+		return hostCache;
+	}
+
+	/**
+	 * Touch a specific host to update its "last connected" field. The row is
+	 * written in the background.
 	 * @param nickname Nickname field of host to update
 	 */
 	public void touchHost(HostBean host) {
+		final long id = host.getId();
 		long now = System.currentTimeMillis() / 1000;
 
-		ContentValues values = new ContentValues();
+		final ContentValues values = new ContentValues();
 		values.put(FIELD_HOST_LASTCONNECT, now);
 
-		synchronized (dbLock) {
-			SQLiteDatabase db = this.getWritableDatabase();
+		HostBean changed = null;
 
-			db.update(TABLE_HOSTS, values, "_id = ?", new String[] { String.valueOf(host.getId()) });
+		synchronized (dbLock) {
+			HostBean cached = getHostCache().get(id);
+			if (cached != null) {
+				cached.setLastConnect(now);
+				changed = new HostBean(cached);
+			}
 		}
+
+		postWrite("lastconnect:" + id, new WriteBehindQueue.Update() {
+			public void run(SQLiteDatabase db) {
+				db.update(TABLE_HOSTS, values, "_id = ?", new String[] { String.valueOf(id) });
+			}
+		});
+
+		if (changed != null)
+			notifyHostChanged(changed);
 	}
 
 	/**
@@ -306,69 +464,163 @@ public class HostDatabase extends RobustSQLiteOpenHelper {
 		long id;
 
 		synchronized (dbLock) {
+			// keep the insert behind any updates that are still queued
+			flushWrites();
+
 			SQLiteDatabase db = this.getWritableDatabase();
 
 			id = db.insert(TABLE_HOSTS, null, host.getValues());
+
+			knownHosts = null;
+
+			host.setId(id);
+
+			if (hostCache != null && id >= 0)
+				hostCache.put(id, new HostBean(host));
 		}
 
-		host.setId(id);
+		if (id >= 0) {
+			List<HostBean> none = Collections.emptyList();
+			notifyHostsChanged(Collections.singletonList(new HostBean(host)), none, none);
+		}
 
 		return host;
 	}
 
 	/**
-	 * Update a field in a host record.
+	 * Update a field in a host record. The row is written in the background.
 	 */
 	public boolean updateFontSize(HostBean host) {
-		long id = host.getId();
+		final long id = host.getId();
 		if (id < 0)
 			return false;
 
-		ContentValues updates = new ContentValues();
+		final ContentValues updates = new ContentValues();
 		updates.put(FIELD_HOST_FONTSIZE, host.getFontSize());
 
+		HostBean changed = null;
+
 		synchronized (dbLock) {
-			SQLiteDatabase db = getWritableDatabase();
+			HostBean cached = getHostCache().get(id);
+			if (cached != null) {
+				cached.setFontSize(host.getFontSize());
+				changed = new HostBean(cached);
+			}
+		}
 
-			db.update(TABLE_HOSTS, updates, "_id = ?",
-					new String[] { String.valueOf(id) });
+		postWrite("fontsize:" + id, new WriteBehindQueue.Update() {
+			public void run(SQLiteDatabase db) {
+				db.update(TABLE_HOSTS, updates, "_id = ?",
+						new String[] { String.valueOf(id) });
+			}
+		});
 
-		}
+		if (changed != null)
+			notifyHostChanged(changed);
 
 		return true;
 	}
 
 	/**
-	 * Delete a specific host by its <code>_id</code> value.
+	 * Delete a specific host by its <code>_id</code> value. The row is
+	 * removed in the background.
 	 */
 	public void deleteHost(HostBean host) {
-		if (host.getId() < 0)
+		final long id = host.getId();
+		if (id < 0)
 			return;
 
+		HostBean removed;
+
 		synchronized (dbLock) {
-			SQLiteDatabase db = this.getWritableDatabase();
-			db.delete(TABLE_HOSTS, "_id = ?", new String[] { String.valueOf(host.getId()) });
+			removed = getHostCache().remove(id);
+			portForwardCache.remove(id);
+
+			knownHosts = null;
+		}
+
+		postWrite(null, new WriteBehindQueue.Update() {
+			public void run(SQLiteDatabase db) {
+				db.delete(TABLE_HOSTS, "_id = ?", new String[] { String.valueOf(id) });
+			}
+		});
+
+		if (removed != null) {
+			List<HostBean> none = Collections.emptyList();
+			notifyHostsChanged(none, none, Collections.singletonList(removed));
 		}
 	}
 
 	/**
-	 * Return a cursor that contains information about all known hosts.
+	 * Re-read a host from the database after it has been changed behind our
+	 * back, e.g. by the host editor, and tell the listeners about it.
+	 */
+	public void reloadHost(long hostId) {
+		HostBean host;
+
+		synchronized (dbLock) {
+			flushWrites();
+
+			SQLiteDatabase db = getReadableDatabase();
+
+			Cursor c = db.query(TABLE_HOSTS, null,
+					"_id = ?", new String[] { String.valueOf(hostId) },
+					null, null, null);
+
+			host = getFirstHostBean(c);
+
+			if (hostCache != null) {
+				if (host != null)
+					hostCache.put(hostId, new HostBean(host));
+				else
+					hostCache.remove(hostId);
+			}
+		}
+
+		if (host != null)
+			notifyHostChanged(host);
+	}
+
+	private static final Comparator<HostBean> NICKNAME_ORDER = new Comparator<HostBean>() {
+		public int compare(HostBean a, HostBean b) {
+			return compareNullsFirst(a.getNickname(), b.getNickname());
+		}
+	};
+
+	private static final Comparator<HostBean> COLOR_ORDER = new Comparator<HostBean>() {
+		public int compare(HostBean a, HostBean b) {
+			return compareNullsFirst(a.getColor(), b.getColor());
+		}
+	};
+
+	/**
+	 * Same order as an ascending ORDER BY on a text column.
+	 */
+	private static int compareNullsFirst(String a, String b) {
+		if (a == null)
+			return b == null ? 0 : -1;
+		if (b == null)
+			return 1;
+		return a.compareTo(b);
+	}
+
+	/**
+	 * Return a list of all known hosts.
 	 * @param sortColors If true, sort by color, otherwise sort by nickname.
 	 */
 	public List<HostBean> getHosts(boolean sortColors) {
-		String sortField = sortColors ? FIELD_HOST_COLOR : FIELD_HOST_NICKNAME;
 		List<HostBean> hosts;
 
 		synchronized (dbLock) {
-			SQLiteDatabase db = this.getReadableDatabase();
+			Map<Long, HostBean> cache = getHostCache();
 
-			Cursor c = db.query(TABLE_HOSTS, null, null, null, null, null, sortField + " ASC");
-
-			hosts = createHostBeans(c);
-
-			c.close();
+			hosts = new ArrayList<HostBean>(cache.size());
+			for (HostBean host : cache.values())
+				hosts.add(new HostBean(host));
 		}
 
+		Collections.sort(hosts, sortColors ? COLOR_ORDER : NICKNAME_ORDER);
+
 		return hosts;
 	}
 
@@ -451,54 +703,52 @@ public class HostDatabase extends RobustSQLiteOpenHelper {
 	}
 
 	/**
-	 * @param nickname
-	 * @param protocol
-	 * @param username
-	 * @param hostname
-	 * @param hostname2
-	 * @param port
-	 * @return
+	 * @param host
+	 * @param field
+	 * @return value of the given column as it would be compared by SQLite
 	 */
-	public HostBean findHost(Map<String, String> selection) {
-		StringBuilder selectionBuilder = new StringBuilder();
-
-		Iterator<Entry<String, String>> i = selection.entrySet().iterator();
-
-		List<String> selectionValuesList = new LinkedList<String>();
-		int n = 0;
-		while (i.hasNext()) {
-			Entry<String, String> entry = i.next();
-
-			if (entry.getValue() == null)
-				continue;
-
-			if (n++ > 0)
-				selectionBuilder.append(" AND ");
-
-			selectionBuilder.append(entry.getKey())
-				.append(" = ?");
-
-			selectionValuesList.add(entry.getValue());
-		}
+	private static String getHostField(HostBean host, String field) {
+		if (FIELD_HOST_NICKNAME.equals(field))
+			return host.getNickname();
+		else if (FIELD_HOST_PROTOCOL.equals(field))
+			return host.getProtocol();
+		else if (FIELD_HOST_USERNAME.equals(field))
+			return host.getUsername();
+		else if (FIELD_HOST_HOSTNAME.equals(field))
+			return host.getHostname();
+		else if (FIELD_HOST_PORT.equals(field))
+			return String.valueOf(host.getPort());
+		else
+			return host.getValues().getAsString(field);
+	}
 
-		String selectionValues[] = new String[selectionValuesList.size()];
-		selectionValuesList.toArray(selectionValues);
-		selectionValuesList = null;
+	/**
+	 * Find the first host whose columns equal all non-null values of the
+	 * given selection.
+	 * @param selection map of column names to values
+	 * @return copy of the matching host or null
+	 */
+	public HostBean findHost(Map<String, String> selection) {
+		synchronized (dbLock) {
+			for (HostBean host : getHostCache().values()) {
+				boolean matches = true;
 
-		HostBean host;
+				Iterator<Entry<String, String>> i = selection.entrySet().iterator();
+				while (matches && i.hasNext()) {
+					Entry<String, String> entry = i.next();
 
-		synchronized (dbLock) {
-			SQLiteDatabase db = getReadableDatabase();
+					if (entry.getValue() == null)
+						continue;
 
-			Cursor c = db.query(TABLE_HOSTS, null,
-					selectionBuilder.toString(),
-					selectionValues,
-					null, null, null);
+					matches = entry.getValue().equals(getHostField(host, entry.getKey()));
+				}
 
-			host = getFirstHostBean(c);
+				if (matches)
+					return new HostBean(host);
+			}
 		}
 
-		return host;
+		return null;
 	}
 
 	/**
@@ -506,80 +756,128 @@ public class HostDatabase extends RobustSQLiteOpenHelper {
 	 * @return
 	 */
 	public HostBean findHostById(long hostId) {
-		HostBean host;
-
 		synchronized (dbLock) {
-			SQLiteDatabase db = getReadableDatabase();
-
-			Cursor c = db.query(TABLE_HOSTS, null,
-					"_id = ?", new String[] { String.valueOf(hostId) },
-					null, null, null);
+			HostBean host = getHostCache().get(hostId);
 
-			host = getFirstHostBean(c);
+			return host == null ? null : new HostBean(host);
 		}
-
-		return host;
 	}
 
 	/**
-	 * Record the given hostkey into database under this nickname.
+	 * Record the given hostkey into database under this nickname. The index
+	 * and the cached hosts are updated right away, the rows are written in
+	 * the background.
 	 * @param hostname
 	 * @param port
 	 * @param hostkeyalgo
 	 * @param hostkey
 	 */
-	public void saveKnownHost(String hostname, int port, String hostkeyalgo, byte[] hostkey) {
-		ContentValues values = new ContentValues();
+	public void saveKnownHost(final String hostname, final int port, String hostkeyalgo, byte[] hostkey) {
+		final ContentValues values = new ContentValues();
 		values.put(FIELD_HOST_HOSTKEYALGO, hostkeyalgo);
 		values.put(FIELD_HOST_HOSTKEY, hostkey);
 
+		postWrite("hostkey:" + hostname + ":" + port, new WriteBehindQueue.Update() {
+			public void run(SQLiteDatabase db) {
+				db.update(TABLE_HOSTS, values,
+						FIELD_HOST_HOSTNAME + " = ? AND " + FIELD_HOST_PORT + " = ?",
+						new String[] { hostname, String.valueOf(port) });
+				Log.d(TAG, String.format("Finished saving hostkey information for '%s'", hostname));
+			}
+		});
+
+		List<HostBean> changed = new LinkedList<HostBean>();
+
 		synchronized (dbLock) {
-			SQLiteDatabase db = getReadableDatabase();
+			if (knownHosts != null) {
+				// every row for this host:port now carries the new key
+				String name = String.format("%s:%d", hostname, port);
+				knownHosts.removeHostkeys(name);
+				try {
+					knownHosts.addHostkey(new String[] { name }, hostkeyalgo, hostkey);
+				} catch (Exception e) {
+					Log.e(TAG, "Problem while adding a known host to the index", e);
+					knownHosts = null;
+				}
+			}
+
+			if (hostCache != null) {
+				for (HostBean host : hostCache.values()) {
+					if (host.getPort() == port && hostname.equals(host.getHostname())) {
+						host.setHostKeyAlgo(hostkeyalgo);
+						host.setHostKey(hostkey);
+						changed.add(new HostBean(host));
+					}
+				}
+			}
+		}
+
+		if (!changed.isEmpty()) {
+			List<HostBean> none = Collections.emptyList();
+			notifyHostsChanged(none, changed, none);
+		}
+	}
 
-			db.update(TABLE_HOSTS, values,
-					FIELD_HOST_HOSTNAME + " = ? AND " + FIELD_HOST_PORT + " = ?",
-					new String[] { hostname, String.valueOf(port) });
-			Log.d(TAG, String.format("Finished saving hostkey information for '%s'", hostname));
+	/**
+	 * Drop the known hosts index, e.g. after hostnames or ports have been
+	 * edited. It is rebuilt on the next call to {@link #getKnownHosts()}.
+	 */
+	public static void invalidateKnownHosts() {
+		synchronized (dbLock) {
+			knownHosts = null;
 		}
 	}
 
 	/**
-	 * Build list of known hosts for Trilead library.
+	 * Get the index of known hosts for Trilead library. It is built from the
+	 * database on first use and kept up to date by {@link #saveKnownHost}.
 	 * @return
 	 */
 	public KnownHosts getKnownHosts() {
-		KnownHosts known = new KnownHosts();
-
 		synchronized (dbLock) {
-			SQLiteDatabase db = this.getReadableDatabase();
-			Cursor c = db.query(TABLE_HOSTS, new String[] { FIELD_HOST_HOSTNAME,
-					FIELD_HOST_PORT, FIELD_HOST_HOSTKEYALGO, FIELD_HOST_HOSTKEY },
-					null, null, null, null, null);
+			if (knownHosts == null)
+				knownHosts = loadKnownHosts();
+
+			return knownHosts;
+		}
+	}
 
-			if (c != null) {
-				int COL_HOSTNAME = c.getColumnIndexOrThrow(FIELD_HOST_HOSTNAME),
-					COL_PORT = c.getColumnIndexOrThrow(FIELD_HOST_PORT),
-					COL_HOSTKEYALGO = c.getColumnIndexOrThrow(FIELD_HOST_HOSTKEYALGO),
-					COL_HOSTKEY = c.getColumnIndexOrThrow(FIELD_HOST_HOSTKEY);
+	/**
+	 * Read all saved host keys. Caller must hold dbLock.
+	 */
+	private KnownHosts loadKnownHosts() {
+		KnownHosts known = new KnownHosts();
 
-				while (c.moveToNext()) {
-					String hostname = c.getString(COL_HOSTNAME),
-						hostkeyalgo = c.getString(COL_HOSTKEYALGO);
-					int port = c.getInt(COL_PORT);
-					byte[] hostkey = c.getBlob(COL_HOSTKEY);
+		flushWrites();
 
-					if (hostkeyalgo == null || hostkeyalgo.length() == 0) continue;
-					if (hostkey == null || hostkey.length == 0) continue;
+		SQLiteDatabase db = this.getReadableDatabase();
+		Cursor c = db.query(TABLE_HOSTS, new String[] { FIELD_HOST_HOSTNAME,
+				FIELD_HOST_PORT, FIELD_HOST_HOSTKEYALGO, FIELD_HOST_HOSTKEY },
+				null, null, null, null, null);
 
-					try {
-						known.addHostkey(new String[] { String.format("%s:%d", hostname, port) }, hostkeyalgo, hostkey);
-					} catch(Exception e) {
-						Log.e(TAG, "Problem while adding a known host from database", e);
-					}
-				}
+		if (c != null) {
+			int COL_HOSTNAME = c.getColumnIndexOrThrow(FIELD_HOST_HOSTNAME),
+				COL_PORT = c.getColumnIndexOrThrow(FIELD_HOST_PORT),
+				COL_HOSTKEYALGO = c.getColumnIndexOrThrow(FIELD_HOST_HOSTKEYALGO),
+				COL_HOSTKEY = c.getColumnIndexOrThrow(FIELD_HOST_HOSTKEY);
 
-				c.close();
+			while (c.moveToNext()) {
+				String hostname = c.getString(COL_HOSTNAME),
+					hostkeyalgo = c.getString(COL_HOSTKEYALGO);
+				int port = c.getInt(COL_PORT);
+				byte[] hostkey = c.getBlob(COL_HOSTKEY);
+
+				if (hostkeyalgo == null || hostkeyalgo.length() == 0) continue;
+				if (hostkey == null || hostkey.length == 0) continue;
+
+				try {
+					known.addHostkey(new String[] { String.format("%s:%d", hostname, port) }, hostkeyalgo, hostkey);
+				} catch(Exception e) {
+					Log.e(TAG, "Problem while adding a known host from database", e);
+				}
 			}
+
+			c.close();
 		}
 
 		return known;
@@ -595,19 +893,78 @@ public class HostDatabase extends RobustSQLiteOpenHelper {
 		ContentValues values = new ContentValues();
 		values.put(FIELD_HOST_PUBKEYID, PUBKEYID_ANY);
 
+		List<HostBean> changed = new LinkedList<HostBean>();
+
 		synchronized (dbLock) {
 			SQLiteDatabase db = this.getWritableDatabase();
 
 			db.update(TABLE_HOSTS, values, FIELD_HOST_PUBKEYID + " = ?", new String[] { String.valueOf(pubkeyId) });
+
+			for (HostBean host : getHostCache().values()) {
+				if (host.getPubkeyId() == pubkeyId) {
+					host.setPubkeyId(PUBKEYID_ANY);
+					changed.add(new HostBean(host));
+				}
+			}
 		}
 
 		Log.d(TAG, String.format("Set all hosts using pubkey id %d to -1", pubkeyId));
+
+		if (!changed.isEmpty()) {
+			List<HostBean> none = Collections.emptyList();
+			notifyHostsChanged(none, changed, none);
+		}
 	}
 
 	/*
 	 * Methods for dealing with port forwards attached to hosts
 	 */
 
+	private static PortForwardBean copyOf(PortForwardBean pfb) {
+		return new PortForwardBean(pfb.getId(), pfb.getHostId(), pfb.getNickname(),
+				pfb.getType(), pfb.getSourcePort(), pfb.getDestAddr(), pfb.getDestPort());
+	}
+
+	/**
+	 * Load the port forwards of a host into the cache if that has not
+	 * happened yet. Caller must hold dbLock.
+	 */
+	private List<PortForwardBean> getCachedPortForwards(long hostId) {
+		List<PortForwardBean> portForwards = portForwardCache.get(hostId);
+		if (portForwards != null)
+			return portForwards;
+
+		portForwards = new ArrayList<PortForwardBean>();
+
+		flushWrites();
+
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		Cursor c = db.query(TABLE_PORTFORWARDS, new String[] {
+				"_id", FIELD_PORTFORWARD_NICKNAME, FIELD_PORTFORWARD_TYPE, FIELD_PORTFORWARD_SOURCEPORT,
+				FIELD_PORTFORWARD_DESTADDR, FIELD_PORTFORWARD_DESTPORT },
+				FIELD_PORTFORWARD_HOSTID + " = ?", new String[] { String.valueOf(hostId) },
+				null, null, null);
+
+		while (c.moveToNext()) {
+			PortForwardBean pfb = new PortForwardBean(
+				c.getInt(0),
+				hostId,
+				c.getString(1),
+				c.getString(2),
+				c.getInt(3),
+				c.getString(4),
+				c.getInt(5));
+			portForwards.add(pfb);
+		}
+
+		c.close();
+
+		portForwardCache.put(hostId, portForwards);
+
+		return portForwards;
+	}
+
 	/**
 	 * Returns a list of all the port forwards associated with a particular host ID.
 	 * @param host the host for which we want the port forward list
@@ -617,120 +974,159 @@ public class HostDatabase extends RobustSQLiteOpenHelper {
 		List<PortForwardBean> portForwards = new LinkedList<PortForwardBean>();
 
 		synchronized (dbLock) {
-			SQLiteDatabase db = this.getReadableDatabase();
-
-			Cursor c = db.query(TABLE_PORTFORWARDS, new String[] {
-					"_id", FIELD_PORTFORWARD_NICKNAME, FIELD_PORTFORWARD_TYPE, FIELD_PORTFORWARD_SOURCEPORT,
-					FIELD_PORTFORWARD_DESTADDR, FIELD_PORTFORWARD_DESTPORT },
-					FIELD_PORTFORWARD_HOSTID + " = ?", new String[] { String.valueOf(host.getId()) },
-					null, null, null);
-
-			while (c.moveToNext()) {
-				PortForwardBean pfb = new PortForwardBean(
-					c.getInt(0),
-					host.getId(),
-					c.getString(1),
-					c.getString(2),
-					c.getInt(3),
-					c.getString(4),
-					c.getInt(5));
-				portForwards.add(pfb);
-			}
-
-			c.close();
+			for (PortForwardBean pfb : getCachedPortForwards(host.getId()))
+				portForwards.add(copyOf(pfb));
 		}
 
 		return portForwards;
 	}
 
 	/**
-	 * Update the parameters of a port forward in the database.
+	 * Update the parameters of a port forward in the database. New port
+	 * forwards are inserted right away to get their id, changes to existing
+	 * ones are written in the background.
 	 * @param pfb {@link PortForwardBean} to save
 	 * @return true on success
 	 */
 	public boolean savePortForward(PortForwardBean pfb) {
-		boolean success = false;
+		boolean success = false, changed = false;
 
 		synchronized (dbLock) {
-			SQLiteDatabase db = getWritableDatabase();
+			List<PortForwardBean> cached = getCachedPortForwards(pfb.getHostId());
 
 			if (pfb.getId() < 0) {
+				SQLiteDatabase db = getWritableDatabase();
+
 				long id = db.insert(TABLE_PORTFORWARDS, null, pfb.getValues());
 				pfb.setId(id);
-				success = true;
-			} else {
-				if (db.update(TABLE_PORTFORWARDS, pfb.getValues(), "_id = ?", new String[] { String.valueOf(pfb.getId()) }) > 0)
+
+				if (id >= 0) {
+					cached.add(copyOf(pfb));
 					success = true;
+				}
+			} else {
+				for (int i = 0; i < cached.size(); i++) {
+					if (cached.get(i).getId() == pfb.getId()) {
+						cached.set(i, copyOf(pfb));
+						success = changed = true;
+						break;
+					}
+				}
 			}
 		}
 
+		if (changed) {
+			final long id = pfb.getId();
+			final ContentValues values = pfb.getValues();
+
+			postWrite("portforward:" + id, new WriteBehindQueue.Update() {
+				public void run(SQLiteDatabase db) {
+					db.update(TABLE_PORTFORWARDS, values, "_id = ?", new String[] { String.valueOf(id) });
+				}
+			});
+		}
+
 		return success;
 	}
 
 	/**
-	 * Deletes a port forward from the database.
+	 * Deletes a port forward from the database in the background.
 	 * @param pfb {@link PortForwardBean} to delete
 	 */
 	public void deletePortForward(PortForwardBean pfb) {
-		if (pfb.getId() < 0)
+		final long id = pfb.getId();
+		if (id < 0)
 			return;
 
 		synchronized (dbLock) {
-			SQLiteDatabase db = this.getWritableDatabase();
-			db.delete(TABLE_PORTFORWARDS, "_id = ?", new String[] { String.valueOf(pfb.getId()) });
+			List<PortForwardBean> cached = portForwardCache.get(pfb.getHostId());
+			if (cached != null) {
+				for (Iterator<PortForwardBean> i = cached.iterator(); i.hasNext();) {
+					if (i.next().getId() == id)
+						i.remove();
+				}
+			}
 		}
+
+		postWrite("portforward:" + id, new WriteBehindQueue.Update() {
+			public void run(SQLiteDatabase db) {
+				db.delete(TABLE_PORTFORWARDS, "_id = ?", new String[] { String.valueOf(id) });
+			}
+		});
 	}
 
-	public Integer[] getColorsForScheme(int scheme) {
-		Integer[] colors = Colors.defaults.clone();
+	/**
+	 * Load the colors of a scheme into the cache if that has not happened
+	 * yet. Caller must hold dbLock.
+	 */
+	private Integer[] getCachedColors(int scheme) {
+		Integer[] colors = colorCache.get(scheme);
+		if (colors != null)
+			return colors;
 
-		synchronized (dbLock) {
-			SQLiteDatabase db = getReadableDatabase();
+		colors = Colors.defaults.clone();
 
-			Cursor c = db.query(TABLE_COLORS, new String[] {
-					FIELD_COLOR_NUMBER, FIELD_COLOR_VALUE },
-					FIELD_COLOR_SCHEME + " = ?",
-					new String[] { String.valueOf(scheme) },
-					null, null, null);
+		flushWrites();
 
-			while (c.moveToNext()) {
-				colors[c.getInt(0)] = Integer.valueOf(c.getInt(1));
-			}
+		SQLiteDatabase db = getReadableDatabase();
 
-			c.close();
+		Cursor c = db.query(TABLE_COLORS, new String[] {
+				FIELD_COLOR_NUMBER, FIELD_COLOR_VALUE },
+				FIELD_COLOR_SCHEME + " = ?",
+				new String[] { String.valueOf(scheme) },
+				null, null, null);
+
+		while (c.moveToNext()) {
+			colors[c.getInt(0)] = Integer.valueOf(c.getInt(1));
 		}
 
+		c.close();
+
+		colorCache.put(scheme, colors);
+
 		return colors;
 	}
 
-	public void setColorForScheme(int scheme, int number, int value) {
-		final SQLiteDatabase db;
+	public Integer[] getColorsForScheme(int scheme) {
+		synchronized (dbLock) {
+			return getCachedColors(scheme).clone();
+		}
+	}
 
+	public void setColorForScheme(int scheme, int number, int value) {
 		final String[] whereArgs = new String[] { String.valueOf(scheme), String.valueOf(number) };
+		final String colorKey = "color:" + scheme + ":" + number;
 
-		if (value == Colors.defaults[number]) {
-			synchronized (dbLock) {
-				db = getWritableDatabase();
+		synchronized (dbLock) {
+			Integer[] colors = colorCache.get(scheme);
+			if (colors != null)
+				colors[number] = Integer.valueOf(value);
+		}
 
-				db.delete(TABLE_COLORS,
-						WHERE_SCHEME_AND_COLOR, whereArgs);
-			}
+		if (value == Colors.defaults[number]) {
+			postWrite(colorKey, new WriteBehindQueue.Update() {
+				public void run(SQLiteDatabase db) {
+					db.delete(TABLE_COLORS,
+							WHERE_SCHEME_AND_COLOR, whereArgs);
+				}
+			});
 		} else {
 			final ContentValues values = new ContentValues();
 			values.put(FIELD_COLOR_VALUE, value);
 
-			synchronized (dbLock) {
-				db = getWritableDatabase();
+			final ContentValues insertValues = new ContentValues(values);
+			insertValues.put(FIELD_COLOR_SCHEME, scheme);
+			insertValues.put(FIELD_COLOR_NUMBER, number);
 
-				final int rowsAffected = db.update(TABLE_COLORS, values,
-						WHERE_SCHEME_AND_COLOR, whereArgs);
+			postWrite(colorKey, new WriteBehindQueue.Update() {
+				public void run(SQLiteDatabase db) {
+					final int rowsAffected = db.update(TABLE_COLORS, values,
+							WHERE_SCHEME_AND_COLOR, whereArgs);
 
-				if (rowsAffected == 0) {
-					values.put(FIELD_COLOR_SCHEME, scheme);
-					values.put(FIELD_COLOR_NUMBER, number);
-					db.insert(TABLE_COLORS, null, values);
+					if (rowsAffected == 0)
+						db.insert(TABLE_COLORS, null, insertValues);
 				}
-			}
+			});
 		}
 	}
 
@@ -739,26 +1135,34 @@ public class HostDatabase extends RobustSQLiteOpenHelper {
 	}
 
 	public int[] getDefaultColorsForScheme(int scheme) {
-		int[] colors = new int[] { DEFAULT_FG_COLOR, DEFAULT_BG_COLOR };
-
 		synchronized (dbLock) {
-			SQLiteDatabase db = getReadableDatabase();
+			int[] colors = defaultColorCache.get(scheme);
 
-			Cursor c = db.query(TABLE_COLOR_DEFAULTS,
-					new String[] { FIELD_COLOR_FG, FIELD_COLOR_BG },
-					FIELD_COLOR_SCHEME + " = ?",
-					new String[] { String.valueOf(scheme) },
-					null, null, null);
+			if (colors == null) {
+				colors = new int[] { DEFAULT_FG_COLOR, DEFAULT_BG_COLOR };
+
+				flushWrites();
+
+				SQLiteDatabase db = getReadableDatabase();
 
-			if (c.moveToFirst()) {
-				colors[0] = c.getInt(0);
-				colors[1] = c.getInt(1);
+				Cursor c = db.query(TABLE_COLOR_DEFAULTS,
+						new String[] { FIELD_COLOR_FG, FIELD_COLOR_BG },
+						FIELD_COLOR_SCHEME + " = ?",
+						new String[] { String.valueOf(scheme) },
+						null, null, null);
+
+				if (c.moveToFirst()) {
+					colors[0] = c.getInt(0);
+					colors[1] = c.getInt(1);
+				}
+
+				c.close();
+
+				defaultColorCache.put(scheme, colors);
 			}
 
-			c.close();
+			return colors.clone();
 		}
-
-		return colors;
 	}
 
 	public int[] getGlobalDefaultColors() {
@@ -766,28 +1170,28 @@ public class HostDatabase extends RobustSQLiteOpenHelper {
 	}
 
 	public void setDefaultColorsForScheme(int scheme, int fg, int bg) {
-		SQLiteDatabase db;
-
-		String schemeWhere = null;
-		String[] whereArgs;
-
-		schemeWhere = FIELD_COLOR_SCHEME + " = ?";
-		whereArgs = new String[] { String.valueOf(scheme) };
+		final String schemeWhere = FIELD_COLOR_SCHEME + " = ?";
+		final String[] whereArgs = new String[] { String.valueOf(scheme) };
 
-		ContentValues values = new ContentValues();
+		final ContentValues values = new ContentValues();
 		values.put(FIELD_COLOR_FG, fg);
 		values.put(FIELD_COLOR_BG, bg);
 
+		final ContentValues insertValues = new ContentValues(values);
+		insertValues.put(FIELD_COLOR_SCHEME, scheme);
+
 		synchronized (dbLock) {
-			db = getWritableDatabase();
+			defaultColorCache.put(scheme, new int[] { fg, bg });
+		}
 
-			int rowsAffected = db.update(TABLE_COLOR_DEFAULTS, values,
-					schemeWhere, whereArgs);
+		postWrite("colordefaults:" + scheme, new WriteBehindQueue.Update() {
+			public void run(SQLiteDatabase db) {
+				int rowsAffected = db.update(TABLE_COLOR_DEFAULTS, values,
+						schemeWhere, whereArgs);
 
-			if (rowsAffected == 0) {
-				values.put(FIELD_COLOR_SCHEME, scheme);
-				db.insert(TABLE_COLOR_DEFAULTS, null, values);
+				if (rowsAffected == 0)
+					db.insert(TABLE_COLOR_DEFAULTS, null, insertValues);
 			}
-		}
+		});
 	}
 }
@@ -0,0 +1,118 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.util;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Password based key derivation for the private keys in
+ * {@link PubkeyDatabase}. The inner loops work on preallocated buffers, so
+ * the cost of an unlock is the hashing alone, no matter how many iterations
+ * are asked for.
+ */
+public final class KeyDerivation {
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private static final int DIGEST_LENGTH = 32;
+
+	private KeyDerivation() {
+	}
+
+	/**
+	 * The key derivation of {@link Encryptor}: starting with the password,
+	 * replace it <code>iterations</code> times by SHA-256(it || salt).
+	 *
+	 * @return 32 bytes of key material
+	 */
+	public static byte[] iteratedSha256(byte[] password, byte[] salt, int iterations)
+			throws GeneralSecurityException {
+		if (iterations < 1)
+			throw new IllegalArgumentException("iterations must be positive");
+
+		final MessageDigest sha = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		final byte[] hash = new byte[DIGEST_LENGTH];
+
+		sha.update(password);
+		sha.update(salt);
+		sha.digest(hash, 0, DIGEST_LENGTH);
+
+		for (int i = 1; i < iterations; i++) {
+			sha.update(hash);
+			sha.update(salt);
+			sha.digest(hash, 0, DIGEST_LENGTH);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * PBKDF2 with HMAC-SHA256 as specified by RFC 2898. Implemented here
+	 * because older platforms only provide it with HMAC-SHA1.
+	 *
+	 * @param length number of bytes to derive
+	 * @return <code>length</code> bytes of key material
+	 */
+	public static byte[] pbkdf2HmacSha256(byte[] password, byte[] salt, int iterations, int length)
+			throws GeneralSecurityException {
+		if (iterations < 1)
+			throw new IllegalArgumentException("iterations must be positive");
+
+		final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+
+		// HMAC pads the key with zeros anyway, but SecretKeySpec refuses empty keys
+		mac.init(new SecretKeySpec(password.length > 0 ? password : new byte[1], MAC_ALGORITHM));
+
+		final byte[] out = new byte[length];
+		final byte[] block = new byte[4];
+		final byte[] u = new byte[DIGEST_LENGTH];
+		final byte[] t = new byte[DIGEST_LENGTH];
+
+		for (int index = 1, offset = 0; offset < length; index++, offset += DIGEST_LENGTH) {
+			block[0] = (byte) (index >>> 24);
+			block[1] = (byte) (index >>> 16);
+			block[2] = (byte) (index >>> 8);
+			block[3] = (byte) index;
+
+			mac.update(salt);
+			mac.update(block);
+			mac.doFinal(u, 0);
+			System.arraycopy(u, 0, t, 0, DIGEST_LENGTH);
+
+			for (int i = 1; i < iterations; i++) {
+				mac.update(u);
+				mac.doFinal(u, 0);
+
+				for (int j = 0; j < DIGEST_LENGTH; j++)
+					t[j] ^= u[j];
+			}
+
+			System.arraycopy(t, 0, out, offset, Math.min(DIGEST_LENGTH, length - offset));
+		}
+
+		Arrays.fill(u, (byte) 0x00);
+		Arrays.fill(t, (byte) 0x00);
+
+		return out;
+	}
+}
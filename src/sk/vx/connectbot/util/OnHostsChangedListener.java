@@ -0,0 +1,31 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.util;
+
+import java.util.List;
+
+import sk.vx.connectbot.bean.HostBean;
+
+/**
+ * Receives the changes made to the hosts table through {@link HostDatabase}.
+ * Called on the thread that made the change, which may not be the UI thread.
+ * The lists hold copies of the affected hosts and are never null.
+ */
+public interface OnHostsChangedListener {
+	public void onHostsChanged(List<HostBean> added, List<HostBean> changed, List<HostBean> removed);
+}
@@ -72,6 +72,12 @@ public class PreferenceConstants {
 
 	public static final String WIFI_LOCK = "wifilock";
 
+	public static final String INPUT_DELAY = "input_delay";
+
+	public static final String SSH_KEEPALIVE = "ssh_keepalive";
+
+	public static final String PREDICTIVE_ECHO = "predictive_echo";
+
 	public static final String BUMPY_ARROWS = "bumpyarrows";
 
 	public static final String EULA = "eula";
@@ -95,6 +101,11 @@ public class PreferenceConstants {
 	public static final String EXTENDED_LONGPRESS = "extended_longpress";
 	public static final String SCREEN_CAPTURE_POPUP = "screen_capture_popup";
 	public static final String SCREEN_CAPTURE_FOLDER = "screen_capture_folder";
+	public static final String SESSION_LOG = "session_log";
+	public static final String SESSION_LOG_FOLDER = "session_log_folder";
+	public static final String SESSION_LOG_GZIP = "session_log_gzip";
+	public static final String SESSION_LOG_MAX_SIZE = "session_log_max_size";
+	public static final String SESSION_RECORD = "session_record";
 	public static final String DEFAULT_FONT_SIZE_HEIGHT = "default_fsize_height";
 	public static final String DEFAULT_FONT_SIZE_WIDTH = "default_fsize_width";
 	public static final String DEFAULT_FONT_SIZE = "default_font_size";
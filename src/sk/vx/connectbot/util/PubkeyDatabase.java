@@ -55,6 +55,13 @@ public class PubkeyDatabase extends RobustSQLiteOpenHelper {
 
 	private Context context;
 
+	/*
+	 * Updates of existing keys are written behind through a connection that
+	 * is never closed. Every query flushes them first, as there is no cache.
+	 */
+	private static final Object writeLock = new Object();
+	private static WriteBehindQueue writes = null;
+
 	static {
 		addTableName(TABLE_PUBKEYS);
 	}
@@ -92,17 +99,49 @@ public class PubkeyDatabase extends RobustSQLiteOpenHelper {
 			}
 	}
 
+	private void postWrite(Object key, WriteBehindQueue.Update update) {
+		synchronized (writeLock) {
+			if (writes == null) {
+				Context appContext = context.getApplicationContext();
+				writes = new WriteBehindQueue("PubkeyDatabase writer",
+						new PubkeyDatabase(appContext != null ? appContext : context), writeLock);
+			}
+
+			writes.post(key, update);
+		}
+	}
+
+	/**
+	 * Write all pending updates now. Called before every query and when the
+	 * service shuts down.
+	 */
+	public static void flushWrites() {
+		WriteBehindQueue queue;
+
+		synchronized (writeLock) {
+			queue = writes;
+		}
+
+		if (queue != null)
+			queue.flush();
+	}
+
 	/**
-	 * Delete a specific host by its <code>_id</code> value.
+	 * Delete a specific host by its <code>_id</code> value. The row is
+	 * removed in the background.
 	 */
 	public void deletePubkey(PubkeyBean pubkey) {
 		HostDatabase hostdb = new HostDatabase(context);
 		hostdb.stopUsingPubkey(pubkey.getId());
 		hostdb.close();
 
-		SQLiteDatabase db = getWritableDatabase();
-		db.delete(TABLE_PUBKEYS, "_id = ?", new String[] { Long.toString(pubkey.getId()) });
-		db.close();
+		final String id = Long.toString(pubkey.getId());
+
+		postWrite("pubkey:" + id, new WriteBehindQueue.Update() {
+			public void run(SQLiteDatabase db) {
+				db.delete(TABLE_PUBKEYS, "_id = ?", new String[] { id });
+			}
+		});
 	}
 
 	/**
@@ -126,6 +165,8 @@ public class PubkeyDatabase extends RobustSQLiteOpenHelper {
 	}
 
 	private List<PubkeyBean> getPubkeys(String selection, String[] selectionArgs) {
+		flushWrites();
+
 		SQLiteDatabase db = getReadableDatabase();
 
 		List<PubkeyBean> pubkeys = new LinkedList<PubkeyBean>();
@@ -172,6 +213,8 @@ public class PubkeyDatabase extends RobustSQLiteOpenHelper {
 	 * @return
 	 */
 	public PubkeyBean findPubkeyById(long pubkeyId) {
+		flushWrites();
+
 		SQLiteDatabase db = getReadableDatabase();
 
 		Cursor c = db.query(TABLE_PUBKEYS, null,
@@ -215,6 +258,8 @@ public class PubkeyDatabase extends RobustSQLiteOpenHelper {
 	public List<CharSequence> allValues(String column) {
 		List<CharSequence> list = new LinkedList<CharSequence>();
 
+		flushWrites();
+
 		SQLiteDatabase db = this.getReadableDatabase();
 		Cursor c = db.query(TABLE_PUBKEYS, new String[] { "_id", column },
 				null, null, null, null, "_id ASC");
@@ -236,6 +281,8 @@ public class PubkeyDatabase extends RobustSQLiteOpenHelper {
 	public String getNickname(long id) {
 		String nickname = null;
 
+		flushWrites();
+
 		SQLiteDatabase db = this.getReadableDatabase();
 		Cursor c = db.query(TABLE_PUBKEYS, new String[] { "_id",
 				FIELD_PUBKEY_NICKNAME }, "_id = ?",
@@ -301,25 +348,36 @@ public class PubkeyDatabase extends RobustSQLiteOpenHelper {
 	*/
 
 	/**
+	 * Save a key. New keys are inserted right away to get their id, changes
+	 * to existing ones are written in the background.
 	 * @param pubkey
 	 */
 	public PubkeyBean savePubkey(PubkeyBean pubkey) {
-		SQLiteDatabase db = this.getWritableDatabase();
-		boolean success = false;
+		if (pubkey.getId() > 0) {
+			final String id = String.valueOf(pubkey.getId());
+			final ContentValues updates = pubkey.getValues();
 
-		ContentValues values = pubkey.getValues();
+			// should the row be gone, recreate it under the same id
+			final ContentValues values = pubkey.getValues();
+			values.put("_id", pubkey.getId());
 
-		if (pubkey.getId() > 0) {
-			values.remove("_id");
-			if (db.update(TABLE_PUBKEYS, values, "_id = ?", new String[] { String.valueOf(pubkey.getId()) }) > 0)
-				success = true;
-		}
+			postWrite("pubkey:" + id, new WriteBehindQueue.Update() {
+				public void run(SQLiteDatabase db) {
+					if (db.update(TABLE_PUBKEYS, updates, "_id = ?", new String[] { id }) == 0)
+						db.insert(TABLE_PUBKEYS, null, values);
+				}
+			});
 
-		if (!success) {
-			long id = db.insert(TABLE_PUBKEYS, null, pubkey.getValues());
-			pubkey.setId(id);
+			return pubkey;
 		}
 
+		flushWrites();
+
+		SQLiteDatabase db = this.getWritableDatabase();
+
+		long id = db.insert(TABLE_PUBKEYS, null, pubkey.getValues());
+		pubkey.setId(id);
+
 		db.close();
 
 		return pubkey;
@@ -72,6 +72,14 @@ public class PubkeyUtils {
 	// Number of iterations for password hashing. PKCS#5 recommends 1000
 	private static final int ITERATIONS = 1000;
 
+	// Keys encrypted with PBKDF2 start with this header, followed by the
+	// iteration count (4 bytes, big-endian), the salt and the ciphertext.
+	private static final byte[] PBKDF2_MAGIC = { 'C', 'B', 'K', '2' };
+	private static final int PBKDF2_SALT_SIZE = 16;
+	private static final int PBKDF2_ITERATIONS = 10000;
+	private static final int PBKDF2_MAX_ITERATIONS = 10000000;
+	private static final int PBKDF2_HEADER_SIZE = PBKDF2_MAGIC.length + 4 + PBKDF2_SALT_SIZE;
+
 	public static String formatKey(Key key){
 		String algo = key.getAlgorithm();
 		String fmt = key.getFormat();
@@ -91,23 +99,78 @@ public class PubkeyUtils {
 		return c.doFinal(data);
 	}
 
+	/**
+	 * Encrypt with AES-128, keyed by PBKDF2-HMAC-SHA256 of the secret.
+	 */
 	public static byte[] encrypt(byte[] cleartext, String secret) throws Exception {
-		byte[] salt = new byte[SALT_SIZE];
+		byte[] salt = new byte[PBKDF2_SALT_SIZE];
+		new SecureRandom().nextBytes(salt);
 
-		byte[] ciphertext = Encryptor.encrypt(salt, ITERATIONS, secret, cleartext);
+		byte[] pw = secret.getBytes("UTF-8");
+		byte[] keyAndIv = KeyDerivation.pbkdf2HmacSha256(pw, salt, PBKDF2_ITERATIONS, 32);
+		Arrays.fill(pw, (byte) 0x00);
 
-		byte[] complete = new byte[salt.length + ciphertext.length];
+		byte[] ciphertext = Encryptor.encrypt(keyAndIv, cleartext);
 
-		System.arraycopy(salt, 0, complete, 0, salt.length);
-		System.arraycopy(ciphertext, 0, complete, salt.length, ciphertext.length);
+		byte[] complete = new byte[PBKDF2_HEADER_SIZE + ciphertext.length];
+
+		System.arraycopy(PBKDF2_MAGIC, 0, complete, 0, PBKDF2_MAGIC.length);
+		int off = PBKDF2_MAGIC.length;
+		complete[off++] = (byte) (PBKDF2_ITERATIONS >>> 24);
+		complete[off++] = (byte) (PBKDF2_ITERATIONS >>> 16);
+		complete[off++] = (byte) (PBKDF2_ITERATIONS >>> 8);
+		complete[off++] = (byte) PBKDF2_ITERATIONS;
+		System.arraycopy(salt, 0, complete, off, salt.length);
+		System.arraycopy(ciphertext, 0, complete, PBKDF2_HEADER_SIZE, ciphertext.length);
 
-		Arrays.fill(salt, (byte) 0x00);
 		Arrays.fill(ciphertext, (byte) 0x00);
 
 		return complete;
 	}
 
+	private static byte[] decryptPbkdf2(byte[] complete, String secret) throws Exception {
+		int off = PBKDF2_MAGIC.length;
+		int iterations = ((complete[off] & 0xff) << 24) | ((complete[off + 1] & 0xff) << 16)
+				| ((complete[off + 2] & 0xff) << 8) | (complete[off + 3] & 0xff);
+		off += 4;
+
+		if (iterations < 1 || iterations > PBKDF2_MAX_ITERATIONS)
+			throw new InvalidKeyException("Unreasonable iteration count " + iterations);
+
+		byte[] salt = new byte[PBKDF2_SALT_SIZE];
+		System.arraycopy(complete, off, salt, 0, salt.length);
+
+		byte[] ciphertext = new byte[complete.length - PBKDF2_HEADER_SIZE];
+		System.arraycopy(complete, PBKDF2_HEADER_SIZE, ciphertext, 0, ciphertext.length);
+
+		byte[] pw = secret.getBytes("UTF-8");
+		byte[] keyAndIv = KeyDerivation.pbkdf2HmacSha256(pw, salt, iterations, 32);
+		Arrays.fill(pw, (byte) 0x00);
+
+		return Encryptor.decrypt(keyAndIv, ciphertext);
+	}
+
+	private static boolean isPbkdf2Format(byte[] complete) {
+		if (complete.length <= PBKDF2_HEADER_SIZE)
+			return false;
+
+		for (int i = 0; i < PBKDF2_MAGIC.length; i++)
+			if (complete[i] != PBKDF2_MAGIC[i])
+				return false;
+
+		return true;
+	}
+
 	public static byte[] decrypt(byte[] complete, String secret) throws Exception {
+		if (isPbkdf2Format(complete)) {
+			try {
+				return decryptPbkdf2(complete, secret);
+			} catch (Exception e) {
+				// Could also be an older key whose random salt starts with our header.
+				Log.d("decrypt", "Could not decrypt with PBKDF2", e);
+			}
+		}
+
 		try {
 			byte[] salt = new byte[SALT_SIZE];
 			byte[] ciphertext = new byte[complete.length - salt.length];
@@ -0,0 +1,184 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Collects database updates and writes them from a background thread, many
+ * at a time in a single transaction. A batch is written once no update has
+ * been posted for a short while, or when the oldest update has waited long
+ * enough, or when {@link #flush()} is called.
+ * <p>
+ * Updates are written in the order they were posted. An update posted with
+ * the same key as a pending one replaces it and moves to the end of the
+ * queue, so only the latest "last connected" time of a host hits the disk.
+ */
+public class WriteBehindQueue implements Runnable {
+	public final static String TAG = "ConnectBot.WriteBehindQueue";
+
+	/* Write once nothing has been posted for this long */
+	private final static long IDLE_DELAY = 250;
+
+	/* ... but never hold an update back longer than this */
+	private final static long MAX_DELAY = 2000;
+
+	/* ... or let a batch grow larger than this */
+	private final static int MAX_BATCH = 128;
+
+	public interface Update {
+		public void run(SQLiteDatabase db);
+	}
+
+	private final String name;
+	private final SQLiteOpenHelper helper;
+	private final Object lock;
+
+	private final LinkedHashMap<Object, Update> pending = new LinkedHashMap<Object, Update>();
+	private long firstPostTime, lastPostTime;
+
+	private Thread thread = null;
+
+	/**
+	 * @param name name of the writer thread
+	 * @param helper helper to write through; it is never closed
+	 * @param lock lock to hold while writing a batch
+	 */
+	public WriteBehindQueue(String name, SQLiteOpenHelper helper, Object lock) {
+		this.name = name;
+		this.helper = helper;
+		this.lock = lock;
+	}
+
+	/**
+	 * Queue an update.
+	 * @param key updates with equal keys replace each other, null for none
+	 * @param update the update to run
+	 */
+	public void post(Object key, Update update) {
+		if (key == null)
+			key = new Object();
+
+		synchronized (pending) {
+			long now = SystemClock.uptimeMillis();
+
+			if (pending.isEmpty())
+				firstPostTime = now;
+			lastPostTime = now;
+
+			pending.remove(key);
+			pending.put(key, update);
+
+			if (thread == null) {
+				thread = new Thread(this, name);
+				thread.setDaemon(true);
+				thread.start();
+			}
+
+			pending.notifyAll();
+		}
+	}
+
+	public int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * Write all pending updates on the calling thread and return when they
+	 * are on disk. Cheap when nothing is pending, so readers that bypass a
+	 * cache may call it before every query.
+	 */
+	public void flush() {
+		synchronized (lock) {
+			List<Update> batch;
+
+			synchronized (pending) {
+				if (pending.isEmpty())
+					return;
+
+				batch = new ArrayList<Update>(pending.values());
+				pending.clear();
+			}
+
+			try {
+				SQLiteDatabase db = helper.getWritableDatabase();
+
+				db.beginTransaction();
+				try {
+					for (Update update : batch) {
+						try {
+							update.run(db);
+						} catch (SQLiteException e) {
+							Log.e(TAG, "Dropping failed database update", e);
+						}
+					}
+
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+			} catch (SQLiteException e) {
+				Log.e(TAG, String.format("Could not write %d database updates", batch.size()), e);
+			}
+		}
+	}
+
+	public void run() {
+		while (true) {
+			synchronized (pending) {
+				while (true) {
+					long now = SystemClock.uptimeMillis();
+
+					if (pending.isEmpty()) {
+						waitForPost(0);
+						continue;
+					}
+
+					long due = Math.min(lastPostTime + IDLE_DELAY, firstPostTime + MAX_DELAY);
+					if (now >= due || pending.size() >= MAX_BATCH)
+						break;
+
+					waitForPost(due - now);
+				}
+			}
+
+			flush();
+		}
+	}
+
+	/**
+	 * Caller must hold the monitor of pending.
+	 */
+	private void waitForPost(long millis) {
+		try {
+			pending.wait(millis);
+		} catch (InterruptedException e) {
+			// keep going, there may be updates left to write
+		}
+	}
+}
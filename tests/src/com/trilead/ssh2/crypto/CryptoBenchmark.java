@@ -0,0 +1,192 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trilead.ssh2.crypto;
+
+import java.util.Arrays;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.trilead.ssh2.crypto.cipher.BlockCipher;
+import com.trilead.ssh2.crypto.cipher.BlockCipherFactory;
+import com.trilead.ssh2.crypto.digest.Digest;
+import com.trilead.ssh2.crypto.digest.DigestFactory;
+import com.trilead.ssh2.crypto.digest.MAC;
+
+/**
+ * Microbenchmarks for the crypto hot path: every cipher, MAC and digest in
+ * the tree, reported in ns/byte to logcat (tag "CryptoBenchmark"). Each
+ * measurement runs a warm-up phase first so the JIT has settled, then takes
+ * the best of several timed rounds over packet-sized buffers.
+ *
+ * Run with:
+ * adb shell am instrument -w -e class com.trilead.ssh2.crypto.CryptoBenchmark \
+ *     sk.vx.connectbot.tests/android.test.InstrumentationTestRunner
+ */
+public class CryptoBenchmark extends AndroidTestCase {
+	private static final String TAG = "CryptoBenchmark";
+
+	private static final int PACKET_SIZE = 32768;
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int MEASURE_ROUNDS = 5;
+	private static final int PACKETS_PER_ROUND = 64;
+
+	private static final String[] DIGESTS = { "MD5", "SHA1", "SHA256", "SHA512" };
+
+	/* Keeps the results alive so the work cannot be optimized away */
+	private static volatile int sink;
+
+	private interface Operation {
+		void run(byte[] data);
+	}
+
+	private static double measure(Operation op) {
+		byte[] data = new byte[PACKET_SIZE];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) i;
+
+		for (int round = 0; round < WARMUP_ROUNDS; round++)
+			for (int i = 0; i < PACKETS_PER_ROUND; i++)
+				op.run(data);
+
+		long best = Long.MAX_VALUE;
+
+		for (int round = 0; round < MEASURE_ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < PACKETS_PER_ROUND; i++)
+				op.run(data);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		return (double) best / ((long) PACKET_SIZE * PACKETS_PER_ROUND);
+	}
+
+	private static void report(String kind, String name, double nsPerByte) {
+		Log.i(TAG, String.format("%-7s %-24s %8.3f ns/byte", kind, name, nsPerByte));
+	}
+
+	private static Operation digestOperation(final Digest md) {
+		final byte[] out = new byte[md.getDigestLength()];
+
+		return new Operation() {
+			public void run(byte[] data) {
+				md.update(data, 0, data.length);
+				md.digest(out, 0);
+				sink += out[0];
+			}
+		};
+	}
+
+	public void testDigestProvidersMatchBundled() throws Exception {
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 7);
+
+		String[] bundled = { "MD5", "SHA1" };
+
+		for (String type : bundled) {
+			DigestFactory.setProviderEnabled(true);
+			Digest provider = DigestFactory.createDigest(type);
+			Digest providerMac = DigestFactory.createHMAC(type, data, 12);
+
+			DigestFactory.setProviderEnabled(false);
+			Digest fallback = DigestFactory.createDigest(type);
+			Digest fallbackMac = DigestFactory.createHMAC(type, data, 12);
+
+			DigestFactory.setProviderEnabled(true);
+
+			for (Digest[] pair : new Digest[][] { { provider, fallback }, { providerMac, fallbackMac } }) {
+				byte[] a = new byte[pair[0].getDigestLength()];
+				byte[] b = new byte[pair[1].getDigestLength()];
+
+				/* Twice, to check that the instances are reusable */
+				for (int i = 0; i < 2; i++) {
+					pair[0].update(data, 0, data.length - i);
+					pair[0].digest(a);
+					pair[1].update(data, 0, data.length - i);
+					pair[1].digest(b);
+
+					assertTrue(type + " provider and bundled implementation should agree",
+							Arrays.equals(a, b));
+				}
+			}
+		}
+	}
+
+	public void testBenchmarkDigests() throws Exception {
+		for (String type : DIGESTS) {
+			DigestFactory.setProviderEnabled(true);
+			report("digest", type + " (provider)", measure(digestOperation(DigestFactory.createDigest(type))));
+
+			if ("MD5".equals(type) || "SHA1".equals(type)) {
+				DigestFactory.setProviderEnabled(false);
+				report("digest", type + " (bundled)", measure(digestOperation(DigestFactory.createDigest(type))));
+				DigestFactory.setProviderEnabled(true);
+			}
+		}
+	}
+
+	public void testBenchmarkMacs() throws Exception {
+		final byte[] key = new byte[20];
+
+		for (final String type : MAC.getMacList()) {
+			for (boolean provider : new boolean[] { true, false }) {
+				DigestFactory.setProviderEnabled(provider);
+
+				final MAC mac = new MAC(type, key);
+				final byte[] out = new byte[mac.size()];
+
+				double result = measure(new Operation() {
+					int seq = 0;
+
+					public void run(byte[] data) {
+						mac.initMac(seq++);
+						mac.update(data, 0, data.length);
+						mac.getMac(out, 0);
+						sink += out[0];
+					}
+				});
+
+				report("mac", type + (provider ? " (provider)" : " (bundled)"), result);
+			}
+		}
+
+		DigestFactory.setProviderEnabled(true);
+	}
+
+	public void testBenchmarkCiphers() throws Exception {
+		for (String type : BlockCipherFactory.getDefaultCipherList()) {
+			byte[] key = new byte[BlockCipherFactory.getKeySize(type)];
+			byte[] iv = new byte[BlockCipherFactory.getBlockSize(type)];
+
+			final BlockCipher bc = BlockCipherFactory.createCipher(type, true, key, iv);
+			final int bs = bc.getBlockSize();
+			final byte[] out = new byte[PACKET_SIZE];
+
+			double result = measure(new Operation() {
+				public void run(byte[] data) {
+					for (int off = 0; off + bs <= data.length; off += bs)
+						bc.transformBlock(data, off, out, off);
+					sink += out[0];
+				}
+			});
+
+			report("cipher", type, result);
+		}
+	}
+}
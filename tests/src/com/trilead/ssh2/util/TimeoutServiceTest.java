@@ -0,0 +1,93 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trilead.ssh2.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.trilead.ssh2.util.TimeoutService.TimeoutToken;
+
+public class TimeoutServiceTest extends TestCase {
+	private final List<Integer> ran = new ArrayList<Integer>();
+
+	private Runnable record(final int id, final CountDownLatch done) {
+		return new Runnable() {
+			public void run() {
+				synchronized (ran) {
+					ran.add(id);
+				}
+				done.countDown();
+			}
+		};
+	}
+
+	public void testOrder() throws Exception {
+		CountDownLatch done = new CountDownLatch(4);
+		long now = System.currentTimeMillis();
+
+		TimeoutService.addTimeoutHandler(now + 300, record(3, done));
+		TimeoutService.addTimeoutHandler(now + 100, record(1, done));
+		TimeoutService.addTimeoutHandler(now + 200, record(2, done));
+		TimeoutService.addTimeoutHandler(now + 200, record(22, done));
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("[1, 2, 22, 3]", ran.toString());
+	}
+
+	public void testEarlierTimeoutWakesThread() throws Exception {
+		CountDownLatch late = new CountDownLatch(1);
+		CountDownLatch early = new CountDownLatch(1);
+		long now = System.currentTimeMillis();
+
+		TimeoutToken token = TimeoutService.addTimeoutHandler(now + 10000, record(2, late));
+		TimeoutService.addTimeoutHandler(now + 50, record(1, early));
+
+		assertTrue(early.await(2, TimeUnit.SECONDS));
+		TimeoutService.cancelTimeoutHandler(token);
+	}
+
+	public void testCancel() throws Exception {
+		CountDownLatch done = new CountDownLatch(1);
+		long now = System.currentTimeMillis();
+
+		TimeoutToken token = TimeoutService.addTimeoutHandler(now + 50, record(1, new CountDownLatch(1)));
+		TimeoutService.addTimeoutHandler(now + 150, record(2, done));
+		TimeoutService.cancelTimeoutHandler(token);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("[2]", ran.toString());
+	}
+
+	public void testHandlerReschedules() throws Exception {
+		final CountDownLatch done = new CountDownLatch(3);
+
+		TimeoutService.addTimeoutHandler(System.currentTimeMillis() + 10, new Runnable() {
+			public void run() {
+				done.countDown();
+				if (done.getCount() > 0)
+					TimeoutService.addTimeoutHandler(System.currentTimeMillis() + 10, this);
+			}
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+}
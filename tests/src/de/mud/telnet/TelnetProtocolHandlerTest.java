@@ -0,0 +1,139 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.telnet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TelnetProtocolHandlerTest extends TestCase {
+	private static final byte IAC = (byte) 255;
+	private static final byte SB = (byte) 250;
+	private static final byte SE = (byte) 240;
+	private static final byte DO = (byte) 253;
+	private static final byte WILL = (byte) 251;
+	private static final byte TTYPE = 24;
+	private static final byte ECHO = 1;
+
+	private final ByteArrayOutputStream replies = new ByteArrayOutputStream();
+
+	private final TelnetProtocolHandler handler = new TelnetProtocolHandler() {
+		@Override
+		protected String getTerminalType() {
+			return "screen";
+		}
+
+		@Override
+		protected int[] getWindowSize() {
+			return new int[] { 80, 24 };
+		}
+
+		@Override
+		protected void setLocalEcho(boolean echo) {
+		}
+
+		@Override
+		protected void notifyEndOfRecord() {
+		}
+
+		@Override
+		protected void write(byte[] b) throws IOException {
+			replies.write(b);
+		}
+
+		@Override
+		protected String getCharsetName() {
+			return "UTF-8";
+		}
+	};
+
+	/**
+	 * Reads like the Telnet transport does, with the input arriving in
+	 * pieces of random size.
+	 */
+	private byte[] readAll(byte[] input, Random random, int bufferSize) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[bufferSize + 3];
+		int position = 0;
+
+		while (true) {
+			int n;
+			while ((n = handler.negotiate(buffer, 3, bufferSize)) >= 0)
+				if (n > 0)
+					data.write(buffer, 3, n);
+
+			if (position == input.length)
+				break;
+
+			int length = Math.min(input.length - position, 1 + random.nextInt(bufferSize));
+			System.arraycopy(input, position, buffer, 3, length);
+			position += length;
+
+			n = handler.negotiateInPlace(buffer, 3, length);
+			data.write(buffer, 3, n);
+		}
+
+		return data.toByteArray();
+	}
+
+	public void testCommandsRemovedFromData() throws Exception {
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		Random random = new Random(1);
+
+		for (int i = 0; i < 2000; i++) {
+			byte[] text = ("line " + i + "\r\n").getBytes("US-ASCII");
+			input.write(text);
+			expected.write(text);
+
+			switch (random.nextInt(4)) {
+			case 0:
+				/* escaped data byte */
+				input.write(new byte[] { IAC, IAC });
+				expected.write(IAC);
+				break;
+			case 1:
+				input.write(new byte[] { IAC, WILL, ECHO });
+				break;
+			case 2:
+				input.write(new byte[] { IAC, SB, TTYPE, 1, IAC, SE });
+				break;
+			}
+		}
+
+		for (int bufferSize : new int[] { 1, 7, 4096 }) {
+			replies.reset();
+			handler.reset();
+
+			byte[] data = readAll(input.toByteArray(), random, bufferSize);
+			assertTrue("buffer size " + bufferSize, Arrays.equals(expected.toByteArray(), data));
+		}
+	}
+
+	public void testRepliesToOptions() throws Exception {
+		byte[] input = { 'a', IAC, DO, TTYPE, 'b', IAC, SB, TTYPE, 1, IAC, SE, 'c' };
+
+		assertTrue(Arrays.equals("abc".getBytes("US-ASCII"), readAll(input, new Random(2), 2)));
+
+		byte[] expected = { IAC, WILL, TTYPE, IAC, SB, TTYPE, 0, 's', 'c', 'r', 'e', 'e', 'n', IAC, SE };
+		assertTrue(Arrays.equals(expected, replies.toByteArray()));
+	}
+}
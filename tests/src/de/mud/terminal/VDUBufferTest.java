@@ -0,0 +1,185 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import android.text.AndroidCharacter;
+
+import junit.framework.TestCase;
+
+public class VDUBufferTest extends TestCase {
+	private static vt320 newTerminal(int columns, int rows) {
+		vt320 buffer = new vt320(columns, rows) {
+			@Override
+			public void debug(String notice) {
+			}
+
+			@Override
+			public void write(byte[] b) {
+			}
+
+			@Override
+			public void write(int b) {
+			}
+		};
+		buffer.setDisplay(new VDUDisplay() {
+			public void redraw() {
+			}
+
+			public void updateScrollBar() {
+			}
+
+			public void setVDUBuffer(VDUBuffer buffer) {
+			}
+
+			public VDUBuffer getVDUBuffer() {
+				return null;
+			}
+
+			public void setColor(int index, int red, int green, int blue) {
+			}
+
+			public void resetColors() {
+			}
+		});
+		buffer.setBufferSize(1000);
+		return buffer;
+	}
+
+	private static String row(VDUBuffer buffer, int row) {
+		return new String(buffer.charArray[row]);
+	}
+
+	private static String screenRow(VDUBuffer buffer, int row) {
+		return row(buffer, buffer.screenBase + row);
+	}
+
+	public void testSameWidthKeepsRows() {
+		vt320 buffer = newTerminal(10, 4);
+		for (int i = 0; i < 6; i++)
+			buffer.putString("line " + i + "\r\n");
+
+		char[] cursorRow = buffer.charArray[buffer.screenBase + buffer.getCursorRow()];
+		char[] scrolled = buffer.charArray[0];
+		int reflows = buffer.getReflowCount();
+
+		buffer.setScreenSize(10, 6, false);
+
+		// lines come back from the scrollback and keep their rows
+		assertEquals(6, buffer.getRows());
+		assertSame(scrolled, buffer.charArray[0]);
+		assertSame(cursorRow, buffer.charArray[buffer.screenBase + buffer.getCursorRow()]);
+		assertEquals("line 5    ", screenRow(buffer, buffer.getCursorRow() - 1));
+		assertEquals(reflows, buffer.getReflowCount());
+
+		buffer.setScreenSize(10, 3, false);
+
+		assertSame(cursorRow, buffer.charArray[buffer.screenBase + buffer.getCursorRow()]);
+		assertEquals(2, buffer.getCursorRow());
+		assertEquals(3, buffer.charArray.length - buffer.screenBase);
+	}
+
+	public void testNarrower() {
+		vt320 buffer = newTerminal(10, 4);
+		buffer.putString("abcdefghijklmno\r\nxyz");
+
+		assertEquals("abcdefghij", screenRow(buffer, 0));
+		assertEquals("klmno     ", screenRow(buffer, 1));
+
+		buffer.setScreenSize(5, 4, false);
+
+		assertEquals("abcde", screenRow(buffer, 0));
+		assertEquals("fghij", screenRow(buffer, 1));
+		assertEquals("klmno", screenRow(buffer, 2));
+		assertEquals("xyz  ", screenRow(buffer, 3));
+		assertEquals(3, buffer.getCursorRow());
+		assertEquals(3, buffer.getCursorColumn());
+	}
+
+	public void testWider() {
+		vt320 buffer = newTerminal(5, 4);
+		buffer.putString("abcdefghijklmno\r\nxyz");
+
+		buffer.setScreenSize(10, 4, false);
+
+		assertEquals("abcdefghij", screenRow(buffer, 0));
+		assertEquals("klmno     ", screenRow(buffer, 1));
+		assertEquals("xyz       ", screenRow(buffer, 2));
+		assertEquals(2, buffer.getCursorRow());
+		assertEquals(3, buffer.getCursorColumn());
+
+		// rewrapped lines still wrap the same way
+		buffer.setScreenSize(5, 4, false);
+
+		assertEquals("abcde", screenRow(buffer, 0));
+		assertEquals("klmno", screenRow(buffer, 2));
+		assertEquals("xyz  ", screenRow(buffer, 3));
+	}
+
+	public void testWideCharacterNotSplit() {
+		vt320 buffer = newTerminal(6, 4);
+		char[] text = "ab一丁".toCharArray();
+		byte[] widths = new byte[] {
+			AndroidCharacter.EAST_ASIAN_WIDTH_NARROW, AndroidCharacter.EAST_ASIAN_WIDTH_NARROW,
+			AndroidCharacter.EAST_ASIAN_WIDTH_WIDE, AndroidCharacter.EAST_ASIAN_WIDTH_WIDE,
+		};
+		buffer.putString(text, widths, 0, text.length);
+
+		buffer.setScreenSize(3, 4, false);
+
+		assertEquals("ab ", screenRow(buffer, 0));
+		assertEquals('一', buffer.getChar(0, 1));
+		assertEquals('丁', buffer.getChar(0, 2));
+	}
+
+	public void testScrollbackRewrappedWhenScrolledTo() {
+		vt320 buffer = newTerminal(10, 4);
+		for (int i = 0; i < 100; i++)
+			buffer.putString("line " + i + " abcdefghij\r\n");
+		int reflows = buffer.getReflowCount();
+
+		buffer.setScreenSize(20, 4, false);
+
+		// only the screen is rewrapped right away
+		assertTrue(buffer.getBufferSize() < 10);
+		assertEquals(reflows + 1, buffer.getReflowCount());
+
+		buffer.setWindowBase(-1);
+
+		// the view moved along with the rows added above it
+		assertEquals(100 + 1, buffer.getBufferSize());
+		assertEquals(96, buffer.getWindowBase());
+		assertEquals("line 0 abcdefghij   ", row(buffer, 0));
+		assertEquals("line 99 abcdefghij  ", row(buffer, 99));
+		assertEquals(0, buffer.reflowScrollback());
+	}
+
+	public void testScrollbackLimit() {
+		vt320 buffer = newTerminal(10, 4);
+		buffer.setBufferSize(20);
+		for (int i = 0; i < 50; i++)
+			buffer.putString("line " + i + "\r\n");
+
+		buffer.setScreenSize(5, 4, false);
+		buffer.reflowScrollback();
+
+		assertEquals(20, buffer.getBufferSize());
+		assertEquals(20, buffer.charArray.length);
+		assertEquals("line ", screenRow(buffer, buffer.getCursorRow() - 2));
+		assertEquals("49   ", screenRow(buffer, buffer.getCursorRow() - 1));
+	}
+}
@@ -86,6 +86,19 @@ public class HostBeanTest extends AndroidTestCase {
 				host1.hashCode() == host2.hashCode());
 	}
 
+	public void testCopy() {
+		host1.setId(1);
+		host1.setFontSize(12);
+		HostBean copy = new HostBean(host1);
+		assertTrue(host1.equals(copy));
+		assertEquals(host1.getNickname(), copy.getNickname());
+		assertEquals(12, copy.getFontSize());
+
+		copy.setFontSize(14);
+		assertEquals("Changing a copy should not change the original",
+				12, host1.getFontSize());
+	}
+
 	public void testBeanMeetsEqualsContract() {
 		BeanTestCase.assertMeetsEqualsContract(HostBean.class, FIELDS);
 	}
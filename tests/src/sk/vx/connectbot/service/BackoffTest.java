@@ -0,0 +1,79 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class BackoffTest extends TestCase {
+	private static class FixedRandom extends Random {
+		private final double value;
+
+		FixedRandom(double value) {
+			this.value = value;
+		}
+
+		@Override
+		public double nextDouble() {
+			return value;
+		}
+	}
+
+	public void testDoubles() {
+		Backoff backoff = new Backoff(1000, 60000, new FixedRandom(0));
+
+		assertEquals(0, backoff.nextDelay());
+		assertEquals(1000, backoff.nextDelay());
+		assertEquals(2000, backoff.nextDelay());
+		assertEquals(4000, backoff.nextDelay());
+		assertEquals(4, backoff.getAttempts());
+	}
+
+	public void testLimit() {
+		Backoff backoff = new Backoff(1000, 60000, new FixedRandom(0));
+
+		for (int i = 0; i < 8; i++)
+			backoff.nextDelay();
+		assertEquals(60000, backoff.nextDelay());
+
+		for (int i = 0; i < 100; i++)
+			backoff.nextDelay();
+		assertEquals(60000, backoff.nextDelay());
+	}
+
+	public void testJitter() {
+		Backoff backoff = new Backoff(1000, 60000, new FixedRandom(0.99));
+
+		backoff.nextDelay();
+		long delay = backoff.nextDelay();
+		assertTrue(delay > 750 && delay <= 1000);
+	}
+
+	public void testReset() {
+		Backoff backoff = new Backoff(1000, 60000, new FixedRandom(0));
+
+		backoff.nextDelay();
+		backoff.nextDelay();
+		backoff.reset();
+
+		assertEquals(0, backoff.getAttempts());
+		assertEquals(0, backoff.nextDelay());
+		assertEquals(1000, backoff.nextDelay());
+	}
+}
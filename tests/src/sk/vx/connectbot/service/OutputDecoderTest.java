@@ -0,0 +1,91 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+public class OutputDecoderTest extends TestCase {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static String decode(OutputDecoder decoder, ByteBuffer in) {
+		CharBuffer out = CharBuffer.allocate(64);
+		decoder.decode(in, out);
+		out.flip();
+		return out.toString();
+	}
+
+	public void testAsciiCompatible() {
+		assertTrue(OutputDecoder.isAsciiCompatible(UTF8));
+		assertTrue(OutputDecoder.isAsciiCompatible(Charset.forName("ISO-8859-1")));
+		assertFalse(OutputDecoder.isAsciiCompatible(Charset.forName("UTF-16")));
+		assertFalse(OutputDecoder.isAsciiCompatible(Charset.forName("Shift_JIS")));
+	}
+
+	public void testMixed() {
+		String text = "\033[1mgrün\033[0m – 日本語 ok\r\n";
+		OutputDecoder decoder = new OutputDecoder(UTF8);
+		ByteBuffer in = ByteBuffer.wrap(text.getBytes(UTF8));
+
+		assertEquals(text, decode(decoder, in));
+		assertFalse(in.hasRemaining());
+	}
+
+	public void testCharacterSplitBetweenReads() {
+		byte[] bytes = "a日b".getBytes(UTF8);
+		OutputDecoder decoder = new OutputDecoder(UTF8);
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+
+		in.limit(3);
+		assertEquals("a", decode(decoder, in));
+		assertEquals(2, in.remaining());
+
+		in.limit(bytes.length);
+		assertEquals("日b", decode(decoder, in));
+		assertFalse(in.hasRemaining());
+	}
+
+	public void testCharacterCutShort() {
+		byte[] bytes = new byte[] { 'a', (byte) 0xe6, (byte) 0x97, 'b' };
+		OutputDecoder decoder = new OutputDecoder(UTF8);
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+
+		assertEquals("a�b", decode(decoder, in));
+		assertFalse(in.hasRemaining());
+	}
+
+	public void testOutputFull() {
+		OutputDecoder decoder = new OutputDecoder(UTF8);
+		ByteBuffer in = ByteBuffer.wrap("abcdé".getBytes(UTF8));
+		CharBuffer out = CharBuffer.allocate(3);
+
+		decoder.decode(in, out);
+		assertEquals(3, out.position());
+		assertEquals(3, in.remaining());
+	}
+
+	public void testOtherCharset() {
+		Charset utf16 = Charset.forName("UTF-16BE");
+		OutputDecoder decoder = new OutputDecoder(utf16);
+
+		assertEquals("ab日", decode(decoder, ByteBuffer.wrap("ab日".getBytes(utf16))));
+	}
+}
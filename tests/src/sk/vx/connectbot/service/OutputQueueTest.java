@@ -0,0 +1,79 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class OutputQueueTest extends TestCase {
+	public void testInOrder() throws Exception {
+		OutputQueue queue = new OutputQueue(2, 16);
+
+		OutputQueue.Chunk first = queue.obtain();
+		OutputQueue.Chunk second = queue.obtain();
+		queue.put(first);
+		queue.put(second);
+
+		assertSame(first, queue.take());
+		assertSame(second, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	public void testReaderWaitsForParser() throws Exception {
+		final OutputQueue queue = new OutputQueue(1, 16);
+		final OutputQueue.Chunk chunk = queue.obtain();
+		queue.put(chunk);
+
+		Thread parser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+					queue.recycle(queue.take());
+				} catch (Exception e) {
+				}
+			}
+		};
+		parser.start();
+
+		// no chunk is free until the parser is done with the one put
+		assertSame(chunk, queue.obtain());
+		parser.join();
+	}
+
+	public void testClose() throws Exception {
+		OutputQueue queue = new OutputQueue(2, 16);
+		OutputQueue.Chunk chunk = queue.obtain();
+		queue.put(chunk);
+
+		IOException reason = new IOException("closed");
+		queue.close(reason);
+		queue.close(new IOException("closed again"));
+
+		// what was read before is parsed still
+		assertNull(queue.obtain());
+		assertSame(chunk, queue.take());
+		try {
+			queue.take();
+			fail();
+		} catch (IOException e) {
+			assertSame(reason, e);
+		}
+	}
+}
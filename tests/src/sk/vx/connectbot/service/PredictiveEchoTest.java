@@ -0,0 +1,139 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import android.test.AndroidTestCase;
+import de.mud.terminal.vt320;
+
+public class PredictiveEchoTest extends AndroidTestCase {
+	private vt320 buffer;
+	private PredictiveEcho echo;
+	private long now;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		buffer = SessionReplayTest.newTerminal(40, 5);
+		echo = new PredictiveEcho();
+		now = 1000;
+	}
+
+	private void type(String text) {
+		for (int i = 0; i < text.length(); i++)
+			echo.keyTyped(buffer, text.charAt(i), now);
+	}
+
+	private void output(String text, long delay) {
+		now += delay;
+		buffer.putString(text);
+		echo.verify(buffer, now);
+	}
+
+	public void testEchoConfirms() {
+		output("$ ", 0);
+		type("ls");
+		assertEquals(2, echo.getPredictions().size());
+		assertEquals(4, echo.getCursorColumn(buffer));
+
+		output("ls", 200);
+		assertTrue(echo.getPredictions().isEmpty());
+		assertEquals(200, echo.getEchoTime());
+	}
+
+	public void testCharacterAloneDoesNotConfirm() {
+		output("$ ", 0);
+		type("l");
+
+		// the character is there, but the cursor didn't follow it yet
+		output("l\b", 200);
+		assertEquals(1, echo.getPredictions().size());
+
+		output("\033[C", 0);
+		assertTrue(echo.getPredictions().isEmpty());
+	}
+
+	public void testShownAfterFirstEcho() {
+		output("$ ", 0);
+		type("l");
+		assertFalse(echo.isShowing());
+
+		output("l", 200);
+		type("s");
+		assertTrue(echo.isShowing());
+
+		echo.unpredictable(true);
+		output("s\r\n$ ", 200);
+		type("x");
+		assertFalse(echo.isShowing());
+	}
+
+	public void testBackspaceAndCursor() {
+		output("$ ", 0);
+		type("ab");
+		echo.backspace(buffer, now);
+		echo.cursorMoved(buffer, -1, now);
+		assertEquals(2, echo.getCursorColumn(buffer));
+
+		output("ab\b \b\b", 200);
+		assertTrue(echo.getPredictions().isEmpty());
+	}
+
+	public void testWrongPredictionDropped() {
+		output("$ ", 0);
+		type("ab");
+		output("xyz", 200);
+		assertTrue(echo.getPredictions().isEmpty());
+
+		// resumes once the output caught up
+		type("c");
+		assertEquals(1, echo.getPredictions().size());
+	}
+
+	public void testNoEchoSuspends() {
+		output("$ ", 0);
+		type("ab");
+		output("", echo.getTimeout() + 1);
+		assertTrue(echo.getPredictions().isEmpty());
+
+		type("c");
+		assertTrue(echo.getPredictions().isEmpty());
+
+		echo.unpredictable(true);
+		output("\r\n$ ", 200);
+		type("d");
+		assertEquals(1, echo.getPredictions().size());
+	}
+
+	public void testPasswordPrompt() {
+		output("Password: ", 0);
+		type("secret");
+		assertTrue(echo.getPredictions().isEmpty());
+	}
+
+	public void testFullScreenApplication() {
+		output("\033[?1h", 0);
+		type("j");
+		assertTrue(echo.getPredictions().isEmpty());
+
+		echo.unpredictable(true);
+		output("\033[?1l\033[2;4r", 0);
+		type("j");
+		assertTrue(echo.getPredictions().isEmpty());
+	}
+}
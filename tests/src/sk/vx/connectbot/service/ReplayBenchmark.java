@@ -0,0 +1,168 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import android.os.Environment;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import de.mud.terminal.vt320;
+
+/**
+ * Replays session recordings into the terminal emulator as fast as it
+ * goes, reported in characters per second to logcat (tag "ReplayBenchmark").
+ * Uses synthetic traces resembling top, a full-screen editor and a compile
+ * log, plus any recordings found in vx-logs on the SD card. Each trace is
+ * replayed for warm-up first, then the best of several timed rounds counts.
+ *
+ * Run with:
+ * adb shell am instrument -w -e class sk.vx.connectbot.service.ReplayBenchmark \
+ *     sk.vx.connectbot.tests/android.test.InstrumentationTestRunner
+ */
+public class ReplayBenchmark extends AndroidTestCase {
+	private static final String TAG = "ReplayBenchmark";
+
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int MEASURE_ROUNDS = 5;
+
+	private static double measure(SessionReplay replay) throws InterruptedException {
+		for (int round = 0; round < WARMUP_ROUNDS; round++)
+			replay.replay(SessionReplayTest.newTerminal(replay.getColumns(), replay.getRows()), false);
+
+		long best = Long.MAX_VALUE;
+
+		for (int round = 0; round < MEASURE_ROUNDS; round++) {
+			vt320 buffer = SessionReplayTest.newTerminal(replay.getColumns(), replay.getRows());
+			long start = System.nanoTime();
+			replay.replay(buffer, false);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		return replay.getOutputLength() * 1e9 / best;
+	}
+
+	private static void report(String name, SessionReplay replay) throws InterruptedException {
+		Log.i(TAG, String.format("%-24s %9d chars %10.0f chars/s", name,
+				replay.getOutputLength(), measure(replay)));
+	}
+
+	/**
+	 * Build a recording from output chunks, one event each.
+	 */
+	private static SessionReplay cast(int columns, int rows, StringBuilder[] chunks) throws IOException {
+		StringBuilder cast = new StringBuilder();
+		cast.append("{\"version\": 2, \"width\": ").append(columns)
+				.append(", \"height\": ").append(rows).append("}\n");
+
+		for (int i = 0; i < chunks.length; i++) {
+			cast.append('[').append(i / 100.0).append(", \"o\", \"");
+			for (int j = 0; j < chunks[i].length(); j++) {
+				char c = chunks[i].charAt(j);
+				if (c == '"' || c == '\\')
+					cast.append('\\').append(c);
+				else if (c < 0x20)
+					cast.append(String.format("\\u%04x", (int) c));
+				else
+					cast.append(c);
+			}
+			cast.append("\"]\n");
+		}
+
+		return new SessionReplay(new ByteArrayInputStream(cast.toString().getBytes("UTF-8")));
+	}
+
+	private static StringBuilder[] chunks(int count) {
+		StringBuilder[] chunks = new StringBuilder[count];
+		for (int i = 0; i < count; i++)
+			chunks[i] = new StringBuilder();
+		return chunks;
+	}
+
+	/* Full screen redraws with cursor addressing and colors */
+	private static SessionReplay topTrace() throws IOException {
+		StringBuilder[] chunks = chunks(200);
+		for (int frame = 0; frame < chunks.length; frame++) {
+			StringBuilder out = chunks[frame];
+			out.append("\033[H\033[2Jtop - 12:00:").append(frame % 60)
+					.append(" up 3 days,  load average: 0.42, 0.37, 0.30\r\n");
+			out.append("\033[7m  PID USER      PR  NI    VIRT    RES  %CPU %MEM COMMAND          \033[m\r\n");
+			for (int row = 0; row < 21; row++)
+				out.append("\033[").append(row + 3).append(";1H")
+						.append(String.format("%5d root      20   0  %6d %6d %5.1f %4.1f process-%d",
+								1000 + row, 10000 + frame * row, 500 + row, (frame * row % 100) / 10.0,
+								row / 10.0, row))
+						.append("\033[K");
+		}
+		return cast(80, 24, chunks);
+	}
+
+	/* Editor scrolling inside a region, with inserted and deleted lines */
+	private static SessionReplay editorTrace() throws IOException {
+		StringBuilder[] chunks = chunks(500);
+		for (int i = 0; i < chunks.length; i++) {
+			StringBuilder out = chunks[i];
+			out.append("\033[1;23r\033[23;1H\n\033[r\033[23;1H\033[33m").append(i + 100)
+					.append("\033[m \033[1mint\033[m value = compute(\033[31m\"line ").append(i)
+					.append("\"\033[m);\033[K");
+			if (i % 10 == 0)
+				out.append("\033[10;1H\033[L\033[32m// comment ").append(i).append("\033[m\033[20;1H\033[M");
+			out.append("\033[24;1H\033[7m-- INSERT --\033[m\033[K\033[12;").append(i % 70 + 1).append('H');
+		}
+		return cast(80, 24, chunks);
+	}
+
+	/* Plain lines scrolling by, wider than the screen now and then */
+	private static SessionReplay compileTrace() throws IOException {
+		StringBuilder[] chunks = chunks(400);
+		for (int i = 0; i < chunks.length; i++) {
+			StringBuilder out = chunks[i];
+			for (int j = 0; j < 25; j++) {
+				out.append("gcc -O2 -Wall -c src/module").append(i).append('/').append(j)
+						.append(".c -o build/module").append(i).append('/').append(j).append(".o");
+				if (j % 7 == 0)
+					out.append(" -I include -I /usr/local/include -DNDEBUG -fPIC -pipe");
+				out.append("\r\n");
+			}
+		}
+		return cast(80, 24, chunks);
+	}
+
+	public void testSyntheticTraces() throws Exception {
+		report("top", topTrace());
+		report("editor", editorTrace());
+		report("compile", compileTrace());
+	}
+
+	public void testRecordedSessions() throws Exception {
+		File[] files = new File(Environment.getExternalStorageDirectory(), "vx-logs").listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.endsWith(SessionRecorder.EXTENSION)
+					&& !name.endsWith(SessionRecorder.EXTENSION + ".gz"))
+				continue;
+
+			report(name, SessionReplay.read(file));
+		}
+	}
+}
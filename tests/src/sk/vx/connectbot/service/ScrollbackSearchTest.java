@@ -0,0 +1,127 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import android.test.AndroidTestCase;
+import de.mud.terminal.VDUBuffer;
+import de.mud.terminal.VDUDisplay;
+import de.mud.terminal.vt320;
+
+public class ScrollbackSearchTest extends AndroidTestCase {
+	private vt320 buffer;
+	private ScrollbackSearch search;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		buffer = new vt320(40, 5) {
+			@Override
+			public void debug(String notice) {
+			}
+
+			@Override
+			public void write(byte[] b) {
+			}
+
+			@Override
+			public void write(int b) {
+			}
+		};
+		buffer.setDisplay(new VDUDisplay() {
+			public void redraw() {
+			}
+
+			public void updateScrollBar() {
+			}
+
+			public void setVDUBuffer(VDUBuffer buffer) {
+			}
+
+			public VDUBuffer getVDUBuffer() {
+				return null;
+			}
+
+			public void setColor(int index, int red, int green, int blue) {
+			}
+
+			public void resetColors() {
+			}
+		});
+		buffer.setBufferSize(100);
+
+		search = new ScrollbackSearch();
+
+		for (int i = 0; i < 50; i++)
+			buffer.putString((i % 10 == 3 ? "build failed: Error " + i : "line " + i) + "\r\n");
+	}
+
+	private int count(String text, boolean backward) {
+		ScrollbackSearch.Query query = ScrollbackSearch.Query.parse(text);
+		ScrollbackSearch.Match match = null;
+		int count = 0;
+
+		while ((match = search.find(buffer, query, match, backward)) != null)
+			count++;
+
+		return count;
+	}
+
+	public void testLiteral_IgnoresCase() {
+		assertEquals(5, count("error", true));
+		assertEquals(5, count("ERROR", false));
+		assertEquals(0, count("errors", true));
+	}
+
+	public void testRegex() {
+		assertEquals(2, count("/Error [14]3/", true));
+		assertEquals(50, count("/line|failed/", false));
+	}
+
+	public void testMostRecentFirst() {
+		ScrollbackSearch.Match match = search.find(buffer,
+				ScrollbackSearch.Query.parse("error"), null, true);
+
+		assertNotNull(match);
+		synchronized (buffer) {
+			int row = search.getRow(buffer, match);
+			assertEquals("build failed: Error 43",
+					new String(buffer.charArray[row]).trim());
+		}
+	}
+
+	public void testMatchVoidAfterReflow() {
+		ScrollbackSearch.Query query = ScrollbackSearch.Query.parse("error");
+		ScrollbackSearch.Match match = search.find(buffer, query, null, true);
+
+		buffer.setScreenSize(30, 5, false);
+
+		synchronized (buffer) {
+			assertEquals(-1, search.getRow(buffer, match));
+		}
+
+		// searching on from it starts over at the most recent match
+		match = search.find(buffer, query, match, true);
+		assertNotNull(match);
+		synchronized (buffer) {
+			int row = search.getRow(buffer, match);
+			assertEquals("build failed: Error 43",
+					new String(buffer.charArray[row]).trim());
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.zip.GZIPInputStream;
+
+import android.test.AndroidTestCase;
+
+public class SessionLoggerTest extends AndroidTestCase {
+	private File dir;
+	private TaskScheduler scheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		dir = new File(getContext().getCacheDir(), "session-log-test");
+		deleteLogs();
+		scheduler = new TaskScheduler("Test", 1, 1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		scheduler.shutdown();
+		deleteLogs();
+
+		super.tearDown();
+	}
+
+	private void deleteLogs() {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+	}
+
+	private String logAndRead(boolean gzip, String text) throws Exception {
+		SessionLogger logger = new SessionLogger(scheduler, dir, "test host", gzip, 0);
+		char[] chars = text.toCharArray();
+		for (int i = 0; i < chars.length; i += 100) {
+			char[] chunk = new char[Math.min(100, chars.length - i)];
+			System.arraycopy(chars, i, chunk, 0, chunk.length);
+			logger.log(chunk, chunk.length);
+		}
+		logger.close();
+
+		File[] files = null;
+		for (int tries = 0; tries < 50; tries++) {
+			Thread.sleep(100);
+			files = dir.listFiles();
+			if (files != null && files.length == 1 && scheduler.getMetrics().queuedTasks == 0
+					&& scheduler.getMetrics().busyThreads == 0)
+				break;
+		}
+		assertEquals(1, files.length);
+		assertEquals(gzip, files[0].getName().endsWith(".log.gz"));
+
+		InputStream in = new FileInputStream(files[0]);
+		if (gzip)
+			in = new GZIPInputStream(in);
+		Reader reader = new InputStreamReader(in, "UTF-8");
+
+		StringBuilder read = new StringBuilder();
+		char[] buffer = new char[1024];
+		int n;
+		while ((n = reader.read(buffer)) > 0)
+			read.append(buffer, 0, n);
+		reader.close();
+
+		return read.toString();
+	}
+
+	private static String sampleText() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			text.append("line ").append(i).append(" ä€\r\n");
+		return text.toString();
+	}
+
+	public void testPlain() throws Exception {
+		String text = sampleText();
+		assertEquals(text, logAndRead(false, text));
+	}
+
+	public void testGzip() throws Exception {
+		String text = sampleText();
+		assertEquals(text, logAndRead(true, text));
+	}
+
+	public void testPairSplitBetweenChunks() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 99; i++)
+			text.append('x');
+		text.append("\ud83d\ude00 ok\r\n");
+
+		assertEquals(text.toString(), logAndRead(false, text.toString()));
+	}
+}
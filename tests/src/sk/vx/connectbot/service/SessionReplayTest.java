@@ -0,0 +1,176 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import android.test.AndroidTestCase;
+import de.mud.terminal.VDUBuffer;
+import de.mud.terminal.VDUDisplay;
+import de.mud.terminal.vt320;
+
+public class SessionReplayTest extends AndroidTestCase {
+	private File dir;
+	private TaskScheduler scheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		dir = new File(getContext().getCacheDir(), "session-replay-test");
+		deleteRecordings();
+		scheduler = new TaskScheduler("Test", 1, 1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		scheduler.shutdown();
+		deleteRecordings();
+
+		super.tearDown();
+	}
+
+	private void deleteRecordings() {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+	}
+
+	static vt320 newTerminal(int columns, int rows) {
+		vt320 buffer = new vt320(columns, rows) {
+			@Override
+			public void debug(String notice) {
+			}
+
+			@Override
+			public void write(byte[] b) {
+			}
+
+			@Override
+			public void write(int b) {
+			}
+		};
+		buffer.setDisplay(new VDUDisplay() {
+			public void redraw() {
+			}
+
+			public void updateScrollBar() {
+			}
+
+			public void setVDUBuffer(VDUBuffer buffer) {
+			}
+
+			public VDUBuffer getVDUBuffer() {
+				return null;
+			}
+
+			public void setColor(int index, int red, int green, int blue) {
+			}
+
+			public void resetColors() {
+			}
+		});
+		buffer.setBufferSize(100);
+		return buffer;
+	}
+
+	private static String screen(vt320 buffer) {
+		StringBuilder screen = new StringBuilder();
+		for (int row = 0; row < buffer.getRows(); row++)
+			screen.append(buffer.charArray[buffer.screenBase + row]).append('\n');
+		return screen.toString();
+	}
+
+	private File recordAndWait(boolean gzip, String[] output, int resizeAfter) throws Exception {
+		SessionRecorder recorder = new SessionRecorder(scheduler, dir, "test host", gzip, 40, 10);
+		for (int i = 0; i < output.length; i++) {
+			recorder.record(output[i].toCharArray(), output[i].length());
+			if (i == resizeAfter)
+				recorder.recordResize(60, 12);
+		}
+		recorder.close();
+
+		File[] files = null;
+		for (int tries = 0; tries < 50; tries++) {
+			Thread.sleep(100);
+			files = dir.listFiles();
+			if (files != null && files.length == 1 && scheduler.getMetrics().queuedTasks == 0
+					&& scheduler.getMetrics().busyThreads == 0)
+				break;
+		}
+		assertEquals(1, files.length);
+		assertEquals(gzip, files[0].getName().endsWith(".cast.gz"));
+
+		return files[0];
+	}
+
+	private void roundTrip(boolean gzip) throws Exception {
+		String[] output = new String[200];
+		for (int i = 0; i < output.length; i++)
+			output[i] = "\033[1;3" + (i % 8) + "mline " + i + "\033[0m \"quoted\" \\ ä€\t|\r\n";
+
+		File file = recordAndWait(gzip, output, 100);
+		SessionReplay replay = SessionReplay.read(file);
+		assertEquals(40, replay.getColumns());
+		assertEquals(10, replay.getRows());
+
+		vt320 direct = newTerminal(40, 10);
+		vt320 replayed = newTerminal(replay.getColumns(), replay.getRows());
+
+		long length = 0;
+		for (int i = 0; i < output.length; i++) {
+			direct.putString(output[i]);
+			length += output[i].length();
+			if (i == 100)
+				direct.setScreenSize(60, 12, false);
+		}
+
+		replay.replay(replayed, false);
+
+		assertEquals(length, replay.getOutputLength());
+		assertEquals(60, replayed.getColumns());
+		assertEquals(screen(direct), screen(replayed));
+	}
+
+	public void testRoundTrip() throws Exception {
+		roundTrip(false);
+	}
+
+	public void testRoundTripGzip() throws Exception {
+		roundTrip(true);
+	}
+
+	public void testMalformed() throws Exception {
+		String[] recordings = {
+			"",
+			"{\"version\": 1, \"width\": 80, \"height\": 24}\n",
+			"{\"version\": 2, \"width\": 80, \"height\": 24}\n[0.5, \"o\", \"unterminated]\n",
+		};
+
+		for (String recording : recordings) {
+			try {
+				new SessionReplay(new ByteArrayInputStream(recording.getBytes("UTF-8")));
+				fail("Accepted " + recording);
+			} catch (IOException e) {
+			}
+		}
+	}
+}
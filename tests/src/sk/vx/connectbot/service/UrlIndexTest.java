@@ -0,0 +1,114 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import de.mud.terminal.vt320;
+
+public class UrlIndexTest extends AndroidTestCase {
+	private static List<String> scan(String text) {
+		List<String> urls = new ArrayList<String>();
+		UrlIndex.scanLine(text.toCharArray(), 0, text.length(), urls);
+		return urls;
+	}
+
+	public void testScanLine_Plain() {
+		List<String> urls = scan("see http://example.com/a?b=c#d and ftp://host:21/x");
+
+		assertEquals(2, urls.size());
+		assertEquals("http://example.com/a?b=c#d", urls.get(0));
+		assertEquals("ftp://host:21/x", urls.get(1));
+	}
+
+	public void testScanLine_TrailingPunctuation() {
+		List<String> urls = scan("(see http://example.com/a_(b).) or mailto:me@example.com, then");
+
+		assertEquals(2, urls.size());
+		assertEquals("http://example.com/a_(b)", urls.get(0));
+		assertEquals("mailto:me@example.com", urls.get(1));
+	}
+
+	public void testScanLine_NoScheme() {
+		assertTrue(scan("Note: time 12:30, path c:/tmp, bare http://").isEmpty());
+	}
+
+	private static void scroll(vt320 buffer, int lines) {
+		for (int i = 0; i < lines; i++)
+			buffer.putString("filler " + i + "\r\n");
+	}
+
+	public void testUpdate_Incremental() {
+		vt320 buffer = SessionReplayTest.newTerminal(40, 5);
+		UrlIndex index = new UrlIndex();
+
+		buffer.putString("first http://a.example/1\r\n");
+		scroll(buffer, 10);
+		index.update(buffer);
+
+		buffer.putString("second http://b.example/2\r\n");
+		scroll(buffer, 10);
+		index.update(buffer);
+
+		buffer.putString("on screen http://c.example/3\r\n");
+
+		List<String> urls = index.getUrls(buffer);
+		assertEquals(3, urls.size());
+		assertEquals("http://c.example/3", urls.get(0));
+		assertEquals("http://b.example/2", urls.get(1));
+		assertEquals("http://a.example/1", urls.get(2));
+	}
+
+	public void testUpdate_WrappedAcrossRows() {
+		vt320 buffer = SessionReplayTest.newTerminal(20, 5);
+		UrlIndex index = new UrlIndex();
+		String url = "http://example.com/a/long/path/over/rows";
+
+		buffer.putString("see " + url + " ok\r\n");
+
+		// the line is only partly in the scrollback when first indexed
+		scroll(buffer, 2);
+		index.update(buffer);
+		scroll(buffer, 10);
+
+		List<String> urls = index.getUrls(buffer);
+		assertEquals(1, urls.size());
+		assertEquals(url, urls.get(0));
+	}
+
+	public void testUpdate_PrunesScrolledOff() {
+		vt320 buffer = SessionReplayTest.newTerminal(40, 5);
+		buffer.setBufferSize(20);
+		UrlIndex index = new UrlIndex();
+
+		buffer.putString("gone http://old.example/\r\n");
+		scroll(buffer, 10);
+		index.update(buffer);
+		assertEquals(1, index.getUrls(buffer).size());
+
+		scroll(buffer, 30);
+		buffer.putString("kept http://new.example/\r\n");
+		scroll(buffer, 10);
+
+		List<String> urls = index.getUrls(buffer);
+		assertEquals(1, urls.size());
+		assertEquals("http://new.example/", urls.get(0));
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.transport;
+
+import sk.vx.connectbot.bean.HostBean;
+import sk.vx.connectbot.util.HostDatabase;
+
+import junit.framework.TestCase;
+
+import com.trilead.ssh2.Connection;
+
+public class ConnectionPoolTest extends TestCase {
+	private static HostBean newHost(String username, String hostname, int port) {
+		HostBean host = new HostBean();
+		host.setUsername(username);
+		host.setHostname(hostname);
+		host.setPort(port);
+		host.setUseAuthAgent(HostDatabase.AUTHAGENT_NO);
+		return host;
+	}
+
+	public void testKey() {
+		HostBean host = newHost("user", "example.com", 22);
+		assertEquals(ConnectionPool.getKey(host), ConnectionPool.getKey(newHost("user", "example.com", 22)));
+		assertFalse(ConnectionPool.getKey(host).equals(ConnectionPool.getKey(newHost("other", "example.com", 22))));
+		assertFalse(ConnectionPool.getKey(host).equals(ConnectionPool.getKey(newHost("user", "example.com", 2222))));
+
+		host.setUseAuthAgent(HostDatabase.AUTHAGENT_YES);
+		assertNull(ConnectionPool.getKey(host));
+	}
+
+	public void testSharing() {
+		ConnectionPool pool = new ConnectionPool();
+		Connection connection = new Connection("example.com");
+
+		assertNull(pool.acquire("key"));
+		assertTrue(pool.add("key", connection));
+
+		assertSame(connection, pool.acquire("key"));
+		assertSame(connection, pool.acquire("key"));
+		assertEquals(3, pool.getReferences("key"));
+
+		assertFalse(pool.release(connection));
+		assertFalse(pool.release(connection));
+		assertTrue(pool.release(connection));
+
+		assertEquals(0, pool.getReferences("key"));
+		assertNull(pool.acquire("key"));
+	}
+
+	public void testSecondConnectionNotPooled() {
+		ConnectionPool pool = new ConnectionPool();
+		Connection first = new Connection("example.com");
+		Connection second = new Connection("example.com");
+
+		assertTrue(pool.add("key", first));
+		assertFalse(pool.add("key", second));
+
+		// an unpooled connection is closed by its only user
+		assertTrue(pool.release(second));
+		assertEquals(1, pool.getReferences("key"));
+	}
+
+	public void testEvict() {
+		ConnectionPool pool = new ConnectionPool();
+		Connection old = new Connection("example.com");
+		Connection fresh = new Connection("example.com");
+
+		assertTrue(pool.add("key", old));
+		assertSame(old, pool.acquire("key"));
+
+		pool.evictAll();
+		assertNull(pool.acquire("key"));
+		assertTrue(pool.add("key", fresh));
+
+		// the users of the evicted connection still share it
+		assertFalse(pool.release(old));
+		assertTrue(pool.release(old));
+		assertEquals(1, pool.getReferences("key"));
+	}
+}
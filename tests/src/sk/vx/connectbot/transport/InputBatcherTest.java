@@ -0,0 +1,123 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.transport;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import sk.vx.connectbot.service.TaskScheduler;
+import android.test.AndroidTestCase;
+
+public class InputBatcherTest extends AndroidTestCase {
+	private static final long DELAY = 100;
+
+	private TaskScheduler scheduler;
+
+	/* Each write to the connection, as one packet would be */
+	private final List<String> packets = new ArrayList<String>();
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			synchronized (packets) {
+				packets.add(new String(b, off, len));
+			}
+		}
+	};
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		scheduler = new TaskScheduler("Test", 1, 1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		scheduler.shutdown();
+
+		super.tearDown();
+	}
+
+	private List<String> packets() {
+		synchronized (packets) {
+			return new ArrayList<String>(packets);
+		}
+	}
+
+	public void testFirstKeystrokeNotDelayed() throws Exception {
+		InputBatcher input = new InputBatcher(out, scheduler, DELAY);
+
+		input.write('a');
+		assertEquals(1, packets().size());
+		assertEquals("a", packets().get(0));
+	}
+
+	public void testBurstCoalesced() throws Exception {
+		InputBatcher input = new InputBatcher(out, scheduler, DELAY);
+
+		input.write('a');
+		input.write('b');
+		input.write("cd".getBytes(), 0, 2);
+		input.write('e');
+		assertEquals(1, packets().size());
+
+		Thread.sleep(DELAY * 3);
+
+		assertEquals(2, packets().size());
+		assertEquals("bcde", packets().get(1));
+	}
+
+	public void testFlush() throws Exception {
+		InputBatcher input = new InputBatcher(out, scheduler, DELAY);
+
+		input.write('a');
+		input.write('b');
+		input.flush();
+		assertEquals("b", packets().get(1));
+
+		Thread.sleep(DELAY * 3);
+		assertEquals(2, packets().size());
+	}
+
+	public void testPasteSentWhole() throws Exception {
+		InputBatcher input = new InputBatcher(out, scheduler, DELAY);
+		StringBuilder paste = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			paste.append("line ").append(i).append('\n');
+
+		input.write('a');
+		input.write(paste.toString().getBytes(), 0, paste.length());
+		assertEquals(2, packets().size());
+		assertEquals(paste.toString(), packets().get(1));
+	}
+
+	public void testNoDelay() throws Exception {
+		InputBatcher input = new InputBatcher(out, null, 0);
+
+		input.write('a');
+		input.write('b');
+		assertEquals(2, packets().size());
+	}
+}
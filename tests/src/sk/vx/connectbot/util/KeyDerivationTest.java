@@ -0,0 +1,52 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.vx.connectbot.util;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import android.test.AndroidTestCase;
+
+public class KeyDerivationTest extends AndroidTestCase {
+	public void testPbkdf2HmacSha256_Rfc7914Vector() throws Exception {
+		// RFC 7914, section 11
+		String expected = "55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc"
+				+ "49ca9cccf179b645991664b39d77ef317c71b845b1e30bd509112041d3a19783";
+
+		byte[] derived = KeyDerivation.pbkdf2HmacSha256("passwd".getBytes("UTF-8"),
+				"salt".getBytes("UTF-8"), 1, 64);
+
+		assertEquals("PBKDF2 should match known test vector",
+				expected, PubkeyUtils.encodeHex(derived));
+	}
+
+	public void testIteratedSha256_MatchesNaiveLoop() throws Exception {
+		byte[] salt = "saltsalt".getBytes("UTF-8");
+		byte[] pw = "secret".getBytes("UTF-8");
+
+		MessageDigest sha = MessageDigest.getInstance("SHA-256");
+		byte[] expected = pw;
+		for (int i = 0; i < 1000; i++) {
+			sha.update(expected);
+			expected = sha.digest(salt);
+		}
+
+		assertTrue("Iterated SHA-256 should match the naive loop",
+				Arrays.equals(expected, KeyDerivation.iteratedSha256(pw, salt, 1000)));
+	}
+}
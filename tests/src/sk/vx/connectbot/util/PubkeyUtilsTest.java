@@ -59,4 +59,26 @@ public class PubkeyUtilsTest extends AndroidTestCase {
 		assertTrue("Empty string should be equal to known test vector",
 				Arrays.equals(empty_hashed, PubkeyUtils.sha256(empty)));
 	}
+
+	public void testEncryptDecrypt_RoundTrip() throws Exception {
+		byte[] cleartext = "private key material".getBytes("UTF-8");
+
+		byte[] encrypted = PubkeyUtils.encrypt(cleartext, "secret");
+
+		assertTrue("Decrypting should give back the cleartext",
+				Arrays.equals(cleartext, PubkeyUtils.decrypt(encrypted, "secret")));
+	}
+
+	public void testDecrypt_LegacyFormat() throws Exception {
+		byte[] cleartext = "private key material".getBytes("UTF-8");
+		byte[] salt = new byte[8];
+
+		byte[] ciphertext = Encryptor.encrypt(salt, 1000, "secret", cleartext);
+		byte[] complete = new byte[salt.length + ciphertext.length];
+		System.arraycopy(salt, 0, complete, 0, salt.length);
+		System.arraycopy(ciphertext, 0, complete, salt.length, ciphertext.length);
+
+		assertTrue("Keys saved in the old format should still decrypt",
+				Arrays.equals(cleartext, PubkeyUtils.decrypt(complete, "secret")));
+	}
 }